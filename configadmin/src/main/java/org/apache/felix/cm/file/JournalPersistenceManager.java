@@ -0,0 +1,1253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.felix.cm.PersistenceManager;
+import org.osgi.framework.Constants;
+
+
+/**
+ * The <code>JournalPersistenceManager</code> class stores configuration data
+ * in a segmented, append-only journal inside a given directory instead of
+ * using one file per configuration like the {@link FilePersistenceManager}.
+ * <p>
+ * Each change to a configuration appends a record to the active segment file
+ * (<code>journal-&lt;n&gt;.log</code>). A record consists of the record
+ * length, a CRC32 checksum, the record type (store or delete), the PID and,
+ * for store records, the configuration data in the format written by the
+ * {@link ConfigurationHandler}. The active segment is rolled over once it
+ * exceeds the configured segment size.
+ * <p>
+ * An in-memory index maps each PID to the location of its most recent record.
+ * The index is rebuilt when the journal is opened by replaying all segments
+ * in order. A partially written record at the end of the last segment, for
+ * example caused by a crash, is detected through the checksum and is
+ * truncated.
+ * <p>
+ * <b>Group Commit</b>
+ * <p>
+ * Records are not written by the calling thread directly but added to a
+ * pending batch. The first thread to acquire the commit lock writes all
+ * pending records with a single write and forces them to disk with a single
+ * <code>fsync</code> on behalf of all waiting threads. The
+ * {@link #store(String, Dictionary)} and {@link #delete(String)} methods only
+ * return after their record has been forced to disk.
+ * <p>
+ * <b>Compaction</b>
+ * <p>
+ * Records superseded by later store or delete records are garbage. If the
+ * garbage exceeds both the live data and the segment size when the active
+ * segment is rolled over, a background thread copies the live records of
+ * all segments but the new active one into a snapshot segment and removes
+ * these segments afterwards. Commits continue to be written to the new
+ * active segment while the snapshot is written. A snapshot segment is
+ * flagged in its header, such that old segments which could not be removed
+ * before a crash are ignored when the journal is replayed. A failed
+ * compaction is retried when the next segment is rolled over.
+ * <p>
+ * <b>Importing</b>
+ * <p>
+ * Existing configurations, for example from a directory managed by the
+ * {@link FilePersistenceManager}, may be imported with the
+ * {@link #importConfigurations(PersistenceManager)} method, which stores
+ * them in a single batch.
+ *
+ * @since 1.2
+ */
+public class JournalPersistenceManager implements PersistenceManager
+{
+
+    /**
+     * The name of this persistence manager when registered in the service
+     * registry (value is "journal").
+     */
+    public static final String DEFAULT_PERSISTENCE_MANAGER_NAME = "journal";
+
+    /**
+     * The default size in bytes after which the active segment is rolled
+     * over (value is 8MB).
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    private static final String SEGMENT_EXT = ".log";
+
+    private static final String TMP_EXT = ".tmp";
+
+    /** Segment header magic number ("FCJ1") */
+    private static final int MAGIC = 0x46434a31;
+
+    /** Segment header flag marking a snapshot segment */
+    private static final byte FLAG_SNAPSHOT = 1;
+
+    /** Size of the segment header: magic number and flags */
+    private static final int HEADER_SIZE = 5;
+
+    /** Size of the record header: body length and checksum */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte TYPE_STORE = 1;
+
+    private static final byte TYPE_DELETE = 2;
+
+    /**
+     * The access control context we use in the presence of a security manager.
+     */
+    private final AccessControlContext acc;
+
+    /**
+     * The directory containing the segment files.
+     */
+    private final File location;
+
+    private final long segmentSize;
+
+    /**
+     * The index of the live records by PID. Entries are only modified while
+     * holding the {@link #commitLock}.
+     */
+    private final Map<String, RecordLocation> index = new ConcurrentHashMap<>();
+
+    /**
+     * The segments by their sequence number. Only accessed while holding the
+     * {@link #commitLock}.
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * Threads reading records hold the read lock, while closing segments
+     * requires the write lock.
+     */
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+    /**
+     * Lock held by the thread writing a batch of records or installing a
+     * compacted snapshot.
+     */
+    private final Object commitLock = new Object();
+
+    /**
+     * The records waiting to be written by the next group commit.
+     */
+    private final List<Record> pending = new ArrayList<>();
+
+    /** The number of bytes of live records. */
+    private long liveBytes;
+
+    /** The number of bytes of superseded records. */
+    private long garbageBytes;
+
+    private volatile boolean closed;
+
+    /**
+     * The thread compacting the journal, if any. Guarded by the
+     * {@link #commitLock}.
+     */
+    private Thread compactor;
+
+
+    /**
+     * Opens the journal in the given directory using the
+     * {@link #DEFAULT_SEGMENT_SIZE default segment size}.
+     *
+     * @param location The directory of the journal. If the directory does
+     *      not exist, it is created.
+     *
+     * @throws IllegalArgumentException If the <code>location</code> exists
+     *      but is not a directory or does not exist and cannot be created.
+     * @throws IOException If an error occurs reading the journal.
+     */
+    public JournalPersistenceManager( final File location ) throws IOException
+    {
+        this( location, DEFAULT_SEGMENT_SIZE );
+    }
+
+
+    /**
+     * Opens the journal in the given directory.
+     *
+     * @param location The directory of the journal. If the directory does
+     *      not exist, it is created.
+     * @param segmentSize The size in bytes after which the active segment
+     *      is rolled over.
+     *
+     * @throws IllegalArgumentException If the <code>location</code> exists
+     *      but is not a directory or does not exist and cannot be created
+     *      or if the <code>segmentSize</code> is not positive.
+     * @throws IOException If an error occurs reading the journal.
+     */
+    public JournalPersistenceManager( final File location, final long segmentSize ) throws IOException
+    {
+        if ( segmentSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Segment size must be positive: " + segmentSize );
+        }
+
+        // setup the access control context from the calling setup
+        if ( System.getSecurityManager() != null )
+        {
+            acc = AccessController.getContext();
+        }
+        else
+        {
+            acc = null;
+        }
+
+        final File locationFile = location.getAbsoluteFile();
+        if ( !locationFile.isDirectory() )
+        {
+            if ( locationFile.exists() )
+            {
+                throw new IllegalArgumentException( location + " is not a directory" );
+            }
+
+            if ( !locationFile.mkdirs() )
+            {
+                throw new IllegalArgumentException( "Cannot create directory " + location );
+            }
+        }
+
+        this.location = locationFile;
+        this.segmentSize = segmentSize;
+
+        doPrivileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                recover();
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Returns the directory in which the journal segments are written.
+     *
+     * @return The journal location.
+     */
+    public File getLocation()
+    {
+        return location;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the journal does not contain any
+     * configuration.
+     *
+     * @return <code>true</code> if the journal is empty.
+     */
+    public boolean isEmpty()
+    {
+        return index.isEmpty();
+    }
+
+
+    /**
+     * Stores all dictionaries of the given persistence manager, which have a
+     * <code>service.pid</code> property, in this journal. The dictionaries
+     * are written with a single group commit.
+     *
+     * @param source The persistence manager to import the configurations
+     *      from, for example a {@link FilePersistenceManager}.
+     *
+     * @return The number of imported configurations.
+     *
+     * @throws IOException If an error occurs reading from the source or
+     *      writing the journal.
+     */
+    @SuppressWarnings("rawtypes")
+    public int importConfigurations( final PersistenceManager source ) throws IOException
+    {
+        final List<Record> records = new ArrayList<>();
+        for ( final Enumeration e = source.getDictionaries(); e.hasMoreElements(); )
+        {
+            final Dictionary dict = ( Dictionary ) e.nextElement();
+            final Object pid = dict.get( Constants.SERVICE_PID );
+            if ( pid instanceof String )
+            {
+                records.add( new Record( TYPE_STORE, ( String ) pid, serialize( dict ) ) );
+            }
+        }
+
+        if ( !records.isEmpty() )
+        {
+            commit( records );
+        }
+        return records.size();
+    }
+
+
+    /**
+     * Closes the segment files of this journal. Any further attempt to
+     * change a configuration fails with an <code>IOException</code>.
+     */
+    public void close()
+    {
+        final Thread compacting;
+        synchronized ( commitLock )
+        {
+            compacting = compactor;
+            segmentLock.writeLock().lock();
+            try
+            {
+                closed = true;
+                for ( final Segment segment : segments.values() )
+                {
+                    segment.close();
+                }
+                segments.clear();
+                index.clear();
+            }
+            finally
+            {
+                segmentLock.writeLock().unlock();
+            }
+        }
+
+        // a running compaction fails once it notices the closed journal
+        if ( compacting != null )
+        {
+            try
+            {
+                compacting.join();
+            }
+            catch ( final InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Waits for a running compaction to complete.
+     */
+    void awaitCompaction() throws InterruptedException
+    {
+        final Thread compacting;
+        synchronized ( commitLock )
+        {
+            compacting = compactor;
+        }
+        if ( compacting != null )
+        {
+            compacting.join();
+        }
+    }
+
+
+    /**
+     * Returns <code>true</code> if the journal contains a configuration for
+     * the given identifier.
+     *
+     * @param pid The identifier of the configuration to check.
+     */
+    @Override
+    public boolean exists( final String pid )
+    {
+        return index.containsKey( pid );
+    }
+
+
+    /**
+     * Reads the configuration for the given identifier from the journal.
+     *
+     * @param pid The identifier of the configuration to load.
+     *
+     * @return The configuration read from the journal.
+     *
+     * @throws FileNotFoundException If the journal contains no configuration
+     *      for the identifier.
+     * @throws IOException If an error occurs reading the journal.
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Dictionary load( final String pid ) throws IOException
+    {
+        return doPrivileged( new PrivilegedExceptionAction<Dictionary>()
+        {
+            @Override
+            public Dictionary run() throws IOException
+            {
+                segmentLock.readLock().lock();
+                try
+                {
+                    final RecordLocation loc = index.get( pid );
+                    if ( loc == null )
+                    {
+                        throw new FileNotFoundException( "No configuration for " + pid + " in " + location );
+                    }
+                    return loc.read();
+                }
+                finally
+                {
+                    segmentLock.readLock().unlock();
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Returns all configurations of the journal. The configurations are read
+     * eagerly in the order of their location in the journal, such that the
+     * enumeration is not affected by concurrent changes or compaction.
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Enumeration getDictionaries() throws IOException
+    {
+        return doPrivileged( new PrivilegedExceptionAction<Enumeration>()
+        {
+            @Override
+            public Enumeration run() throws IOException
+            {
+                segmentLock.readLock().lock();
+                try
+                {
+                    final List<RecordLocation> locations = new ArrayList<>( index.values() );
+                    Collections.sort( locations, RecordLocation.ORDER );
+                    final List<Dictionary> dicts = new ArrayList<>( locations.size() );
+                    for ( final RecordLocation loc : locations )
+                    {
+                        dicts.add( loc.read() );
+                    }
+                    return Collections.enumeration( dicts );
+                }
+                finally
+                {
+                    segmentLock.readLock().unlock();
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Appends the configuration to the journal. This method returns once the
+     * record has been forced to disk.
+     *
+     * @param pid The identifier of the configuration.
+     * @param props The configuration data to write.
+     *
+     * @throws IOException If an error occurs writing the journal.
+     */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void store( final String pid, final Dictionary props ) throws IOException
+    {
+        commit( Collections.singletonList( new Record( TYPE_STORE, pid, serialize( props ) ) ) );
+    }
+
+
+    /**
+     * Appends a delete record for the given identifier to the journal if it
+     * contains a configuration for the identifier. This method returns once
+     * the record has been forced to disk.
+     *
+     * @param pid The identifier of the configuration to delete.
+     *
+     * @throws IOException If an error occurs writing the journal.
+     */
+    @Override
+    public void delete( final String pid ) throws IOException
+    {
+        if ( index.containsKey( pid ) )
+        {
+            commit( Collections.singletonList( new Record( TYPE_DELETE, pid, null ) ) );
+        }
+    }
+
+
+    // ---------- group commit -------------------------------------------------
+
+    private void commit( final List<Record> records ) throws IOException
+    {
+        synchronized ( pending )
+        {
+            pending.addAll( records );
+        }
+
+        synchronized ( commitLock )
+        {
+            // our records may already have been written by another thread
+            // while we were waiting for the lock
+            if ( !records.get( records.size() - 1 ).done )
+            {
+                final List<Record> batch;
+                synchronized ( pending )
+                {
+                    batch = new ArrayList<>( pending );
+                    pending.clear();
+                }
+
+                IOException failure = null;
+                try
+                {
+                    doPrivileged( new PrivilegedExceptionAction<Object>()
+                    {
+                        @Override
+                        public Object run() throws IOException
+                        {
+                            append( batch );
+                            return null;
+                        }
+                    } );
+                }
+                catch ( final IOException ioe )
+                {
+                    failure = ioe;
+                }
+
+                for ( final Record record : batch )
+                {
+                    record.failure = failure;
+                    record.done = true;
+                }
+            }
+
+            for ( final Record record : records )
+            {
+                if ( record.failure != null )
+                {
+                    throw new IOException( "Failed to write configuration " + record.pid + " to journal "
+                        + location + ": " + record.failure.getMessage(), record.failure );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the batch of records to the active segment and updates the
+     * index. Must be called with the {@link #commitLock} held.
+     */
+    private void append( final List<Record> batch ) throws IOException
+    {
+        if ( closed )
+        {
+            throw new IOException( "Journal " + location + " has been closed" );
+        }
+
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if ( segment == null || segment.size >= segmentSize )
+        {
+            if ( segment != null && compactor == null && garbageBytes > liveBytes && garbageBytes > segmentSize )
+            {
+                // the id between the full and the new active segment is
+                // reserved for the snapshot
+                final long snapshotId = nextSegmentId();
+                segment = createSegment( snapshotId + 1 );
+                segments.put( segment.id, segment );
+                startCompaction( snapshotId );
+            }
+            else
+            {
+                segment = createSegment( nextSegmentId() );
+                segments.put( segment.id, segment );
+            }
+        }
+
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final long[] offsets = new long[batch.size()];
+        for ( int i = 0; i < offsets.length; i++ )
+        {
+            offsets[i] = segment.size + buf.size();
+            batch.get( i ).writeTo( buf );
+        }
+
+        final long start = segment.size;
+        try
+        {
+            segment.write( ByteBuffer.wrap( buf.toByteArray() ), start );
+            segment.channel.force( false );
+        }
+        catch ( final IOException ioe )
+        {
+            // remove the partially written records
+            try
+            {
+                segment.channel.truncate( start );
+            }
+            catch ( final IOException ignore )
+            {
+                // the broken record is truncated when the journal is opened
+            }
+            throw ioe;
+        }
+        segment.size = start + buf.size();
+
+        for ( int i = 0; i < offsets.length; i++ )
+        {
+            final Record record = batch.get( i );
+            apply( record, new RecordLocation( segment, offsets[i], record.size() ) );
+        }
+    }
+
+
+    /**
+     * Applies the record found at the location to the index.
+     */
+    private void apply( final Record record, final RecordLocation loc )
+    {
+        final RecordLocation old;
+        if ( record.type == TYPE_STORE )
+        {
+            old = index.put( record.pid, loc );
+            liveBytes += loc.length;
+        }
+        else
+        {
+            old = index.remove( record.pid );
+            garbageBytes += loc.length;
+        }
+
+        if ( old != null )
+        {
+            liveBytes -= old.length;
+            garbageBytes += old.length;
+        }
+    }
+
+
+    /**
+     * Starts a thread copying the live records of all segments older than
+     * the snapshot id into the snapshot segment. Must be called with the
+     * {@link #commitLock} held after the new active segment has been
+     * created.
+     */
+    private void startCompaction( final long id )
+    {
+        final List<Map.Entry<String, RecordLocation>> entries = new ArrayList<>( index.size() );
+        for ( final Map.Entry<String, RecordLocation> entry : index.entrySet() )
+        {
+            entries.add( new AbstractMap.SimpleImmutableEntry<>( entry ) );
+        }
+        compactor = new Thread( "CM Journal Compactor " + location )
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    doPrivileged( new PrivilegedExceptionAction<Object>()
+                    {
+                        @Override
+                        public Object run() throws IOException
+                        {
+                            compact( id, entries );
+                            return null;
+                        }
+                    } );
+                }
+                catch ( final IOException ioe )
+                {
+                    // the garbage remains, so compaction is retried when
+                    // the next segment is rolled over
+                }
+                finally
+                {
+                    synchronized ( commitLock )
+                    {
+                        compactor = null;
+                    }
+                }
+            }
+        };
+        compactor.setDaemon( true );
+        compactor.start();
+    }
+
+
+    /**
+     * Copies the given live records into a new snapshot segment, which
+     * replaces all segments older than the snapshot. Records superseded
+     * while the snapshot is written are garbage of the snapshot.
+     */
+    private void compact( final long id, final List<Map.Entry<String, RecordLocation>> entries ) throws IOException
+    {
+        final File tmpFile = new File( location, SEGMENT_PREFIX + id + TMP_EXT );
+        final Map<String, RecordLocation> newLocations = new TreeMap<>();
+        final long size;
+
+        // the segments to compact are not written any more, so only closing
+        // them has to be prevented while reading
+        segmentLock.readLock().lock();
+        try
+        {
+            final Segment snapshot = new Segment( id, tmpFile );
+            try
+            {
+                snapshot.writeHeader( FLAG_SNAPSHOT );
+
+                Collections.sort( entries, new Comparator<Map.Entry<String, RecordLocation>>()
+                {
+                    @Override
+                    public int compare( final Map.Entry<String, RecordLocation> e1,
+                        final Map.Entry<String, RecordLocation> e2 )
+                    {
+                        return RecordLocation.ORDER.compare( e1.getValue(), e2.getValue() );
+                    }
+                } );
+
+                final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                for ( final Map.Entry<String, RecordLocation> entry : entries )
+                {
+                    final RecordLocation loc = entry.getValue();
+                    final byte[] record = loc.readRecord();
+                    newLocations.put( entry.getKey(), new RecordLocation( snapshot, snapshot.size + buf.size(),
+                        record.length ) );
+                    buf.write( record );
+                    if ( buf.size() >= 64 * 1024 )
+                    {
+                        snapshot.write( ByteBuffer.wrap( buf.toByteArray() ), snapshot.size );
+                        snapshot.size += buf.size();
+                        buf.reset();
+                    }
+                }
+                snapshot.write( ByteBuffer.wrap( buf.toByteArray() ), snapshot.size );
+                snapshot.size += buf.size();
+                snapshot.channel.force( true );
+                size = snapshot.size;
+            }
+            catch ( final IOException ioe )
+            {
+                snapshot.close();
+                tmpFile.delete();
+                throw ioe;
+            }
+            snapshot.close();
+        }
+        finally
+        {
+            segmentLock.readLock().unlock();
+        }
+
+        synchronized ( commitLock )
+        {
+            segmentLock.writeLock().lock();
+            try
+            {
+                if ( closed )
+                {
+                    tmpFile.delete();
+                    throw new IOException( "Journal " + location + " has been closed" );
+                }
+
+                // renaming the snapshot commits the compaction
+                final File file = segmentFile( id );
+                if ( !tmpFile.renameTo( file ) )
+                {
+                    tmpFile.delete();
+                    throw new IOException( "Failed to rename journal snapshot from '" + tmpFile + "' to '" + file + "'" );
+                }
+                final Segment compacted = new Segment( id, file );
+                compacted.size = size;
+
+                final Map<Long, Segment> old = segments.headMap( id );
+                for ( final Segment segment : old.values() )
+                {
+                    segment.close();
+                    segment.file.delete();
+                }
+                old.clear();
+                segments.put( id, compacted );
+
+                // records changed while compacting stay where they are
+                for ( final Map.Entry<String, RecordLocation> entry : entries )
+                {
+                    final RecordLocation loc = newLocations.get( entry.getKey() );
+                    if ( index.get( entry.getKey() ) == entry.getValue() )
+                    {
+                        index.put( entry.getKey(), new RecordLocation( compacted, loc.offset, loc.length ) );
+                    }
+                }
+
+                long total = 0;
+                for ( final Segment segment : segments.values() )
+                {
+                    total += segment.size - HEADER_SIZE;
+                }
+                liveBytes = 0;
+                for ( final RecordLocation loc : index.values() )
+                {
+                    liveBytes += loc.length;
+                }
+                garbageBytes = total - liveBytes;
+            }
+            finally
+            {
+                segmentLock.writeLock().unlock();
+            }
+        }
+    }
+
+
+    // ---------- recovery -----------------------------------------------------
+
+    /**
+     * Replays all segments of the journal to rebuild the index.
+     */
+    private void recover() throws IOException
+    {
+        final TreeMap<Long, File> files = new TreeMap<>();
+        final File[] children = location.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            final String name = children[i].getName();
+            if ( name.startsWith( SEGMENT_PREFIX ) )
+            {
+                if ( name.endsWith( TMP_EXT ) )
+                {
+                    // incomplete compaction
+                    children[i].delete();
+                }
+                else if ( name.endsWith( SEGMENT_EXT ) )
+                {
+                    try
+                    {
+                        files.put( Long.valueOf( name.substring( SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_EXT.length() ) ), children[i] );
+                    }
+                    catch ( final NumberFormatException nfe )
+                    {
+                        // not a segment
+                    }
+                }
+            }
+        }
+
+        for ( final Map.Entry<Long, File> entry : files.entrySet() )
+        {
+            final boolean last = entry.getKey().equals( files.lastKey() );
+            final Segment segment = new Segment( entry.getKey(), entry.getValue() );
+            try
+            {
+                replay( segment, last );
+            }
+            catch ( final IOException ioe )
+            {
+                segment.close();
+                throw ioe;
+            }
+        }
+    }
+
+
+    private void replay( final Segment segment, final boolean last ) throws IOException
+    {
+        final long length = segment.file.length();
+        if ( length < HEADER_SIZE )
+        {
+            // segment creation has not completed
+            segment.close();
+            segment.file.delete();
+            return;
+        }
+
+        final DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( segment.file ) ) );
+        long pos = HEADER_SIZE;
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a journal segment: " + segment.file );
+            }
+            if ( ( in.readByte() & FLAG_SNAPSHOT ) != 0 )
+            {
+                // the snapshot contains all live records of the previous
+                // segments, which were not removed after the compaction
+                for ( final Segment old : segments.values() )
+                {
+                    old.close();
+                    old.file.delete();
+                }
+                segments.clear();
+                index.clear();
+                liveBytes = 0;
+                garbageBytes = 0;
+            }
+            segments.put( segment.id, segment );
+
+            while ( pos < length )
+            {
+                final Record record = Record.readFrom( in, length - pos );
+                if ( record == null )
+                {
+                    break;
+                }
+                final int size = record.size();
+                apply( record, new RecordLocation( segment, pos, size ) );
+                pos += size;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if ( pos < length && last )
+        {
+            // truncate incomplete or broken records at the end of the journal
+            segment.channel.truncate( pos );
+            segment.channel.force( true );
+        }
+        segment.size = pos;
+    }
+
+
+    // ---------- segments -----------------------------------------------------
+
+    private long nextSegmentId()
+    {
+        return segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    }
+
+
+    private File segmentFile( final long id )
+    {
+        return new File( location, SEGMENT_PREFIX + id + SEGMENT_EXT );
+    }
+
+
+    private Segment createSegment( final long id ) throws IOException
+    {
+        final Segment segment = new Segment( id, segmentFile( id ) );
+        try
+        {
+            segment.writeHeader( ( byte ) 0 );
+            segment.channel.force( true );
+        }
+        catch ( final IOException ioe )
+        {
+            segment.close();
+            segment.file.delete();
+            throw ioe;
+        }
+        return segment;
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    private static byte[] serialize( final Dictionary props ) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigurationHandler.write( out, props );
+        return out.toByteArray();
+    }
+
+
+    private <T> T doPrivileged( final PrivilegedExceptionAction<T> action ) throws IOException
+    {
+        if ( System.getSecurityManager() == null )
+        {
+            try
+            {
+                return action.run();
+            }
+            catch ( final IOException ioe )
+            {
+                throw ioe;
+            }
+            catch ( final Exception e )
+            {
+                throw new IOException( e.getMessage(), e );
+            }
+        }
+
+        try
+        {
+            return AccessController.doPrivileged( action, acc );
+        }
+        catch ( final PrivilegedActionException pae )
+        {
+            throw ( IOException ) pae.getException();
+        }
+    }
+
+
+    /**
+     * A segment file of the journal.
+     */
+    private static final class Segment
+    {
+        final long id;
+
+        final File file;
+
+        final FileChannel channel;
+
+        /** The size of the valid data of the segment. */
+        long size;
+
+        Segment( final long id, final File file ) throws IOException
+        {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile( file, "rw" ).getChannel();
+        }
+
+        void writeHeader( final byte flags ) throws IOException
+        {
+            final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            header.putInt( MAGIC ).put( flags ).flip();
+            write( header, 0 );
+            size = HEADER_SIZE;
+        }
+
+        void write( final ByteBuffer buf, long position ) throws IOException
+        {
+            while ( buf.hasRemaining() )
+            {
+                position += channel.write( buf, position );
+            }
+        }
+
+        void read( final ByteBuffer buf, long position ) throws IOException
+        {
+            while ( buf.hasRemaining() )
+            {
+                final int read = channel.read( buf, position );
+                if ( read < 0 )
+                {
+                    throw new EOFException( "Unexpected end of journal segment " + file );
+                }
+                position += read;
+            }
+            buf.flip();
+        }
+
+        void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch ( final IOException ioe )
+            {
+                // ignore
+            }
+        }
+    }
+
+
+    /**
+     * The location of a record in a segment.
+     */
+    private static final class RecordLocation
+    {
+        static final Comparator<RecordLocation> ORDER = new Comparator<RecordLocation>()
+        {
+            @Override
+            public int compare( final RecordLocation l1, final RecordLocation l2 )
+            {
+                if ( l1.segment.id != l2.segment.id )
+                {
+                    return l1.segment.id < l2.segment.id ? -1 : 1;
+                }
+                return l1.offset < l2.offset ? -1 : ( l1.offset == l2.offset ? 0 : 1 );
+            }
+        };
+
+        final Segment segment;
+
+        /** The offset of the record including the record header */
+        final long offset;
+
+        /** The length of the record including the record header */
+        final int length;
+
+        RecordLocation( final Segment segment, final long offset, final int length )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        byte[] readRecord() throws IOException
+        {
+            final ByteBuffer buf = ByteBuffer.allocate( length );
+            segment.read( buf, offset );
+            return buf.array();
+        }
+
+        @SuppressWarnings("rawtypes")
+        Dictionary read() throws IOException
+        {
+            final DataInputStream in = new DataInputStream( new ByteArrayInputStream( readRecord() ) );
+            in.skipBytes( RECORD_HEADER_SIZE + 1 );
+            in.readUTF();
+            return ConfigurationHandler.read( in );
+        }
+    }
+
+
+    /**
+     * A store or delete record.
+     */
+    private static final class Record
+    {
+        final byte type;
+
+        final String pid;
+
+        final byte[] data;
+
+        /** The encoded record, created lazily */
+        private byte[] encoded;
+
+        /** The length of the encoded record, -1 if not known yet */
+        private int length = -1;
+
+        // the state of the record in the group commit, guarded by the commitLock
+        boolean done;
+
+        IOException failure;
+
+        Record( final byte type, final String pid, final byte[] data )
+        {
+            this.type = type;
+            this.pid = pid;
+            this.data = data;
+        }
+
+        int size() throws IOException
+        {
+            if ( length < 0 )
+            {
+                length = encode().length;
+            }
+            return length;
+        }
+
+        void writeTo( final ByteArrayOutputStream out ) throws IOException
+        {
+            out.write( encode() );
+        }
+
+        private byte[] encode() throws IOException
+        {
+            if ( encoded == null )
+            {
+                final ByteArrayOutputStream bodyBuf = new ByteArrayOutputStream();
+                final DataOutputStream body = new DataOutputStream( bodyBuf );
+                body.writeByte( type );
+                body.writeUTF( pid );
+                if ( data != null )
+                {
+                    body.write( data );
+                }
+                body.flush();
+                final byte[] bodyBytes = bodyBuf.toByteArray();
+
+                final CRC32 crc = new CRC32();
+                crc.update( bodyBytes );
+
+                final ByteArrayOutputStream recordBuf = new ByteArrayOutputStream( bodyBytes.length
+                    + RECORD_HEADER_SIZE );
+                final DataOutputStream record = new DataOutputStream( recordBuf );
+                record.writeInt( bodyBytes.length );
+                record.writeInt( ( int ) crc.getValue() );
+                record.write( bodyBytes );
+                record.flush();
+                encoded = recordBuf.toByteArray();
+            }
+            return encoded;
+        }
+
+        /**
+         * Reads the next record from the stream. Returns <code>null</code> if
+         * the record is incomplete or broken.
+         */
+        static Record readFrom( final InputStream in, final long available ) throws IOException
+        {
+            if ( available < RECORD_HEADER_SIZE )
+            {
+                return null;
+            }
+
+            final DataInputStream din = new DataInputStream( in );
+            final int length = din.readInt();
+            final int checksum = din.readInt();
+            if ( length <= 0 || length > available - RECORD_HEADER_SIZE )
+            {
+                return null;
+            }
+
+            final byte[] bodyBytes = new byte[length];
+            din.readFully( bodyBytes );
+            final CRC32 crc = new CRC32();
+            crc.update( bodyBytes );
+            if ( ( int ) crc.getValue() != checksum )
+            {
+                return null;
+            }
+
+            final DataInputStream body = new DataInputStream( new ByteArrayInputStream( bodyBytes ) );
+            final byte type = body.readByte();
+            if ( type != TYPE_STORE && type != TYPE_DELETE )
+            {
+                return null;
+            }
+            final String pid = body.readUTF();
+
+            final Record record = new Record( type, pid, null );
+            record.length = length + RECORD_HEADER_SIZE;
+            return record;
+        }
+    }
+}
@@ -18,11 +18,14 @@
  */
 package org.apache.felix.cm.impl;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Dictionary;
 import java.util.Hashtable;
 
 import org.apache.felix.cm.PersistenceManager;
 import org.apache.felix.cm.file.FilePersistenceManager;
+import org.apache.felix.cm.file.JournalPersistenceManager;
 import org.apache.felix.cm.impl.persistence.PersistenceManagerTracker;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -68,11 +71,47 @@ public class Activator implements BundleActivator
      */
     private static final String CM_CONFIG_PM = "felix.cm.pm";
 
+    /**
+     * The name of the framework context property defining a comma separated
+     * list of configuration property names, which are indexed in addition to
+     * the <code>service.pid</code>, <code>service.factoryPid</code> and
+     * <code>service.bundleLocation</code> properties to speed up listing
+     * configurations with equality filters on these properties
+     * (value is "felix.cm.index").
+     *
+     * @see #start(BundleContext)
+     */
+    private static final String CM_CONFIG_INDEX = "felix.cm.index";
+
+    /**
+     * The name of the framework context property defining the location of the
+     * journal of the {@link JournalPersistenceManager}, which is used if the
+     * <code>felix.cm.pm</code> property is set to <code>journal</code>. If not
+     * set, the <code>journal</code> directory next to the configuration
+     * directory of the {@link FilePersistenceManager} is used
+     * (value is "felix.cm.journal.dir").
+     *
+     * @see #start(BundleContext)
+     */
+    private static final String CM_JOURNAL_DIR = "felix.cm.journal.dir";
+
+    /**
+     * The name of the file created in the journal directory once the
+     * configurations of the {@link FilePersistenceManager} have been imported
+     * into the journal (value is ".imported").
+     */
+    private static final String JOURNAL_IMPORTED = ".imported";
+
     private volatile PersistenceManagerTracker tracker;
 
     // the service registration of the default file persistence manager
     private volatile ServiceRegistration<PersistenceManager> filepmRegistration;
 
+    // the journal persistence manager and its service registration, if used
+    private volatile JournalPersistenceManager journalpm;
+
+    private volatile ServiceRegistration<PersistenceManager> journalpmRegistration;
+
     @Override
     public void start( final BundleContext bundleContext ) throws BundleException
     {
@@ -91,9 +130,19 @@ public class Activator implements BundleActivator
         {
             configuredPM = null;
         }
+        if ( JournalPersistenceManager.DEFAULT_PERSISTENCE_MANAGER_NAME.equals( configuredPM ) )
+        {
+            // configuration admin would wait forever for the missing journal
+            if ( !this.registerJournalPersistenceManager( bundleContext, defaultPM ) )
+            {
+                this.unregisterFilePersistenceManager();
+                throw new BundleException("Unable to register journal persistence manager.");
+            }
+        }
         try
         {
-            this.tracker = new PersistenceManagerTracker(bundleContext, defaultPM, configuredPM);
+            this.tracker = new PersistenceManagerTracker(bundleContext, defaultPM, configuredPM,
+                    getIndexedProperties(bundleContext));
         }
         catch ( InvalidSyntaxException iae )
         {
@@ -103,6 +152,22 @@ public class Activator implements BundleActivator
     }
 
 
+    private static String[] getIndexedProperties( final BundleContext bundleContext )
+    {
+        final String indexed = bundleContext.getProperty( CM_CONFIG_INDEX );
+        if ( indexed == null || indexed.trim().isEmpty() )
+        {
+            return null;
+        }
+        final String[] names = indexed.split( "," );
+        for ( int i = 0; i < names.length; i++ )
+        {
+            names[i] = names[i].trim();
+        }
+        return names;
+    }
+
+
     @Override
     public void stop( final BundleContext bundleContext )
     {
@@ -116,7 +181,8 @@ public class Activator implements BundleActivator
             this.tracker = null;
         }
 
-        // shutdown the file persistence manager and unregister
+        // shutdown the persistence managers and unregister
+        this.unregisterJournalPersistenceManager();
         this.unregisterFilePersistenceManager();
     }
 
@@ -143,6 +209,73 @@ public class Activator implements BundleActivator
         return null;
     }
 
+    /**
+     * Registers the {@link JournalPersistenceManager}. When the journal is
+     * used for the first time, the configurations of the file persistence
+     * manager are imported into the journal first. The import is recorded
+     * with the {@link #JOURNAL_IMPORTED} marker file in the journal directory
+     * such that configurations deleted from the journal are not imported
+     * again.
+     *
+     * @return <code>true</code> if the journal persistence manager has been
+     *      registered.
+     */
+    private boolean registerJournalPersistenceManager( final BundleContext bundleContext,
+            final PersistenceManager filePM )
+    {
+        JournalPersistenceManager jpm = null;
+        try
+        {
+            final String journalDir = bundleContext.getProperty( CM_JOURNAL_DIR );
+            final File location = journalDir != null ? new File( journalDir )
+                : new File( ( ( FilePersistenceManager ) filePM ).getLocation().getParentFile(), "journal" );
+            jpm = new JournalPersistenceManager( location );
+            final File marker = new File( jpm.getLocation(), JOURNAL_IMPORTED );
+            if ( !marker.exists() )
+            {
+                final int count = jpm.importConfigurations( filePM );
+                Log.logger.log( LogService.LOG_INFO, "Imported {0} configurations into journal {1}", new Object[]
+                    { count, location } );
+                if ( !marker.createNewFile() )
+                {
+                    throw new IOException( "Cannot create journal import marker " + marker );
+                }
+            }
+
+            final Dictionary<String, Object> props = new Hashtable<>();
+            props.put( Constants.SERVICE_DESCRIPTION, "Platform Journal Persistence Manager" );
+            props.put( Constants.SERVICE_VENDOR, "The Apache Software Foundation" );
+            props.put( Constants.SERVICE_RANKING, new Integer( Integer.MIN_VALUE ) );
+            props.put( PersistenceManager.PROPERTY_NAME, JournalPersistenceManager.DEFAULT_PERSISTENCE_MANAGER_NAME );
+            this.journalpm = jpm;
+            this.journalpmRegistration = bundleContext.registerService( PersistenceManager.class, jpm, props );
+            return true;
+        }
+        catch ( final IOException | IllegalArgumentException e )
+        {
+            Log.logger.log( LogService.LOG_ERROR, "Cannot create the JournalPersistenceManager", e );
+            if ( jpm != null )
+            {
+                jpm.close();
+            }
+        }
+        return false;
+    }
+
+    private void unregisterJournalPersistenceManager()
+    {
+        if ( this.journalpmRegistration != null )
+        {
+            this.journalpmRegistration.unregister();
+            this.journalpmRegistration = null;
+        }
+        if ( this.journalpm != null )
+        {
+            this.journalpm.close();
+            this.journalpm = null;
+        }
+    }
+
     private void unregisterFilePersistenceManager()
     {
         if ( this.filepmRegistration != null )
@@ -57,6 +57,11 @@ public class CaseInsensitiveDictionary extends Dictionary<String, Object>
 
     public CaseInsensitiveDictionary( Dictionary props )
     {
+        if ( props instanceof UnmodifiableDictionary
+            && ((UnmodifiableDictionary) props).delegatee instanceof CaseInsensitiveDictionary )
+        {
+            props = ((UnmodifiableDictionary) props).delegatee;
+        }
         if ( props instanceof CaseInsensitiveDictionary)
         {
             internalMap = new TreeMap<>( ((CaseInsensitiveDictionary) props).internalMap );
@@ -83,6 +83,19 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class ConfigurationManager implements BundleListener
 {
+    /**
+     * The name of the framework context property defining the maximum number
+     * of threads updating ManagedService[Factory] services in parallel
+     * (value is "felix.cm.update.threads"). Updates for the same PID are
+     * always delivered in order and a service is never updated by more than
+     * one thread at a time. If not set or not a positive number, the number
+     * of processors but at most {@value #DEFAULT_UPDATE_THREADS} threads are
+     * used.
+     */
+    private static final String CM_UPDATE_THREADS = "felix.cm.update.threads";
+
+    private static final int DEFAULT_UPDATE_THREADS = 4;
+
     // random number generator to create configuration PIDs for factory
     // configurations
     private static Random numberGenerator;
@@ -105,7 +118,7 @@ public class ConfigurationManager implements BundleListener
     // service tracker for managed service factories
     private ManagedServiceFactoryTracker managedServiceFactoryTracker;
 
-    // the thread used to schedule tasks required to run asynchronously
+    // the threads used to schedule tasks required to run asynchronously
     private UpdateThread updateThread;
 
     // the thread used to schedule events to be dispatched asynchronously
@@ -164,7 +177,7 @@ public class ConfigurationManager implements BundleListener
         // initialize the asynchonous updater thread
         ThreadGroup tg = new ThreadGroup( "Configuration Admin Service" );
         tg.setDaemon( true );
-        this.updateThread = new UpdateThread( tg, "CM Configuration Updater" );
+        this.updateThread = new UpdateThread( tg, "CM Configuration Updater", getUpdateThreads() );
         this.eventThread = new UpdateThread( tg, "CM Event Dispatcher" );
 
         // register as bundle and service listener
@@ -196,6 +209,30 @@ public class ConfigurationManager implements BundleListener
     }
 
 
+    private int getUpdateThreads()
+    {
+        final String value = bundleContext.getProperty( CM_UPDATE_THREADS );
+        if ( value != null )
+        {
+            try
+            {
+                final int threads = Integer.parseInt( value.trim() );
+                if ( threads > 0 )
+                {
+                    return threads;
+                }
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // logged below
+            }
+            Log.logger.log( LogService.LOG_WARNING, "Ignoring invalid value {0} for {1}", new Object[]
+                    { value, CM_UPDATE_THREADS } );
+        }
+        return Math.min( DEFAULT_UPDATE_THREADS, Runtime.getRuntime().availableProcessors() );
+    }
+
+
     public void stop( )
     {
 
@@ -533,7 +570,8 @@ public class ConfigurationManager implements BundleListener
             {
                 cfg = getCachedConfiguration( pid );
                 if (cfg == null) {
-                    cfg = new ConfigurationImpl(this, this.persistenceManager, config);
+                    // the cached dictionaries are read-only, so copy
+                    cfg = new ConfigurationImpl(this, this.persistenceManager, new CaseInsensitiveDictionary(config));
                     // add the to configurations cache if it wasn't in the cache
                     cacheConfiguration(cfg);
                 }
@@ -746,21 +784,25 @@ public class ConfigurationManager implements BundleListener
                     { sr } );
         }
 
-        Runnable r;
-        if ( factory )
-        {
-            r = new ManagedServiceFactoryUpdate( pid, sr, configs );
-        }
-        else
-        {
-            r = new ManagedServiceUpdate( pid, sr, configs );
-        }
-        if ( this.coordinator == null || !CoordinatorUtil.addToCoordination(this.coordinator, updateThread, r) )
+        // one task per PID to have it ordered with the other tasks for the PID
+        for ( final String servicePid : pid )
         {
-            updateThread.schedule( r );
+            Runnable r;
+            if ( factory )
+            {
+                r = new ManagedServiceFactoryUpdate( servicePid, sr, configs );
+            }
+            else
+            {
+                r = new ManagedServiceUpdate( servicePid, sr, configs );
+            }
+            if ( this.coordinator == null || !CoordinatorUtil.addToCoordination(this.coordinator, updateThread, r) )
+            {
+                updateThread.schedule( r );
+            }
+            Log.logger.log( LogService.LOG_DEBUG, "[{0}] scheduled", new Object[]
+                    { r } );
         }
-        Log.logger.log( LogService.LOG_DEBUG, "[{0}] scheduled", new Object[]
-                { r } );
     }
 
 
@@ -1030,18 +1072,18 @@ public class ConfigurationManager implements BundleListener
      * ManagedService is registered with multiple PIDs an instance of this
      * class is used for each registered PID.
      */
-    private class ManagedServiceUpdate implements Runnable
+    private class ManagedServiceUpdate implements UpdateThread.OrderedTask
     {
-        private final String[] pids;
+        private final String pid;
 
         private final ServiceReference<ManagedService> sr;
 
         private final ConfigurationMap<?> configs;
 
 
-        ManagedServiceUpdate( String[] pids, ServiceReference<ManagedService> sr, ConfigurationMap<?> configs )
+        ManagedServiceUpdate( String pid, ServiceReference<ManagedService> sr, ConfigurationMap<?> configs )
         {
-            this.pids = pids;
+            this.pid = pid;
             this.sr = sr;
             this.configs = configs;
         }
@@ -1050,24 +1092,21 @@ public class ConfigurationManager implements BundleListener
         @Override
         public void run()
         {
-            for ( String pid : this.pids )
+            try
             {
-                try
-                {
-                    final ConfigurationImpl config = getTargetedConfiguration( pid, this.sr );
-                    provide( pid, config );
-                }
-                catch ( IOException ioe )
-                {
-                    Log.logger.log( LogService.LOG_ERROR, "Error loading configuration for {0}", new Object[]
-                            { pid, ioe } );
-                }
-                catch ( Exception e )
-                {
-                    Log.logger.log( LogService.LOG_ERROR, "Unexpected problem providing configuration {0} to service {1}",
-                            new Object[]
-                                    { pid, this.sr, e } );
-                }
+                final ConfigurationImpl config = getTargetedConfiguration( this.pid, this.sr );
+                provide( this.pid, config );
+            }
+            catch ( IOException ioe )
+            {
+                Log.logger.log( LogService.LOG_ERROR, "Error loading configuration for {0}", new Object[]
+                        { this.pid, ioe } );
+            }
+            catch ( Exception e )
+            {
+                Log.logger.log( LogService.LOG_ERROR, "Unexpected problem providing configuration {0} to service {1}",
+                        new Object[]
+                                { this.pid, this.sr, e } );
             }
         }
 
@@ -1102,10 +1141,22 @@ public class ConfigurationManager implements BundleListener
             managedServiceTracker.provideConfiguration( sr, configPid, null, properties, revision, this.configs );
         }
 
+        @Override
+        public String getOrderingKey()
+        {
+            return this.pid;
+        }
+
+        @Override
+        public String getCoalescingKey()
+        {
+            return null;
+        }
+
         @Override
         public String toString()
         {
-            return "ManagedService Update: pid=" + Arrays.asList( pids );
+            return "ManagedService Update: pid=" + this.pid;
         }
     }
 
@@ -1116,18 +1167,18 @@ public class ConfigurationManager implements BundleListener
      * multiple PIDs an instance of this class is used for each registered
      * PID.
      */
-    private class ManagedServiceFactoryUpdate implements Runnable
+    private class ManagedServiceFactoryUpdate implements UpdateThread.OrderedTask
     {
-        private final String[] factoryPids;
+        private final String factoryPid;
 
         private final ServiceReference<ManagedServiceFactory> sr;
 
         private final ConfigurationMap<?> configs;
 
 
-        ManagedServiceFactoryUpdate( String[] factoryPids, ServiceReference<ManagedServiceFactory> sr, final ConfigurationMap<?> configs )
+        ManagedServiceFactoryUpdate( String factoryPid, ServiceReference<ManagedServiceFactory> sr, final ConfigurationMap<?> configs )
         {
-            this.factoryPids = factoryPids;
+            this.factoryPid = factoryPid;
             this.sr = sr;
             this.configs = configs;
         }
@@ -1136,57 +1187,53 @@ public class ConfigurationManager implements BundleListener
         @Override
         public void run()
         {
-            for ( String factoryPid : this.factoryPids )
+            try
             {
-
-                try
+                final List<String> targetedFactoryPids = getTargetedFactories( this.factoryPid, sr );
+                final Set<String> pids = persistenceManager.getFactoryConfigurationPids(targetedFactoryPids);
+                for ( final String pid : pids )
                 {
-                    final List<String> targetedFactoryPids = getTargetedFactories( factoryPid, sr );
-                    final Set<String> pids = persistenceManager.getFactoryConfigurationPids(targetedFactoryPids);
-                    for ( final String pid : pids )
+                    ConfigurationImpl cfg;
+                    try
                     {
-                        ConfigurationImpl cfg;
-                        try
-                        {
-                            cfg = getConfiguration( pid );
-                        }
-                        catch ( IOException ioe )
-                        {
-                            Log.logger.log( LogService.LOG_ERROR, "Error loading configuration for {0}", new Object[]
-                                    { pid, ioe } );
-                            continue;
-                        }
-
-                        // sanity check on the configuration
-                        if ( cfg == null )
-                        {
-                            Log.logger.log( LogService.LOG_ERROR,
-                                    "Configuration {0} referred to by factory {1} does not exist", new Object[]
-                                            { pid, factoryPid } );
-                            continue;
-                        }
-                        else if ( cfg.isNew() )
-                        {
-                            // Configuration has just been created but not yet updated
-                            // we currently just ignore it and have the update mechanism
-                            // provide the configuration to the ManagedServiceFactory
-                            // As of FELIX-612 (not storing new factory configurations)
-                            // this should not happen. We keep this for added stability
-                            // but raise the logging level to error.
-                            Log.logger.log( LogService.LOG_ERROR, "Ignoring new configuration pid={0}", new Object[]
-                                    { pid } );
-                            continue;
-                        }
+                        cfg = getConfiguration( pid );
+                    }
+                    catch ( IOException ioe )
+                    {
+                        Log.logger.log( LogService.LOG_ERROR, "Error loading configuration for {0}", new Object[]
+                                { pid, ioe } );
+                        continue;
+                    }
 
-                        provide( factoryPid, cfg );
+                    // sanity check on the configuration
+                    if ( cfg == null )
+                    {
+                        Log.logger.log( LogService.LOG_ERROR,
+                                "Configuration {0} referred to by factory {1} does not exist", new Object[]
+                                        { pid, this.factoryPid } );
+                        continue;
                     }
-                }
-                catch ( IOException ioe )
-                {
-                    Log.logger.log( LogService.LOG_ERROR, "Cannot get factory mapping for factory PID {0}", new Object[]
-                            { factoryPid, ioe } );
+                    else if ( cfg.isNew() )
+                    {
+                        // Configuration has just been created but not yet updated
+                        // we currently just ignore it and have the update mechanism
+                        // provide the configuration to the ManagedServiceFactory
+                        // As of FELIX-612 (not storing new factory configurations)
+                        // this should not happen. We keep this for added stability
+                        // but raise the logging level to error.
+                        Log.logger.log( LogService.LOG_ERROR, "Ignoring new configuration pid={0}", new Object[]
+                                { pid } );
+                        continue;
+                    }
+
+                    provide( this.factoryPid, cfg );
                 }
             }
+            catch ( IOException ioe )
+            {
+                Log.logger.log( LogService.LOG_ERROR, "Cannot get factory mapping for factory PID {0}", new Object[]
+                        { this.factoryPid, ioe } );
+            }
         }
 
 
@@ -1240,14 +1287,26 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        @Override
+        public String getOrderingKey()
+        {
+            return this.factoryPid;
+        }
+
+        @Override
+        public String getCoalescingKey()
+        {
+            return null;
+        }
+
         @Override
         public String toString()
         {
-            return "ManagedServiceFactory Update: factoryPid=" + Arrays.asList( this.factoryPids );
+            return "ManagedServiceFactory Update: factoryPid=" + this.factoryPid;
         }
     }
 
-    private abstract class ConfigurationProvider<T> implements Runnable
+    private abstract class ConfigurationProvider<T> implements UpdateThread.OrderedTask
     {
 
         protected final ConfigurationImpl config;
@@ -1278,6 +1337,24 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        /**
+         * Tasks for a configuration are ordered by the service PID of the
+         * ManagedService or the ManagedServiceFactory they are provided to.
+         */
+        @Override
+        public String getOrderingKey()
+        {
+            return getTargetedServicePid().getServicePid();
+        }
+
+
+        @Override
+        public String getCoalescingKey()
+        {
+            return null;
+        }
+
+
         protected BaseTracker<T> getHelper()
         {
             if ( this.helper == null )
@@ -1350,6 +1427,17 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        /**
+         * A queued update of the same configuration is superseded by this
+         * update as this update provides the more recent revision.
+         */
+        @Override
+        public String getCoalescingKey()
+        {
+            return this.config.getPidString();
+        }
+
+
         @Override
         public void run()
         {
@@ -22,61 +22,128 @@ import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import org.osgi.service.log.LogService;
 
 
 /**
- * The <code>UpdateThread</code> is the thread used to update managed services
- * and managed service factories as well as to send configuration events.
+ * The <code>UpdateThread</code> is used to update managed services and
+ * managed service factories as well as to send configuration events.
+ * <p>
+ * Tasks are run by a bounded number of worker threads. Tasks implementing
+ * {@link OrderedTask} are queued by their ordering key (the service PID):
+ * tasks with the same key are run strictly in the order they have been
+ * scheduled, while tasks with different keys may run in parallel. All other
+ * tasks share a single queue. A queued task may be replaced by a task
+ * scheduled later with the same coalescing key, see
+ * {@link OrderedTask#getCoalescingKey()}.
+ * <p>
+ * The time each task waited in the queue and the time it took to run are
+ * logged at DEBUG level. Tasks running longer than 5 seconds are logged at
+ * WARNING level since they delay all further tasks for the same PID.
  */
 public class UpdateThread implements Runnable
 {
 
-    // the thread group into which the worker thread will be placed
+    /**
+     * A task with an ordering key and an optional coalescing key.
+     */
+    interface OrderedTask extends Runnable
+    {
+        /**
+         * Returns the key of the queue of this task. Tasks with the same key
+         * are run in the order they have been scheduled.
+         */
+        String getOrderingKey();
+
+        /**
+         * Returns the key identifying tasks superseded by this task or
+         * <code>null</code> if this task does not supersede other tasks.
+         * When this task is scheduled, the last task with the same coalescing
+         * key not yet running is removed from the queue, unless a task
+         * without coalescing key has been queued since.
+         */
+        String getCoalescingKey();
+    }
+
+    // the ordering key of tasks not implementing OrderedTask
+    private static final String DEFAULT_KEY = "";
+
+    // tasks running longer than this are logged as warnings
+    private static final long SLOW_TASK_MILLIS = 5000;
+
+    // the thread group into which the worker threads will be placed
     private final ThreadGroup workerThreadGroup;
 
     // the thread's base name
     private final String workerBaseName;
 
-    // the queue of Runnable instances  to be run
-    private final LinkedList updateTasks;
+    // the maximum number of worker threads
+    private final int maxWorkers;
+
+    // the queues of tasks to be run by their ordering key
+    private final Map<String, TaskQueue> queues;
+
+    // the queues with tasks ready to be run, guarded by queues
+    private final LinkedList<TaskQueue> readyQueues;
+
+    // whether termination has been initiated, guarded by queues
+    private boolean terminated;
 
-    // the actual thread
-    private Thread worker;
+    // the actual threads
+    private final List<Thread> workers;
 
     // the access control context
     private final AccessControlContext acc;
 
     public UpdateThread( final ThreadGroup tg, final String name )
+    {
+        this( tg, name, 1 );
+    }
+
+    public UpdateThread( final ThreadGroup tg, final String name, final int maxWorkers )
     {
         this.workerThreadGroup = tg;
         this.workerBaseName = name;
+        this.maxWorkers = Math.max( 1, maxWorkers );
         this.acc = AccessController.getContext();
 
-        this.updateTasks = new LinkedList();
+        this.queues = new HashMap<>();
+        this.readyQueues = new LinkedList<>();
+        this.workers = new ArrayList<>();
     }
 
 
-    // waits on Runnable instances coming into the queue. As instances come
-    // in, this method calls the Runnable.run method, logs any exception
-    // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
-    // terminates.
+    // waits for queues with tasks becoming ready. As queues become ready,
+    // this method takes the next task of the queue, calls its Runnable.run
+    // method, logs any exception happening and keeps on waiting for the next
+    // queue. The thread terminates once termination has been initiated and
+    // all queued tasks have been run.
     @Override
     public void run()
     {
         for ( ;; )
         {
-            Runnable task;
-            synchronized ( updateTasks )
+            final TaskQueue queue;
+            final Task task;
+            synchronized ( queues )
             {
-                while ( updateTasks.isEmpty() )
+                while ( readyQueues.isEmpty() )
                 {
+                    if ( terminated )
+                    {
+                        return;
+                    }
+
                     try
                     {
-                        updateTasks.wait();
+                        queues.wait();
                     }
                     catch ( InterruptedException ie )
                     {
@@ -84,38 +151,75 @@ public class UpdateThread implements Runnable
                     }
                 }
 
-                task = ( Runnable ) updateTasks.removeFirst();
-            }
-
-            // return if the task is this thread itself
-            if ( task == this )
-            {
-                return;
+                queue = readyQueues.removeFirst();
+                queue.running = true;
+                task = queue.tasks.removeFirst();
             }
 
-            // otherwise execute the task, log any issues
             try
             {
-                // set the thread name indicating the current task
-                Thread.currentThread().setName( workerBaseName + " (" + task + ")" );
-
-                Log.logger.log( LogService.LOG_DEBUG, "Running task {0}", new Object[]
-                    { task } );
-
-                run0(task);
-            }
-            catch ( Throwable t )
-            {
-                Log.logger.log( LogService.LOG_ERROR, "Unexpected problem executing task", t );
+                execute( task );
             }
             finally
             {
-                // reset the thread name to "idle"
-                Thread.currentThread().setName( workerBaseName );
+                synchronized ( queues )
+                {
+                    queue.running = false;
+                    if ( queue.tasks.isEmpty() )
+                    {
+                        queues.remove( queue.key );
+                    }
+                    else
+                    {
+                        // requeue at the end to be fair to other PIDs
+                        readyQueues.add( queue );
+                        queues.notify();
+                    }
+                }
             }
         }
     }
 
+    private void execute( final Task task )
+    {
+        final long started = System.nanoTime();
+        try
+        {
+            // set the thread name indicating the current task
+            Thread.currentThread().setName( workerBaseName + " (" + task.runnable + ")" );
+
+            Log.logger.log( LogService.LOG_DEBUG, "Running task {0}", new Object[]
+                { task.runnable } );
+
+            run0( task.runnable );
+        }
+        catch ( Throwable t )
+        {
+            Log.logger.log( LogService.LOG_ERROR, "Unexpected problem executing task", t );
+        }
+        finally
+        {
+            // reset the thread name to "idle"
+            Thread.currentThread().setName( workerBaseName );
+        }
+
+        final long finished = System.nanoTime();
+        final long waitMillis = ( started - task.scheduled ) / 1000000L;
+        final long runMillis = ( finished - started ) / 1000000L;
+        if ( runMillis > SLOW_TASK_MILLIS )
+        {
+            Log.logger.log( LogService.LOG_WARNING,
+                "Task {0} took {1}ms to run after waiting {2}ms, delaying all further tasks for the same PID",
+                new Object[]
+                    { task.runnable, runMillis, waitMillis } );
+        }
+        else if ( Log.logger.isLogEnabled( LogService.LOG_DEBUG ) )
+        {
+            Log.logger.log( LogService.LOG_DEBUG, "Task {0} took {1}ms to run after waiting {2}ms", new Object[]
+                { task.runnable, runMillis, waitMillis } );
+        }
+    }
+
     void run0(final Runnable task) throws Throwable {
         if (System.getSecurityManager() != null) {
             try {
@@ -141,30 +245,34 @@ public class UpdateThread implements Runnable
 
     /**
      * Starts processing the queued tasks. This method does nothing if the
-     * worker has already been started.
+     * workers have already been started.
      */
     synchronized void start()
     {
-        if ( this.worker == null )
+        if ( this.workers.isEmpty() )
         {
-            Thread workerThread = new Thread( workerThreadGroup, this, workerBaseName );
-            workerThread.setDaemon( true );
-            workerThread.start();
-            this.worker = workerThread;
+            for ( int i = 0; i < maxWorkers; i++ )
+            {
+                final String name = ( maxWorkers == 1 ) ? workerBaseName : workerBaseName + " #" + ( i + 1 );
+                final Thread workerThread = new Thread( workerThreadGroup, this, name );
+                workerThread.setDaemon( true );
+                workerThread.start();
+                this.workers.add( workerThread );
+            }
         }
     }
 
 
     /**
-     * Terminates the worker thread and waits for the thread to have processed
-     * all outstanding events up to and including the termination job. All
-     * jobs {@link #schedule(Runnable) scheduled} after termination has been
+     * Terminates the worker threads and waits for the threads to have
+     * processed all outstanding tasks. All tasks
+     * {@link #schedule(Runnable) scheduled} after termination has been
      * initiated will not be processed any more. This method does nothing if
-     * the worker thread is not currently active.
+     * the worker threads are not currently active.
      * <p>
-     * If the worker thread does not terminate within 5 seconds it is killed
+     * If the worker threads do not terminate within 5 seconds they are killed
      * by calling the (deprecated) <code>Thread.stop()</code> method. It may
-     * be that the worker thread may be blocked by a deadlock (it should not,
+     * be that a worker thread may be blocked by a deadlock (it should not,
      * though). In this case hope is that <code>Thread.stop()</code> will be
      * able to released that deadlock at the expense of one or more tasks to
      * not be executed any longer.... In any case an ERROR message is logged
@@ -172,30 +280,40 @@ public class UpdateThread implements Runnable
      */
     synchronized void terminate()
     {
-        if ( this.worker != null )
+        if ( !this.workers.isEmpty() )
         {
-            Thread workerThread = this.worker;
-            this.worker = null;
-
-            schedule( this );
-
-            // wait for all updates to terminate (<= 10 seconds !)
-            try
-            {
-                workerThread.join( 5000 );
-            }
-            catch ( InterruptedException ie )
+            synchronized ( queues )
             {
-                // don't really care
+                terminated = true;
+                queues.notifyAll();
             }
 
-            if ( workerThread.isAlive() )
+            // wait for all updates to terminate (<= 5 seconds !)
+            final long deadline = System.currentTimeMillis() + 5000;
+            for ( final Thread workerThread : this.workers )
             {
-                Log.logger.log( LogService.LOG_ERROR,
-                    "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
-                        { workerBaseName } );
-                workerThread.stop();
+                try
+                {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if ( remaining > 0 )
+                    {
+                        workerThread.join( remaining );
+                    }
+                }
+                catch ( InterruptedException ie )
+                {
+                    // don't really care
+                }
+
+                if ( workerThread.isAlive() )
+                {
+                    Log.logger.log( LogService.LOG_ERROR,
+                        "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
+                            { workerThread.getName() } );
+                    workerThread.stop();
+                }
             }
+            this.workers.clear();
         }
     }
 
@@ -203,16 +321,111 @@ public class UpdateThread implements Runnable
     // queue the given runnable to be run as soon as possible
     void schedule( Runnable update )
     {
-        synchronized ( updateTasks )
+        final String key;
+        final String coalescingKey;
+        if ( update instanceof OrderedTask )
+        {
+            key = ( ( OrderedTask ) update ).getOrderingKey();
+            coalescingKey = ( ( OrderedTask ) update ).getCoalescingKey();
+        }
+        else
+        {
+            key = DEFAULT_KEY;
+            coalescingKey = null;
+        }
+
+        synchronized ( queues )
         {
+            if ( terminated )
+            {
+                Log.logger.log( LogService.LOG_DEBUG, "Ignoring task {0} scheduled after termination", new Object[]
+                    { update } );
+                return;
+            }
+
             Log.logger.log( LogService.LOG_DEBUG, "Scheduling task {0}", new Object[]
                 { update } );
 
+            TaskQueue queue = queues.get( key );
+            if ( queue == null )
+            {
+                queue = new TaskQueue( key );
+                queues.put( key, queue );
+            }
+
+            // the queue only becomes ready if it is not already contained in
+            // the ready queues; this must be checked before coalescing, which
+            // may remove the only task of a queue already waiting to be run
+            final boolean ready = queue.tasks.isEmpty() && !queue.running;
+            if ( coalescingKey != null )
+            {
+                coalesce( queue, coalescingKey, update );
+            }
+
             // append to the task queue
-            updateTasks.add( update );
+            queue.tasks.add( new Task( update ) );
+
+            // notify a waiting thread
+            if ( ready )
+            {
+                readyQueues.add( queue );
+                queues.notify();
+            }
+        }
+    }
+
+    // removes the last queued task superseded by the update
+    private void coalesce( final TaskQueue queue, final String coalescingKey, final Runnable update )
+    {
+        for ( Iterator<Task> ti = queue.tasks.descendingIterator(); ti.hasNext(); )
+        {
+            final Task queued = ti.next();
+            final String queuedKey = ( queued.runnable instanceof OrderedTask )
+                ? ( ( OrderedTask ) queued.runnable ).getCoalescingKey() : null;
+            if ( queuedKey == null )
+            {
+                // the queued task may depend on any earlier task
+                return;
+            }
+            else if ( queuedKey.equals( coalescingKey ) )
+            {
+                ti.remove();
+                Log.logger.log( LogService.LOG_DEBUG, "Task {0} superseded by {1}", new Object[]
+                    { queued.runnable, update } );
+                return;
+            }
+        }
+    }
 
-            // notify the waiting thread
-            updateTasks.notifyAll();
+    /**
+     * The tasks of a single ordering key. A queue is in the map of queues as
+     * long as it has tasks or one of its tasks is running and is contained in
+     * the ready queues if it has tasks and none of its tasks is running. All
+     * fields are guarded by the lock on the map of queues.
+     */
+    private static final class TaskQueue
+    {
+        final String key;
+
+        final LinkedList<Task> tasks = new LinkedList<>();
+
+        boolean running;
+
+        TaskQueue( final String key )
+        {
+            this.key = key;
+        }
+    }
+
+    private static final class Task
+    {
+        final Runnable runnable;
+
+        final long scheduled = System.nanoTime();
+
+        Task( final Runnable runnable )
+        {
+            this.runnable = runnable;
         }
     }
 }
@@ -84,22 +84,27 @@ public class ManagedServiceFactoryTracker extends BaseTracker<ManagedServiceFact
         // are available, so the service can be updated with the
         // configuration (which may be null)
 
-        if ( configs.shallTake( configPid, factoryPid, revision ) )
+        // Updates for the factory PIDs of a service may be run by different
+        // update threads, so the service is updated by one of them at a time
+        synchronized ( configs )
         {
-            try
-            {
-                Dictionary props = getProperties( properties, reference, configPid.toString(),
-                    factoryPid.toString() );
-                updated( reference, service, configPid.toString(), props );
-                configs.record( configPid, factoryPid, revision );
-            }
-            catch ( Throwable t )
-            {
-                this.handleCallBackError( t, reference, configPid );
-            }
-            finally
+            if ( configs.shallTake( configPid, factoryPid, revision ) )
             {
-                this.ungetRealService( reference );
+                try
+                {
+                    Dictionary props = getProperties( properties, reference, configPid.toString(),
+                        factoryPid.toString() );
+                    updated( reference, service, configPid.toString(), props );
+                    configs.record( configPid, factoryPid, revision );
+                }
+                catch ( Throwable t )
+                {
+                    this.handleCallBackError( t, reference, configPid );
+                }
+                finally
+                {
+                    this.ungetRealService( reference );
+                }
             }
         }
     }
@@ -113,20 +118,23 @@ public class ManagedServiceFactoryTracker extends BaseTracker<ManagedServiceFact
         final ConfigurationMap configs = this.getService( reference );
         if ( service != null && configs != null)
         {
-            if ( configs.removeConfiguration( configPid, factoryPid ) )
+            synchronized ( configs )
             {
-                try
-                {
-                    deleted( reference, service, configPid.toString() );
-                    configs.record( configPid, factoryPid, -1 );
-                }
-                catch ( Throwable t )
-                {
-                    this.handleCallBackError( t, reference, configPid );
-                }
-                finally
+                if ( configs.removeConfiguration( configPid, factoryPid ) )
                 {
-                    this.ungetRealService( reference );
+                    try
+                    {
+                        deleted( reference, service, configPid.toString() );
+                        configs.record( configPid, factoryPid, -1 );
+                    }
+                    catch ( Throwable t )
+                    {
+                        this.handleCallBackError( t, reference, configPid );
+                    }
+                    finally
+                    {
+                        this.ungetRealService( reference );
+                    }
                 }
             }
         }
@@ -116,49 +116,54 @@ public class ManagedServiceTracker extends BaseTracker<ManagedService>
             }
         }
 
-        // Both the ManagedService to update and the Configuration-to-PID
-        // are available, so the service can be updated with the
-        // configuration (which may be null)
-
-        boolean doUpdate = false;
-        if ( properties == null )
-        {
-            doUpdate = configs.removeConfiguration( configPid, null );
-        }
-        else if ( properties == INITIAL_MARKER )
-        {
-            // initial call to ManagedService may supply null properties
-            properties = null;
-            revision = -1;
-            doUpdate = true;
-        }
-        else if ( revision < 0 || configs.shallTake( configPid, null, revision ) )
+        // Updates for the PIDs of a service may be run by different update
+        // threads, so the service is updated by one of them at a time
+        synchronized ( configs )
         {
-            // run the plugins and cause the update
-            properties = getProperties( properties, service, configPid.toString(), null );
-            doUpdate = true;
-            revision = Math.abs( revision );
-        }
-        else
-        {
-            // new configuration is not a better match, don't update
-            doUpdate = false;
-        }
+            // Both the ManagedService to update and the Configuration-to-PID
+            // are available, so the service can be updated with the
+            // configuration (which may be null)
 
-        if ( doUpdate )
-        {
-            try
+            boolean doUpdate = false;
+            if ( properties == null )
+            {
+                doUpdate = configs.removeConfiguration( configPid, null );
+            }
+            else if ( properties == INITIAL_MARKER )
             {
-                updated( service, srv, properties );
-                configs.record( configPid, null, revision );
+                // initial call to ManagedService may supply null properties
+                properties = null;
+                revision = -1;
+                doUpdate = true;
             }
-            catch ( Throwable t )
+            else if ( revision < 0 || configs.shallTake( configPid, null, revision ) )
             {
-                this.handleCallBackError( t, service, configPid );
+                // run the plugins and cause the update
+                properties = getProperties( properties, service, configPid.toString(), null );
+                doUpdate = true;
+                revision = Math.abs( revision );
             }
-            finally
+            else
             {
-                this.ungetRealService( service );
+                // new configuration is not a better match, don't update
+                doUpdate = false;
+            }
+
+            if ( doUpdate )
+            {
+                try
+                {
+                    updated( service, srv, properties );
+                    configs.record( configPid, null, revision );
+                }
+                catch ( Throwable t )
+                {
+                    this.handleCallBackError( t, service, configPid );
+                }
+                finally
+                {
+                    this.ungetRealService( service );
+                }
             }
         }
     }
@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -46,6 +47,13 @@ import org.osgi.service.cm.ConfigurationAdmin;
  * underlying actual {@link PersistenceManager} implementation. All API calls
  * are also (or primarily) routed through a local cache of dictionaries indexed
  * by the <code>service.pid</code>.
+ * <p>
+ * In addition secondary indexes are maintained for the
+ * <code>service.factoryPid</code> and <code>service.bundleLocation</code>
+ * properties as well as for any additionally configured property names. These
+ * indexes are used by {@link #getDictionaries(SimpleFilter)} to narrow down
+ * the candidates for equality filters and conjunctions thereof instead of
+ * matching the filter against every cached dictionary.
  */
 public class CachingPersistenceManagerProxy implements ExtPersistenceManager
 {
@@ -66,16 +74,45 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
      */
     private volatile boolean fullyLoaded;
 
-    /** Factory configuration cache. */
-    private final Map<String, Set<String>> factoryConfigCache = new HashMap<>();
+    /** Secondary property indexes by (case insensitive) property name. */
+    private final Map<String, PropertyIndex> indexes = new TreeMap<>( CaseInsensitiveDictionary.CASE_INSENSITIVE_ORDER );
+
+    /** Factory configuration index, also contained in {@link #indexes}. */
+    private final PropertyIndex factoryConfigIndex;
 
     /**
      * Creates a new caching layer for the given actual {@link PersistenceManager}.
      * @param pm The actual {@link PersistenceManager}
      */
     public CachingPersistenceManagerProxy( final PersistenceManager pm )
+    {
+        this( pm, null );
+    }
+
+    /**
+     * Creates a new caching layer for the given actual {@link PersistenceManager}
+     * additionally indexing the given property names.
+     * @param pm The actual {@link PersistenceManager}
+     * @param indexedProperties Additional property names to index, may be
+     *          <code>null</code>
+     */
+    public CachingPersistenceManagerProxy( final PersistenceManager pm, final String[] indexedProperties )
     {
         this.pm = pm;
+        this.factoryConfigIndex = new PropertyIndex( ConfigurationAdmin.SERVICE_FACTORYPID );
+        this.indexes.put( ConfigurationAdmin.SERVICE_FACTORYPID, this.factoryConfigIndex );
+        this.indexes.put( ConfigurationAdmin.SERVICE_BUNDLELOCATION, new PropertyIndex( ConfigurationAdmin.SERVICE_BUNDLELOCATION ) );
+        if ( indexedProperties != null )
+        {
+            for ( final String name : indexedProperties )
+            {
+                if ( name != null && !name.isEmpty() && !Constants.SERVICE_PID.equalsIgnoreCase( name )
+                    && !this.indexes.containsKey( name ) )
+                {
+                    this.indexes.put( name, new PropertyIndex( name ) );
+                }
+            }
+        }
     }
 
     @Override
@@ -96,23 +133,7 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         try
         {
             lock.lock();
-            final Dictionary props = cache.remove( pid );
-            if ( props != null )
-            {
-                final String factoryPid = (String)props.get(ConfigurationAdmin.SERVICE_FACTORYPID);
-                if ( factoryPid != null )
-                {
-                    final Set<String> factoryPids = this.factoryConfigCache.get(factoryPid);
-                    if ( factoryPids != null )
-                    {
-                        factoryPids.remove(pid);
-                        if ( factoryPids.isEmpty() )
-                        {
-                            this.factoryConfigCache.remove(factoryPid);
-                        }
-                    }
-                }
-            }
+            this.uncache( pid );
             pm.delete(pid);
         }
         finally
@@ -156,7 +177,13 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
     @Override
     public Enumeration getDictionaries() throws IOException
     {
-        return Collections.enumeration(getDictionaries( null ));
+        final Collection<Dictionary> snapshots = getDictionaries( null );
+        final List<Dictionary> configs = new ArrayList<>( snapshots.size() );
+        for ( final Dictionary d : snapshots )
+        {
+            configs.add( new CaseInsensitiveDictionary( d ) );
+        }
+        return Collections.enumeration( configs );
     }
 
     private final CaseInsensitiveDictionary cache(final Dictionary props)
@@ -170,22 +197,52 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
             {
                 dict = new CaseInsensitiveDictionary(props);
                 cache.put( pid, dict );
-                final String factoryPid = (String)props.get(ConfigurationAdmin.SERVICE_FACTORYPID);
-                if ( factoryPid != null )
+                for ( final PropertyIndex index : this.indexes.values() )
                 {
-                    Set<String> factoryPids = this.factoryConfigCache.get(factoryPid);
-                    if ( factoryPids == null )
-                    {
-                        factoryPids = new HashSet<>();
-                        this.factoryConfigCache.put(factoryPid, factoryPids);
-                    }
-                    factoryPids.add(pid);
+                    index.add( pid, dict );
                 }
             }
         }
         return dict;
     }
 
+    private final void uncache(final String pid)
+    {
+        final CaseInsensitiveDictionary dict = cache.remove( pid );
+        if ( dict != null )
+        {
+            for ( final PropertyIndex index : this.indexes.values() )
+            {
+                index.remove( pid, dict );
+            }
+        }
+    }
+
+    /**
+     * Loads all dictionaries from the underlying persistence manager into the
+     * cache. The write lock must be held by the caller.
+     */
+    private void loadAll() throws IOException
+    {
+        if ( !this.fullyLoaded )
+        {
+            final Enumeration fromPm = pm.getDictionaries();
+            while ( fromPm.hasMoreElements() )
+            {
+                Dictionary next = (Dictionary) fromPm.nextElement();
+                this.cache(next);
+            }
+            this.fullyLoaded = true;
+        }
+    }
+
+    /**
+     * Returns the dictionaries matching the filter.
+     * <p>
+     * In contrast to {@link #getDictionaries()} the dictionaries returned are
+     * read-only snapshots of the cached dictionaries and are not copied. Callers
+     * wishing to modify a returned dictionary must create a copy first.
+     */
     @Override
     public Collection<Dictionary> getDictionaries( final SimpleFilter filter ) throws IOException
     {
@@ -200,25 +257,27 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
                 lock.unlock();
                 lock = globalLock.writeLock();
                 lock.lock();
-                if ( !fullyLoaded )
+                this.loadAll();
+            }
+
+            // cached dictionaries are never modified but replaced, hence
+            // read-only views can be handed out instead of copies
+            final Collection<String> candidates = filter == null ? null : this.getCandidates( filter );
+            final List<Dictionary> configs;
+            if ( candidates == null )
+            {
+                configs = new ArrayList<>();
+                for (final CaseInsensitiveDictionary d : cache.values())
                 {
-                    Enumeration fromPm = pm.getDictionaries();
-                    while ( fromPm.hasMoreElements() )
-                    {
-                        Dictionary next = (Dictionary) fromPm.nextElement();
-                        this.cache(next);
-                    }
-                    this.fullyLoaded = true;
+                    addIfMatching( configs, d, filter );
                 }
             }
-
-            // Deep copy the configuration to avoid any threading issue
-            final List<Dictionary> configs = new ArrayList<>();
-            for (final Dictionary d : cache.values())
+            else
             {
-                if ( d.get( Constants.SERVICE_PID ) != null && ( filter == null || filter.matches( d ) ) )
+                configs = new ArrayList<>( candidates.size() );
+                for (final String pid : candidates)
                 {
-                    configs.add( new CaseInsensitiveDictionary( d ) );
+                    addIfMatching( configs, cache.get( pid ), filter );
                 }
             }
             return configs;
@@ -229,6 +288,51 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         }
     }
 
+    private static void addIfMatching( final List<Dictionary> configs,
+            final CaseInsensitiveDictionary d,
+            final SimpleFilter filter )
+    {
+        if ( d != null && d.get( Constants.SERVICE_PID ) != null && ( filter == null || filter.matches( d ) ) )
+        {
+            configs.add( CaseInsensitiveDictionary.unmodifiable( d ) );
+        }
+    }
+
+    /**
+     * Returns the PIDs of the dictionaries possibly matching the filter or
+     * <code>null</code> if the filter cannot be answered from the indexes.
+     * The returned PIDs are a superset of the matching PIDs, the filter still
+     * has to be applied to the dictionaries.
+     */
+    private Collection<String> getCandidates( final SimpleFilter filter )
+    {
+        if ( filter.getOperation() == SimpleFilter.EQ )
+        {
+            final String value = ( String ) filter.getValue();
+            if ( Constants.SERVICE_PID.equalsIgnoreCase( filter.getName() ) )
+            {
+                return Collections.singleton( value );
+            }
+            final PropertyIndex index = this.indexes.get( filter.getName() );
+            return index == null ? null : index.get( value );
+        }
+        else if ( filter.getOperation() == SimpleFilter.AND )
+        {
+            // any of the indexed operands restricts the result, use the most
+            // selective one
+            Collection<String> candidates = null;
+            for ( final Object o : ( List ) filter.getValue() )
+            {
+                final Collection<String> c = this.getCandidates( ( SimpleFilter ) o );
+                if ( c != null && ( candidates == null || c.size() < candidates.size() ) )
+                {
+                    candidates = c;
+                }
+            }
+            return candidates;
+        }
+        return null;
+    }
 
     /**
      * Returns the dictionary for the given PID or <code>null</code> if no
@@ -289,7 +393,7 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         {
             lock.lock();
             pm.store( pid, properties );
-            this.cache.remove(pid);
+            this.uncache(pid);
             this.cache(properties);
         }
         finally
@@ -312,27 +416,14 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
                 lock.unlock();
                 lock = globalLock.writeLock();
                 lock.lock();
-                if ( !this.fullyLoaded )
-                {
-                    final Enumeration fromPm = pm.getDictionaries();
-                    while ( fromPm.hasMoreElements() )
-                    {
-                        Dictionary next = (Dictionary) fromPm.nextElement();
-                        this.cache(next);
-                    }
-                    this.fullyLoaded = true;
-                }
+                this.loadAll();
                 lock.unlock();
                 lock = globalLock.readLock();
                 lock.lock();
             }
             for(final String targetFactoryPid : targetedFactoryPids)
             {
-                final Set<String> cachedPids = this.factoryConfigCache.get(targetFactoryPid);
-                if ( cachedPids != null )
-                {
-                    pids.addAll(cachedPids);
-                }
+                pids.addAll(this.factoryConfigIndex.get(targetFactoryPid));
             }
         }
         finally
@@ -341,4 +432,118 @@ public class CachingPersistenceManagerProxy implements ExtPersistenceManager
         }
         return pids;
     }
+
+
+    /**
+     * Index of the PIDs of the cached dictionaries by the string values of a
+     * single property. Dictionaries whose property value cannot be compared
+     * as a plain string (for example numbers which are subject to type
+     * coercion by the filter) are recorded as unindexed and are always part
+     * of the candidates returned.
+     */
+    private static final class PropertyIndex
+    {
+        private final String name;
+
+        private final Map<String, Set<String>> pidsByValue = new HashMap<>();
+
+        private final Set<String> unindexed = new HashSet<>();
+
+        PropertyIndex( final String name )
+        {
+            this.name = name;
+        }
+
+        void add( final String pid, final Dictionary props )
+        {
+            final Object value = props.get( this.name );
+            if ( value != null && !this.update( pid, value, true ) )
+            {
+                this.unindexed.add( pid );
+            }
+        }
+
+        void remove( final String pid, final Dictionary props )
+        {
+            final Object value = props.get( this.name );
+            if ( value != null && !this.update( pid, value, false ) )
+            {
+                this.unindexed.remove( pid );
+            }
+        }
+
+        /**
+         * Returns the PIDs of the dictionaries possibly having the given value.
+         */
+        Set<String> get( final String value )
+        {
+            final Set<String> pids = this.pidsByValue.get( value );
+            if ( this.unindexed.isEmpty() )
+            {
+                return pids == null ? Collections.<String> emptySet() : pids;
+            }
+            final Set<String> result = new HashSet<>( this.unindexed );
+            if ( pids != null )
+            {
+                result.addAll( pids );
+            }
+            return result;
+        }
+
+        private boolean update( final String pid, final Object value, final boolean add )
+        {
+            if ( value instanceof String )
+            {
+                this.update( pid, ( String ) value, add );
+                return true;
+            }
+            final Object[] values;
+            if ( value instanceof String[] )
+            {
+                values = ( String[] ) value;
+            }
+            else if ( value instanceof Collection )
+            {
+                values = ( ( Collection ) value ).toArray();
+            }
+            else
+            {
+                return false;
+            }
+            for ( final Object v : values )
+            {
+                if ( !( v instanceof String ) )
+                {
+                    return false;
+                }
+            }
+            for ( final Object v : values )
+            {
+                this.update( pid, ( String ) v, add );
+            }
+            return true;
+        }
+
+        private void update( final String pid, final String value, final boolean add )
+        {
+            Set<String> pids = this.pidsByValue.get( value );
+            if ( add )
+            {
+                if ( pids == null )
+                {
+                    pids = new HashSet<>();
+                    this.pidsByValue.put( value, pids );
+                }
+                pids.add( pid );
+            }
+            else if ( pids != null )
+            {
+                pids.remove( pid );
+                if ( pids.isEmpty() )
+                {
+                    this.pidsByValue.remove( value );
+                }
+            }
+        }
+    }
 }
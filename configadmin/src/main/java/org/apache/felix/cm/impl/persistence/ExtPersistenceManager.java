@@ -32,6 +32,14 @@ import org.apache.felix.cm.impl.SimpleFilter;
  */
 public interface ExtPersistenceManager extends PersistenceManager
 {
+    /**
+     * Returns the dictionaries matching the given filter. The returned
+     * dictionaries may be read-only and must not be modified by the caller.
+     *
+     * @param filter The filter, <code>null</code> to return all dictionaries
+     * @return The matching dictionaries
+     * @throws IOException If an error occurs reading the dictionaries
+     */
     Collection<Dictionary> getDictionaries( SimpleFilter filter ) throws IOException;
 
     Set<String> getFactoryConfigurationPids( List<String> targetedFactoryPids )
@@ -58,6 +58,8 @@ public class PersistenceManagerTracker
 
     private final BundleContext bundleContext;
 
+    private final String[] indexedProperties;
+
     private volatile ConfigurationManager configurationManager;
 
     // service tracker for optional coordinator
@@ -65,10 +67,12 @@ public class PersistenceManagerTracker
 
     public PersistenceManagerTracker(final BundleContext bundleContext,
             final PersistenceManager defaultPM,
-            final String pmName )
+            final String pmName,
+            final String[] indexedProperties )
     throws InvalidSyntaxException
     {
         this.bundleContext = bundleContext;
+        this.indexedProperties = indexedProperties;
         if ( pmName != null )
         {
             Log.logger.log(LogService.LOG_DEBUG, "Using persistence manager {0}", new Object[] {pmName});
@@ -144,7 +148,7 @@ public class PersistenceManagerTracker
         }
         else
         {
-            extPM = new CachingPersistenceManagerProxy( pm );
+            extPM = new CachingPersistenceManagerProxy( pm, this.indexedProperties );
         }
         return extPM;
     }
@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+public class JournalPersistenceManagerTest
+{
+    private File file = new File( System.getProperty( "java.io.tmpdir" ), "journal" );
+
+    private JournalPersistenceManager jpm;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        delete( file );
+        jpm = new JournalPersistenceManager( file, 1024 );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        jpm.close();
+        delete( file );
+    }
+
+    @Test
+    public void testStoreLoadDelete() throws Exception
+    {
+        assertTrue( jpm.isEmpty() );
+        assertFalse( jpm.exists( "a" ) );
+
+        final Dictionary<String, Object> props = createConfiguration( "a", 1 );
+        props.put( "array", new String[] { "x", "y" } );
+        jpm.store( "a", props );
+        assertTrue( jpm.exists( "a" ) );
+
+        Dictionary<?, ?> loaded = jpm.load( "a" );
+        assertEquals( "a", loaded.get( Constants.SERVICE_PID ) );
+        assertEquals( 1, loaded.get( "value" ) );
+        assertArrayEquals( new String[] { "x", "y" }, ( String[] ) loaded.get( "array" ) );
+
+        jpm.store( "a", createConfiguration( "a", 2 ) );
+        loaded = jpm.load( "a" );
+        assertEquals( 2, loaded.get( "value" ) );
+        assertNull( loaded.get( "array" ) );
+
+        jpm.delete( "a" );
+        assertFalse( jpm.exists( "a" ) );
+        assertTrue( jpm.isEmpty() );
+        try
+        {
+            jpm.load( "a" );
+            fail( "Expected FileNotFoundException" );
+        }
+        catch ( FileNotFoundException fnfe )
+        {
+            // expected
+        }
+
+        // deleting again has no effect
+        jpm.delete( "a" );
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        for ( int i = 0; i < 50; i++ )
+        {
+            jpm.store( "pid" + i, createConfiguration( "pid" + i, i ) );
+        }
+        for ( int i = 0; i < 50; i += 2 )
+        {
+            jpm.delete( "pid" + i );
+        }
+        jpm.store( "pid1", createConfiguration( "pid1", 100 ) );
+        jpm.close();
+
+        jpm = new JournalPersistenceManager( file, 1024 );
+        assertEquals( 25, getPids( jpm ).size() );
+        assertFalse( jpm.exists( "pid0" ) );
+        assertEquals( 100, jpm.load( "pid1" ).get( "value" ) );
+        assertEquals( 49, jpm.load( "pid49" ).get( "value" ) );
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        for ( int i = 0; i < 500; i++ )
+        {
+            jpm.store( "pid" + ( i % 5 ), createConfiguration( "pid" + ( i % 5 ), i ) );
+        }
+        jpm.delete( "pid0" );
+        compact( "pid1" );
+
+        // only a few small segments should be left after compaction
+        assertTrue( segmentFiles().length <= 3 );
+        assertEquals( 4, getPids( jpm ).size() );
+        assertEquals( 499, jpm.load( "pid4" ).get( "value" ) );
+
+        jpm.close();
+        jpm = new JournalPersistenceManager( file, 1024 );
+        assertEquals( 4, getPids( jpm ).size() );
+        assertFalse( jpm.exists( "pid0" ) );
+        assertEquals( 498, jpm.load( "pid3" ).get( "value" ) );
+    }
+
+    @Test
+    public void testCompactionFailure() throws Exception
+    {
+        // directories in place of the snapshot files make compaction fail
+        final List<File> blockers = new ArrayList<>();
+        for ( int i = 1; i <= 100; i++ )
+        {
+            final File blocker = new File( file, "journal-" + i + ".tmp" );
+            assertTrue( blocker.mkdir() );
+            blockers.add( blocker );
+        }
+
+        // the changes are durable although they cannot be compacted
+        for ( int i = 0; i < 500; i++ )
+        {
+            jpm.store( "pid" + ( i % 5 ), createConfiguration( "pid" + ( i % 5 ), i ) );
+        }
+        jpm.awaitCompaction();
+        assertTrue( segmentFiles().length > 100 + 3 );
+        assertEquals( 499, jpm.load( "pid4" ).get( "value" ) );
+
+        // compaction is retried when the next segment is rolled over
+        for ( final File blocker : blockers )
+        {
+            assertTrue( blocker.delete() );
+        }
+        compact( "pid0" );
+        assertTrue( segmentFiles().length <= 3 );
+        assertEquals( 495, jpm.load( "pid0" ).get( "value" ) );
+        assertEquals( 499, jpm.load( "pid4" ).get( "value" ) );
+    }
+
+    @Test
+    public void testCompactionWithConcurrentCommits() throws Exception
+    {
+        final int threads = 4;
+        final int count = 300;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final List<Throwable> failures = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+        for ( int t = 0; t < threads; t++ )
+        {
+            final int id = t;
+            final Thread worker = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < count; i++ )
+                        {
+                            final String pid = "t" + id + "." + ( i % 5 );
+                            if ( i % 7 == 0 )
+                            {
+                                jpm.delete( pid );
+                            }
+                            else
+                            {
+                                jpm.store( pid, createConfiguration( pid, i ) );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        synchronized ( failures )
+                        {
+                            failures.add( e );
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add( worker );
+        }
+        start.countDown();
+        for ( final Thread worker : workers )
+        {
+            worker.join();
+        }
+        jpm.awaitCompaction();
+        assertTrue( failures.toString(), failures.isEmpty() );
+
+        // the last change of each PID wins, regardless of the compactions
+        for ( int r = 0; r < 2; r++ )
+        {
+            for ( int t = 0; t < threads; t++ )
+            {
+                for ( int p = 0; p < 5; p++ )
+                {
+                    final String pid = "t" + t + "." + p;
+                    int last = count - 5 + p;
+                    if ( last % 7 == 0 )
+                    {
+                        assertFalse( pid, jpm.exists( pid ) );
+                    }
+                    else
+                    {
+                        assertEquals( pid, last, jpm.load( pid ).get( "value" ) );
+                    }
+                }
+            }
+            jpm.close();
+            jpm = new JournalPersistenceManager( file, 1024 );
+        }
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception
+    {
+        jpm.store( "a", createConfiguration( "a", 1 ) );
+        jpm.store( "b", createConfiguration( "b", 2 ) );
+        jpm.close();
+
+        // simulate a crash while writing the last record
+        final File[] segments = segmentFiles();
+        assertEquals( 1, segments.length );
+        final long length = segments[0].length();
+        final RandomAccessFile raf = new RandomAccessFile( segments[0], "rw" );
+        try
+        {
+            raf.setLength( length - 3 );
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        jpm = new JournalPersistenceManager( file, 1024 );
+        assertTrue( jpm.exists( "a" ) );
+        assertFalse( jpm.exists( "b" ) );
+
+        // the broken record has been truncated and is overwritten
+        jpm.store( "c", createConfiguration( "c", 3 ) );
+        jpm.close();
+        jpm = new JournalPersistenceManager( file, 1024 );
+        assertEquals( 1, jpm.load( "a" ).get( "value" ) );
+        assertEquals( 3, jpm.load( "c" ).get( "value" ) );
+    }
+
+    @Test
+    public void testCorruptRecord() throws Exception
+    {
+        jpm.store( "a", createConfiguration( "a", 1 ) );
+        final long length = segmentFiles()[0].length();
+        jpm.store( "b", createConfiguration( "b", 2 ) );
+        jpm.close();
+
+        final RandomAccessFile raf = new RandomAccessFile( segmentFiles()[0], "rw" );
+        try
+        {
+            raf.seek( length + 12 );
+            raf.write( 'X' );
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        jpm = new JournalPersistenceManager( file, 1024 );
+        assertTrue( jpm.exists( "a" ) );
+        assertFalse( jpm.exists( "b" ) );
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception
+    {
+        final int threads = 8;
+        final int count = 100;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final List<Throwable> failures = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+        for ( int t = 0; t < threads; t++ )
+        {
+            final int id = t;
+            final Thread worker = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < count; i++ )
+                        {
+                            final String pid = "t" + id + "." + i;
+                            jpm.store( pid, createConfiguration( pid, i ) );
+                            if ( !jpm.exists( pid ) )
+                            {
+                                throw new AssertionError( pid + " not stored" );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        synchronized ( failures )
+                        {
+                            failures.add( e );
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add( worker );
+        }
+        start.countDown();
+        for ( final Thread worker : workers )
+        {
+            worker.join();
+        }
+        assertTrue( failures.toString(), failures.isEmpty() );
+
+        jpm.close();
+        jpm = new JournalPersistenceManager( file, 1024 );
+        assertEquals( threads * count, getPids( jpm ).size() );
+        assertEquals( 42, jpm.load( "t3.42" ).get( "value" ) );
+    }
+
+    @Test
+    public void testImport() throws Exception
+    {
+        final File configDir = new File( System.getProperty( "java.io.tmpdir" ), "journal-import" );
+        delete( configDir );
+        try
+        {
+            final FilePersistenceManager fpm = new FilePersistenceManager( configDir.getAbsolutePath() );
+            fpm.store( "a", createConfiguration( "a", 1 ) );
+            fpm.store( "b.c", createConfiguration( "b.c", 2 ) );
+
+            assertEquals( 2, jpm.importConfigurations( fpm ) );
+            assertEquals( 2, getPids( jpm ).size() );
+            assertEquals( 2, jpm.load( "b.c" ).get( "value" ) );
+        }
+        finally
+        {
+            delete( configDir );
+        }
+    }
+
+    private Dictionary<String, Object> createConfiguration( final String pid, final int value )
+    {
+        final Dictionary<String, Object> props = new Hashtable<>();
+        props.put( Constants.SERVICE_PID, pid );
+        props.put( "value", value );
+        return props;
+    }
+
+    private Set<String> getPids( final JournalPersistenceManager pm ) throws Exception
+    {
+        final Set<String> pids = new HashSet<>();
+        for ( Enumeration<?> e = pm.getDictionaries(); e.hasMoreElements(); )
+        {
+            pids.add( ( String ) ( ( Dictionary<?, ?> ) e.nextElement() ).get( Constants.SERVICE_PID ) );
+        }
+        return pids;
+    }
+
+    /**
+     * Changes the configuration until compaction leaves at most three
+     * segments. Compaction runs in the background once a segment is rolled
+     * over.
+     */
+    private void compact( final String pid ) throws Exception
+    {
+        jpm.awaitCompaction();
+        for ( int i = 0; i < 1000 && segmentFiles().length > 3; i++ )
+        {
+            jpm.store( pid, jpm.load( pid ) );
+            jpm.awaitCompaction();
+        }
+    }
+
+    private File[] segmentFiles()
+    {
+        return file.listFiles();
+    }
+
+    private static void delete( final File f )
+    {
+        final File[] children = f.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            delete( children[i] );
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class UpdateThreadTest
+{
+    private final List<String> log = Collections.synchronizedList( new ArrayList<String>() );
+
+    @Test
+    public void testOrderingPerKey() throws Exception
+    {
+        final UpdateThread ut = new UpdateThread( null, "Test updater", 4 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            ut.schedule( new TestTask( "a", null, "a" + i ) );
+            ut.schedule( new TestTask( "b", null, "b" + i ) );
+        }
+        ut.start();
+        ut.terminate();
+
+        assertEquals( 200, log.size() );
+        int a = 0;
+        int b = 0;
+        for ( final String entry : log )
+        {
+            if ( entry.startsWith( "a" ) )
+            {
+                assertEquals( "a" + a++, entry );
+            }
+            else
+            {
+                assertEquals( "b" + b++, entry );
+            }
+        }
+    }
+
+    @Test
+    public void testParallelKeys() throws Exception
+    {
+        final UpdateThread ut = new UpdateThread( null, "Test updater", 2 );
+        ut.start();
+        try
+        {
+            // a blocked task for one PID does not block other PIDs
+            final CountDownLatch blocked = new CountDownLatch( 1 );
+            final CountDownLatch other = new CountDownLatch( 1 );
+            ut.schedule( new TestTask( "slow", null, "slow" )
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        blocked.await( 10, TimeUnit.SECONDS );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        // ignore
+                    }
+                    super.run();
+                }
+            } );
+            ut.schedule( new TestTask( "slow", null, "slow-next" ) );
+            ut.schedule( new TestTask( "fast", null, "fast" )
+            {
+                @Override
+                public void run()
+                {
+                    super.run();
+                    other.countDown();
+                }
+            } );
+
+            assertTrue( other.await( 5, TimeUnit.SECONDS ) );
+            assertEquals( Arrays.asList( "fast" ), log );
+            blocked.countDown();
+        }
+        finally
+        {
+            ut.terminate();
+        }
+        assertEquals( Arrays.asList( "fast", "slow", "slow-next" ), log );
+    }
+
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        final UpdateThread ut = new UpdateThread( null, "Test updater", 2 );
+        ut.schedule( new TestTask( "factory", "pid1", "update1.1" ) );
+        ut.schedule( new TestTask( "factory", "pid2", "update2.1" ) );
+        ut.schedule( new TestTask( "factory", "pid1", "update1.2" ) );
+        ut.schedule( new TestTask( "factory", null, "delete1" ) );
+        ut.schedule( new TestTask( "factory", "pid1", "update1.3" ) );
+        ut.schedule( new TestTask( "factory", "pid1", "update1.4" ) );
+        ut.schedule( new TestTask( "factory", "pid2", "update2.2" ) );
+        ut.start();
+        ut.terminate();
+
+        assertEquals( Arrays.asList( "update2.1", "update1.2", "delete1", "update1.4", "update2.2" ), log );
+    }
+
+    @Test
+    public void testCoalescingOnlyTask() throws Exception
+    {
+        // the superseded task is the only one of its idle queue
+        final UpdateThread ut = new UpdateThread( null, "Test updater", 1 );
+        ut.schedule( new TestTask( "factory", "pid1", "update1.1" ) );
+        ut.schedule( new TestTask( "factory", "pid1", "update1.2" ) );
+        ut.schedule( new TestTask( "other", null, "other" ) );
+        ut.start();
+        ut.terminate();
+
+        assertEquals( Arrays.asList( "update1.2", "other" ), log );
+    }
+
+    @Test
+    public void testScheduleAfterTerminate() throws Exception
+    {
+        final UpdateThread ut = new UpdateThread( null, "Test updater", 2 );
+        ut.start();
+        ut.schedule( new TestTask( "a", null, "before" ) );
+        ut.terminate();
+        ut.schedule( new TestTask( "a", null, "after" ) );
+
+        assertEquals( Arrays.asList( "before" ), log );
+    }
+
+    private class TestTask implements UpdateThread.OrderedTask
+    {
+        private final String key;
+        private final String coalescingKey;
+        private final String name;
+
+        TestTask( final String key, final String coalescingKey, final String name )
+        {
+            this.key = key;
+            this.coalescingKey = coalescingKey;
+            this.name = name;
+        }
+
+        @Override
+        public void run()
+        {
+            log.add( name );
+        }
+
+        @Override
+        public String getOrderingKey()
+        {
+            return key;
+        }
+
+        @Override
+        public String getCoalescingKey()
+        {
+            return coalescingKey;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
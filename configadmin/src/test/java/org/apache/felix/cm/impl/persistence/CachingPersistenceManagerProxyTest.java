@@ -31,6 +31,7 @@ import java.util.Set;
 
 import org.apache.felix.cm.MockPersistenceManager;
 import org.apache.felix.cm.PersistenceManager;
+import org.apache.felix.cm.impl.CaseInsensitiveDictionary;
 import org.apache.felix.cm.impl.SimpleFilter;
 import org.junit.Test;
 import org.osgi.framework.Constants;
@@ -178,4 +179,67 @@ public class CachingPersistenceManagerProxyTest
         assertTrue(pids.contains("new_pid_for_newf1"));
         assertTrue(pids.contains("new_pid_for_newf2"));
     }
-}
\ No newline at end of file
+
+    @SuppressWarnings("rawtypes")
+    @Test public void testIndexedFilters() throws Exception
+    {
+        final PersistenceManager pm = this.createAndPopulatePersistenceManager();
+        final Dictionary<String, Object> located = createConfiguration("located", FACTORY_PID_B);
+        located.put(ConfigurationAdmin.SERVICE_BUNDLELOCATION, "location");
+        located.put("tags", new String[] {"one", "two"});
+        pm.store("located", located);
+        final Dictionary<String, Object> numbered = createConfiguration("numbered", null);
+        numbered.put("tags", 2);
+        pm.store("numbered", numbered);
+
+        final CachingPersistenceManagerProxy cpm = new CachingPersistenceManagerProxy(pm, new String[] {"Tags"});
+
+        assertEquals(3, cpm.getDictionaries(SimpleFilter.parse("(service.factoryPid=" + FACTORY_PID_A + ")")).size());
+        assertEquals(3, cpm.getDictionaries(SimpleFilter.parse("(SERVICE.FACTORYPID=" + FACTORY_PID_B + ")")).size());
+        assertEquals(0, cpm.getDictionaries(SimpleFilter.parse("(service.factoryPid=unknown)")).size());
+
+        Collection<Dictionary> list = cpm.getDictionaries(SimpleFilter.parse("(&(service.factoryPid=" + FACTORY_PID_B
+            + ")(service.bundleLocation=location))"));
+        assertEquals(1, list.size());
+        assertEquals("located", list.iterator().next().get(Constants.SERVICE_PID));
+
+        list = cpm.getDictionaries(SimpleFilter.parse("(&(service.pid=" + PID_A + ")(value=" + PREFIX + PID_A + "))"));
+        assertEquals(1, list.size());
+        assertEquals(0, cpm.getDictionaries(SimpleFilter.parse("(&(service.pid=" + PID_A + ")(value=x))")).size());
+        assertEquals(0, cpm.getDictionaries(SimpleFilter.parse("(service.pid=unknown)")).size());
+
+        // array values are indexed per element, non string values are always candidates
+        assertEquals(1, cpm.getDictionaries(SimpleFilter.parse("(tags=two)")).size());
+        assertEquals(1, cpm.getDictionaries(SimpleFilter.parse("(tags=2)")).size());
+        assertEquals(1, cpm.getDictionaries(SimpleFilter.parse("(tags= 2)")).size());
+
+        // index follows updates and deletion
+        located.put(ConfigurationAdmin.SERVICE_FACTORYPID, FACTORY_PID_A);
+        cpm.store("located", located);
+        assertEquals(4, cpm.getDictionaries(SimpleFilter.parse("(service.factoryPid=" + FACTORY_PID_A + ")")).size());
+        assertEquals(2, cpm.getDictionaries(SimpleFilter.parse("(service.factoryPid=" + FACTORY_PID_B + ")")).size());
+        cpm.delete("located");
+        assertEquals(0, cpm.getDictionaries(SimpleFilter.parse("(service.bundleLocation=location)")).size());
+        assertEquals(0, cpm.getDictionaries(SimpleFilter.parse("(tags=one)")).size());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test public void testFilteredDictionariesAreReadOnly() throws Exception
+    {
+        final CachingPersistenceManagerProxy cpm = new CachingPersistenceManagerProxy(this.createAndPopulatePersistenceManager());
+
+        final Dictionary snapshot = cpm.getDictionaries(SimpleFilter.parse("(service.pid=" + PID_A + ")")).iterator().next();
+        snapshot.put("value", "modified");
+        snapshot.remove(Constants.SERVICE_PID);
+
+        assertEquals(PREFIX + PID_A, cpm.load(PID_A).get("value"));
+        assertEquals(PREFIX + PID_A, snapshot.get("value"));
+        assertEquals(PID_A, snapshot.get(Constants.SERVICE_PID));
+
+        // copies are modifiable
+        final Dictionary copy = new CaseInsensitiveDictionary(snapshot);
+        copy.put("value", "modified");
+        assertEquals("modified", copy.get("value"));
+        assertEquals(PREFIX + PID_A, cpm.load(PID_A).get("value"));
+    }
+}
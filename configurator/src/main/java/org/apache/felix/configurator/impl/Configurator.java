@@ -360,10 +360,14 @@ public class Configurator {
     public boolean processRemoveBundle(final long bundleId) {
         if ( state.getLastModified(bundleId) != null ) {
             state.removeLastModified(bundleId);
-            for(final String pid : state.getPids()) {
+            // only the configurations provided by this bundle need to be touched
+            for(final String pid : state.getBundlePids(bundleId)) {
                 final ConfigList configList = state.getConfigurations(pid);
-                configList.uninstall(bundleId);
+                if ( configList != null ) {
+                    configList.uninstall(bundleId);
+                }
             }
+            state.removeBundlePids(bundleId);
             return true;
         }
         return false;
@@ -388,17 +392,15 @@ public class Configurator {
         }
 
         boolean retry = false;
+        boolean changed = false;
         try {
             for(final String pid : state.getPids()) {
                 final ConfigList configList = state.getConfigurations(pid);
 
+                // lists without changes are not decoded from the persisted state
                 if ( configList.hasChanges() ) {
                     if ( process(configList) ) {
-                        try {
-                            State.writeState(this.bundleContext.getDataFile(State.FILE_NAME), state);
-                        } catch ( final IOException ioe) {
-                            SystemLogger.error("Unable to persist state to " + State.FILE_NAME, ioe);
-                        }
+                        changed = true;
                     } else {
                         retry = true;
                     }
@@ -412,19 +414,19 @@ public class Configurator {
         }
         if ( !retry ) {
             // check whether there is a stale config admin bundle id
-            boolean changed = false;
             for(final Long bundleId : this.state.getBundleIdsUsingConfigAdmin()) {
                 if ( this.state.getLastModified(bundleId) == null ) {
                     this.state.removeConfigAdminBundleId(bundleId);
                     changed = true;
                 }
             }
-            if ( changed ) {
-                try {
-                    State.writeState(this.bundleContext.getDataFile(State.FILE_NAME), state);
-                } catch ( final IOException ioe) {
-                    SystemLogger.error("Unable to persist state to " + State.FILE_NAME, ioe);
-                }
+        }
+        if ( changed ) {
+            // persist all processed changes at once
+            try {
+                State.writeState(this.bundleContext.getDataFile(State.FILE_NAME), state);
+            } catch ( final IOException ioe) {
+                SystemLogger.error("Unable to persist state to " + State.FILE_NAME, ioe);
             }
         }
     }
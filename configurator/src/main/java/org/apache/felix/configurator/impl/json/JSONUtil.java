@@ -38,6 +38,7 @@ import java.util.Set;
 
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -46,6 +47,7 @@ import javax.json.JsonString;
 import javax.json.JsonStructure;
 import javax.json.JsonValue;
 import javax.json.JsonValue.ValueType;
+import javax.json.stream.JsonParser;
 
 import org.apache.felix.configurator.impl.model.BundleState;
 import org.apache.felix.configurator.impl.model.Config;
@@ -158,7 +160,7 @@ public class JSONUtil {
             final String contents,
             final Report report) {
         final String identifier = (url == null ? name : url.toString());
-        final JsonObject json = parseJSON(name, contents, report);
+        final Map<String, Object> json = parseJSONToMap(name, contents, report);
         final Map<String, ?> configs = verifyJSON(name, json, url != null, report);
         if ( configs != null ) {
             final List<Config> list = readConfigurationsJSON(converter, bundleId, identifier, configs, report);
@@ -316,14 +318,8 @@ public class JSONUtil {
     public static JsonObject parseJSON(final String name,
             String contents,
             final Report report) {
-        // minify JSON first (remove comments)
-        try (final Reader in = new StringReader(contents);
-             final Writer out = new StringWriter()) {
-            final JSMin min = new JSMin(in, out);
-            min.jsmin();
-            contents = out.toString();
-        } catch ( final IOException ioe) {
-            report.errors.add("Invalid JSON from " + name);
+        contents = minify(name, contents, report);
+        if ( contents == null ) {
             return null;
         }
         // Jonhzon is packaged in, so we can just use the impl type to avoid ClassLoader mess
@@ -337,6 +333,86 @@ public class JSONUtil {
         return null;
     }
 
+    /**
+     * Parse a JSON content into maps, lists and simple values.
+     * The content is streamed through the JSON parser, no intermediate
+     * JSON object tree is built.
+     * @param name The name of the file
+     * @param contents The contents
+     * @param report The report for errors and warnings
+     * @return The parsed JSON object or {@code null} on failure,
+     */
+    public static Map<String, Object> parseJSONToMap(final String name,
+            String contents,
+            final Report report) {
+        contents = minify(name, contents, report);
+        if ( contents == null ) {
+            return null;
+        }
+        // Jonhzon is packaged in, so we can just use the impl type to avoid ClassLoader mess
+        try (final JsonParser parser = new JsonProviderImpl().createParser(new StringReader(contents)) ) {
+            if ( parser.hasNext() && parser.next() == JsonParser.Event.START_OBJECT ) {
+                return readObject(parser);
+            }
+            report.errors.add("Invalid JSON from " + name);
+        } catch ( final JsonException je ) {
+            report.errors.add("Invalid JSON from " + name + " : " + je.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Minify JSON (remove comments)
+     * @param name The name of the file
+     * @param contents The contents
+     * @param report The report for errors and warnings
+     * @return The minified contents or {@code null} on failure
+     */
+    private static String minify(final String name,
+            final String contents,
+            final Report report) {
+        try (final Reader in = new StringReader(contents);
+             final Writer out = new StringWriter()) {
+            final JSMin min = new JSMin(in, out);
+            min.jsmin();
+            return out.toString();
+        } catch ( final IOException ioe) {
+            report.errors.add("Invalid JSON from " + name);
+            return null;
+        }
+    }
+
+    private static Map<String, Object> readObject(final JsonParser parser) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        JsonParser.Event event;
+        while ( (event = parser.next()) != JsonParser.Event.END_OBJECT ) {
+            // event is KEY_NAME
+            final String key = parser.getString();
+            map.put(key, readValue(parser, parser.next()));
+        }
+        return map;
+    }
+
+    private static Object readValue(final JsonParser parser, final JsonParser.Event event) {
+        switch ( event ) {
+            case START_OBJECT : return readObject(parser);
+            case START_ARRAY  : final List<Object> array = new ArrayList<>();
+                                JsonParser.Event next;
+                                while ( (next = parser.next()) != JsonParser.Event.END_ARRAY ) {
+                                    array.add(readValue(parser, next));
+                                }
+                                return array;
+            case VALUE_STRING : return parser.getString();
+            case VALUE_NUMBER : if ( parser.isIntegralNumber() ) {
+                                    return parser.getLong();
+                                }
+                                return parser.getBigDecimal().doubleValue();
+            case VALUE_TRUE   : return true;
+            case VALUE_FALSE  : return false;
+            default           : return null;
+        }
+    }
+
     /**
      * Get the value of a JSON property
      * @param root The JSON Object
@@ -428,7 +504,24 @@ public class JSONUtil {
         if ( root == null ) {
             return null;
         }
-        final Object version = getValue(root, ConfiguratorConstants.PROPERTY_RESOURCE_VERSION);
+        return verifyJSON(name, (Map<String, Object>) getValue(root), bundleResource, report);
+    }
+
+    /**
+     * Verify the JSON according to the rules
+     * @param name The JSON name
+     * @param root The JSON root object as a map.
+     * @param report The report for errors and warnings
+     * @return JSON map with configurations or {@code null}
+     */
+    public static Map<String, ?> verifyJSON(final String name,
+            final Map<String, Object> root,
+            final boolean bundleResource,
+            final Report report) {
+        if ( root == null ) {
+            return null;
+        }
+        final Object version = root.get(ConfiguratorConstants.PROPERTY_RESOURCE_VERSION);
         if ( version != null ) {
 
             final int v = TypeConverter.getConverter().convert(version).defaultValue(-1).to(Integer.class);
@@ -445,7 +538,7 @@ public class JSONUtil {
         if ( !bundleResource) {
             // if this is not a bundle resource
             // then version and symbolic name must be set
-            final Object rsrcVersion = getValue(root, ConfiguratorConstants.PROPERTY_VERSION);
+            final Object rsrcVersion = root.get(ConfiguratorConstants.PROPERTY_VERSION);
             if ( rsrcVersion == null ) {
                 report.errors.add("Missing version information in " + name);
                 return null;
@@ -454,7 +547,7 @@ public class JSONUtil {
                 report.errors.add("Invalid version information in " + name + " : " + rsrcVersion);
                 return null;
             }
-            final Object rsrcName = getValue(root, ConfiguratorConstants.PROPERTY_SYMBOLIC_NAME);
+            final Object rsrcName = root.get(ConfiguratorConstants.PROPERTY_SYMBOLIC_NAME);
             if ( rsrcName == null ) {
                 report.errors.add("Missing symbolic name information in " + name);
                 return null;
@@ -464,7 +557,7 @@ public class JSONUtil {
                 return null;
             }
         }
-        return (Map<String, ?>) getValue(root);
+        return root;
     }
 
     /**
@@ -0,0 +1,461 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.configurator.impl.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.configurator.impl.json.OrderedDictionary;
+
+/**
+ * The compact binary format for the persisted {@link State}.
+ * <p>
+ * The configurations of each PID are stored as a separate length prefixed
+ * block. When the state is read, these blocks are kept as they are and only
+ * decoded once the configurations of the PID are accessed. Blocks which are
+ * never accessed are written back without decoding them.
+ */
+final class BinaryFormat {
+
+    /** The magic number at the start of the file. */
+    static final int MAGIC = 0x46435354;
+
+    /** Format version. */
+    static final int VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_BYTE = 5;
+    private static final byte TYPE_CHARACTER = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_FLOAT = 8;
+    private static final byte TYPE_BOOLEAN = 9;
+    private static final byte TYPE_ARRAY = 10;
+    private static final byte TYPE_PRIMITIVE_ARRAY = 11;
+    private static final byte TYPE_LIST = 12;
+    private static final byte TYPE_SERIALIZED = 13;
+
+    private static final byte LAST_INSTALLED_NONE = 0;
+    private static final byte LAST_INSTALLED_INDEX = 1;
+    private static final byte LAST_INSTALLED_CONFIG = 2;
+
+    private static final Class<?>[] TYPES = new Class<?>[] {
+        null, String.class, Long.class, Integer.class, Short.class, Byte.class,
+        Character.class, Double.class, Float.class, Boolean.class
+    };
+
+    private static final Class<?>[] PRIMITIVE_TYPES = new Class<?>[] {
+        null, null, long.class, int.class, short.class, byte.class,
+        char.class, double.class, float.class, boolean.class
+    };
+
+    private static final Map<Class<?>, Byte> TYPE_IDS = new HashMap<>();
+    static {
+        for(byte i=1;i<TYPES.length;i++) {
+            TYPE_IDS.put(TYPES[i], i);
+            if ( PRIMITIVE_TYPES[i] != null ) {
+                TYPE_IDS.put(PRIMITIVE_TYPES[i], i);
+            }
+        }
+    }
+
+    private BinaryFormat() {
+        // static methods only
+    }
+
+    /**
+     * Check whether the data starts with the magic number of this format
+     * @param header The first four bytes of the file
+     * @return {@code true} if the data is in this format
+     */
+    static boolean isBinaryFormat(final byte[] header) {
+        return header.length >= 4
+            && ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | (header[3] & 0xFF)) == MAGIC;
+    }
+
+    static void writeState(final DataOutput out, final State state)
+    throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        writeLongMap(out, state.getLastModifiedMap());
+        writeLongMap(out, state.getConfigAdminBundleIdMap());
+
+        if ( state.getInitialHashes() == null ) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(state.getInitialHashes().size());
+            for(final String hash : state.getInitialHashes()) {
+                writeString(out, hash);
+            }
+        }
+
+        final Map<Long, Set<String>> bundlePids = state.getBundlePidsMap();
+        out.writeInt(bundlePids.size());
+        for(final Map.Entry<Long, Set<String>> entry : bundlePids.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for(final String pid : entry.getValue()) {
+                writeString(out, pid);
+            }
+        }
+
+        final Map<String, ConfigList> configs = state.getConfigurations();
+        out.writeInt(configs.size());
+        for(final Map.Entry<String, ConfigList> entry : configs.entrySet()) {
+            final ConfigList list = entry.getValue();
+            writeString(out, entry.getKey());
+            out.writeLong(list.getChangeCount());
+            out.writeBoolean(list.hasChanges());
+
+            final byte[] block = list.getEncoded();
+            out.writeInt(block.length);
+            out.write(block);
+        }
+    }
+
+    static State readState(final DataInput in)
+    throws IOException {
+        if ( in.readInt() != MAGIC ) {
+            throw new IOException("Not a configurator state file");
+        }
+        final int version = in.readInt();
+        if ( version < 1 || version > VERSION ) {
+            throw new IOException("Unsupported state file version " + version);
+        }
+        final State state = new State();
+
+        readLongMap(in, state.getLastModifiedMap());
+        readLongMap(in, state.getConfigAdminBundleIdMap());
+
+        final int hashCount = in.readInt();
+        if ( hashCount >= 0 ) {
+            final Set<String> hashes = new HashSet<>();
+            for(int i=0;i<hashCount;i++) {
+                hashes.add(readString(in));
+            }
+            state.setInitialHashes(hashes);
+        }
+
+        final int bundleCount = in.readInt();
+        for(int i=0;i<bundleCount;i++) {
+            final long bundleId = in.readLong();
+            final int pidCount = in.readInt();
+            for(int j=0;j<pidCount;j++) {
+                state.addBundlePid(bundleId, readString(in));
+            }
+        }
+
+        final int pidCount = in.readInt();
+        for(int i=0;i<pidCount;i++) {
+            final String pid = readString(in);
+            final long changeCount = in.readLong();
+            final boolean hasChanges = in.readBoolean();
+            final byte[] block = new byte[in.readInt()];
+            in.readFully(block);
+
+            state.getConfigurations().put(pid, new ConfigList(changeCount, hasChanges, block));
+        }
+        return state;
+    }
+
+    /**
+     * Encode the configurations of a config list
+     */
+    static byte[] encode(final List<Config> configs, final Config lastInstalled)
+    throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(configs.size());
+        int lastInstalledIndex = -1;
+        for(int i=0;i<configs.size();i++) {
+            final Config cfg = configs.get(i);
+            if ( cfg == lastInstalled ) {
+                lastInstalledIndex = i;
+            }
+            writeConfig(out, cfg);
+        }
+        if ( lastInstalled == null ) {
+            out.writeByte(LAST_INSTALLED_NONE);
+        } else if ( lastInstalledIndex != -1 ) {
+            out.writeByte(LAST_INSTALLED_INDEX);
+            out.writeInt(lastInstalledIndex);
+        } else {
+            out.writeByte(LAST_INSTALLED_CONFIG);
+            writeConfig(out, lastInstalled);
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode the configurations of a config list
+     * @return The last installed configuration or {@code null}
+     */
+    static Config decode(final byte[] block, final List<Config> configs)
+    throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        final int count = in.readInt();
+        for(int i=0;i<count;i++) {
+            configs.add(readConfig(in));
+        }
+        switch ( in.readByte() ) {
+            case LAST_INSTALLED_INDEX  : return configs.get(in.readInt());
+            case LAST_INSTALLED_CONFIG : return readConfig(in);
+            default                    : return null;
+        }
+    }
+
+    private static void writeConfig(final DataOutput out, final Config cfg)
+    throws IOException {
+        writeString(out, cfg.getPid());
+        out.writeLong(cfg.getBundleId());
+        out.writeInt(cfg.getRanking());
+        out.writeInt(cfg.getIndex());
+        writeString(out, cfg.getPolicy().name());
+        writeString(out, cfg.getState().name());
+
+        final List<File> files = cfg.getFiles();
+        if ( files == null ) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(files.size());
+            for(final File f : files) {
+                writeString(out, f.getPath());
+            }
+        }
+
+        final Dictionary<String, Object> properties = cfg.getProperties();
+        if ( properties == null ) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(properties.size());
+            out.writeBoolean(properties instanceof OrderedDictionary);
+            for(final Enumeration<String> e = properties.keys(); e.hasMoreElements(); ) {
+                final String key = e.nextElement();
+                writeString(out, key);
+                writeValue(out, properties.get(key));
+            }
+        }
+    }
+
+    private static Config readConfig(final DataInput in)
+    throws IOException {
+        final String pid = readString(in);
+        final long bundleId = in.readLong();
+        final int ranking = in.readInt();
+        final int index = in.readInt();
+        final ConfigPolicy policy = ConfigPolicy.valueOf(readString(in));
+        final ConfigState state = ConfigState.valueOf(readString(in));
+
+        List<File> files = null;
+        final int fileCount = in.readInt();
+        if ( fileCount >= 0 ) {
+            files = new ArrayList<>(fileCount);
+            for(int i=0;i<fileCount;i++) {
+                files.add(new File(readString(in)));
+            }
+        }
+
+        Dictionary<String, Object> properties = null;
+        final int propCount = in.readInt();
+        if ( propCount >= 0 ) {
+            properties = in.readBoolean() ? new OrderedDictionary() : new Hashtable<String, Object>();
+            for(int i=0;i<propCount;i++) {
+                final String key = readString(in);
+                final Object value = readValue(in);
+                if ( value != null ) {
+                    properties.put(key, value);
+                }
+            }
+        }
+
+        final Config cfg = new Config(pid, properties, bundleId, ranking, policy);
+        cfg.setIndex(index);
+        cfg.setState(state);
+        cfg.setFiles(files);
+        return cfg;
+    }
+
+    private static void writeValue(final DataOutput out, final Object value)
+    throws IOException {
+        if ( value == null ) {
+            out.writeByte(TYPE_NULL);
+            return;
+        }
+        final Class<?> type = value.getClass();
+        final Byte typeId = TYPE_IDS.get(type);
+        if ( typeId != null ) {
+            out.writeByte(typeId);
+            writeScalar(out, typeId, value);
+        } else if ( type.isArray() && TYPE_IDS.containsKey(type.getComponentType()) ) {
+            final boolean primitive = type.getComponentType().isPrimitive();
+            final int length = Array.getLength(value);
+            out.writeByte(primitive ? TYPE_PRIMITIVE_ARRAY : TYPE_ARRAY);
+            out.writeByte(TYPE_IDS.get(type.getComponentType()));
+            out.writeInt(length);
+            for(int i=0;i<length;i++) {
+                if ( primitive ) {
+                    writeScalar(out, TYPE_IDS.get(type.getComponentType()), Array.get(value, i));
+                } else {
+                    writeValue(out, Array.get(value, i));
+                }
+            }
+        } else if ( type == ArrayList.class ) {
+            final List<?> list = (List<?>)value;
+            out.writeByte(TYPE_LIST);
+            out.writeInt(list.size());
+            for(final Object o : list) {
+                writeValue(out, o);
+            }
+        } else {
+            // anything else is rare enough to fall back to java serialization
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try ( final ObjectOutputStream oos = new ObjectOutputStream(baos) ) {
+                oos.writeObject(value);
+            }
+            out.writeByte(TYPE_SERIALIZED);
+            out.writeInt(baos.size());
+            out.write(baos.toByteArray());
+        }
+    }
+
+    private static Object readValue(final DataInput in)
+    throws IOException {
+        final byte typeId = in.readByte();
+        switch ( typeId ) {
+            case TYPE_NULL : return null;
+            case TYPE_ARRAY :
+            case TYPE_PRIMITIVE_ARRAY :
+                final byte componentId = in.readByte();
+                final int length = in.readInt();
+                final Object array = Array.newInstance(
+                        typeId == TYPE_ARRAY ? TYPES[componentId] : PRIMITIVE_TYPES[componentId], length);
+                for(int i=0;i<length;i++) {
+                    Array.set(array, i, typeId == TYPE_ARRAY ? readValue(in) : readScalar(in, componentId));
+                }
+                return array;
+            case TYPE_LIST :
+                final int size = in.readInt();
+                final List<Object> list = new ArrayList<>(size);
+                for(int i=0;i<size;i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case TYPE_SERIALIZED :
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                try ( final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data)) ) {
+                    return ois.readObject();
+                } catch ( final ClassNotFoundException cnfe ) {
+                    throw new IOException(cnfe);
+                }
+            default : return readScalar(in, typeId);
+        }
+    }
+
+    private static void writeScalar(final DataOutput out, final byte typeId, final Object value)
+    throws IOException {
+        switch ( typeId ) {
+            case TYPE_STRING    : writeString(out, (String)value); break;
+            case TYPE_LONG      : out.writeLong((Long)value); break;
+            case TYPE_INTEGER   : out.writeInt((Integer)value); break;
+            case TYPE_SHORT     : out.writeShort((Short)value); break;
+            case TYPE_BYTE      : out.writeByte((Byte)value); break;
+            case TYPE_CHARACTER : out.writeChar((Character)value); break;
+            case TYPE_DOUBLE    : out.writeDouble((Double)value); break;
+            case TYPE_FLOAT     : out.writeFloat((Float)value); break;
+            case TYPE_BOOLEAN   : out.writeBoolean((Boolean)value); break;
+            default : throw new IOException("Unknown type " + typeId);
+        }
+    }
+
+    private static Object readScalar(final DataInput in, final byte typeId)
+    throws IOException {
+        switch ( typeId ) {
+            case TYPE_STRING    : return readString(in);
+            case TYPE_LONG      : return in.readLong();
+            case TYPE_INTEGER   : return in.readInt();
+            case TYPE_SHORT     : return in.readShort();
+            case TYPE_BYTE      : return in.readByte();
+            case TYPE_CHARACTER : return in.readChar();
+            case TYPE_DOUBLE    : return in.readDouble();
+            case TYPE_FLOAT     : return in.readFloat();
+            case TYPE_BOOLEAN   : return in.readBoolean();
+            default : throw new IOException("Unknown type " + typeId);
+        }
+    }
+
+    private static void writeLongMap(final DataOutput out, final Map<Long, Long> map)
+    throws IOException {
+        out.writeInt(map.size());
+        for(final Map.Entry<Long, Long> entry : map.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private static void readLongMap(final DataInput in, final Map<Long, Long> map)
+    throws IOException {
+        final int count = in.readInt();
+        for(int i=0;i<count;i++) {
+            map.put(in.readLong(), in.readLong());
+        }
+    }
+
+    /**
+     * Strings are written as length prefixed UTF-8 as configuration values
+     * might exceed the length supported by {@link DataOutput#writeUTF(String)}.
+     */
+    private static void writeString(final DataOutput out, final String value)
+    throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInput in)
+    throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -46,6 +46,55 @@ public class ConfigList implements Serializable, Iterable<Config> {
     /** Last installed configuration. */
     private volatile Config lastInstalled;
 
+    /** The encoded configurations if not decoded yet. */
+    private transient volatile byte[] encoded;
+
+    public ConfigList() {
+        // default constructor
+    }
+
+    /**
+     * Create a list from the persisted binary state. The configurations
+     * are only decoded once they are accessed.
+     * @param changeCount The change count
+     * @param hasChanges Whether the list needs to be processed
+     * @param encoded The encoded configurations
+     */
+    ConfigList(final long changeCount, final boolean hasChanges, final byte[] encoded) {
+        this.changeCount = changeCount;
+        this.hasChanges = hasChanges;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Decode the configurations if they have not been accessed yet.
+     */
+    private void load() {
+        final byte[] data = this.encoded;
+        if ( data != null ) {
+            try {
+                this.lastInstalled = BinaryFormat.decode(data, this.configurations);
+            } catch ( final IOException ioe ) {
+                throw new IllegalStateException("Unable to read persisted configurations", ioe);
+            }
+            this.encoded = null;
+        }
+    }
+
+    /**
+     * Get the binary encoding of the configurations. If the configurations
+     * have not been accessed, the persisted encoding is returned as is.
+     * @return The encoded configurations
+     * @throws IOException If encoding fails
+     */
+    byte[] getEncoded() throws IOException {
+        final byte[] data = this.encoded;
+        if ( data != null ) {
+            return data;
+        }
+        return BinaryFormat.encode(this.configurations, this.lastInstalled);
+    }
+
     /**
      * Serialize the object
      * - write version id
@@ -55,6 +104,7 @@ public class ConfigList implements Serializable, Iterable<Config> {
      */
     private void writeObject(final java.io.ObjectOutputStream out)
     throws IOException {
+        load();
         out.writeInt(VERSION);
         out.writeObject(configurations);
         out.writeObject(lastInstalled);
@@ -92,7 +142,7 @@ public class ConfigList implements Serializable, Iterable<Config> {
      * @param value New value.
      */
     public void setHasChanges(final boolean value) {
-        this.hasChanges = hasChanges;
+        this.hasChanges = value;
     }
 
     /**
@@ -100,6 +150,7 @@ public class ConfigList implements Serializable, Iterable<Config> {
      * @param c The configuration.
      */
     public void add(final Config c) {
+        load();
         this.hasChanges = true;
         this.configurations.add(c);
         Collections.sort(this.configurations);
@@ -110,6 +161,8 @@ public class ConfigList implements Serializable, Iterable<Config> {
      * @param configs The config list
      */
     public void addAll(final ConfigList configs) {
+        load();
+        configs.load();
         this.hasChanges = true;
         for(final Config cfg : configs) {
             // search if we already have this configuration
@@ -133,11 +186,13 @@ public class ConfigList implements Serializable, Iterable<Config> {
      * @return
      */
     public int size() {
+        load();
         return this.configurations.size();
     }
 
     @Override
     public Iterator<Config> iterator() {
+        load();
         return this.configurations.iterator();
     }
 
@@ -158,10 +213,12 @@ public class ConfigList implements Serializable, Iterable<Config> {
     }
 
     public Config getLastInstalled() {
+        load();
         return lastInstalled;
     }
 
     public void setLastInstalled(Config lastInstalled) {
+        load();
         this.lastInstalled = lastInstalled;
     }
 
@@ -170,6 +227,7 @@ public class ConfigList implements Serializable, Iterable<Config> {
      * @param bundleId The bundle id of the uninstalled bundle
      */
     public void uninstall(final long bundleId) {
+        load();
         for(final Config cfg : this.configurations) {
             if ( cfg.getBundleId() == bundleId ) {
                 this.hasChanges = true;
@@ -184,6 +242,7 @@ public class ConfigList implements Serializable, Iterable<Config> {
 
     @Override
     public String toString() {
+        load();
         return "ConfigList [configurations=" + configurations + ", changeCount=" + changeCount + ", hasChanges="
                 + hasChanges + ", lastInstalled=" + lastInstalled + "]";
     }
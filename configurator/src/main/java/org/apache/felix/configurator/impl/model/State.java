@@ -18,17 +18,22 @@
  */
 package org.apache.felix.configurator.impl.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class State extends AbstractState implements Serializable {
 
@@ -45,6 +50,9 @@ public class State extends AbstractState implements Serializable {
 
     private volatile Set<String> initialHashes;
 
+    /** The pids of the configurations provided by each bundle. */
+    private transient Map<Long, Set<String>> bundlePids = new HashMap<>();
+
     /**
      * Serialize the object
      * - write version id
@@ -75,30 +83,108 @@ public class State extends AbstractState implements Serializable {
         ReflectionUtil.setField(this, "bundlesLastModified", in.readObject());
         ReflectionUtil.setField(this, "bundlesConfigAdminBundleId", in.readObject());
         initialHashes = (Set<String>) in.readObject();
+        this.bundlePids = new HashMap<>();
+        for(final ConfigList list : this.getConfigurations().values()) {
+            for(final Config cfg : list) {
+                this.addBundlePid(cfg.getBundleId(), cfg.getPid());
+            }
+        }
     }
 
+    /**
+     * Read the state from a file. Both the binary format and
+     * states written with java serialization by previous versions are supported.
+     * @param f The file
+     * @return The state, a new state if the file does not exist
+     * @throws ClassNotFoundException If reading a serialized state fails
+     * @throws IOException If reading fails
+     */
     public static State createOrReadState(final File f)
     throws ClassNotFoundException, IOException {
         if ( f == null || !f.exists() ) {
             return new State();
         }
-        try ( final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f)) ) {
-
-            return (State) ois.readObject();
+        try ( final BufferedInputStream in = new BufferedInputStream(new FileInputStream(f)) ) {
+            final byte[] header = new byte[4];
+            in.mark(header.length);
+            final int length = in.read(header);
+            in.reset();
+            if ( length == header.length && BinaryFormat.isBinaryFormat(header) ) {
+                return BinaryFormat.readState(new DataInputStream(in));
+            }
+            try ( final ObjectInputStream ois = new ObjectInputStream(in) ) {
+                return (State) ois.readObject();
+            }
         }
     }
 
+    /**
+     * Write the state in the binary format. The state is written to a temporary
+     * file first which then replaces the file.
+     * @param f The file
+     * @param state The state
+     * @throws IOException If writing fails
+     */
     public static void writeState(final File f, final State state)
     throws IOException {
         if ( f == null ) {
             // do nothing, no file system support
             return;
         }
-        try ( final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f)) ) {
-            oos.writeObject(state);
+        final File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+        try ( final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))) ) {
+            BinaryFormat.writeState(out, state);
+        }
+        if ( !tmp.renameTo(f) ) {
+            f.delete();
+            if ( !tmp.renameTo(f) ) {
+                throw new IOException("Unable to rename " + tmp + " to " + f);
+            }
         }
     }
 
+    Map<Long, Long> getLastModifiedMap() {
+        return this.bundlesLastModified;
+    }
+
+    Map<Long, Long> getConfigAdminBundleIdMap() {
+        return this.bundlesConfigAdminBundleId;
+    }
+
+    Map<Long, Set<String>> getBundlePidsMap() {
+        return this.bundlePids;
+    }
+
+    void addBundlePid(final long bundleId, final String pid) {
+        Set<String> pids = this.bundlePids.get(bundleId);
+        if ( pids == null ) {
+            pids = new TreeSet<>();
+            this.bundlePids.put(bundleId, pids);
+        }
+        pids.add(pid);
+    }
+
+    /**
+     * Get the pids of all configurations provided by a bundle
+     * @param bundleId The bundle id
+     * @return The set of pids, might be empty
+     */
+    public Set<String> getBundlePids(final long bundleId) {
+        final Set<String> pids = this.bundlePids.get(bundleId);
+        if ( pids == null ) {
+            return Collections.emptySet();
+        }
+        return new TreeSet<>(pids);
+    }
+
+    /**
+     * Forget the pids provided by a bundle
+     * @param bundleId The bundle id
+     */
+    public void removeBundlePids(final long bundleId) {
+        this.bundlePids.remove(bundleId);
+    }
+
     public Long getLastModified(final long bundleId) {
         return this.bundlesLastModified.get(bundleId);
     }
@@ -142,6 +228,9 @@ public class State extends AbstractState implements Serializable {
      */
     public void addAll(final String pid, final ConfigList configs) {
         if ( configs != null ) {
+            for(final Config cfg : configs) {
+                this.addBundlePid(cfg.getBundleId(), pid);
+            }
             ConfigList list = this.getConfigurations().get(pid);
             if ( list == null ) {
                 list = new ConfigList();
@@ -157,8 +246,11 @@ public class State extends AbstractState implements Serializable {
      * @param bundleId The bundle id
      */
     public void checkEnvironments(final long bundleId) {
-        for(final String pid : this.getPids()) {
+        for(final String pid : this.getBundlePids(bundleId)) {
             final ConfigList configList = this.getConfigurations(pid);
+            if ( configList == null ) {
+                continue;
+            }
             for(final Config cfg : configList) {
                 if ( cfg.getBundleId() == bundleId ) {
                     configList.setHasChanges(true);
@@ -168,6 +260,12 @@ public class State extends AbstractState implements Serializable {
         }
     }
 
+    @Override
+    public void add(final Config c) {
+        super.add(c);
+        this.addBundlePid(c.getBundleId(), c.getPid());
+    }
+
     @Override
     public String toString() {
         return "State [bundlesLastModified=" + bundlesLastModified +
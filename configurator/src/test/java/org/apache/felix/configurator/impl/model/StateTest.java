@@ -18,13 +18,26 @@
  */
 package org.apache.felix.configurator.impl.model;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Iterator;
+import java.util.List;
 
+import org.apache.felix.configurator.impl.json.OrderedDictionary;
 import org.junit.Test;
 
 public class StateTest {
@@ -68,4 +81,112 @@ public class StateTest {
         assertEquals(1, state.getConfigurations("a").size());
         assertEquals(1, state.getConfigurations("b").size());
     }
+
+    @Test public void testBinaryReadWrite() throws Exception {
+        final State state = new State();
+
+        final Dictionary<String, Object> props = new OrderedDictionary();
+        props.put("string", "value");
+        props.put("long", 7L);
+        props.put("int", 3);
+        props.put("float", 1.5f);
+        props.put("bool", true);
+        props.put("ints", new int[] {1, 2});
+        props.put("strings", new String[] {"x", "y"});
+        props.put("list", new ArrayList<>(Arrays.asList("a", "b")));
+        props.put("map", Collections.singletonMap("k", "v"));
+        final Config c1 = new Config("a", props, 1,  0, ConfigPolicy.FORCE);
+        c1.setState(ConfigState.INSTALLED);
+        final Config c2 = new Config("a", null, 2, 10, ConfigPolicy.DEFAULT);
+        final Config c3 = new Config("b", null, 2, 10, ConfigPolicy.DEFAULT);
+        state.add(c1);
+        state.add(c2);
+        state.add(c3);
+        state.getConfigurations("a").setLastInstalled(c1);
+        state.getConfigurations("a").setChangeCount(5);
+        state.getConfigurations("b").setHasChanges(false);
+
+        state.setLastModified(1, 5);
+        state.setConfigAdminBundleId(1, 3);
+        state.setInitialHashes(Collections.singleton("hash"));
+
+        final File f = File.createTempFile("state", ".ser");
+        try {
+            State.writeState(f, state);
+            final State s = State.createOrReadState(f);
+
+            assertEquals(5L, (Object)s.getLastModified(1));
+            assertEquals(3L, (Object)s.getConfigAdminBundleId(1));
+            assertEquals(Collections.singleton("hash"), s.getInitialHashes());
+            assertEquals(Collections.singleton("a"), s.getBundlePids(1));
+            assertEquals(2, s.getBundlePids(2).size());
+
+            assertTrue(s.getConfigurations("a").hasChanges());
+            assertEquals(5, s.getConfigurations("a").getChangeCount());
+            assertEquals(false, s.getConfigurations("b").hasChanges());
+
+            // write again without accessing the configurations of b
+            State.writeState(f, s);
+            final State s2 = State.createOrReadState(f);
+            assertEquals(1, s2.getConfigurations("b").size());
+
+            final ConfigList list = s2.getConfigurations("a");
+            assertEquals(2, list.size());
+            // sorted by ranking, the last installed configuration is the second one
+            final Iterator<Config> iter = list.iterator();
+            iter.next();
+            final Config cfg = iter.next();
+            assertSame(cfg, list.getLastInstalled());
+            assertEquals(ConfigState.INSTALLED, cfg.getState());
+            assertEquals(ConfigPolicy.FORCE, cfg.getPolicy());
+            assertTrue(cfg.getProperties() instanceof OrderedDictionary);
+            assertEquals(Collections.list(props.keys()), Collections.list(cfg.getProperties().keys()));
+            assertEquals("value", cfg.getProperties().get("string"));
+            assertEquals(7L, cfg.getProperties().get("long"));
+            assertEquals(3, cfg.getProperties().get("int"));
+            assertEquals(1.5f, cfg.getProperties().get("float"));
+            assertEquals(true, cfg.getProperties().get("bool"));
+            assertArrayEquals(new int[] {1, 2}, (int[])cfg.getProperties().get("ints"));
+            assertArrayEquals(new String[] {"x", "y"}, (String[])cfg.getProperties().get("strings"));
+            assertEquals(Arrays.asList("a", "b"), cfg.getProperties().get("list"));
+            assertEquals(Collections.singletonMap("k", "v"), cfg.getProperties().get("map"));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test public void testReadSerializedState() throws Exception {
+        final State state = new State();
+        state.add(new Config("a", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.setLastModified(1, 5);
+
+        final File f = File.createTempFile("state", ".ser");
+        try {
+            try ( final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f))) {
+                oos.writeObject(state);
+            }
+            final State s = State.createOrReadState(f);
+            assertEquals(5L, (Object)s.getLastModified(1));
+            assertEquals(1, s.getConfigurations("a").size());
+            assertEquals(Collections.singleton("a"), s.getBundlePids(1));
+            assertNull(s.getInitialHashes());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test public void testBundlePids() {
+        final State state = new State();
+        state.add(new Config("a", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.add(new Config("b", null, 2,  0, ConfigPolicy.DEFAULT));
+        final ConfigList list = new ConfigList();
+        list.add(new Config("c", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.addAll("c", list);
+
+        final List<String> pids = new ArrayList<>(state.getBundlePids(1));
+        assertEquals(Arrays.asList("a", "c"), pids);
+        state.removeBundlePids(1);
+        assertTrue(state.getBundlePids(1).isEmpty());
+        assertEquals(Collections.singleton("b"), state.getBundlePids(2));
+    }
 }
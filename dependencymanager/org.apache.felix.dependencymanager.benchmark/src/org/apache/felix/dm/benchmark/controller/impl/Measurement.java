@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.controller.impl;
+
+import static java.util.stream.Collectors.joining;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Durations measured for one phase of a benchmarked scenario bundle (component creation, 
+ * dependency churn, teardown), along with the garbage collections which happened while measuring.
+ * 
+ * Like JMH, we report the mean together with the half width of its 99.9% confidence interval, 
+ * followed by some percentiles, and the number of collections and the gc time per operation.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+class Measurement {
+    /**
+     * Quantile of the standard normal distribution used for the 99.9% confidence interval.
+     */
+    private final static double Z_999 = 3.2905;
+
+    private final String m_phase;
+    private final List<Long> m_samples = new ArrayList<>();
+    private long m_gcCount;
+    private long m_gcTime;
+    
+    Measurement(String phase) {
+        m_phase = phase;
+    }
+    
+    /**
+     * Runs the given phase, and records its duration and the collections observed meanwhile.
+     */
+    void measure(Runnable phase) {
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long start = System.nanoTime();
+        phase.run();
+        m_samples.add(System.nanoTime() - start);
+        m_gcCount += gcCount() - gcCount;
+        m_gcTime += gcTime() - gcTime;
+    }
+        
+    int size() {
+        return m_samples.size();
+    }
+    
+    double mean() {
+        return m_samples.stream().mapToLong(Long::longValue).average().orElse(0);
+    }
+    
+    double stddev() {
+        int n = m_samples.size();
+        if (n < 2) {
+            return 0;
+        }
+        double mean = mean();
+        double sum = m_samples.stream().mapToDouble(s -> (s - mean) * (s - mean)).sum();
+        return Math.sqrt(sum / (n - 1));
+    }
+    
+    /**
+     * Returns the half width of the 99.9% confidence interval of the mean, using the Student's t
+     * distribution, or NaN if there are not enough samples.
+     */
+    double error() {
+        int n = m_samples.size();
+        if (n < 2) {
+            return Double.NaN;
+        }
+        return studentT999(n - 1) * stddev() / Math.sqrt(n);
+    }
+    
+    /**
+     * Returns the sample at the given percentile (0-100).
+     */
+    long percentile(double percentile) {
+        List<Long> sorted = new ArrayList<>(m_samples);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.size() / 100) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+    
+    /**
+     * Displays the mean with its error, the min/p50/p90/max samples and the gc statistics per operation.
+     */
+    @Override
+    public String toString() {
+        if (m_samples.isEmpty()) {
+            return String.format("%-6s: no samples", m_phase);
+        }
+        return String.format("%-6s: %s +/- %s ns/op (99.9%%) [%s] gc: %.2f collections/op, %.2f ms/op", 
+            m_phase, 
+            formatNano((long) mean()), 
+            Double.isNaN(error()) ? "?" : formatNano((long) error()),
+            Stream.of(0d, 50d, 90d, 100d).map(p -> formatNano(percentile(p))).collect(joining(" | ")),
+            (double) m_gcCount / m_samples.size(),
+            (double) m_gcTime / m_samples.size());
+    }
+    
+    /**
+     * Approximates the 0.9995 quantile of the Student's t distribution with the given degrees of 
+     * freedom, using the Cornish-Fisher expansion of the normal quantile.
+     */
+    static double studentT999(int df) {
+        double z = Z_999;
+        double z3 = z * z * z;
+        double z5 = z3 * z * z;
+        double z7 = z5 * z * z;
+        return z 
+            + (z3 + z) / (4 * df) 
+            + (5 * z5 + 16 * z3 + 3 * z) / (96 * Math.pow(df, 2)) 
+            + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * Math.pow(df, 3));
+    }
+    
+    /**
+     * Displays a nanosecond value using thousands separator. 
+     * Example: 1000000 -> 1,000,000
+     */
+    static String formatNano(long nanoseconds) {
+        return NumberFormat.getInstance(Locale.US).format(nanoseconds);
+    }
+    
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(t -> t > 0).sum();
+    }
+}
@@ -19,25 +19,18 @@
 package org.apache.felix.dm.benchmark.controller.impl;
 
 import static java.lang.System.out;
-import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toList;
 import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
 import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
 import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
 import static org.apache.felix.dm.benchmark.scenario.Helper.debug;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.apache.felix.dm.benchmark.controller.ScenarioController;
@@ -48,6 +41,7 @@ import org.apache.felix.dm.benchmark.scenario.Track;
 import org.apache.felix.dm.benchmark.scenario.Unchecked;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 
 /**
  * The controller which perform microbenchmarks on some scenario bundles.
@@ -56,18 +50,36 @@ import org.osgi.framework.BundleContext;
  */
 public class ScenarioControllerImpl implements Runnable, ScenarioController {
     /**
-     * List of bundles to be executed by the benchmark.
+     * List of bundles to be executed by the benchmark (bundles which are not installed are skipped).
      */
     final List<String> TESTS = Arrays.asList(
         "org.apache.felix.dependencymanager.benchmark.dependencymanager",
-        "org.apache.felix.dependencymanager.benchmark.dependencymanager.parallel"
+        "org.apache.felix.dependencymanager.benchmark.dependencymanager.parallel",
+        "org.apache.felix.dependencymanager.benchmark.scr",
+        "org.apache.felix.dependencymanager.benchmark.ipojo"
     );
     
+    /**
+     * Number of warmup iterations, whose results are discarded (can be configured with the 
+     * "dm.benchmark.warmup" system property).
+     */
+    final static int WARMUP = Integer.getInteger("dm.benchmark.warmup", 10);
+
+    /**
+     * Number of measured iterations (can be configured with the "dm.benchmark.iterations" system property).
+     */
+    final static int ITERATIONS = Integer.getInteger("dm.benchmark.iterations", 50);
+
     /**
      * Our injected bundle context, used to lookup the bundles to benchmark.
      */
     private volatile BundleContext m_bctx;
     
+    /**
+     * Our controller service registration, which all scenario components depend on.
+     */
+    private volatile ServiceRegistration<?> m_registration;
+    
     /**
      * Latches used to detect when expected services are registered, or unregistered.
      */
@@ -106,17 +118,17 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
         }));
         
         // Register our controller service
-        m_bctx.registerService(ScenarioController.class.getName(), this, null);
+        m_registration = m_bctx.registerService(ScenarioController.class.getName(), this, null);
         
         // Start/stop several times the tested bundles. (no processing done in components start methods).
         m_doProcessingInStartStop = false;
         out.println("\n\t[Starting benchmarks with no processing done in components start methods]");
-        startStopScenarioBundles(TESTS, 50);
+        startStopScenarioBundles(TESTS, WARMUP, ITERATIONS);
        
         // Start/stop several times the tested bundles (processing is done in components start methods).
         m_doProcessingInStartStop = true;
         out.println("\n\t[Starting benchmarks with processing done in components start methods]");
-        startStopScenarioBundles(TESTS, 5);
+        startStopScenarioBundles(TESTS, Math.min(WARMUP, 2), Math.min(ITERATIONS, 5));
     }
 
     @Override
@@ -166,47 +178,41 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
             
     // ------------------- Private methods -----------------------------------------------------
         
-    private void startStopScenarioBundles(List<String> tests, int iterations) {
+    /**
+     * Benchmarks each scenario bundle. For each bundle, we first run some warmup iterations whose results
+     * are discarded, then we measure each phase of the measured iterations separately:
+     * 
+     * - start: the bundle is started, and all components are created and injected with their dependencies.
+     * - churn: the controller service is unregistered and registered again. All components depend on it,
+     *   so they are all removed and then recreated by the scenario bundle, without restarting it.
+     * - stop: the bundle is stopped, and all components are removed.
+     */
+    private void startStopScenarioBundles(List<String> tests, int warmup, int iterations) {
         forEachScenarioBundle(tests, bundle -> {
-            out.print("\nBenchmarking bundle: " + bundle.getSymbolicName() + " ");            
-            List<Long> sortedResults = LongStream.range(0, iterations)
-                .peek(i -> out.print("."))
-                .map(n -> durationOf(() -> start(bundle)))
-                .peek(n -> stop(bundle))
-                .sorted().boxed().collect(toList());
+            out.print("\nBenchmarking bundle: " + bundle.getSymbolicName() + " ");
+            for (int i = 0; i < warmup; i ++) {
+                start(bundle);
+                churn();
+                stop(bundle);
+            }
+            
+            Measurement start = new Measurement("start");
+            Measurement churn = new Measurement("churn");
+            Measurement stop = new Measurement("stop");
+            for (int i = 0; i < iterations; i ++) {
+                out.print(".");
+                start.measure(() -> start(bundle));
+                churn.measure(this::churn);
+                stop.measure(() -> stop(bundle));
+            }
             out.println();
-            displaySortedResults(sortedResults);
+            out.println("-> " + start);
+            out.println("-> " + churn);
+            out.println("-> " + stop);
             Unchecked.run(() -> Thread.sleep(500));
         });               
     }
 
-    /**
-     * Displays meaningful values in the sorted results (first=fastest, midle=average, last entry=slowest)
-     * @param sortedResults
-     */
-    private void displaySortedResults(List<Long> sortedResults) {
-        // We don't display an average of the duration times; Instead, we sort the results,
-        // and we display the significant results (the first entry is the fastest, the middle entry is the
-        // average, the last entry is the slowest ...)
-        out.printf("-> results in nanos: [%s]%n",  
-            Stream.of(0f, 24.99f, 49.99f, 74.99f, 99.99f)
-                .mapToInt(perc -> (int) (perc * sortedResults.size() / 100))
-                .mapToObj(sortedResults::get)
-                .map(this::formatNano)
-                .collect(joining(" | ")));
-    }
-    
-    /**
-     * Displays a nanosecond value using thousands separator. 
-     * Example: 1000000 -> 1,000,000
-     */
-    private String formatNano(Long nanoseconds) {
-		DecimalFormat formatter = (DecimalFormat) NumberFormat.getInstance(Locale.US);
-		DecimalFormatSymbols symbols = formatter.getDecimalFormatSymbols();
-		symbols.setGroupingSeparator(',');
-		return formatter.format(nanoseconds);
-    }
-
     private void componentAdded() {
         doProcessing();
         m_startLatch.countDown();
@@ -267,6 +273,43 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
         }
     }
     
+    /**
+     * This function unregisters our controller service, waits for all components to be stopped, and 
+     * then registers the controller again and waits for all components to be started.
+     */
+    void churn() {
+        try {
+            m_stopLatch = new CountDownLatch(ARTISTS
+                + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS))));
+            m_startLatch = new CountDownLatch(ARTISTS
+                + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS))));
+
+            debug(() -> "unregistering controller");
+            m_registration.unregister();
+            
+            if (! m_stopLatch.await(60, TimeUnit.SECONDS)) {
+                out.println("Could not stop components timely: current stop latch=" + m_stopLatch.getCount());
+                Unchecked.run(() -> Thread.sleep(Integer.MAX_VALUE));
+            }
+            
+            debug(() -> "registering controller");
+            m_registration = m_bctx.registerService(ScenarioController.class.getName(), this, null);
+            
+            if (! m_startLatch.await(60, TimeUnit.SECONDS)) {
+                out.println("Could not start components timely: current start latch=" + m_startLatch.getCount());
+                Unchecked.run(() -> Thread.sleep(Integer.MAX_VALUE));
+            }
+            
+            // Make sure the threadpool is quiescent and has finished to register all components
+            if (! Helper.getThreadPool().awaitQuiescence(5, TimeUnit.SECONDS)) {
+                out.println("could not start components timely (thread pool is still active after 5 seconds)");
+                Unchecked.run(() -> Thread.sleep(Integer.MAX_VALUE));
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+    
     /**
      * This function stops the bundle and wait for all expected components to be fully stopped
      * 
@@ -295,19 +338,4 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
             t.printStackTrace();
         }
     }
-    
-    /**
-     * Returns the time consumed by the given runnable, ²ch is executed by this method.
-     */
-    private long durationOf(Runnable scenario) {
-        long start = System.nanoTime();
-        long end = 0;
-        try {
-            scenario.run();
-            end = System.nanoTime();
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
-        return (end - start);
-    }
 }
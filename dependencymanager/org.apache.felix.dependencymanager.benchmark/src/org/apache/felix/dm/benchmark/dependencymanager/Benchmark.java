@@ -68,6 +68,7 @@ public class Benchmark {
     @SuppressWarnings("unused")
     private void stop() {
         m_components.forEach(m_dm::remove);
+        m_components.clear();
     }
 
     private Component createArtists(DependencyManager dm) {
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.ipojo;
+
+import static java.util.stream.Collectors.joining;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.apache.felix.dm.benchmark.scenario.Unchecked;
+import org.apache.felix.ipojo.ComponentInstance;
+import org.apache.felix.ipojo.Factory;
+
+/**
+ * Scenario based on iPOJO. We'll create many Artists, each one is depending on many Albums, and each Album
+ * depends on many Tracks.
+ * 
+ * The components are created from their factories, bottom up, so that each Album (resp. Artist) is validated
+ * with all its Tracks (resp. Albums): iPOJO aggregate dependencies are satisfied by a single service. The 
+ * dependencies are filtered on the ids of the Tracks (resp. Albums) using the "requires.filters" instance
+ * property. Like in the Dependency Manager scenarios, all components are removed and recreated when the 
+ * ScenarioController goes away and comes back. The component types are declared in metadata.xml.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class Benchmark {
+    ScenarioController m_controller;
+    Factory m_artistFactory;
+    Factory m_albumFactory;
+    Factory m_trackFactory;
+
+    final List<ComponentInstance> m_instances = new ArrayList<>();
+
+    void start() {
+        Helper.debug(() -> "Benchmark.start");
+        IntStream.range(0, ARTISTS).forEach(i -> createArtist());
+    }
+
+    void stop() {
+        // Dispose the Artists first, like the Dependency Manager scenarios do.
+        Collections.reverse(m_instances);
+        m_instances.forEach(ComponentInstance::dispose);
+        m_instances.clear();
+    }
+
+    private void createArtist() {
+        String albums = IntStream.range(0, ALBUMS).mapToObj(i -> createAlbum()).collect(joining("", "(|", ")"));
+        create(m_artistFactory, Helper.generateId(), "album", albums);
+    }
+
+    private String createAlbum() {
+        String tracks = IntStream.range(0, TRACKS).mapToObj(i -> createTrack()).collect(joining("", "(|", ")"));
+        return create(m_albumFactory, Helper.generateId(), "track", tracks);
+    }
+
+    private String createTrack() {
+        return create(m_trackFactory, Helper.generateId(), null, null);
+    }
+
+    /**
+     * Creates a component instance with the given id, and returns a filter matching it.
+     */
+    private String create(Factory factory, long id, String dependency, String filter) {
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put("id", String.valueOf(id));
+        if (dependency != null) {
+            Hashtable<String, String> filters = new Hashtable<>();
+            filters.put(dependency, filter);
+            props.put("requires.filters", filters);
+        }
+        Unchecked.run(() -> m_instances.add(factory.createComponentInstance(props)));
+        return "(id=" + id + ")";
+    }
+}
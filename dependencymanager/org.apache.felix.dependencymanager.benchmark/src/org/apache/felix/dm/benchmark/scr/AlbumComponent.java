@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.scr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+
+/**
+ * An album comprising several music tracks. Instances are created by the {@link Benchmark} component,
+ * which targets the "track" reference to the ids of the Album's Tracks and sets its minimum cardinality
+ * to their number.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+@Component(factory = AlbumComponent.FACTORY, service = Album.class)
+public class AlbumComponent implements Album {
+    final static String FACTORY = "org.apache.felix.dm.benchmark.scr.Album";
+
+    final List<Track> m_musicTracks = new ArrayList<>();
+    ScenarioController m_controller;
+
+    @Reference
+    void bindController(ScenarioController controller) {
+        m_controller = controller;
+    }
+
+    @Reference(name = "track", cardinality = ReferenceCardinality.AT_LEAST_ONE)
+    void addTrack(Track track) {
+        m_musicTracks.add(track);
+    }
+
+    @Activate
+    void start() {
+        m_controller.albumAdded(this);
+    }
+
+    @Deactivate
+    void stop() {
+        m_controller.albumRemoved(this);
+    }
+
+    @Override
+    public List<Track> getMusicTracks() {
+        return m_musicTracks;
+    }
+
+    @Override
+    public void play() {
+        for (Track track : m_musicTracks) {
+            track.play();
+        }
+    }
+}
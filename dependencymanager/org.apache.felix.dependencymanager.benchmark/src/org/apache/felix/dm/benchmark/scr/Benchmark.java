@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.scr;
+
+import static java.util.stream.Collectors.joining;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.osgi.service.component.ComponentFactory;
+import org.osgi.service.component.ComponentInstance;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Scenario based on Declarative Services. We'll create many Artists, each one is depending on many Albums, 
+ * and each Album depends on many Tracks.
+ * 
+ * The components are created from their component factories, bottom up, because a factory can only create
+ * a component whose references are satisfied. Each Album (resp. Artist) gets a target filter matching the 
+ * ids of its Tracks (resp. Albums), and a minimum cardinality requiring all of them. Like in the Dependency 
+ * Manager scenarios, all components are removed and recreated when the ScenarioController goes away and 
+ * comes back.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+@Component
+public class Benchmark {
+    @Reference
+    ScenarioController m_controller;
+
+    @Reference(target = "(component.factory=" + ArtistComponent.FACTORY + ")")
+    ComponentFactory m_artistFactory;
+
+    @Reference(target = "(component.factory=" + AlbumComponent.FACTORY + ")")
+    ComponentFactory m_albumFactory;
+
+    @Reference(target = "(component.factory=" + TrackComponent.FACTORY + ")")
+    ComponentFactory m_trackFactory;
+
+    final List<ComponentInstance> m_instances = new ArrayList<>();
+
+    @Activate
+    void start() {
+        Helper.debug(() -> "Benchmark.start");
+        IntStream.range(0, ARTISTS).forEach(i -> createArtist());
+    }
+
+    @Deactivate
+    void stop() {
+        // Dispose the Artists first, like the Dependency Manager scenarios do.
+        Collections.reverse(m_instances);
+        m_instances.forEach(ComponentInstance::dispose);
+        m_instances.clear();
+    }
+
+    private void createArtist() {
+        String albums = IntStream.range(0, ALBUMS).mapToObj(i -> createAlbum()).collect(joining("", "(|", ")"));
+        create(m_artistFactory, Helper.generateId(), "album", albums, ALBUMS);
+    }
+
+    private String createAlbum() {
+        String tracks = IntStream.range(0, TRACKS).mapToObj(i -> createTrack()).collect(joining("", "(|", ")"));
+        return create(m_albumFactory, Helper.generateId(), "track", tracks, TRACKS);
+    }
+
+    private String createTrack() {
+        return create(m_trackFactory, Helper.generateId(), null, null, 0);
+    }
+
+    /**
+     * Creates a component instance with the given id, and returns a filter matching it.
+     */
+    private String create(ComponentFactory factory, long id, String reference, String target, int cardinality) {
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put("id", String.valueOf(id));
+        if (reference != null) {
+            props.put(reference + ".target", target);
+            props.put(reference + ".cardinality.minimum", cardinality);
+        }
+        m_instances.add(factory.newInstance(props));
+        return "(id=" + id + ")";
+    }
+}
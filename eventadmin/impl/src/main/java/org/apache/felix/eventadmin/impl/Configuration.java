@@ -18,6 +18,7 @@
  */
 package org.apache.felix.eventadmin.impl;
 
+import java.lang.management.ManagementFactory;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -25,6 +26,9 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.apache.felix.eventadmin.impl.adapter.AbstractAdapter;
 import org.apache.felix.eventadmin.impl.adapter.BundleEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.FrameworkEventAdapter;
@@ -32,7 +36,9 @@ import org.apache.felix.eventadmin.impl.adapter.LogEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.ServiceEventAdapter;
 import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
 import org.apache.felix.eventadmin.impl.security.SecureEventAdminFactory;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
+import org.apache.felix.eventadmin.impl.tasks.DeliveryStatisticsMBean;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -116,6 +122,37 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * </p>
  * <p>
  * <p>
+ *      <tt>org.apache.felix.eventadmin.TimeoutWatchdog</tt> - Check the timeouts
+ *          with a single watchdog thread.
+ * </p>
+ * The default is <tt>false</tt> which calls each <tt>EventHandler</tt> that is
+ * subject to the timeout in a thread from the pool while the delivering thread
+ * waits. Setting this value to <tt>true</tt> calls the handlers directly in the
+ * delivering thread, one after the other, and a single watchdog thread blacklists
+ * handlers exceeding the timeout. This saves the thread hand-off per handler call.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncQueueSize</tt> - The maximum number of
+ *          posted events queued by all posting threads together.
+ * </p>
+ * The default value is 0 which does not limit the queue. If a limit is configured
+ * and reached, the overflow policy is applied.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncOverflowPolicy</tt> - The policy applied
+ *          if the queue is full.
+ * </p>
+ * The default value is <tt>block</tt> which lets the posting thread wait until the
+ * queue has space again. <tt>dropOldest</tt> drops the oldest event queued by the
+ * posting thread, or the posted event if the posting thread has none queued,
+ * <tt>dropNewest</tt> drops the posted event and <tt>callerRuns</tt> delivers the
+ * posted event in the posting thread. Note that the latter three do not preserve
+ * the delivery of all events or their order.
+ * </p>
+ * <p>
+ * <p>
  * These properties are read at startup and serve as a default configuration.
  * If a configuration admin is configured, the event admin can be configured
  * through the config admin.
@@ -135,6 +172,9 @@ public class Configuration
     static final String PROP_IGNORE_TIMEOUT = "org.apache.felix.eventadmin.IgnoreTimeout";
     static final String PROP_IGNORE_TOPIC = "org.apache.felix.eventadmin.IgnoreTopic";
     static final String PROP_LOG_LEVEL = "org.apache.felix.eventadmin.LogLevel";
+    static final String PROP_TIMEOUT_WATCHDOG = "org.apache.felix.eventadmin.TimeoutWatchdog";
+    static final String PROP_ASYNC_QUEUE_SIZE = "org.apache.felix.eventadmin.AsyncQueueSize";
+    static final String PROP_ASYNC_OVERFLOW_POLICY = "org.apache.felix.eventadmin.AsyncOverflowPolicy";
 
     /** The bundle context. */
     private final BundleContext m_bundleContext;
@@ -149,12 +189,18 @@ public class Configuration
 
     private boolean m_requireTopic;
 
+    private boolean m_timeoutWatchdog;
+
     private String[] m_ignoreTimeout;
 
     private String[] m_ignoreTopics;
 
     private int m_logLevel;
 
+    private int m_asyncQueueSize;
+
+    private String m_asyncOverflowPolicy;
+
     // The thread pool used - this is a member because we need to close it on stop
     private volatile DefaultThreadPool m_sync_pool;
 
@@ -169,6 +215,9 @@ public class Configuration
     // The registration of the security decorator factory (i.e., the service)
     private volatile ServiceRegistration m_registration;
 
+    // The name of the async delivery statistics MBean if registered
+    private volatile ObjectName m_statisticsName;
+
     // all adapters
     private AbstractAdapter[] m_adapters;
 
@@ -296,6 +345,11 @@ public class Configuration
             // (i.e., they are treated the same as with a topic=*).
             m_requireTopic = getBooleanProperty(
                 m_bundleContext.getProperty(PROP_REQUIRE_TOPIC), true);
+
+            // Check the timeouts with a single watchdog thread instead of calling
+            // each handler in a thread from the pool? - The default is false.
+            m_timeoutWatchdog = getBooleanProperty(
+                m_bundleContext.getProperty(PROP_TIMEOUT_WATCHDOG), false);
             final String value = m_bundleContext.getProperty(PROP_IGNORE_TIMEOUT);
             if ( value == null )
             {
@@ -329,6 +383,13 @@ public class Configuration
                     m_bundleContext.getProperty(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+
+            // The maximum number of queued events of all posting threads - A value of 0
+            // does not limit the queue.
+            m_asyncQueueSize = getIntProperty(PROP_ASYNC_QUEUE_SIZE,
+                    m_bundleContext.getProperty(PROP_ASYNC_QUEUE_SIZE), 0, 0);
+            m_asyncOverflowPolicy = getOverflowPolicyProperty(
+                    m_bundleContext.getProperty(PROP_ASYNC_OVERFLOW_POLICY));
         }
         else
         {
@@ -337,6 +398,7 @@ public class Configuration
                 	PROP_ASYNC_TO_SYNC_THREAD_RATIO, config.get(PROP_ASYNC_TO_SYNC_THREAD_RATIO), 0.5, 0.0);
             m_timeout = getIntProperty(PROP_TIMEOUT, config.get(PROP_TIMEOUT), 5000, Integer.MIN_VALUE);
             m_requireTopic = getBooleanProperty(config.get(PROP_REQUIRE_TOPIC), true);
+            m_timeoutWatchdog = getBooleanProperty(config.get(PROP_TIMEOUT_WATCHDOG), false);
             m_ignoreTimeout = null;
             final Object value = config.get(PROP_IGNORE_TIMEOUT);
             if ( value instanceof String )
@@ -371,6 +433,9 @@ public class Configuration
                     config.get(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_asyncQueueSize = getIntProperty(PROP_ASYNC_QUEUE_SIZE,
+                    config.get(PROP_ASYNC_QUEUE_SIZE), 0, 0);
+            m_asyncOverflowPolicy = getOverflowPolicyProperty(config.get(PROP_ASYNC_OVERFLOW_POLICY));
         }
         // a timeout less or equals to 100 means : disable timeout
         if ( m_timeout <= 100 )
@@ -395,6 +460,12 @@ public class Configuration
             PROP_TIMEOUT + "=" + m_timeout);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_REQUIRE_TOPIC + "=" + m_requireTopic);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_TIMEOUT_WATCHDOG + "=" + m_timeoutWatchdog);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_QUEUE_SIZE + "=" + m_asyncQueueSize);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_OVERFLOW_POLICY + "=" + m_asyncOverflowPolicy);
 
         // Note that this uses a lazy thread pool that will create new threads on
         // demand - in case none of its cached threads is free - until threadPoolSize
@@ -426,7 +497,10 @@ public class Configuration
                     m_timeout,
                     m_ignoreTimeout,
                     m_requireTopic,
-                    m_ignoreTopics);
+                    m_ignoreTopics,
+                    m_asyncQueueSize,
+                    m_asyncOverflowPolicy,
+                    m_timeoutWatchdog);
 
             // Finally, adapt the outside events to our kind of events as per spec
             adaptEvents(m_admin);
@@ -436,10 +510,14 @@ public class Configuration
             // appropriated permissions of each calling bundle
             m_registration = m_bundleContext.registerService(EventAdmin.class.getName(),
                     new SecureEventAdminFactory(m_admin), null);
+
+            // publish the counters of the async delivery for diagnostics
+            registerStatistics();
         }
         else
         {
-            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics);
+            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics,
+                    m_asyncQueueSize, m_asyncOverflowPolicy, m_timeoutWatchdog);
         }
 
     }
@@ -468,6 +546,7 @@ public class Configuration
                 m_managedServiceReg.unregister();
                 m_managedServiceReg = null;
             }
+            unregisterStatistics();
             // We need to unregister manually
             if ( m_registration != null )
             {
@@ -492,6 +571,53 @@ public class Configuration
         }
     }
 
+    /**
+     * Register the async delivery statistics with the platform MBean server.
+     * The name is qualified by the framework UUID as several frameworks may
+     * share the platform MBean server. A failure is logged only as the
+     * statistics are for diagnostics.
+     */
+    private void registerStatistics()
+    {
+        String framework = m_bundleContext.getProperty(Constants.FRAMEWORK_UUID);
+        if ( framework == null )
+        {
+            framework = Integer.toHexString(System.identityHashCode(m_bundleContext));
+        }
+        try
+        {
+            final ObjectName name = new ObjectName(DeliveryStatisticsMBean.OBJECT_NAME
+                    + ",framework=" + ObjectName.quote(framework));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(m_admin.getStatistics(), name);
+            m_statisticsName = name;
+        }
+        catch (final JMException e)
+        {
+            LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                    "Unable to register the delivery statistics MBean", e);
+        }
+    }
+
+    /**
+     * Unregister the async delivery statistics MBean if registered.
+     */
+    private void unregisterStatistics()
+    {
+        final ObjectName name = m_statisticsName;
+        if ( name != null )
+        {
+            m_statisticsName = null;
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (final JMException e)
+            {
+                // ignore, the MBean is gone already
+            }
+        }
+    }
+
     /**
      * Init the adapters in org.apache.felix.eventadmin.impl.adapter
      */
@@ -510,7 +636,8 @@ public class Configuration
         {
             return new MetaTypeProviderImpl((ManagedService)managedService,
                     m_threadPoolSize, m_timeout, m_requireTopic,
-                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio);
+                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio,
+                    m_asyncQueueSize, m_asyncOverflowPolicy, m_timeoutWatchdog);
         }
         catch (final Throwable t)
         {
@@ -621,6 +748,30 @@ public class Configuration
         return defaultValue;
     }
 
+    /**
+     * Returns the overflow policy if the value of the property is set and is one of
+     * the known policies. Returns the default policy <tt>block</tt> otherwise, with
+     * a warning if the value is set.
+     */
+    private String getOverflowPolicyProperty(final Object obj)
+    {
+        if(null != obj)
+        {
+            final String value = obj.toString().trim();
+            if ( AsyncDeliverTasks.POLICY_BLOCK.equals(value)
+                 || AsyncDeliverTasks.POLICY_DROP_OLDEST.equals(value)
+                 || AsyncDeliverTasks.POLICY_DROP_NEWEST.equals(value)
+                 || AsyncDeliverTasks.POLICY_CALLER_RUNS.equals(value) )
+            {
+                return value;
+            }
+            LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                    "Value for property: " + PROP_ASYNC_OVERFLOW_POLICY + " is unknown - Using default");
+        }
+
+        return AsyncDeliverTasks.POLICY_BLOCK;
+    }
+
     /**
      * Returns true if the value of the property is set and is either 1, true, or yes
      * Returns false if the value of the property is set and is either 0, false, or no
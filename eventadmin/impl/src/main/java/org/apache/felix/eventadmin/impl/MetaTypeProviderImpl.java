@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Dictionary;
 
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.metatype.AttributeDefinition;
@@ -42,6 +43,9 @@ public class MetaTypeProviderImpl
     private final String[] m_ignoreTimeout;
     private final String[] m_ignoreTopic;
     private final double m_asyncThreadPoolRatio;
+    private final int m_asyncQueueSize;
+    private final String m_asyncOverflowPolicy;
+    private final boolean m_timeoutWatchdog;
 
     private final ManagedService m_delegatee;
 
@@ -50,7 +54,10 @@ public class MetaTypeProviderImpl
             final int timeout, final boolean requireTopic,
             final String[] ignoreTimeout,
             final String[] ignoreTopic,
-            final double asyncThreadPoolRatio)
+            final double asyncThreadPoolRatio,
+            final int asyncQueueSize,
+            final String asyncOverflowPolicy,
+            final boolean timeoutWatchdog)
     {
         m_threadPoolSize = threadPoolSize;
         m_timeout = timeout;
@@ -59,6 +66,9 @@ public class MetaTypeProviderImpl
         m_ignoreTimeout = ignoreTimeout;
         m_ignoreTopic = ignoreTopic;
         m_asyncThreadPoolRatio = asyncThreadPoolRatio;
+        m_asyncQueueSize = asyncQueueSize;
+        m_asyncOverflowPolicy = asyncOverflowPolicy;
+        m_timeoutWatchdog = timeoutWatchdog;
     }
 
     private ObjectClassDefinition ocd;
@@ -116,6 +126,13 @@ public class MetaTypeProviderImpl
                     "in milliseconds granted to each event handler before it gets blacklisted",
                     m_timeout ) );
 
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_TIMEOUT_WATCHDOG, "Timeout Watchdog",
+                    "Check the timeouts with a single watchdog thread. By default each event handler " +
+                    "subject to the timeout is called in a thread from the pool while the delivering " +
+                    "thread waits. If enabled, the handlers are called directly in the delivering thread, " +
+                    "one after the other, and a watchdog thread blacklists handlers exceeding the timeout.",
+                    m_timeoutWatchdog ) );
+
             adList.add( new AttributeDefinitionImpl( Configuration.PROP_REQUIRE_TOPIC, "Require Topic",
                     "Are event handlers required to be registered with a topic? " +
                     "This is enabled by default. The specification says that event handlers " +
@@ -143,6 +160,20 @@ public class MetaTypeProviderImpl
                     "are ignored. If a single value neither ends with a dot nor with a start, this is assumed " +
                     "to define an exact topic. A single star can be used to disable delivery completely.",
                     AttributeDefinition.STRING, m_ignoreTopic, Integer.MAX_VALUE, null, null));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_QUEUE_SIZE, "Async Queue Size",
+                    "The maximum number of posted events queued by all posting threads together. The default " +
+                    "value is 0 which does not limit the queue. If a limit is configured and reached, the " +
+                    "overflow policy is applied.",
+                    m_asyncQueueSize ) );
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_OVERFLOW_POLICY, "Async Overflow Policy",
+                    "The policy applied if the queue is full. Block lets the posting thread wait until the " +
+                    "queue has space again. The other policies drop the oldest event queued by the posting " +
+                    "thread, drop the posted event or deliver the posted event in the posting thread. These do not " +
+                    "preserve the delivery of all events or their order.",
+                    AttributeDefinition.STRING, new String[] {m_asyncOverflowPolicy}, 0,
+                    new String[] {"Block", "Drop Oldest", "Drop Newest", "Caller Runs"},
+                    new String[] {AsyncDeliverTasks.POLICY_BLOCK, AsyncDeliverTasks.POLICY_DROP_OLDEST,
+                                  AsyncDeliverTasks.POLICY_DROP_NEWEST, AsyncDeliverTasks.POLICY_CALLER_RUNS}));
             ocd = new ObjectClassDefinition()
             {
 
@@ -20,6 +20,7 @@ package org.apache.felix.eventadmin.impl.handler;
 
 import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
+import org.apache.felix.eventadmin.impl.tasks.DeliveryStatistics;
 import org.apache.felix.eventadmin.impl.tasks.SyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.util.Matchers;
 import org.osgi.framework.BundleContext;
@@ -58,6 +59,9 @@ public class EventAdminImpl implements EventAdmin
      *
      * @param syncPool The synchronous thread pool
      * @param asyncPool The asynchronous thread pool
+     * @param asyncQueueSize The maximum number of queued events of all posting threads
+     * @param asyncOverflowPolicy The policy applied if a queue is full
+     * @param timeoutWatchdog Whether a watchdog thread checks the timeouts
      */
     public EventAdminImpl(
                     final BundleContext bundleContext,
@@ -66,7 +70,10 @@ public class EventAdminImpl implements EventAdmin
                     final int timeout,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
-                    final String[] ignoreTopics)
+                    final String[] ignoreTopics,
+                    final int asyncQueueSize,
+                    final String asyncOverflowPolicy,
+                    final boolean timeoutWatchdog)
     {
         checkNull(syncPool, "syncPool");
         checkNull(asyncPool, "asyncPool");
@@ -74,8 +81,9 @@ public class EventAdminImpl implements EventAdmin
         this.tracker = new EventHandlerTracker(bundleContext);
         this.tracker.update(ignoreTimeout, requireTopic);
         this.tracker.open();
-        m_sendManager = new SyncDeliverTasks(syncPool, timeout);
+        m_sendManager = new SyncDeliverTasks(syncPool, timeout, timeoutWatchdog);
         m_postManager = new AsyncDeliverTasks(asyncPool, m_sendManager);
+        m_postManager.update(asyncQueueSize, asyncOverflowPolicy);
         m_ignoreTopics = Matchers.createEventTopicMatchers(ignoreTopics);
     }
 
@@ -155,6 +163,7 @@ public class EventAdminImpl implements EventAdmin
     {
         this.tracker.close();
         this.tracker = null;
+        this.m_sendManager.stop();
     }
 
     /**
@@ -163,15 +172,27 @@ public class EventAdminImpl implements EventAdmin
     public void update(final int timeout,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
-                    final String[] ignoreTopics)
+                    final String[] ignoreTopics,
+                    final int asyncQueueSize,
+                    final String asyncOverflowPolicy,
+                    final boolean timeoutWatchdog)
     {
         this.tracker.close();
         this.tracker.update(ignoreTimeout, requireTopic);
-        this.m_sendManager.update(timeout);
+        this.m_sendManager.update(timeout, timeoutWatchdog);
+        this.m_postManager.update(asyncQueueSize, asyncOverflowPolicy);
         this.tracker.open();
         this.m_ignoreTopics = Matchers.createEventTopicMatchers(ignoreTopics);
     }
 
+    /**
+     * Return the counters of the asynchronous event delivery.
+     */
+    public DeliveryStatistics getStatistics()
+    {
+        return m_postManager.getStatistics();
+    }
+
     /**
      * This is a utility method that will throw a <tt>NullPointerException</tt>
      * in case that the given object is null. The message will be of the form
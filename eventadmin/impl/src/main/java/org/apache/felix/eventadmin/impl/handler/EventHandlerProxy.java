@@ -18,10 +18,10 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.security.Permission;
 import java.util.Collection;
 import java.util.Iterator;
 
-import org.apache.felix.eventadmin.impl.security.PermissionsUtil;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Filter;
@@ -330,8 +330,13 @@ public class EventHandlerProxy {
      * - blacklisted
      * - check filter
      * - check permission
+     * The filter is only evaluated if the handler has one.
+     *
+     * @param event The event
+     * @param subscribePermission The subscribe permission for the topic of
+     *        the event or <code>null</code> if permissions are not supported.
      */
-    public boolean canDeliver(final Event event)
+    public boolean canDeliver(final Event event, final Permission subscribePermission)
     {
         if ( this.blacklisted )
         {
@@ -352,8 +357,7 @@ public class EventHandlerProxy {
         }
 
         // permission check
-        final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
-        if (p != null && !bundle.hasPermission(p) )
+        if (subscribePermission != null && !bundle.hasPermission(subscribePermission) )
         {
             return false;
         }
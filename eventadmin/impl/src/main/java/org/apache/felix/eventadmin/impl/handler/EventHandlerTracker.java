@@ -18,14 +18,20 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.felix.eventadmin.impl.security.PermissionsUtil;
 import org.apache.felix.eventadmin.impl.util.Matchers;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -36,23 +42,30 @@ import org.osgi.util.tracker.ServiceTracker;
 /**
  * The event handler tracker keeps track of all event handler services.
  *
+ * The handlers are organized in a tree of topic tokens. The handlers
+ * resolved for a topic are cached until a handler is added, modified
+ * or removed.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerProxy> {
 
+    /** The maximum number of topics for which the resolved handlers are cached. */
+    static final int MAX_RESOLVED_TOPICS = 1024;
+
     /** The proxies in this list match all events. */
 	private final List<EventHandlerProxy> matchingAllEvents;
 
-    /** This is a map for exact topic matches. The key is the topic,
-     * the value is a list of proxies.
+    /** The root of the topic tree holding the proxies for exact
+     * and wildcard topics.
      */
-    private final Map<String, List<EventHandlerProxy>> matchingTopic;
-
-	/** This is a map for wildcard topics. The key is the prefix of the topic,
-	 * the value is a list of proxies
-	 */
-	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
+    private final TopicNode topicTree;
 
+    /** This is a cache of the resolved proxies. The key is the topic,
+     * the value the proxies of all matching topics. It is cleared
+     * whenever the proxies change.
+     */
+    private final ConcurrentMap<String, ResolvedTopic> resolvedTopics;
 
 	/** The context for the proxies. */
 	private HandlerContext handlerContext;
@@ -61,9 +74,9 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 		super(context, EventHandler.class.getName(), null);
 
 		// we start with empty collections
-		this.matchingAllEvents = new CopyOnWriteArrayList<>();
-		this.matchingTopic = new ConcurrentHashMap<>();
-		this.matchingPrefixTopic = new ConcurrentHashMap<>();
+		this.matchingAllEvents = new ArrayList<>();
+		this.topicTree = new TopicNode();
+		this.resolvedTopics = new ConcurrentHashMap<>();
 	}
 
     /**
@@ -107,32 +120,6 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         proxy.dispose();
 	}
 
-	private void updateMap(final Map<String, List<EventHandlerProxy>> proxyListMap, final String key, final EventHandlerProxy proxy, final boolean add) {
-        List<EventHandlerProxy> proxies = proxyListMap.get(key);
-        if (proxies == null)
-        {
-            if ( !add )
-            {
-                return;
-            }
-            proxies = new CopyOnWriteArrayList<>();
-            proxyListMap.put(key, proxies);
-        }
-
-        if ( add )
-        {
-            proxies.add(proxy);
-        }
-        else
-        {
-            proxies.remove(proxy);
-            if ( proxies.size() == 0 )
-            {
-                proxyListMap.remove(key);
-            }
-        }
-	}
-
 	/**
 	 * Check the topics of the event handler and put it into the
 	 * corresponding collections.
@@ -152,15 +139,16 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
     			{
                     // prefix topic: we remove the /*
     				final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, true);
+                    this.topicTree.getNode(prefix, true).prefixProxies.add(proxy);
     			}
     			else
     			{
     			    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, true);
+                    this.topicTree.getNode(topic, true).exactProxies.add(proxy);
     			}
     		}
 		}
+		this.resolvedTopics.clear();
 	}
 
     /**
@@ -180,15 +168,16 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
                 {
                     // prefix topic: we remove the /*
                     final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, false);
+                    this.topicTree.remove(prefix, 0, proxy, true);
                 }
                 else
                 {
                     // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, false);
+                    this.topicTree.remove(topic, 0, proxy, false);
                 }
             }
         }
+        this.resolvedTopics.clear();
 	}
 
 	/**
@@ -200,47 +189,192 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
 	    final String topic = event.getTopic();
 
-		final Set<EventHandlerProxy> handlers = new HashSet<>();
+	    ResolvedTopic resolved = this.resolvedTopics.get(topic);
+	    if ( resolved == null )
+	    {
+	        resolved = this.resolve(topic);
+	    }
+	    final EventHandlerProxy[] proxies = resolved.proxies;
+	    if ( proxies.length == 0 )
+	    {
+	        return resolved.handlers;
+	    }
 
-		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
+	    // the permission is the same for all handlers
+	    final Permission permission = resolved.permission;
 
-		// Now check for prefix matches
-		if ( !this.matchingPrefixTopic.isEmpty() )
-		{
-		    int pos = topic.lastIndexOf('/');
-			while (pos != -1)
-			{
-			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
-
-				pos = prefix.lastIndexOf('/');
-			}
-		}
+	    // as long as all proxies can deliver, the cached collection is returned
+	    List<EventHandlerProxy> handlers = null;
+	    for(int i = 0; i < proxies.length; i++)
+	    {
+	        if ( !proxies[i].canDeliver(event, permission) )
+	        {
+	            if ( handlers == null )
+	            {
+	                handlers = new ArrayList<>(proxies.length - 1);
+	                for(int j = 0; j < i; j++)
+	                {
+	                    handlers.add(proxies[j]);
+	                }
+	            }
+	        }
+	        else if ( handlers != null )
+	        {
+	            handlers.add(proxies[i]);
+	        }
+	    }
 
-		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
+		return handlers != null ? handlers : resolved.handlers;
+	}
 
-		return handlers;
+	/**
+	 * Resolve the proxies for a topic and cache them.
+	 */
+	private synchronized ResolvedTopic resolve(final String topic) {
+	    ResolvedTopic resolved = this.resolvedTopics.get(topic);
+	    if ( resolved == null )
+	    {
+	        final Set<EventHandlerProxy> proxies = new LinkedHashSet<>(this.matchingAllEvents);
+
+	        // walk down the tree, adding the prefix matches of all
+	        // parent levels and the exact matches of the topic
+	        TopicNode node = this.topicTree;
+	        int start = 0;
+	        while ( node != null )
+	        {
+	            final int pos = topic.indexOf('/', start);
+	            if ( pos == -1 )
+	            {
+	                node = node.children.get(topic.substring(start));
+	                if ( node != null )
+	                {
+	                    proxies.addAll(node.exactProxies);
+	                }
+	                break;
+	            }
+	            node = node.children.get(topic.substring(start, pos));
+	            if ( node != null )
+	            {
+	                proxies.addAll(node.prefixProxies);
+	            }
+	            start = pos + 1;
+	        }
+
+	        resolved = new ResolvedTopic(proxies.toArray(new EventHandlerProxy[proxies.size()]),
+	                proxies.isEmpty() ? null : PermissionsUtil.createSubscribePermission(topic));
+	        if ( this.resolvedTopics.size() >= MAX_RESOLVED_TOPICS )
+	        {
+	            this.resolvedTopics.clear();
+	        }
+	        this.resolvedTopics.put(topic, resolved);
+	    }
+	    return resolved;
 	}
 
 	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
+	 * A node in the topic tree. A node represents a topic, its
+	 * children the topics with one more token.
 	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
+	private static final class TopicNode
 	{
-	    if ( proxies != null )
+	    /** The child nodes by topic token. */
+	    public final Map<String, TopicNode> children = new HashMap<>();
+
+	    /** The proxies for exactly this topic. */
+	    public final List<EventHandlerProxy> exactProxies = new ArrayList<>();
+
+	    /** The proxies for all topics below this topic. */
+	    public final List<EventHandlerProxy> prefixProxies = new ArrayList<>();
+
+	    /**
+	     * Get the node for a topic, optionally creating it.
+	     */
+	    public TopicNode getNode(final String topic, final boolean create)
 	    {
-            for(final EventHandlerProxy p : proxies)
-            {
-                if ( p.canDeliver(event) )
-                {
-                    handlers.add(p);
-                }
-            }
+	        TopicNode node = this;
+	        int start = 0;
+	        while ( node != null )
+	        {
+	            final int pos = topic.indexOf('/', start);
+	            final String token = pos == -1 ? topic.substring(start) : topic.substring(start, pos);
+	            TopicNode child = node.children.get(token);
+	            if ( child == null && create )
+	            {
+	                child = new TopicNode();
+	                node.children.put(token, child);
+	            }
+	            node = child;
+	            if ( pos == -1 )
+	            {
+	                break;
+	            }
+	            start = pos + 1;
+	        }
+	        return node;
+	    }
+
+	    /**
+	     * Remove the proxy from the node of the topic (starting at the token
+	     * at the given position) and prune the nodes which became empty.
+	     * @return <code>true</code> if this node became empty.
+	     */
+	    public boolean remove(final String topic, final int start, final EventHandlerProxy proxy, final boolean prefix)
+	    {
+	        final int pos = topic.indexOf('/', start);
+	        final String token = pos == -1 ? topic.substring(start) : topic.substring(start, pos);
+	        final TopicNode child = this.children.get(token);
+	        if ( child != null )
+	        {
+	            final boolean empty;
+	            if ( pos == -1 )
+	            {
+	                if ( prefix )
+	                {
+	                    child.prefixProxies.remove(proxy);
+	                }
+	                else
+	                {
+	                    child.exactProxies.remove(proxy);
+	                }
+	                empty = child.isEmpty();
+	            }
+	            else
+	            {
+	                empty = child.remove(topic, pos + 1, proxy, prefix);
+	            }
+	            if ( empty )
+	            {
+	                this.children.remove(token);
+	            }
+	        }
+	        return this.isEmpty();
+	    }
+
+	    private boolean isEmpty()
+	    {
+	        return this.children.isEmpty() && this.exactProxies.isEmpty() && this.prefixProxies.isEmpty();
+	    }
+	}
+
+	/**
+	 * The proxies resolved for a topic.
+	 */
+	private static final class ResolvedTopic
+	{
+	    /** The proxies matching the topic. */
+	    public final EventHandlerProxy[] proxies;
+
+	    /** Immutable view of the proxies. */
+	    public final Collection<EventHandlerProxy> handlers;
+
+	    /** The subscribe permission for the topic, if any. */
+	    public final Permission permission;
+
+	    public ResolvedTopic(final EventHandlerProxy[] proxies, final Permission permission)
+	    {
+	        this.proxies = proxies;
+	        this.handlers = Collections.unmodifiableList(Arrays.asList(proxies));
+	        this.permission = permission;
 	    }
 	}
 
@@ -28,10 +28,37 @@ import org.osgi.service.event.Event;
 /**
  * This class does the actual work of the asynchronous event dispatch.
  *
+ * The events posted by a thread are queued in a ring buffer and delivered
+ * in batches by a thread from the pool. If a queue size is configured, it
+ * bounds the number of events queued by all posting threads together. If
+ * this limit is reached, the overflow policy decides what happens with the
+ * posted event.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class AsyncDeliverTasks
 {
+    /** Overflow policy: the posting thread waits until the queue has space. */
+    public static final String POLICY_BLOCK = "block";
+
+    /**
+     * Overflow policy: the oldest event queued by the posting thread is
+     * dropped, or the posted event if the posting thread has none queued.
+     */
+    public static final String POLICY_DROP_OLDEST = "dropOldest";
+
+    /** Overflow policy: the posted event is dropped. */
+    public static final String POLICY_DROP_NEWEST = "dropNewest";
+
+    /** Overflow policy: the posted event is delivered by the posting thread. */
+    public static final String POLICY_CALLER_RUNS = "callerRuns";
+
+    /** The maximum number of events taken from a queue at once. */
+    private static final int BATCH_SIZE = 64;
+
+    /** Marks the threads currently delivering async events. */
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
+
     /** The thread pool to use to spin-off new threads. */
     private final DefaultThreadPool m_pool;
 
@@ -44,6 +71,21 @@ public class AsyncDeliverTasks
     /** A map of running threads currently delivering async events. */
     private final Map<Long, TaskExecuter> m_running_threads = new ConcurrentHashMap<Long, TaskExecuter>();
 
+    /** The counters of the async delivery. */
+    private final DeliveryStatistics m_statistics = new DeliveryStatistics();
+
+    /** The lock guarding the number of queued events, notified if it decreases. */
+    private final Object m_queueLock = new Object();
+
+    /** The number of events queued by all posting threads. */
+    private int m_queued;
+
+    /** The maximum number of queued events, 0 for no limit. */
+    private volatile int m_queueSize;
+
+    /** The policy applied if a queue is full. */
+    private volatile String m_overflowPolicy = POLICY_BLOCK;
+
     /**
      * The constructor of the class that will use the asynchronous.
      *
@@ -58,82 +100,166 @@ public class AsyncDeliverTasks
         m_deliver_task = deliverTask;
     }
 
+    /**
+     * Update the queue configuration.
+     *
+     * @param queueSize The maximum number of events queued by all posting
+     *      threads together, 0 for no limit.
+     * @param overflowPolicy The policy applied if a queue is full, one of the
+     *      <tt>POLICY_*</tt> constants.
+     */
+    public void update(final int queueSize, final String overflowPolicy)
+    {
+        m_queueSize = queueSize;
+        m_overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Return the counters of the async delivery.
+     */
+    public DeliveryStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
     /**
      * This does not block an unrelated thread used to send a synchronous event.
+     * Depending on the overflow policy, it blocks the posting thread while the
+     * queues are full.
      *
      * @param tasks The event handler dispatch tasks to execute
      *
      */
     public void execute(final Collection<EventHandlerProxy> tasks, final Event event)
     {
-        /*
-        final Iterator i = tasks.iterator();
-        boolean hasOrdered = false;
-        while ( i.hasNext() )
+        m_statistics.posted();
+        final TaskInfo info = new TaskInfo(tasks, event);
+        final Long currentThreadId = Thread.currentThread().getId();
+        TaskExecuter executer = m_running_threads.get(currentThreadId);
+        if ( executer == null )
+        {
+            executer = new TaskExecuter(currentThreadId);
+        }
+        boolean callerRuns = false;
+        synchronized ( m_queueLock )
         {
-            final EventHandlerProxy task = (EventHandlerProxy)i.next();
-            if ( !task.isAsyncOrderedDelivery() )
+            final int queueSize = m_queueSize;
+            while ( queueSize > 0 && m_queued >= queueSize )
             {
-                // do somethimg
+                final String policy = m_overflowPolicy;
+                if ( POLICY_DROP_NEWEST.equals(policy) )
+                {
+                    m_statistics.dropped();
+                    return;
+                }
+                else if ( POLICY_DROP_OLDEST.equals(policy) )
+                {
+                    m_statistics.dropped();
+                    synchronized ( executer )
+                    {
+                        if ( executer.size() == 0 )
+                        {
+                            // the queues are filled by other threads
+                            return;
+                        }
+                        executer.removeFirst();
+                    }
+                    m_queued--;
+                }
+                else if ( POLICY_CALLER_RUNS.equals(policy) )
+                {
+                    callerRuns = true;
+                    break;
+                }
+                else if ( DELIVERING.get() != null )
+                {
+                    // an event handler posting from an async thread must not
+                    // wait for the pool, this could dead lock
+                    break;
+                }
+                else
+                {
+                    try
+                    {
+                        m_queueLock.wait();
+                    }
+                    catch ( final InterruptedException ie )
+                    {
+                        // queue the event anyway
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
             }
-            else
+            if ( !callerRuns )
             {
-                hasOrdered = true;
+                m_queued++;
             }
-
         }
-        if ( hasOrdered )
-        {*/
-            final TaskInfo info = new TaskInfo(tasks, event);
-            final Long currentThreadId = Thread.currentThread().getId();
-            TaskExecuter executer = m_running_threads.get(currentThreadId);
-            if ( executer == null )
-            {
-                executer = new TaskExecuter(currentThreadId, m_running_threads);
-            }
-            synchronized ( executer )
+        if ( callerRuns )
+        {
+            // the queues are full, deliver in the posting thread
+            m_statistics.callerRuns();
+            m_deliver_task.execute(tasks, event, true);
+            return;
+        }
+        synchronized ( executer )
+        {
+            executer.add(info);
+            if ( !executer.isActive() )
             {
-                executer.add(info);
-                if ( !executer.isActive() )
+                // reactivate thread
+                executer.setSyncDeliverTasks(m_deliver_task);
+                if ( !m_pool.executeTask(executer) )
                 {
-                    // reactivate thread
-                    executer.setSyncDeliverTasks(m_deliver_task);
-                    if ( !m_pool.executeTask(executer) )
-                    {
-                        // scheduling failed: last resort, call directly
-                        executer.run();
-                    }
-                    m_running_threads.put(currentThreadId, executer);
+                    // scheduling failed: last resort, call directly
+                    executer.run();
                 }
+                m_running_threads.put(currentThreadId, executer);
             }
-        //}
+        }
+    }
+
+    /**
+     * Release the space of events taken from the queues and wake up
+     * the posting threads waiting for it.
+     */
+    private void dequeued(final int count)
+    {
+        synchronized ( m_queueLock )
+        {
+            m_queued -= count;
+            m_queueLock.notifyAll();
+        }
     }
 
     private final static class TaskInfo {
         public final Collection<EventHandlerProxy> tasks;
         public final Event event;
 
-        public TaskInfo next;
-
         public TaskInfo(final Collection<EventHandlerProxy> tasks, final Event event) {
             this.tasks = tasks;
             this.event = event;
         }
     }
 
-    private final static class TaskExecuter implements Runnable
+    private final class TaskExecuter implements Runnable
     {
-        private volatile TaskInfo first;
-        private volatile TaskInfo last;
+        /** The queued events, a ring buffer starting at head. */
+        private TaskInfo[] buffer = new TaskInfo[16];
 
-        private volatile SyncDeliverTasks m_deliver_task;
+        private int head;
+
+        private int size;
+
+        /** The events taken from the buffer for delivery. */
+        private final TaskInfo[] batch = new TaskInfo[BATCH_SIZE];
 
-        private final Map<Long, TaskExecuter> m_running_threads;
+        private volatile SyncDeliverTasks m_deliver_task;
 
         private final long threadId;
 
-        public TaskExecuter(final long threadId, final Map<Long, TaskExecuter> runningThreads) {
-            m_running_threads = runningThreads;
+        public TaskExecuter(final long threadId) {
             this.threadId = threadId;
         }
 
@@ -150,44 +276,92 @@ public class AsyncDeliverTasks
         @Override
         public void run()
         {
-            boolean running;
-            do
+            final Boolean delivering = DELIVERING.get();
+            DELIVERING.set(Boolean.TRUE);
+            try
             {
-                TaskInfo info = null;
-                synchronized ( this )
+                boolean running;
+                do
                 {
-                    info = first;
-                    first = info.next;
-                    if ( first == null )
+                    final int count;
+                    synchronized ( this )
                     {
-                        last = null;
+                        count = Math.min(size, batch.length);
+                        for(int i = 0; i < count; i++)
+                        {
+                            batch[i] = removeFirst();
+                        }
                     }
-                }
-                m_deliver_task.execute(info.tasks, info.event, true);
-                synchronized ( this )
-                {
-                    running = first != null;
-                    if ( !running )
+                    if ( count > 0 )
                     {
-                        this.m_deliver_task = null;
-                        this.m_running_threads.remove(threadId);
+                        dequeued(count);
                     }
+                    for(int i = 0; i < count; i++)
+                    {
+                        final TaskInfo info = batch[i];
+                        batch[i] = null;
+                        m_deliver_task.execute(info.tasks, info.event, true, m_statistics);
+                        m_statistics.delivered();
+                    }
+                    synchronized ( this )
+                    {
+                        running = size > 0;
+                        if ( !running )
+                        {
+                            this.m_deliver_task = null;
+                            m_running_threads.remove(threadId);
+                        }
+                    }
+                } while ( running );
+            }
+            finally
+            {
+                if ( delivering == null )
+                {
+                    DELIVERING.remove();
                 }
-            } while ( running );
+            }
         }
 
+        /**
+         * The number of queued events, must be called while holding the lock.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Queue an event, must be called while holding the lock.
+         */
         public void add(final TaskInfo info)
         {
-            if ( first == null )
-            {
-                first = info;
-                last = info;
-            }
-            else
+            if ( size == buffer.length )
             {
-                last.next = info;
-                last = info;
+                final TaskInfo[] grown = new TaskInfo[buffer.length * 2];
+                for(int i = 0; i < size; i++)
+                {
+                    grown[i] = buffer[(head + i) % buffer.length];
+                }
+                buffer = grown;
+                head = 0;
             }
+            buffer[(head + size) % buffer.length] = info;
+            size++;
+            m_statistics.queued(1);
+        }
+
+        /**
+         * Remove the oldest event, must be called while holding the lock.
+         */
+        public TaskInfo removeFirst()
+        {
+            final TaskInfo info = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            size--;
+            m_statistics.queued(-1);
+            return info;
         }
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters of the asynchronous event delivery. An instance is
+ * registered as a {@link DeliveryStatisticsMBean} by the event admin,
+ * so that the state of the async delivery can be inspected.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DeliveryStatistics implements DeliveryStatisticsMBean
+{
+    /** The number of posted events waiting for delivery. */
+    private final AtomicLong m_queued = new AtomicLong();
+
+    /** The number of posted events. */
+    private final AtomicLong m_posted = new AtomicLong();
+
+    /** The number of events delivered by the async threads. */
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    /** The number of events dropped because a queue was full. */
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    /** The number of events delivered by the posting thread because a queue was full. */
+    private final AtomicLong m_callerRuns = new AtomicLong();
+
+    /** The number of handler calls for events delivered by the async threads. */
+    private final AtomicLong m_handled = new AtomicLong();
+
+    /** The total time spent in the handlers. */
+    private final AtomicLong m_handlerNanos = new AtomicLong();
+
+    /** The longest time spent in a handler. */
+    private volatile long m_maxHandlerNanos;
+
+    void posted()
+    {
+        m_posted.incrementAndGet();
+    }
+
+    void queued(final int count)
+    {
+        m_queued.addAndGet(count);
+    }
+
+    void dropped()
+    {
+        m_dropped.incrementAndGet();
+    }
+
+    void callerRuns()
+    {
+        m_callerRuns.incrementAndGet();
+    }
+
+    void delivered()
+    {
+        m_delivered.incrementAndGet();
+    }
+
+    void handled(final long nanos)
+    {
+        m_handled.incrementAndGet();
+        m_handlerNanos.addAndGet(nanos);
+        if ( nanos > m_maxHandlerNanos )
+        {
+            // not atomic, this is a statistic only
+            m_maxHandlerNanos = nanos;
+        }
+    }
+
+    @Override
+    public long getQueueDepth()
+    {
+        return m_queued.get();
+    }
+
+    @Override
+    public long getPostedCount()
+    {
+        return m_posted.get();
+    }
+
+    @Override
+    public long getDeliveredCount()
+    {
+        return m_delivered.get();
+    }
+
+    @Override
+    public long getDroppedCount()
+    {
+        return m_dropped.get();
+    }
+
+    @Override
+    public long getCallerRunsCount()
+    {
+        return m_callerRuns.get();
+    }
+
+    @Override
+    public long getHandlerCallCount()
+    {
+        return m_handled.get();
+    }
+
+    @Override
+    public long getAverageHandlerLatency()
+    {
+        final long handled = m_handled.get();
+        return handled == 0 ? 0 : m_handlerNanos.get() / handled / 1000;
+    }
+
+    @Override
+    public long getMaxHandlerLatency()
+    {
+        return m_maxHandlerNanos / 1000;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DeliveryStatistics [queueDepth=" + getQueueDepth()
+            + ", posted=" + getPostedCount()
+            + ", delivered=" + getDeliveredCount()
+            + ", dropped=" + getDroppedCount()
+            + ", callerRuns=" + getCallerRunsCount()
+            + ", handlerCalls=" + getHandlerCallCount()
+            + ", averageHandlerLatency=" + getAverageHandlerLatency()
+            + "us, maxHandlerLatency=" + getMaxHandlerLatency() + "us]";
+    }
+}
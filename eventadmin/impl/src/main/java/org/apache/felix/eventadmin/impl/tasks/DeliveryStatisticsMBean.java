@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+/**
+ * The management interface of the {@link DeliveryStatistics}. The counters
+ * are published as a standard MBean with the platform MBean server under
+ * {@link #OBJECT_NAME} and a <tt>framework</tt> key holding the UUID of
+ * the framework, so they can be inspected with any JMX client.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public interface DeliveryStatisticsMBean
+{
+    /** The domain and type of the object name of the MBean. */
+    String OBJECT_NAME = "org.apache.felix.eventadmin:type=DeliveryStatistics";
+
+    /**
+     * The number of posted events currently waiting for delivery.
+     */
+    long getQueueDepth();
+
+    /**
+     * The number of events posted so far.
+     */
+    long getPostedCount();
+
+    /**
+     * The number of posted events delivered by the async threads.
+     */
+    long getDeliveredCount();
+
+    /**
+     * The number of posted events dropped because a queue was full.
+     */
+    long getDroppedCount();
+
+    /**
+     * The number of posted events delivered in the posting thread
+     * because a queue was full.
+     */
+    long getCallerRunsCount();
+
+    /**
+     * The number of handler calls for the posted events delivered by the
+     * async threads.
+     */
+    long getHandlerCallCount();
+
+    /**
+     * The average time in microseconds a handler took to process
+     * a posted event.
+     */
+    long getAverageHandlerLatency();
+
+    /**
+     * The longest time in microseconds a handler took to process
+     * a posted event.
+     */
+    long getMaxHandlerLatency();
+}
@@ -35,6 +35,8 @@ public class HandlerTask implements Runnable
 
 	private final BlacklistLatch handlerLatch;
 
+	private final DeliveryStatistics statistics;
+
 	private volatile long startTime;
 
 	private volatile long endTime;
@@ -48,11 +50,27 @@ public class HandlerTask implements Runnable
 	 * @param handlerLatch The latch used to ensure events fire in proper order
 	 */
 	public HandlerTask(final EventHandlerProxy task, final Event event, final long timeout, final BlacklistLatch handlerLatch)
+	{
+		this(task, event, timeout, handlerLatch, null);
+	}
+
+	/**
+	 *
+	 *
+	 * @param task Proxy to the event handler
+	 * @param event The event to send to the handler
+	 * @param timeout Timeout for handler blacklisting
+	 * @param handlerLatch The latch used to ensure events fire in proper order
+	 * @param statistics The statistics recording the time spent in the handler, or <code>null</code>
+	 */
+	public HandlerTask(final EventHandlerProxy task, final Event event, final long timeout, final BlacklistLatch handlerLatch,
+			final DeliveryStatistics statistics)
 	{
 		this.task = task;
 		this.event = event;
 		this.timeout = timeout;
 		this.handlerLatch = handlerLatch;
+		this.statistics = statistics;
 		this.startTime = -1l;
 		this.endTime = -1l;
 	}
@@ -67,7 +85,7 @@ public class HandlerTask implements Runnable
         {
             startTime = System.currentTimeMillis();
             // execute the task
-            task.sendEvent(event);
+            sendEvent();
             endTime = System.currentTimeMillis();
             checkForBlacklist();
         }
@@ -79,10 +97,34 @@ public class HandlerTask implements Runnable
 
     public void runWithoutBlacklistTiming()
     {
-    	task.sendEvent(event);
+    	sendEvent();
     	handlerLatch.countDown();
     }
 
+    /**
+     * Send the event to the handler, recording the time spent in the
+     * handler if statistics are collected.
+     */
+    private void sendEvent()
+    {
+        if ( statistics == null )
+        {
+            task.sendEvent(event);
+        }
+        else
+        {
+            final long start = System.nanoTime();
+            try
+            {
+                task.sendEvent(event);
+            }
+            finally
+            {
+                statistics.handled(System.nanoTime() - start);
+            }
+        }
+    }
+
     /**
      * This method defines if a timeout handling should be used for the
      * task.
@@ -50,6 +50,9 @@ import org.osgi.service.event.Event;
  * within the event handler, the timeout handler is stopped for the
  * delivery time of the inner event!
  *
+ * If the timeout watchdog is enabled, handlers are called in the calling
+ * thread and a single watchdog thread checks them for timeouts.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class SyncDeliverTasks
@@ -60,22 +63,58 @@ public class SyncDeliverTasks
 
     private long timeout;
 
+    /** The watchdog checking the handlers for timeouts, if enabled. */
+    private volatile TimeoutWatchdog watchdog;
+
     /**
      * Construct a new sync deliver tasks.
      * @param pool The thread pool used to spin-off new threads.
      */
     public SyncDeliverTasks(final DefaultThreadPool pool, final long timeout)
+    {
+        this(pool, timeout, false);
+    }
+
+    /**
+     * Construct a new sync deliver tasks.
+     * @param pool The thread pool used to spin-off new threads.
+     * @param timeout The timeout in milliseconds, 0 to disable timeouts
+     * @param useWatchdog Whether handlers are checked by a watchdog thread
+     *        instead of being called in pool threads
+     */
+    public SyncDeliverTasks(final DefaultThreadPool pool, final long timeout, final boolean useWatchdog)
     {
         this.pool = pool;
-        this.update(timeout);
+        this.update(timeout, useWatchdog);
     }
 
     /**
      * Update the timeout configuration
      */
-    public void update(final long timeout)
+    public synchronized void update(final long timeout, final boolean useWatchdog)
     {
         this.timeout = timeout;
+        if ( this.watchdog != null )
+        {
+            this.watchdog.stop();
+            this.watchdog = null;
+        }
+        if ( useWatchdog && timeout > 0 )
+        {
+            this.watchdog = new TimeoutWatchdog(timeout);
+        }
+    }
+
+    /**
+     * Stop the watchdog, if any.
+     */
+    public synchronized void stop()
+    {
+        if ( this.watchdog != null )
+        {
+            this.watchdog.stop();
+            this.watchdog = null;
+        }
     }
 
     /**
@@ -86,23 +125,51 @@ public class SyncDeliverTasks
      *
      */
     public void execute(final Collection<EventHandlerProxy> tasks, final Event event, final boolean filterAsyncUnordered)
+    {
+        this.execute(tasks, event, filterAsyncUnordered, null);
+    }
+
+    /**
+     * This blocks an unrelated thread used to send a synchronous event until the
+     * event is send (or a timeout occurs).
+     *
+     * @param tasks The event handler dispatch tasks to execute
+     * @param statistics The statistics recording the time spent in each handler,
+     *        or <code>null</code>
+     */
+    public void execute(final Collection<EventHandlerProxy> tasks, final Event event, final boolean filterAsyncUnordered,
+            final DeliveryStatistics statistics)
     {
         final Thread sleepingThread = Thread.currentThread();
         final SyncThread syncThread = sleepingThread instanceof SyncThread ? (SyncThread)sleepingThread : null;
 
+        final TimeoutWatchdog timeoutWatchdog = this.watchdog;
         final Iterator<EventHandlerProxy> i = tasks.iterator();
         final BlacklistLatch handlerLatch = new BlacklistLatch(tasks.size(), this.timeout/2);
 
         while ( i.hasNext() )
         {
             final EventHandlerProxy task = i.next();
-            HandlerTask handlerTask = new HandlerTask(task, event, this.timeout, handlerLatch);
+            HandlerTask handlerTask = new HandlerTask(task, event, this.timeout, handlerLatch, statistics);
 //            if ( !filterAsyncUnordered || task.isAsyncOrderedDelivery() )
 //            {
                 if( !handlerTask.useTimeout() )
                 {
                 	handlerTask.runWithoutBlacklistTiming();
                 }
+                else if ( timeoutWatchdog != null )
+                {
+                    // call the handler directly, the watchdog checks the timeout
+                    timeoutWatchdog.watch(handlerTask);
+                    try
+                    {
+                        handlerTask.run();
+                    }
+                    finally
+                    {
+                        timeoutWatchdog.unwatch(handlerTask);
+                    }
+                }
             	else if ( syncThread != null  )
                 {
                     // if this is a cascaded event, we directly use this thread
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single thread checking the handlers called by the delivering threads
+ * for timeouts. This replaces handing each handler call to a pool thread
+ * and waiting for it, if the watchdog is configured.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class TimeoutWatchdog implements Runnable
+{
+    /** The handler tasks currently running. */
+    private final Set<HandlerTask> m_running = Collections.newSetFromMap(new ConcurrentHashMap<HandlerTask, Boolean>());
+
+    /** The interval in milliseconds in which the running tasks are checked. */
+    private final long m_interval;
+
+    /** The watchdog thread, <code>null</code> once stopped. */
+    private volatile Thread m_thread;
+
+    /**
+     * Create and start a new watchdog.
+     * @param timeout The timeout in milliseconds, handlers are checked
+     *        in half of this interval.
+     */
+    public TimeoutWatchdog(final long timeout)
+    {
+        m_interval = Math.max(1, timeout / 2);
+        final Thread thread = new Thread(this, "EventAdminTimeoutWatchdog");
+        thread.setDaemon(true);
+        m_thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop the watchdog.
+     */
+    public void stop()
+    {
+        final Thread thread = m_thread;
+        m_thread = null;
+        if ( thread != null )
+        {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Start checking the task. The task must be running in the calling thread.
+     */
+    public void watch(final HandlerTask task)
+    {
+        m_running.add(task);
+    }
+
+    /**
+     * Stop checking the task.
+     */
+    public void unwatch(final HandlerTask task)
+    {
+        m_running.remove(task);
+    }
+
+    @Override
+    public void run()
+    {
+        while ( m_thread == Thread.currentThread() )
+        {
+            try
+            {
+                Thread.sleep(m_interval);
+            }
+            catch ( final InterruptedException ie )
+            {
+                // stopped
+                return;
+            }
+            for(final HandlerTask task : m_running)
+            {
+                task.checkForBlacklist();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+public class EventHandlerTrackerTest {
+
+    private EventHandlerTracker tracker;
+
+    private final Map<String, EventHandlerProxy> proxies = new HashMap<>();
+
+    @Before public void setUp()
+    {
+        this.tracker = HandlerMocks.createTracker();
+    }
+
+    @Test public void testExactAndPrefixTopics()
+    {
+        this.addHandler("exact", "org/osgi/service/log/LogEntry/LOG_INFO");
+        this.addHandler("log", "org/osgi/service/log/*");
+        this.addHandler("logEntry", "org/osgi/service/log/LogEntry/*");
+        this.addHandler("osgi", "org/osgi/*");
+        this.addHandler("other", "org/apache/*");
+        this.addHandler("all", "*");
+        this.addHandler("multi", "org/osgi/service/log/LogEntry/LOG_INFO", "org/osgi/*");
+
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_INFO", "exact", "log", "logEntry", "osgi", "all", "multi");
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_ERROR", "log", "logEntry", "osgi", "all", "multi");
+        assertHandlers("org/osgi/service/log/LogEntry", "log", "osgi", "all", "multi");
+        assertHandlers("org/osgi/service/log", "osgi", "all", "multi");
+        assertHandlers("org/osgi", "all");
+        assertHandlers("org/apache/felix", "other", "all");
+        assertHandlers("com/acme", "all");
+    }
+
+    @Test public void testCachedHandlers()
+    {
+        this.addHandler("log", "org/osgi/service/log/*");
+
+        final Event event = new Event("org/osgi/service/log/LogEntry/LOG_INFO", (Map<String, ?>)null);
+        final Collection<EventHandlerProxy> handlers = this.tracker.getHandlers(event);
+        assertEquals(1, handlers.size());
+        assertSame(handlers, this.tracker.getHandlers(event));
+
+        // adding a handler invalidates the cache
+        this.addHandler("logEntry", "org/osgi/service/log/LogEntry/*");
+        final Collection<EventHandlerProxy> updated = this.tracker.getHandlers(event);
+        assertNotSame(handlers, updated);
+        assertEquals(2, updated.size());
+
+        // so does removing one
+        this.removeHandler("log");
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_INFO", "logEntry");
+        this.removeHandler("logEntry");
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_INFO");
+    }
+
+    @Test public void testBlacklistedHandler()
+    {
+        this.addHandler("a", "org/osgi/service/log/*");
+        this.addHandler("b", "org/osgi/service/log/*");
+        this.addHandler("c", "org/osgi/service/log/*");
+
+        this.proxies.get("b").blackListHandler();
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_INFO", "a", "c");
+    }
+
+    @Test public void testModifiedHandler()
+    {
+        final ServiceReference<EventHandler> ref = this.addHandler("a", "org/osgi/service/log/*");
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_INFO", "a");
+
+        HandlerMocks.setProperty(ref, EventConstants.EVENT_TOPIC, "org/apache/*");
+        this.tracker.modifiedService(ref, this.proxies.get("a"));
+        assertHandlers("org/osgi/service/log/LogEntry/LOG_INFO");
+        assertHandlers("org/apache/felix", "a");
+    }
+
+    /**
+     * Once a topic is resolved, getHandlers() returns the cached handlers
+     * for every event with that topic as long as all handlers can deliver
+     * the event.
+     */
+    @Test public void testResolvedTopicReused()
+    {
+        for(int i = 0; i < 10; i++)
+        {
+            this.addHandler("handler" + i, i % 2 == 0 ? "org/osgi/service/log/*" : "org/osgi/service/log/LogEntry/LOG_INFO");
+        }
+        final String topic = "org/osgi/service/log/LogEntry/LOG_INFO";
+        final Collection<EventHandlerProxy> handlers = this.tracker.getHandlers(new Event(topic, (Map<String, ?>)null));
+        assertEquals(10, handlers.size());
+
+        final Collection<EventHandlerProxy> other = this.tracker.getHandlers(new Event("org/osgi/service/log/LogEntry/LOG_ERROR", (Map<String, ?>)null));
+        assertEquals(5, other.size());
+
+        for(int i = 0; i < 1000; i++)
+        {
+            assertSame(handlers, this.tracker.getHandlers(new Event(topic, (Map<String, ?>)null)));
+            assertSame(other, this.tracker.getHandlers(new Event("org/osgi/service/log/LogEntry/LOG_ERROR", (Map<String, ?>)null)));
+        }
+    }
+
+    private void assertHandlers(final String topic, final String... names)
+    {
+        final Collection<EventHandlerProxy> handlers = this.tracker.getHandlers(new Event(topic, (Map<String, ?>)null));
+        final List<EventHandlerProxy> expected = new ArrayList<>();
+        for(final String name : names)
+        {
+            expected.add(this.proxies.get(name));
+        }
+        assertEquals(topic, expected.size(), handlers.size());
+        assertEquals(topic, new HashSet<>(expected), new HashSet<>(handlers));
+    }
+
+    private ServiceReference<EventHandler> addHandler(final String name, final String... topics)
+    {
+        final ServiceReference<EventHandler> ref = HandlerMocks.createReference(null, topics);
+        this.proxies.put(name, this.tracker.addingService(ref));
+        return ref;
+    }
+
+    private void removeHandler(final String name)
+    {
+        final EventHandlerProxy proxy = this.proxies.remove(name);
+        this.tracker.removedService(null, proxy);
+    }
+}
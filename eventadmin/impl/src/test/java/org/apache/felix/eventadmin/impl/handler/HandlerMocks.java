@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * Mocks of the OSGi interfaces needed to create event handler proxies
+ * without a framework.
+ */
+public class HandlerMocks {
+
+    /**
+     * Create an event handler tracker which is not opened.
+     */
+    public static EventHandlerTracker createTracker()
+    {
+        final EventHandlerTracker tracker = new EventHandlerTracker(mock(BundleContext.class, null));
+        tracker.update(null, false);
+        return tracker;
+    }
+
+    /**
+     * Create a reference to an event handler service for the topics.
+     * @param handler The handler returned by the bundle context or <code>null</code>
+     * @param topics The topics
+     */
+    public static ServiceReference<EventHandler> createReference(final EventHandler handler, final String... topics)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(EventConstants.EVENT_TOPIC, topics.length == 1 ? topics[0] : topics);
+        @SuppressWarnings("unchecked")
+        final ServiceReference<EventHandler> ref = mock(ServiceReference.class, props);
+        ((MockHandler)Proxy.getInvocationHandler(ref)).service = handler;
+        return ref;
+    }
+
+    /**
+     * Change a property of a reference.
+     */
+    public static void setProperty(final ServiceReference<?> reference, final String key, final Object value)
+    {
+        ((MockHandler)Proxy.getInvocationHandler(reference)).put(key, value);
+    }
+
+    /**
+     * Create a mock. Service references answer their properties from the given map,
+     * the bundle context returns the service set for a reference.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T mock(final Class<T> type, final Map<String, Object> props)
+    {
+        final Bundle bundle = type == Bundle.class ? null : mock(Bundle.class, null);
+        return (T) Proxy.newProxyInstance(HandlerMocks.class.getClassLoader(), new Class[] {type},
+            new MockHandler(props, bundle));
+    }
+
+    private static final class MockHandler extends HashMap<String, Object> implements InvocationHandler
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Bundle bundle;
+
+        private volatile Object service;
+
+        public MockHandler(final Map<String, Object> props, final Bundle bundle)
+        {
+            if ( props != null )
+            {
+                this.putAll(props);
+            }
+            this.bundle = bundle;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+        {
+            switch ( method.getName() )
+            {
+                case "getProperty" : return this.get(args[0]);
+                case "getBundle" : return this.bundle;
+                case "getService" : return ((MockHandler)Proxy.getInvocationHandler(args[0])).service;
+                case "ungetService" :
+                case "hasPermission" : return true;
+                case "hashCode" : return System.identityHashCode(proxy);
+                case "equals" : return proxy == args[0];
+                case "toString" : return "mock" + this;
+                default : return null;
+            }
+        }
+    }
+}
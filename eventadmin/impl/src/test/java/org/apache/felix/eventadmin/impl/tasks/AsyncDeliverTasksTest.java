@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.handler.EventHandlerTracker;
+import org.apache.felix.eventadmin.impl.handler.HandlerMocks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+public class AsyncDeliverTasksTest {
+
+    private static final String TOPIC = "org/apache/felix/test";
+
+    private DefaultThreadPool syncPool;
+
+    private DefaultThreadPool asyncPool;
+
+    private AsyncDeliverTasks tasks;
+
+    /** The numbers of the received events. */
+    private final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+
+    /** Released to let the handler process the first event. */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** Counted down when the handler received the first event. */
+    private final CountDownLatch entered = new CountDownLatch(1);
+
+    private Collection<EventHandlerProxy> handlers;
+
+    @Before public void setUp()
+    {
+        this.syncPool = new DefaultThreadPool(2, true);
+        this.asyncPool = new DefaultThreadPool(2, false);
+        this.tasks = new AsyncDeliverTasks(this.asyncPool, new SyncDeliverTasks(this.syncPool, 0));
+
+        final EventHandler handler = new EventHandler()
+        {
+            @Override
+            public void handleEvent(final Event event)
+            {
+                final Integer number = (Integer)event.getProperty("number");
+                if ( number == 0 && Thread.currentThread().getName().startsWith("EventAdminAsyncThread") )
+                {
+                    entered.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch ( final InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                received.add(number);
+            }
+        };
+        final EventHandlerTracker tracker = HandlerMocks.createTracker();
+        this.handlers = Collections.singletonList(tracker.addingService(HandlerMocks.createReference(handler, TOPIC)));
+    }
+
+    @After public void tearDown()
+    {
+        this.release.countDown();
+        this.asyncPool.close();
+        this.syncPool.close();
+    }
+
+    @Test public void testUnbounded() throws Exception
+    {
+        this.blockFirstEvent();
+        this.post(1, 100);
+        assertEquals(100, this.tasks.getStatistics().getQueueDepth());
+
+        this.release.countDown();
+        this.awaitReceived(101);
+        assertEquals(range(0, 100), this.received);
+        assertEquals(0, this.tasks.getStatistics().getQueueDepth());
+        assertEquals(101, this.tasks.getStatistics().getPostedCount());
+        assertEquals(101, this.tasks.getStatistics().getDeliveredCount());
+        assertEquals(0, this.tasks.getStatistics().getDroppedCount());
+    }
+
+    @Test public void testStatisticsMBean() throws Exception
+    {
+        this.post(1, 1);
+        this.awaitReceived(1);
+
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName(DeliveryStatisticsMBean.OBJECT_NAME + ",framework=test");
+        server.registerMBean(this.tasks.getStatistics(), name);
+        assertEquals(1L, server.getAttribute(name, "PostedCount"));
+        assertEquals(0L, server.getAttribute(name, "DroppedCount"));
+        assertEquals(1L, server.getAttribute(name, "HandlerCallCount"));
+    }
+
+    @Test public void testHandlerLatency() throws Exception
+    {
+        final EventHandler slow = new EventHandler()
+        {
+            @Override
+            public void handleEvent(final Event event)
+            {
+                try
+                {
+                    Thread.sleep(20);
+                }
+                catch ( final InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                received.add((Integer)event.getProperty("number"));
+            }
+        };
+        final EventHandlerTracker tracker = HandlerMocks.createTracker();
+        this.handlers = Arrays.asList(tracker.addingService(HandlerMocks.createReference(slow, TOPIC)),
+                tracker.addingService(HandlerMocks.createReference(slow, TOPIC)));
+
+        this.post(1, 3);
+        this.awaitReceived(6);
+        // the latency is recorded per handler call, not per event
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ( this.tasks.getStatistics().getDeliveredCount() < 3 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(3, this.tasks.getStatistics().getDeliveredCount());
+        assertEquals(6, this.tasks.getStatistics().getHandlerCallCount());
+        assertTrue(this.tasks.getStatistics().getAverageHandlerLatency() >= 20000);
+        assertTrue(this.tasks.getStatistics().getMaxHandlerLatency() >= 20000);
+    }
+
+    @Test public void testBoundAcrossPostingThreads() throws Exception
+    {
+        this.tasks.update(4, AsyncDeliverTasks.POLICY_DROP_NEWEST);
+        final CountDownLatch blocked = new CountDownLatch(2);
+        final EventHandler blocking = new EventHandler()
+        {
+            @Override
+            public void handleEvent(final Event event)
+            {
+                final Integer number = (Integer)event.getProperty("number");
+                if ( number % 100 == 0 )
+                {
+                    blocked.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch ( final InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                received.add(number);
+            }
+        };
+        final EventHandlerTracker tracker = HandlerMocks.createTracker();
+        this.handlers = Collections.singletonList(tracker.addingService(HandlerMocks.createReference(blocking, TOPIC)));
+
+        // both posting threads have a delivery thread blocked in the handler
+        this.post(0, 0);
+        final Thread poster = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                post(100, 100);
+                assertTrue(awaitQuietly(blocked));
+                post(101, 105);
+            }
+        };
+        poster.start();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        poster.join(5000);
+        this.post(1, 5);
+
+        // four events of the poster fill the queue, so this thread cannot queue any
+        assertEquals(4, this.tasks.getStatistics().getQueueDepth());
+        assertEquals(6, this.tasks.getStatistics().getDroppedCount());
+
+        this.release.countDown();
+        this.awaitReceived(6);
+        assertEquals(Arrays.asList(0, 100, 101, 102, 103, 104), sorted(this.received));
+    }
+
+    @Test public void testDropNewest() throws Exception
+    {
+        this.tasks.update(4, AsyncDeliverTasks.POLICY_DROP_NEWEST);
+        this.blockFirstEvent();
+        this.post(1, 9);
+        assertEquals(4, this.tasks.getStatistics().getQueueDepth());
+
+        this.release.countDown();
+        this.awaitReceived(5);
+        assertEquals(range(0, 4), this.received);
+        assertEquals(5, this.tasks.getStatistics().getDroppedCount());
+    }
+
+    @Test public void testDropOldest() throws Exception
+    {
+        this.tasks.update(4, AsyncDeliverTasks.POLICY_DROP_OLDEST);
+        this.blockFirstEvent();
+        this.post(1, 9);
+        assertEquals(4, this.tasks.getStatistics().getQueueDepth());
+
+        this.release.countDown();
+        this.awaitReceived(5);
+        assertEquals(Arrays.asList(0, 6, 7, 8, 9), this.received);
+        assertEquals(5, this.tasks.getStatistics().getDroppedCount());
+    }
+
+    @Test public void testCallerRuns() throws Exception
+    {
+        this.tasks.update(4, AsyncDeliverTasks.POLICY_CALLER_RUNS);
+        this.blockFirstEvent();
+        this.post(1, 9);
+        // the events not fitting into the queue are delivered by this thread
+        assertEquals(range(5, 9), this.received);
+
+        this.release.countDown();
+        this.awaitReceived(10);
+        assertEquals(5, this.tasks.getStatistics().getCallerRunsCount());
+        assertEquals(0, this.tasks.getStatistics().getDroppedCount());
+        assertEquals(5, this.tasks.getStatistics().getDeliveredCount());
+    }
+
+    @Test public void testBlock() throws Exception
+    {
+        this.tasks.update(4, AsyncDeliverTasks.POLICY_BLOCK);
+        // the poster blocks on the full queue, so it is not this thread
+        final Thread poster = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                post(0, 9);
+            }
+        };
+        poster.start();
+        assertTrue(this.entered.await(5, TimeUnit.SECONDS));
+        // wait until the poster is blocked on the full queue
+        final long end = System.currentTimeMillis() + 5000;
+        while ( poster.getState() != Thread.State.WAITING && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, poster.getState());
+        assertEquals(4, this.tasks.getStatistics().getQueueDepth());
+
+        this.release.countDown();
+        poster.join(5000);
+        this.awaitReceived(10);
+        assertEquals(range(0, 9), this.received);
+        assertEquals(0, this.tasks.getStatistics().getDroppedCount());
+    }
+
+    /**
+     * Post the first event and wait until the handler blocks on it.
+     */
+    private void blockFirstEvent() throws InterruptedException
+    {
+        this.post(0, 0);
+        assertTrue(this.entered.await(5, TimeUnit.SECONDS));
+    }
+
+    private void post(final int from, final int to)
+    {
+        for(int i = from; i <= to; i++)
+        {
+            final Map<String, Object> props = Collections.<String, Object>singletonMap("number", i);
+            this.tasks.execute(this.handlers, new Event(TOPIC, props));
+        }
+    }
+
+    private void awaitReceived(final int count) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 5000;
+        while ( this.received.size() < count && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.received.size());
+    }
+
+    private static boolean awaitQuietly(final CountDownLatch latch)
+    {
+        try
+        {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+        catch ( final InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static List<Integer> sorted(final List<Integer> list)
+    {
+        final List<Integer> result;
+        synchronized ( list )
+        {
+            result = new ArrayList<>(list);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Integer> range(final int from, final int to)
+    {
+        final List<Integer> result = new ArrayList<>();
+        for(int i = from; i <= to; i++)
+        {
+            result.add(i);
+        }
+        return result;
+    }
+}
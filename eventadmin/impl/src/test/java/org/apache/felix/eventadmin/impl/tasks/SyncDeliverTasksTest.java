@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.handler.EventHandlerTracker;
+import org.apache.felix.eventadmin.impl.handler.HandlerMocks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+public class SyncDeliverTasksTest {
+
+    private static final String TOPIC = "org/apache/felix/test";
+
+    private DefaultThreadPool syncPool;
+
+    private EventHandlerTracker tracker;
+
+    /** The thread which called the handler last. */
+    private volatile Thread handlerThread;
+
+    @Before public void setUp()
+    {
+        this.syncPool = new DefaultThreadPool(4, true);
+        this.tracker = HandlerMocks.createTracker();
+    }
+
+    @After public void tearDown()
+    {
+        this.syncPool.close();
+    }
+
+    @Test public void testPoolTimeout()
+    {
+        final SyncDeliverTasks tasks = new SyncDeliverTasks(this.syncPool, 200, false);
+        final EventHandlerProxy proxy = this.createSleepingHandler();
+
+        this.send(tasks, proxy, 0);
+        this.send(tasks, proxy, 500);
+        assertNotSame(Thread.currentThread(), this.handlerThread);
+        assertFalse(proxy.canDeliver(createEvent(0), null));
+    }
+
+    @Test public void testWatchdogTimeout()
+    {
+        final SyncDeliverTasks tasks = new SyncDeliverTasks(this.syncPool, 200, true);
+        try
+        {
+            final EventHandlerProxy proxy = this.createSleepingHandler();
+
+            this.send(tasks, proxy, 0);
+            assertSame(Thread.currentThread(), this.handlerThread);
+            assertTrue(proxy.canDeliver(createEvent(0), null));
+
+            this.send(tasks, proxy, 500);
+            assertSame(Thread.currentThread(), this.handlerThread);
+            assertFalse(proxy.canDeliver(createEvent(0), null));
+        }
+        finally
+        {
+            tasks.stop();
+        }
+    }
+
+    @Test public void testWatchdogFastHandler() throws Exception
+    {
+        final SyncDeliverTasks tasks = new SyncDeliverTasks(this.syncPool, 200, true);
+        try
+        {
+            final EventHandlerProxy proxy = this.createSleepingHandler();
+            for(int i = 0; i < 10; i++)
+            {
+                this.send(tasks, proxy, 20);
+            }
+            assertTrue(proxy.canDeliver(createEvent(0), null));
+        }
+        finally
+        {
+            tasks.stop();
+        }
+    }
+
+    /**
+     * With the watchdog a timeout costs no thread hand-off: every handler
+     * is called by the sending thread, whereas the pool timeout calls
+     * every handler from a pool thread.
+     */
+    @Test public void testHandOff()
+    {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final List<EventHandlerProxy> proxies = new ArrayList<>();
+        for(int i = 0; i < 5; i++)
+        {
+            proxies.add(this.tracker.addingService(HandlerMocks.createReference(new EventHandler()
+            {
+                @Override
+                public void handleEvent(final Event event)
+                {
+                    threads.add(Thread.currentThread());
+                }
+            }, TOPIC)));
+        }
+        final SyncDeliverTasks watchdog = new SyncDeliverTasks(this.syncPool, 5000, true);
+        final SyncDeliverTasks pool = new SyncDeliverTasks(this.syncPool, 5000, false);
+        try
+        {
+            for(int i = 0; i < 100; i++)
+            {
+                watchdog.execute(proxies, createEvent(0), false);
+            }
+            assertEquals(500, threads.size());
+            for(final Thread t : threads)
+            {
+                assertSame(Thread.currentThread(), t);
+            }
+
+            threads.clear();
+            for(int i = 0; i < 100; i++)
+            {
+                pool.execute(proxies, createEvent(0), false);
+            }
+            assertEquals(500, threads.size());
+            for(final Thread t : threads)
+            {
+                assertNotSame(Thread.currentThread(), t);
+            }
+        }
+        finally
+        {
+            watchdog.stop();
+            pool.stop();
+        }
+    }
+
+    private EventHandlerProxy createSleepingHandler()
+    {
+        final EventHandler handler = new EventHandler()
+        {
+            @Override
+            public void handleEvent(final Event event)
+            {
+                handlerThread = Thread.currentThread();
+                final long sleep = (Long)event.getProperty("sleep");
+                if ( sleep > 0 )
+                {
+                    try
+                    {
+                        Thread.sleep(sleep);
+                    }
+                    catch ( final InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        return this.tracker.addingService(HandlerMocks.createReference(handler, TOPIC));
+    }
+
+    private void send(final SyncDeliverTasks tasks, final EventHandlerProxy proxy, final long sleep)
+    {
+        final Collection<EventHandlerProxy> handlers = Collections.singletonList(proxy);
+        tasks.execute(handlers, createEvent(sleep), false);
+    }
+
+    private static Event createEvent(final long sleep)
+    {
+        final Map<String, Object> props = Collections.<String, Object>singletonMap("sleep", sleep);
+        return new Event(TOPIC, props);
+    }
+}
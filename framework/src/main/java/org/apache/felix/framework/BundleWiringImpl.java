@@ -68,6 +68,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,6 +76,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BundleWiringImpl implements BundleWiring
 {
@@ -172,6 +174,19 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile ConcurrentHashMap<String, ClassLoader> m_accessorLookupCache;
 
+    // Packages with entries on the local class path, built on first use;
+    // the empty set signals that the content could not be indexed.
+    private volatile Set<String> m_localPkgs;
+    private static final Set<String> UNINDEXED_PKGS = Collections.emptySet();
+
+    // Bounded cache of class and resource names that could not be found in
+    // the imports, the local class path, or the dynamic imports; maps names
+    // to the resolver modification count at the time of the lookup.
+    private static final int DEFAULT_NEGATIVE_LOOKUP_CACHE_SIZE = 1024;
+    private final Map<String, Integer> m_negativeLookupCache;
+    private final AtomicLong m_negativeLookupHits = new AtomicLong();
+    private final AtomicLong m_negativeLookupMisses = new AtomicLong();
+
     BundleWiringImpl(
         Logger logger, Map configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -463,6 +478,36 @@ public class BundleWiringImpl implements BundleWiring
 
         m_useLocalURLs =
             m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) != null;
+
+        int negativeCacheSize = DEFAULT_NEGATIVE_LOOKUP_CACHE_SIZE;
+        Object sizeStr = m_configMap.get(FelixConstants.NEGATIVE_LOOKUP_CACHE_SIZE_PROP);
+        if (sizeStr != null)
+        {
+            try
+            {
+                negativeCacheSize = Integer.parseInt(sizeStr.toString());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Use the default value.
+            }
+        }
+        m_negativeLookupCache = (negativeCacheSize > 0)
+            ? createNegativeLookupCache(negativeCacheSize)
+            : null;
+    }
+
+    private static Map<String, Integer> createNegativeLookupCache(final int size)
+    {
+        return Collections.synchronizedMap(
+            new LinkedHashMap<String, Integer>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+                {
+                    return size() > size;
+                }
+            });
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -678,6 +723,8 @@ public class BundleWiringImpl implements BundleWiring
 
             m_importedPkgs = importedPkgs;
         }
+        // Previous lookups may succeed through the new wire.
+        clearNegativeLookupCache();
         // Update associated member values.
         // Technically, there is a window here where readers won't see
         // both values updates at the same time, but it seems unlikely
@@ -1542,37 +1589,56 @@ public class BundleWiringImpl implements BundleWiring
                     }
                 }
 
-                // Look in the revision's imports. Note that the search may
-                // be aborted if this method throws an exception, otherwise
-                // it continues if a null is returned.
-                result = searchImports(pkgName, name, isClass);
-
-                // If not found, try the revision's own class path.
-                if (result == null)
+                // If the lookup failed before and could not have been
+                // affected by a change since, only the caller dependent
+                // implicit boot delegation is left to try for packages
+                // that are not imported.
+                if (isNegativeLookupCached(pkgName, name, isClass))
                 {
-                    if (isClass)
+                    if (!m_importedPkgs.containsKey(pkgName))
                     {
-                        ClassLoader cl = getClassLoaderInternal();
-                        if (cl == null)
-                        {
-                            throw new ClassNotFoundException(
-                                    "Unable to load class '"
-                                            + name
-                                            + "' because the bundle wiring for "
-                                            + m_revision.getSymbolicName()
-                                            + " is no longer valid.");
-                        }
-                        result = ((BundleClassLoader) cl).findClass(name);
-                    }
-                    else
-                    {
-                        result = m_revision.getResourceLocal(name);
+                        result = tryImplicitBootDelegation(name, isClass);
                     }
+                }
+                else
+                {
+                    // Look in the revision's imports. Note that the search may
+                    // be aborted if this method throws an exception, otherwise
+                    // it continues if a null is returned.
+                    result = searchImports(pkgName, name, isClass);
 
-                    // If still not found, then try the revision's dynamic imports.
+                    // If not found, try the revision's own class path.
                     if (result == null)
                     {
-                        result = searchDynamicImports(pkgName, name, isClass);
+                        if (isClass)
+                        {
+                            ClassLoader cl = getClassLoaderInternal();
+                            if (cl == null)
+                            {
+                                throw new ClassNotFoundException(
+                                        "Unable to load class '"
+                                                + name
+                                                + "' because the bundle wiring for "
+                                                + m_revision.getSymbolicName()
+                                                + " is no longer valid.");
+                            }
+                            // Only search the class path if the package
+                            // has entries on it.
+                            if (isLocalPackage(pkgName))
+                            {
+                                result = ((BundleClassLoader) cl).findClass(name);
+                            }
+                        }
+                        else
+                        {
+                            result = m_revision.getResourceLocal(name);
+                        }
+
+                        // If still not found, then try the revision's dynamic imports.
+                        if (result == null)
+                        {
+                            result = searchDynamicImports(pkgName, name, isClass);
+                        }
                     }
                 }
             }
@@ -1625,6 +1691,7 @@ public class BundleWiringImpl implements BundleWiring
                 // If no class or resource was found, then we must throw an exception
                 // since the provider of this package did not contain the
                 // requested class and imported packages are atomic.
+                cacheNegativeLookup(name, isClass, -1);
                 if (isClass)
                 {
                     throw new ClassNotFoundException(name);
@@ -1669,6 +1736,16 @@ public class BundleWiringImpl implements BundleWiring
         // At this point, the module's imports were searched and so was the
         // the module's content. Now we make an attempt to load the
         // class/resource via a dynamic import, if possible.
+        // Without any candidate the dynamic import cannot succeed until the
+        // resolver state changes, so the failed lookup can be cached. This
+        // check neither involves resolver hooks nor the global lock.
+        int modCount = m_resolver.getModificationCount();
+        if (!m_resolver.isAllowedDynamicImport(m_revision, pkgName))
+        {
+            cacheNegativeLookup(name, isClass, modCount);
+            return tryImplicitBootDelegation(name, isClass);
+        }
+
         BundleRevision provider = null;
         try
         {
@@ -1696,9 +1773,114 @@ public class BundleWiringImpl implements BundleWiring
                             : (Object) ((BundleWiringImpl) provider.getWiring()).getResourceByDelegation(name);
         }
 
+        // A failed resolve is not cached, since it may be caused by a lock
+        // timeout or a resolver hook, neither of which changes the resolver
+        // state.
         return tryImplicitBootDelegation(name, isClass);
     }
 
+    private boolean isLocalPackage(String pkgName)
+    {
+        Set<String> localPkgs = m_localPkgs;
+        if (localPkgs == null)
+        {
+            localPkgs = indexLocalPackages();
+            m_localPkgs = localPkgs;
+        }
+        return (localPkgs == UNINDEXED_PKGS) || localPkgs.contains(pkgName);
+    }
+
+    private Set<String> indexLocalPackages()
+    {
+        List<Content> contentPath = m_revision.getContentPath();
+        if (contentPath == null)
+        {
+            return UNINDEXED_PKGS;
+        }
+        Set<String> pkgs = new HashSet<String>();
+        try
+        {
+            for (Content content : contentPath)
+            {
+                Enumeration<String> entries = content.getEntries();
+                if (entries == null)
+                {
+                    // Without entries there is no way to tell
+                    // whether the content is empty.
+                    return UNINDEXED_PKGS;
+                }
+                while (entries.hasMoreElements())
+                {
+                    String entry = entries.nextElement();
+                    if (!entry.endsWith("/"))
+                    {
+                        pkgs.add(Util.getResourcePackage(entry));
+                    }
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            return UNINDEXED_PKGS;
+        }
+        return (pkgs.isEmpty()) ? Collections.singleton("") : pkgs;
+    }
+
+    private boolean isNegativeLookupCached(String pkgName, String name, boolean isClass)
+    {
+        if (m_negativeLookupCache == null)
+        {
+            return false;
+        }
+        // Misses of imported packages remain valid until the imports
+        // change, all other misses until the resolver state changes.
+        Integer modCount = m_negativeLookupCache.get(isClass ? name : "/" + name);
+        if ((modCount != null)
+            && (m_importedPkgs.containsKey(pkgName)
+                || ((m_resolver != null)
+                    && (modCount.intValue() == m_resolver.getModificationCount()))))
+        {
+            m_negativeLookupHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void cacheNegativeLookup(String name, boolean isClass, int modCount)
+    {
+        if (m_negativeLookupCache != null)
+        {
+            m_negativeLookupMisses.incrementAndGet();
+            m_negativeLookupCache.put(isClass ? name : "/" + name, modCount);
+        }
+    }
+
+    private void clearNegativeLookupCache()
+    {
+        if (m_negativeLookupCache != null)
+        {
+            m_negativeLookupCache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of class and resource lookups that were answered
+     * from the negative lookup cache.
+    **/
+    long getNegativeLookupHits()
+    {
+        return m_negativeLookupHits.get();
+    }
+
+    /**
+     * Returns the number of failed class and resource lookups that were
+     * recorded in the negative lookup cache.
+    **/
+    long getNegativeLookupMisses()
+    {
+        return m_negativeLookupMisses.get();
+    }
+
     private Object tryImplicitBootDelegation(final String name, final boolean isClass)
             throws ClassNotFoundException, ResourceNotFoundException
     {
@@ -2272,6 +2454,7 @@ public class BundleWiringImpl implements BundleWiring
                             allWovenReqs.addAll(0, m_wiring.m_wovenReqs);
                         }
                         m_wiring.m_wovenReqs = allWovenReqs;
+                        m_wiring.clearNegativeLookupCache();
                     }
                 }
             }
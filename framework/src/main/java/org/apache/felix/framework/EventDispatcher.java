@@ -28,10 +28,24 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
@@ -39,6 +53,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
@@ -64,28 +79,89 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Service listeners indexed by the object classes of their filters;
+    // updated together with m_svcListeners.
+    private ServiceListenerIndex m_svcListenerIndex = ServiceListenerIndex.EMPTY;
 
-    // A single thread is used to deliver events for all dispatchers.
-    private static Thread m_thread = null;
+    // Statistics about service listener filter evaluation.
+    private final AtomicLong m_svcEvents = new AtomicLong();
+    private final AtomicLong m_svcFiltersEvaluated = new AtomicLong();
+    private final AtomicLong m_svcFiltersSkipped = new AtomicLong();
+
+    // By default a single thread is used to deliver events for all dispatchers.
+    private static volatile Thread m_thread = null;
     private final static String m_threadLock = new String("thread lock");
     private static int m_references = 0;
     private static volatile boolean m_stopping = false;
 
-    // List of requests.
-    private static final List<Request> m_requestList = new ArrayList<Request>();
-    // Pooled requests to avoid memory allocation.
-    private static final List<Request> m_requestPool = new ArrayList<Request>();
+    // Lock-free queue of requests; the dispatch thread is parked while it is empty.
+    private static final Queue<Request> m_requestList = new ConcurrentLinkedQueue<Request>();
 
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // Maximum number of events a pooled thread delivers to one listener
+    // before yielding to other listeners.
+    private static final int ASYNC_BATCH_SIZE = 64;
+
+    // Number of seconds stopping waits for the pooled threads to deliver
+    // the queued events before they are interrupted.
+    private static final int ASYNC_STOP_TIMEOUT = 10;
+
+    // Number of pooled threads used for asynchronous delivery; zero means
+    // the shared dispatch thread is used.
+    private final int m_asyncThreads;
+    private volatile ThreadPoolExecutor m_executor = null;
+    private volatile boolean m_executorStopping = false;
+
+    // Per listener queues of asynchronous listeners, only used if the
+    // dispatcher uses its own thread pool.
+    final ConcurrentMap<ListenerInfo, AsyncListenerQueue> m_asyncListeners =
+        new ConcurrentHashMap<ListenerInfo, AsyncListenerQueue>();
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0);
+    }
+
+    /**
+     * Creates an event dispatcher which delivers asynchronous events using
+     * a bounded pool of the given number of threads. Events are delivered
+     * in order for each listener, but a slow listener does not hold up
+     * the delivery to other listeners. If the number of threads is zero,
+     * asynchronous events are delivered by the single dispatch thread
+     * shared by all framework instances.
+     * @param logger the framework logger.
+     * @param registry the service registry.
+     * @param asyncThreads the number of asynchronous delivery threads.
+    **/
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int asyncThreads)
     {
         m_logger = logger;
         m_registry = registry;
+        m_asyncThreads = (asyncThreads > 0) ? asyncThreads : 0;
     }
 
     public void startDispatching()
     {
+        if (m_asyncThreads > 0)
+        {
+            synchronized (m_asyncListeners)
+            {
+                if (m_executor == null)
+                {
+                    m_executorStopping = false;
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        m_asyncThreads, m_asyncThreads,
+                        60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        createThreadFactory("FelixDispatchQueue-"));
+                    executor.allowCoreThreadTimeOut(true);
+                    m_executor = executor;
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -125,6 +201,51 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_asyncThreads > 0)
+        {
+            ThreadPoolExecutor executor;
+            synchronized (m_asyncListeners)
+            {
+                executor = m_executor;
+                if ((executor == null) || m_executorStopping)
+                {
+                    return;
+                }
+                m_executorStopping = true;
+            }
+
+            // Let the pool deliver the events queued so far, like the
+            // dispatch thread does, before it terminates. A listener which
+            // does not return must not hold up stopping the framework.
+            executor.shutdown();
+            try
+            {
+                if (!executor.awaitTermination(ASYNC_STOP_TIMEOUT, TimeUnit.SECONDS))
+                {
+                    executor.shutdownNow();
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Asynchronous listeners did not process their events within "
+                        + ASYNC_STOP_TIMEOUT + " seconds, dropping the pending events.");
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (m_asyncListeners)
+            {
+                m_executor = null;
+                m_executorStopping = false;
+                for (AsyncListenerQueue queue : m_asyncListeners.values())
+                {
+                    queue.discard();
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -144,9 +265,10 @@ public class EventDispatcher
         }
 
         // Signal dispatch thread.
-        synchronized (m_requestList)
+        Thread thread = m_thread;
+        if (thread != null)
         {
-            m_requestList.notify();
+            LockSupport.unpark(thread);
         }
 
         // Use separate lock for shutdown to prevent any chance of nested lock deadlock
@@ -242,6 +364,17 @@ public class EventDispatcher
                 new ListenerInfo(bc.getBundle(), bc, clazz, l, filter, acc, false);
             listeners = addListenerInfo(listeners, info);
 
+            // With its own thread pool, asynchronous listeners get their
+            // queue when they are added, such that the delivery never has
+            // to create (or re-create) the queue of a listener.
+            if ((m_asyncThreads > 0)
+                && ((clazz == FrameworkListener.class)
+                    || ((clazz == BundleListener.class)
+                        && !SynchronousBundleListener.class.isInstance(l))))
+            {
+                m_asyncListeners.put(info, new AsyncListenerQueue(this, info));
+            }
+
             if (clazz == FrameworkListener.class)
             {
                 m_fwkListeners = listeners;
@@ -260,6 +393,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex = m_svcListenerIndex.add(info);
             }
         }
         return null;
@@ -327,6 +461,14 @@ public class EventDispatcher
                         if (ServiceListener.class == clazz)
                         {
                             returnInfo = new ListenerInfo(infos.get(i), true);
+                            m_svcListenerIndex = m_svcListenerIndex.remove(info);
+                        }
+                        else
+                        {
+                            // Events already in the queue of the listener are
+                            // still delivered unless the dispatcher is stopped
+                            // first; events fired from now on are not queued.
+                            m_asyncListeners.remove(info);
                         }
                         idx = i;
                         break;
@@ -387,6 +529,16 @@ public class EventDispatcher
 
             // Remove all service listeners associated with the specified bundle.
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
+            m_svcListenerIndex = m_svcListenerIndex.removeAll(bc);
+
+            // Forget the asynchronous listener queues of the bundle.
+            for (Iterator<ListenerInfo> it = m_asyncListeners.keySet().iterator(); it.hasNext();)
+            {
+                if (it.next().getBundleContext() == bc)
+                {
+                    it.remove();
+                }
+            }
         }
     }
 
@@ -427,6 +579,8 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex =
+                            m_svcListenerIndex.remove(info).add(newInfo);
                         return oldFilter;
                     }
                 }
@@ -533,17 +687,88 @@ public class EventDispatcher
     {
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
+        ServiceListenerIndex index = null;
         synchronized (this)
         {
             listeners = m_svcListeners;
+            index = m_svcListenerIndex;
         }
 
         // Use service registry hooks to filter target listeners.
-        listeners = filterListenersUsingHooks(event, felix, listeners);
+        Map<BundleContext, List<ListenerInfo>> filtered =
+            filterListenersUsingHooks(event, felix, listeners);
 
-        // Fire all service events immediately on the calling thread.
-        fireEventImmediately(
-            this, Request.SERVICE_EVENT, listeners, event, oldProps);
+        m_svcEvents.incrementAndGet();
+        if (filtered == listeners)
+        {
+            // The hooks did not change anything, so we only need to consider
+            // the listeners whose filters could match the service's classes.
+            List<ListenerInfo> candidates = index.getCandidates(
+                (String[]) event.getServiceReference().getProperty(Constants.OBJECTCLASS));
+            m_svcFiltersSkipped.addAndGet(index.size() - candidates.size());
+            m_svcFiltersEvaluated.addAndGet(countFilters(candidates));
+
+            // Fire all service events immediately on the calling thread.
+            for (ListenerInfo info : candidates)
+            {
+                invokeListener(this, Request.SERVICE_EVENT, info, event, oldProps);
+            }
+        }
+        else
+        {
+            for (List<ListenerInfo> infos : filtered.values())
+            {
+                m_svcFiltersEvaluated.addAndGet(countFilters(infos));
+            }
+
+            // Fire all service events immediately on the calling thread.
+            fireEventImmediately(
+                this, Request.SERVICE_EVENT, filtered, event, oldProps);
+        }
+    }
+
+    private static int countFilters(List<ListenerInfo> infos)
+    {
+        int count = 0;
+        for (ListenerInfo info : infos)
+        {
+            if ((info.getParsedFilter() != null)
+                && !(info.getListener() instanceof UnfilteredServiceListener))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of service events fired by this dispatcher.
+     * @return the number of service events.
+    **/
+    long getServiceEventCount()
+    {
+        return m_svcEvents.get();
+    }
+
+    /**
+     * Returns the number of service listener filters which were considered
+     * for the service events fired by this dispatcher.
+     * @return the number of evaluated filters.
+    **/
+    long getServiceListenerFiltersEvaluated()
+    {
+        return m_svcFiltersEvaluated.get();
+    }
+
+    /**
+     * Returns the number of service listeners which were not considered
+     * for the service events fired by this dispatcher, since their filters
+     * could not match the object classes of the services.
+     * @return the number of skipped filters.
+    **/
+    long getServiceListenerFiltersSkipped()
+    {
+        return m_svcFiltersSkipped.get();
     }
 
 // TODO: OSGi R4.3 - This is ugly and inefficient.
@@ -769,43 +994,89 @@ public class EventDispatcher
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
-        //TODO: should possibly check this within thread lock, seems to be ok though without
-        // If dispatch thread is stopped, then ignore dispatch request.
-        if (m_stopping || m_thread == null)
+        // If the dispatcher uses its own thread pool, then queue the
+        // event for each listener individually.
+        if (dispatcher.m_asyncThreads > 0)
         {
+            dispatcher.queueEventPerListener(listeners, event);
             return;
         }
 
-        // First get a request from the pool or create one if necessary.
-        Request req = null;
-        synchronized (m_requestPool)
+        //TODO: should possibly check this within thread lock, seems to be ok though without
+        // If dispatch thread is stopped, then ignore dispatch request.
+        Thread thread = m_thread;
+        if (m_stopping || thread == null)
         {
-            if (m_requestPool.size() > 0)
-            {
-                req = m_requestPool.remove(0);
-            }
-            else
-            {
-                req = new Request();
-            }
+            return;
         }
 
         // Initialize dispatch request.
+        Request req = new Request();
         req.m_dispatcher = dispatcher;
         req.m_type = type;
         req.m_listeners = listeners;
         req.m_event = event;
 
-        // Lock the request list.
-        synchronized (m_requestList)
+        // Add our request to the queue and wake up the dispatch thread
+        // in case it is waiting for work.
+        m_requestList.offer(req);
+        LockSupport.unpark(thread);
+    }
+
+    private void queueEventPerListener(
+        Map<BundleContext, List<ListenerInfo>> listeners, EventObject event)
+    {
+        ThreadPoolExecutor executor = m_executor;
+        if ((executor == null) || m_executorStopping)
         {
-            // Add our request to the list.
-            m_requestList.add(req);
-            // Notify the dispatch thread that there is work to do.
-            m_requestList.notify();
+            return;
+        }
+
+        for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+        {
+            for (ListenerInfo info : entry.getValue())
+            {
+                // The listener may have been removed since the listeners
+                // were looked up, in which case the event is dropped.
+                AsyncListenerQueue queue = m_asyncListeners.get(info);
+                if (queue != null)
+                {
+                    queue.offer(executor, event);
+                }
+            }
         }
     }
 
+    private static ThreadFactory createThreadFactory(final String prefix)
+    {
+        // Use virtual threads if the JVM provides them; they are looked
+        // up reflectively since we have to run on older JVMs.
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, prefix, Long.valueOf(1));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (Throwable ex)
+        {
+            // Virtual threads are not available, so use platform threads.
+        }
+
+        return new ThreadFactory()
+        {
+            final AtomicInteger counter = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     private static void fireEventImmediately(
         EventDispatcher dispatcher, int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
@@ -818,44 +1089,51 @@ public class EventDispatcher
             {
                 for (ListenerInfo info : entry.getValue())
                 {
-                    Bundle bundle = info.getBundle();
-                    EventListener l = info.getListener();
-                    Filter filter = info.getParsedFilter();
-                    Object acc = info.getSecurityContext();
-
-                    try
-                    {
-                        if (type == Request.FRAMEWORK_EVENT)
-                        {
-                            invokeFrameworkListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.BUNDLE_EVENT)
-                        {
-                            invokeBundleListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.SERVICE_EVENT)
-                        {
-                            invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
-                        }
-                    }
-                    catch (Throwable th)
-                    {
-                        if ((type != Request.FRAMEWORK_EVENT)
-                            || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
-                        {
-                            dispatcher.m_logger.log(bundle,
-                                Logger.LOG_ERROR,
-                                "EventDispatcher: Error during dispatch.", th);
-                            dispatcher.fireFrameworkEvent(
-                                new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
-                        }
-                    }
+                    invokeListener(dispatcher, type, info, event, oldProps);
                 }
             }
         }
     }
 
+    private static void invokeListener(
+        EventDispatcher dispatcher, int type, ListenerInfo info,
+        EventObject event, Dictionary oldProps)
+    {
+        Bundle bundle = info.getBundle();
+        EventListener l = info.getListener();
+        Filter filter = info.getParsedFilter();
+        Object acc = info.getSecurityContext();
+
+        try
+        {
+            if (type == Request.FRAMEWORK_EVENT)
+            {
+                invokeFrameworkListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.BUNDLE_EVENT)
+            {
+                invokeBundleListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.SERVICE_EVENT)
+            {
+                invokeServiceListenerCallback(
+                    bundle, l, filter, acc, event, oldProps);
+            }
+        }
+        catch (Throwable th)
+        {
+            if ((type != Request.FRAMEWORK_EVENT)
+                || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+            {
+                dispatcher.m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "EventDispatcher: Error during dispatch.", th);
+                dispatcher.fireFrameworkEvent(
+                    new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+            }
+        }
+    }
+
     private static void invokeFrameworkListenerCallback(
         Bundle bundle, final EventListener l, final EventObject event)
     {
@@ -1107,55 +1385,35 @@ public class EventDispatcher
         Request req = null;
         while (true)
         {
-            // Lock the request list so we can try to get a
-            // dispatch request from it.
-            synchronized (m_requestList)
-            {
-                // Wait while there are no requests to dispatch. If the
-                // dispatcher thread is supposed to stop, then let the
-                // dispatcher thread exit the loop and stop.
-                while (m_requestList.isEmpty() && !m_stopping)
-                {
-                    // Wait until some signals us for work.
-                    try
-                    {
-                        m_requestList.wait();
-                    }
-                    catch (InterruptedException ex)
-                    {
-                        // Not much we can do here except for keep waiting.
-                    }
-                }
+            // Try to get a dispatch request from the queue.
+            req = m_requestList.poll();
 
+            if (req == null)
+            {
                 // If there are no events to dispatch and shutdown
-                // has been called then exit, otherwise dispatch event.
-                if (m_requestList.isEmpty() && m_stopping)
+                // has been called then exit, otherwise wait until
+                // someone signals us for work. Spurious wake ups
+                // are harmless, since we just check the queue again.
+                if (m_stopping)
                 {
                     return;
                 }
-
-                // Get the dispatch request.
-                req = m_requestList.remove(0);
+                LockSupport.park(m_requestList);
+                continue;
             }
 
-            // Deliver event outside of synchronized block
-            // so that we don't block other requests from being
-            // queued during event processing.
+            // Deliver event outside of any lock so that we don't
+            // block other requests from being queued during event
+            // processing.
             // NOTE: We don't catch any exceptions here, because
             // the invoked method shields us from exceptions by
             // catching Throwables when it invokes callbacks.
-            fireEventImmediately(
-                req.m_dispatcher, req.m_type, req.m_listeners,
-                req.m_event, null);
-
-            // Put dispatch request in cache.
-            synchronized (m_requestPool)
+            for (Entry<BundleContext, List<ListenerInfo>> entry : req.m_listeners.entrySet())
             {
-                req.m_dispatcher = null;
-                req.m_type = -1;
-                req.m_listeners = null;
-                req.m_event = null;
-                m_requestPool.add(req);
+                for (ListenerInfo info : entry.getValue())
+                {
+                    invokeListener(req.m_dispatcher, req.m_type, info, req.m_event, null);
+                }
             }
         }
     }
@@ -1171,4 +1429,89 @@ public class EventDispatcher
         public Map<BundleContext, List<ListenerInfo>> m_listeners = null;
         public EventObject m_event = null;
     }
+
+    /**
+     * Queue of pending events of a single asynchronous listener. At most
+     * one thread drains the queue at any time, which keeps the events in
+     * order for the listener.
+    **/
+    static class AsyncListenerQueue implements Runnable
+    {
+        private final EventDispatcher m_dispatcher;
+        private final ListenerInfo m_info;
+        private final int m_type;
+        private final Queue<EventObject> m_events = new ConcurrentLinkedQueue<EventObject>();
+        private final AtomicBoolean m_scheduled = new AtomicBoolean(false);
+        private volatile ThreadPoolExecutor m_executor;
+
+        AsyncListenerQueue(EventDispatcher dispatcher, ListenerInfo info)
+        {
+            m_dispatcher = dispatcher;
+            m_info = info;
+            m_type = (info.getListenerClass() == FrameworkListener.class)
+                ? Request.FRAMEWORK_EVENT : Request.BUNDLE_EVENT;
+        }
+
+        void offer(ThreadPoolExecutor executor, EventObject event)
+        {
+            m_executor = executor;
+            m_events.offer(event);
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (!m_events.isEmpty() && m_scheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    m_executor.execute(this);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    // The dispatcher is stopped, so drop the pending events.
+                    m_scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                boolean drain = true;
+                while (drain)
+                {
+                    for (int i = 0; i < ASYNC_BATCH_SIZE; i++)
+                    {
+                        EventObject event = m_events.poll();
+                        if (event == null)
+                        {
+                            break;
+                        }
+                        invokeListener(m_dispatcher, m_type, m_info, event, null);
+                    }
+                    // While the dispatcher is stopping we cannot reschedule,
+                    // so we have to deliver the remaining events ourselves,
+                    // unless stopping timed out and interrupted us.
+                    drain = !m_events.isEmpty() && m_executor.isShutdown()
+                        && !Thread.currentThread().isInterrupted();
+                }
+            }
+            finally
+            {
+                m_scheduled.set(false);
+            }
+            // Events may have been queued while we were draining, or we
+            // yielded after a full batch; either way make sure they are
+            // not stranded.
+            schedule();
+        }
+
+        void discard()
+        {
+            m_events.clear();
+        }
+    }
 }
@@ -450,7 +450,7 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        m_dispatcher = new EventDispatcher(m_logger, m_registry, getEventDispatchThreads());
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -458,6 +458,31 @@ public class Felix extends BundleImpl implements Framework
         m_fwkStartLevel = new FrameworkStartLevelImpl(this, m_registry);
     }
 
+    private int getEventDispatchThreads()
+    {
+        // The single shared dispatch thread is the default, a thread pool
+        // is only used if the parallel dispatch mode is configured.
+        if (!FelixConstants.EVENT_DISPATCH_MODE_PARALLEL.equalsIgnoreCase(
+            getProperty(FelixConstants.EVENT_DISPATCH_MODE_PROP)))
+        {
+            return 0;
+        }
+        String str = getProperty(FelixConstants.EVENT_DISPATCH_THREADS_PROP);
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (str != null)
+        {
+            try
+            {
+                threads = Integer.parseInt(str);
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and just use the default number of threads.
+            }
+        }
+        return Math.max(threads, 1);
+    }
+
     Logger getLogger()
     {
         return m_logger;
@@ -846,6 +871,10 @@ public class Felix extends BundleImpl implements Framework
                     m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
                 }
 
+                // Pick up the wiring of the previous session, which is replayed
+                // instead of resolving as long as nothing changes.
+                m_resolver.loadResolutionCache(getBundles());
+
                 // Now that we have loaded all cached bundles and have determined the
                 // max bundle ID of cached bundles, we need to try to load the next
                 // bundle ID from persistent storage. In case of failure, we should
@@ -5211,8 +5240,11 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
-            // Dispose of the bundles to close their associated contents.
+            // Persist the wiring for the next startup.
             bundles = getBundles();
+            m_resolver.storeResolutionCache(bundles);
+
+            // Dispose of the bundles to close their associated contents.
             for (int i = 0; i < bundles.length; i++)
             {
                 ((BundleImpl) bundles[i]).close();
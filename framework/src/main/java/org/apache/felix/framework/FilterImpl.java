@@ -52,6 +52,11 @@ public class FilterImpl implements Filter
         }
     }
 
+    SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
+    }
+
     public boolean match(ServiceReference sr)
     {
         if (sr instanceof ServiceReferenceImpl)
@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * Persists the wiring of all bundles at framework shutdown and replays it
+ * on the next startup, so that an unchanged installation does not have to
+ * run the resolver again. The wiring of each bundle is stored in its bundle
+ * archive as a list of wires that refer to requirements and capabilities by
+ * bundle identifier and declaration index. Every archive also records a
+ * digest of the manifests of all installed bundles and of the framework
+ * configuration; the cache is only used if all digests match the current
+ * installation and is dropped as soon as the set of revisions known to the
+ * resolver changes. Replayed wires are validated against the actual
+ * requirements and capabilities, any mismatch falls back to a full resolve.
+**/
+class ResolutionCache
+{
+    private static final String[] DIGEST_SYSTEM_PROPERTIES = {
+        "java.specification.version", "java.version", "java.vendor",
+        "os.name", "os.version", "os.arch" };
+    // Configuration properties that change on every launch without
+    // affecting resolution.
+    private static final Set<String> DIGEST_IGNORED_PROPERTIES = new HashSet<String>(
+        Arrays.asList(Constants.FRAMEWORK_UUID, FelixConstants.BUNDLE_STARTLEVEL_PROP));
+
+    // Revisions known to the resolver when the cache was loaded.
+    private final Set<BundleRevision> m_revisions;
+    // Maps bundle identifiers to the revisions above.
+    private final Map<Long, BundleRevision> m_revisionsById;
+    // Maps bundle identifiers to their persisted wires.
+    private final Map<Long, List<long[]>> m_wires;
+    // Maps host bundle identifiers to the identifiers of attached fragments.
+    private final Map<Long, List<Long>> m_fragments;
+
+    private ResolutionCache(Set<BundleRevision> revisions,
+        Map<Long, BundleRevision> revisionsById, Map<Long, List<long[]>> wires,
+        Map<Long, List<Long>> fragments)
+    {
+        m_revisions = revisions;
+        m_revisionsById = revisionsById;
+        m_wires = wires;
+        m_fragments = fragments;
+    }
+
+    /**
+     * Loads the persisted wiring of the given bundles. Returns <tt>null</tt>
+     * if there is nothing to replay or if any persisted digest does not match
+     * the current installation.
+     * @param felix the framework instance.
+     * @param bundles the installed bundles.
+     * @param revisions the revisions currently known to the resolver.
+     * @return the loaded cache or <tt>null</tt>.
+    **/
+    static ResolutionCache load(
+        Felix felix, Bundle[] bundles, Set<BundleRevision> revisions)
+    {
+        Map<Long, BundleRevision> revisionsById = new HashMap<Long, BundleRevision>();
+        for (BundleRevision br : revisions)
+        {
+            if (revisionsById.put(br.getBundle().getBundleId(), br) != null)
+            {
+                // Old revisions are still around, so the persisted
+                // wiring cannot be mapped unambiguously.
+                return null;
+            }
+        }
+
+        String digest = calculateDigest(felix, bundles);
+        Map<Long, List<long[]>> wires = new HashMap<Long, List<long[]>>();
+        Map<Long, List<Long>> fragments = new HashMap<Long, List<Long>>();
+        for (Bundle bundle : bundles)
+        {
+            if (bundle.getBundleId() == 0)
+            {
+                continue;
+            }
+            try
+            {
+                List<String> info = ((BundleImpl) bundle).getArchive().getResolutionInfo();
+                if (info == null)
+                {
+                    continue;
+                }
+                if (info.isEmpty() || !info.get(0).equals(digest))
+                {
+                    return null;
+                }
+                List<long[]> bundleWires = new ArrayList<long[]>(info.size() - 1);
+                for (int i = 1; i < info.size(); i++)
+                {
+                    bundleWires.add(parseWire(info.get(i)));
+                }
+                BundleRevision br = revisionsById.get(bundle.getBundleId());
+                if ((br != null) && Util.isFragment(br))
+                {
+                    for (long[] wire : bundleWires)
+                    {
+                        List<Long> hostFragments = fragments.get(wire[3]);
+                        if (hostFragments == null)
+                        {
+                            hostFragments = new ArrayList<Long>();
+                            fragments.put(wire[3], hostFragments);
+                        }
+                        hostFragments.add(bundle.getBundleId());
+                    }
+                }
+                wires.put(bundle.getBundleId(), bundleWires);
+            }
+            catch (Exception ex)
+            {
+                felix.getLogger().log(bundle, Logger.LOG_WARNING,
+                    "Unable to read persisted resolution, resolving from scratch.", ex);
+                return null;
+            }
+        }
+
+        return (wires.isEmpty())
+            ? null
+            : new ResolutionCache(
+                new HashSet<BundleRevision>(revisions), revisionsById, wires, fragments);
+    }
+
+    /**
+     * Persists the current wiring of the given bundles. Nothing is persisted
+     * if there are pending removals, since the wiring would then refer to
+     * revisions that will not exist after a restart.
+     * @param felix the framework instance.
+     * @param bundles the installed bundles.
+    **/
+    static void store(Felix felix, Bundle[] bundles)
+    {
+        boolean removalPending = false;
+        for (Bundle bundle : bundles)
+        {
+            removalPending |= ((BundleImpl) bundle).isRemovalPending();
+        }
+
+        String digest = (removalPending) ? null : calculateDigest(felix, bundles);
+        for (Bundle bundle : bundles)
+        {
+            if (bundle.getBundleId() == 0)
+            {
+                continue;
+            }
+            BundleArchive archive = ((BundleImpl) bundle).getArchive();
+            try
+            {
+                List<String> info = (digest == null)
+                    ? null : getResolutionInfo(felix, bundle, digest);
+                archive.setResolutionInfo(info);
+            }
+            catch (Exception ex)
+            {
+                felix.getLogger().log(bundle, Logger.LOG_WARNING,
+                    "Unable to persist resolution.", ex);
+            }
+        }
+    }
+
+    /**
+     * Determines whether the cache still describes the set of revisions
+     * known to the resolver.
+     * @param revisions the revisions currently known to the resolver.
+     * @return <tt>true</tt> if the cache can still be used.
+    **/
+    boolean isValid(Set<BundleRevision> revisions)
+    {
+        return m_revisions.equals(revisions);
+    }
+
+    /**
+     * Reconstructs a resolver wire map for the given revisions and all
+     * unresolved revisions they depend on from the persisted wiring.
+     * @param mandatory the revisions that must be resolved.
+     * @param optional the revisions that should be resolved.
+     * @return the wire map or <tt>null</tt> if the persisted wiring does not
+     *         cover all of the revisions or fails validation.
+    **/
+    Map<Resource, List<Wire>> getWireMap(
+        Set<BundleRevision> mandatory, Set<BundleRevision> optional)
+    {
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        LinkedList<BundleRevision> queue = new LinkedList<BundleRevision>(mandatory);
+        queue.addAll(optional);
+        while (!queue.isEmpty())
+        {
+            BundleRevision br = queue.removeFirst();
+            if ((br.getWiring() != null) || wireMap.containsKey(br))
+            {
+                // Fragments that are already attached would have to be
+                // attached to additional hosts, leave that to the resolver.
+                if ((br.getWiring() != null) && Util.isFragment(br))
+                {
+                    return null;
+                }
+                continue;
+            }
+
+            Long id = br.getBundle().getBundleId();
+            List<long[]> cached = m_wires.get(id);
+            if ((cached == null) || (m_revisionsById.get(id) != br))
+            {
+                return null;
+            }
+
+            List<Wire> wires = new ArrayList<Wire>(cached.size());
+            for (long[] cachedWire : cached)
+            {
+                BundleWire wire = createWire(br, cachedWire);
+                if (wire == null)
+                {
+                    return null;
+                }
+                wires.add(wire);
+                queue.add(wire.getProvider());
+            }
+            wireMap.put(br, wires);
+
+            List<Long> fragments = m_fragments.get(id);
+            for (int i = 0; (fragments != null) && (i < fragments.size()); i++)
+            {
+                BundleRevision fragment = m_revisionsById.get(fragments.get(i));
+                if (fragment == null)
+                {
+                    return null;
+                }
+                queue.add(fragment);
+            }
+        }
+        return wireMap;
+    }
+
+    private BundleWire createWire(BundleRevision requirer, long[] cachedWire)
+    {
+        if (cachedWire[0] != requirer.getBundle().getBundleId())
+        {
+            return null;
+        }
+        BundleRevision reqOwner = m_revisionsById.get(cachedWire[1]);
+        BundleRevision provider = m_revisionsById.get(cachedWire[3]);
+        BundleRevision capOwner = m_revisionsById.get(cachedWire[4]);
+        if ((reqOwner == null) || (provider == null) || (capOwner == null)
+            || ((reqOwner != requirer) && !Util.isFragment(reqOwner))
+            || ((capOwner != provider) && !Util.isFragment(capOwner)))
+        {
+            return null;
+        }
+
+        List<BundleRequirement> reqs = reqOwner.getDeclaredRequirements(null);
+        List<BundleCapability> caps = capOwner.getDeclaredCapabilities(null);
+        if ((cachedWire[2] < 0) || (cachedWire[2] >= reqs.size())
+            || (cachedWire[5] < 0) || (cachedWire[5] >= caps.size()))
+        {
+            return null;
+        }
+        BundleRequirement req = reqs.get((int) cachedWire[2]);
+        BundleCapability cap = caps.get((int) cachedWire[5]);
+        if (!req.getNamespace().equals(cap.getNamespace())
+            || !(req instanceof BundleRequirementImpl)
+            || !CapabilitySet.matches(cap, ((BundleRequirementImpl) req).getFilter()))
+        {
+            return null;
+        }
+        return new BundleWireImpl(requirer, req, provider, cap);
+    }
+
+    private static List<String> getResolutionInfo(
+        Felix felix, Bundle bundle, String digest)
+    {
+        BundleRevision br = bundle.adapt(BundleRevision.class);
+        BundleWiring wiring = (br == null) ? null : br.getWiring();
+        if ((wiring == null) || !wiring.isCurrent())
+        {
+            return null;
+        }
+
+        List<String> info = new ArrayList<String>();
+        info.add(digest);
+        for (BundleWire wire : wiring.getRequiredWires(null))
+        {
+            BundleRequirement req = wire.getRequirement();
+            if (FelixConstants.RESOLUTION_DYNAMIC.equals(
+                req.getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+            {
+                // Dynamic wires are created lazily and not by the resolver.
+                continue;
+            }
+
+            BundleRevision provider = wire.getProvider();
+            if ((provider.getBundle().getState() == Bundle.UNINSTALLED)
+                || (provider.getBundle().adapt(BundleRevision.class) != provider))
+            {
+                return null;
+            }
+
+            int reqIdx = indexOf(
+                req.getRevision().getDeclaredRequirements(null), req);
+            int capIdx = indexOf(
+                wire.getCapability().getRevision().getDeclaredCapabilities(null),
+                wire.getCapability());
+            if ((reqIdx < 0) || (capIdx < 0))
+            {
+                return null;
+            }
+
+            info.add(wire.getRequirer().getBundle().getBundleId()
+                + " " + req.getRevision().getBundle().getBundleId()
+                + " " + reqIdx
+                + " " + provider.getBundle().getBundleId()
+                + " " + wire.getCapability().getRevision().getBundle().getBundleId()
+                + " " + capIdx);
+        }
+        return info;
+    }
+
+    private static int indexOf(List<?> list, Object o)
+    {
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i) == o)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long[] parseWire(String line)
+    {
+        String[] tokens = line.split(" ");
+        if (tokens.length != 6)
+        {
+            throw new IllegalArgumentException("Malformed wire: " + line);
+        }
+        long[] wire = new long[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+        {
+            wire[i] = Long.parseLong(tokens[i]);
+        }
+        return wire;
+    }
+
+    /**
+     * Calculates a digest over everything the resolver takes into account:
+     * the manifests of all installed bundles, the framework configuration
+     * and the relevant properties of the runtime environment.
+    **/
+    static String calculateDigest(Felix felix, Bundle[] bundles)
+    {
+        Map<Long, Bundle> sorted = new TreeMap<Long, Bundle>();
+        for (Bundle bundle : bundles)
+        {
+            sorted.put(bundle.getBundleId(), bundle);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Bundle bundle : sorted.values())
+        {
+            sb.append(bundle.getBundleId()).append('\n');
+            BundleRevision br = bundle.adapt(BundleRevision.class);
+            if (br instanceof BundleRevisionImpl)
+            {
+                appendSorted(sb, ((BundleRevisionImpl) br).getHeaders());
+            }
+        }
+        appendSorted(sb, felix.getConfig());
+        for (String key : DIGEST_SYSTEM_PROPERTIES)
+        {
+            sb.append(key).append('=').append(felix._getProperty(key)).append('\n');
+        }
+
+        try
+        {
+            byte[] bytes = MessageDigest.getInstance("SHA-1")
+                .digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch (Exception ex)
+        {
+            // SHA-1 and UTF-8 are always available.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void appendSorted(StringBuilder sb, Map<String, ?> map)
+    {
+        if (map == null)
+        {
+            return;
+        }
+        for (Map.Entry<String, ?> entry : new TreeMap<String, Object>(map).entrySet())
+        {
+            if ((entry.getValue() instanceof String)
+                && !DIGEST_IGNORED_PROPERTIES.contains(entry.getKey()))
+            {
+                sb.append(entry.getKey()).append('=')
+                    .append(entry.getValue()).append('\n');
+            }
+        }
+    }
+}
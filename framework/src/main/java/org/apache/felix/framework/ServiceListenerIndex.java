@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ListenerInfo;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * Immutable index of service listeners by the object classes their filters
+ * require. A listener whose filter can only match services registered
+ * under one of a known set of object classes is indexed under those
+ * classes; all other listeners are unindexed and are candidates for every
+ * service event. Since the object classes of a service registration never
+ * change, a listener which is not a candidate for an event could neither
+ * match the old nor the new service properties of the event.
+**/
+class ServiceListenerIndex
+{
+    static final ServiceListenerIndex EMPTY = new ServiceListenerIndex(
+        Collections.<String, List<ListenerInfo>>emptyMap(),
+        Collections.<ListenerInfo>emptyList(), 0);
+
+    private final Map<String, List<ListenerInfo>> m_indexed;
+    private final List<ListenerInfo> m_unindexed;
+    private final int m_size;
+
+    private ServiceListenerIndex(
+        Map<String, List<ListenerInfo>> indexed, List<ListenerInfo> unindexed, int size)
+    {
+        m_indexed = indexed;
+        m_unindexed = unindexed;
+        m_size = size;
+    }
+
+    /**
+     * Returns the number of listeners in the index.
+     * @return the number of listeners.
+    **/
+    int size()
+    {
+        return m_size;
+    }
+
+    ServiceListenerIndex add(ListenerInfo info)
+    {
+        Set<String> classes = getObjectClasses(info);
+        if (classes == null)
+        {
+            List<ListenerInfo> unindexed = new ArrayList<ListenerInfo>(m_unindexed.size() + 1);
+            unindexed.addAll(m_unindexed);
+            unindexed.add(info);
+            return new ServiceListenerIndex(m_indexed, unindexed, m_size + 1);
+        }
+
+        Map<String, List<ListenerInfo>> indexed =
+            new HashMap<String, List<ListenerInfo>>(m_indexed);
+        for (String clazz : classes)
+        {
+            List<ListenerInfo> infos = indexed.get(clazz);
+            List<ListenerInfo> copy = new ArrayList<ListenerInfo>(
+                (infos == null) ? 1 : infos.size() + 1);
+            if (infos != null)
+            {
+                copy.addAll(infos);
+            }
+            copy.add(info);
+            indexed.put(clazz, copy);
+        }
+        return new ServiceListenerIndex(indexed, m_unindexed, m_size + 1);
+    }
+
+    ServiceListenerIndex remove(ListenerInfo info)
+    {
+        Set<String> classes = getObjectClasses(info);
+        if (classes == null)
+        {
+            List<ListenerInfo> unindexed = removeInfo(m_unindexed, info);
+            return (unindexed == m_unindexed)
+                ? this : new ServiceListenerIndex(m_indexed, unindexed, m_size - 1);
+        }
+
+        Map<String, List<ListenerInfo>> indexed = null;
+        for (String clazz : classes)
+        {
+            List<ListenerInfo> infos = m_indexed.get(clazz);
+            List<ListenerInfo> copy = (infos == null) ? null : removeInfo(infos, info);
+            if (copy != infos)
+            {
+                if (indexed == null)
+                {
+                    indexed = new HashMap<String, List<ListenerInfo>>(m_indexed);
+                }
+                if (copy.isEmpty())
+                {
+                    indexed.remove(clazz);
+                }
+                else
+                {
+                    indexed.put(clazz, copy);
+                }
+            }
+        }
+        return (indexed == null)
+            ? this : new ServiceListenerIndex(indexed, m_unindexed, m_size - 1);
+    }
+
+    ServiceListenerIndex removeAll(BundleContext bc)
+    {
+        int removed = 0;
+        List<ListenerInfo> unindexed = new ArrayList<ListenerInfo>(m_unindexed.size());
+        for (ListenerInfo info : m_unindexed)
+        {
+            if (info.getBundleContext() != bc)
+            {
+                unindexed.add(info);
+            }
+        }
+        removed += m_unindexed.size() - unindexed.size();
+
+        // Listeners may be indexed under several classes, so count
+        // them by identity.
+        Set<ListenerInfo> removedIndexed = Collections.newSetFromMap(
+            new IdentityHashMap<ListenerInfo, Boolean>());
+        Map<String, List<ListenerInfo>> indexed =
+            new HashMap<String, List<ListenerInfo>>(m_indexed.size());
+        for (Entry<String, List<ListenerInfo>> entry : m_indexed.entrySet())
+        {
+            List<ListenerInfo> infos = new ArrayList<ListenerInfo>(entry.getValue().size());
+            for (ListenerInfo info : entry.getValue())
+            {
+                if (info.getBundleContext() != bc)
+                {
+                    infos.add(info);
+                }
+                else
+                {
+                    removedIndexed.add(info);
+                }
+            }
+            if (!infos.isEmpty())
+            {
+                indexed.put(entry.getKey(), infos);
+            }
+        }
+        removed += removedIndexed.size();
+
+        return (removed == 0)
+            ? this : new ServiceListenerIndex(indexed, unindexed, m_size - removed);
+    }
+
+    /**
+     * Returns the listeners which could possibly receive an event for a
+     * service registered under the given object classes.
+     * @param objectClass the object classes of the service.
+     * @return the candidate listeners, each listed once.
+    **/
+    List<ListenerInfo> getCandidates(String[] objectClass)
+    {
+        if ((objectClass == null) || m_indexed.isEmpty())
+        {
+            return m_unindexed;
+        }
+
+        List<ListenerInfo> candidates = null;
+        Set<ListenerInfo> seen = null;
+        for (String clazz : objectClass)
+        {
+            List<ListenerInfo> infos = m_indexed.get(clazz);
+            if (infos != null)
+            {
+                if (candidates == null)
+                {
+                    candidates = new ArrayList<ListenerInfo>(
+                        m_unindexed.size() + infos.size());
+                    candidates.addAll(m_unindexed);
+                }
+                // A listener may be indexed under more than one of
+                // the service's classes, so avoid duplicates.
+                if (objectClass.length > 1)
+                {
+                    if (seen == null)
+                    {
+                        seen = Collections.newSetFromMap(
+                            new IdentityHashMap<ListenerInfo, Boolean>());
+                    }
+                    for (ListenerInfo info : infos)
+                    {
+                        if (seen.add(info))
+                        {
+                            candidates.add(info);
+                        }
+                    }
+                }
+                else
+                {
+                    candidates.addAll(infos);
+                }
+            }
+        }
+        return (candidates == null) ? m_unindexed : candidates;
+    }
+
+    private static List<ListenerInfo> removeInfo(List<ListenerInfo> infos, ListenerInfo info)
+    {
+        for (int i = 0; i < infos.size(); i++)
+        {
+            if (infos.get(i) == info)
+            {
+                List<ListenerInfo> copy = new ArrayList<ListenerInfo>(infos);
+                copy.remove(i);
+                return copy;
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Returns the object classes one of which a service must be registered
+     * under for the listener's filter to match, or <tt>null</tt> if the
+     * listener has to be considered for every service.
+    **/
+    private static Set<String> getObjectClasses(ListenerInfo info)
+    {
+        // An unfiltered listener receives all events regardless of its filter.
+        if ((info.getParsedFilter() == null)
+            || (info.getListener() instanceof UnfilteredServiceListener))
+        {
+            return null;
+        }
+        SimpleFilter sf = toSimpleFilter(info.getParsedFilter());
+        return (sf == null) ? null : getObjectClasses(sf);
+    }
+
+    private static SimpleFilter toSimpleFilter(Filter filter)
+    {
+        if (filter instanceof FilterImpl)
+        {
+            return ((FilterImpl) filter).getSimpleFilter();
+        }
+        try
+        {
+            return SimpleFilter.parse(filter.toString());
+        }
+        catch (Exception ex)
+        {
+            // If we cannot parse the filter, then we cannot index it.
+            return null;
+        }
+    }
+
+    static Set<String> getObjectClasses(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.EQ:
+                if (Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+                    && (sf.getValue() instanceof String))
+                {
+                    return Collections.singleton((String) sf.getValue());
+                }
+                return null;
+            case SimpleFilter.AND:
+                // Any required term is enough; pick the most selective one.
+                Set<String> result = null;
+                for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+                {
+                    Set<String> classes = getObjectClasses(child);
+                    if ((classes != null)
+                        && ((result == null) || (classes.size() < result.size())))
+                    {
+                        result = classes;
+                    }
+                }
+                return result;
+            case SimpleFilter.OR:
+                // Every alternative must require an object class.
+                Set<String> union = new HashSet<String>();
+                for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+                {
+                    Set<String> classes = getObjectClasses(child);
+                    if (classes == null)
+                    {
+                        return null;
+                    }
+                    union.addAll(classes);
+                }
+                return union.isEmpty() ? null : union;
+            default:
+                return null;
+        }
+    }
+}
@@ -19,9 +19,11 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +35,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.MapToDictionary;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -44,6 +47,9 @@ import org.osgi.resource.Capability;
 
 public class ServiceRegistry
 {
+    // Declarative Services component name property, commonly used in filters.
+    private static final String COMPONENT_NAME = "component.name";
+
     private final Logger m_logger;
 
     /** Counter for the service id */
@@ -53,11 +59,18 @@ public class ServiceRegistry
     private final ConcurrentMap<Bundle, List<ServiceRegistration<?>>> m_regsMap = new ConcurrentHashMap<Bundle, List<ServiceRegistration<?>>>();
 
     // Capability set for all service registrations.
-    private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
+    private final CapabilitySet m_regCapSet = new CapabilitySet(
+        Arrays.asList(Constants.OBJECTCLASS, Constants.SERVICE_PID, COMPONENT_NAME), false);
 
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
 
+    // Usage arrays longer than this are looked up through a per-bundle index.
+    private static final int USAGE_INDEX_THRESHOLD = 8;
+
+    // Maps bundle to a reference index over its current usage count array.
+    private final ConcurrentMap<Bundle, UsageIndex> m_usageIndex = new ConcurrentHashMap<Bundle, UsageIndex>();
+
     private final ServiceRegistryCallbacks m_callbacks;
 
     private final HookRegistry hookRegistry = new HookRegistry();
@@ -310,6 +323,35 @@ public class ServiceRegistry
                     null);
         }
 
+        // Fast path: if the bundle already holds the service, only its usage
+        // count has to be incremented, no thread marking or holder is needed.
+        UsageCount counted = null;
+        if (!isPrototype && reg.isValid())
+        {
+            final UsageCount held = findUsageCount(bundle, ref);
+            final ServiceHolder holder = (held != null) ? held.m_svcHolderRef.get() : null;
+            if ((holder != null) && (holder.m_latch.getCount() == 0)
+                && (holder.m_service != null) && incrementIfPositive(held.m_count))
+            {
+                if (held.m_svcHolderRef.get() == holder)
+                {
+                    if ( isServiceObjects )
+                    {
+                        incrementToPositiveValue(held.m_serviceObjectsCount);
+                    }
+                    svcObj = holder.m_service;
+                    if (!reg.isValid())
+                    {
+                        flushUsageCount(bundle, ref, held);
+                    }
+                    return (S) svcObj;
+                }
+                // The service was released and obtained again concurrently, so
+                // continue on the slow path with the usage already counted.
+                counted = held;
+            }
+        }
+
         try
         {
             reg.markCurrentThread();
@@ -323,7 +365,10 @@ public class ServiceRegistry
 
                 // Increment the usage count and grab the already retrieved
                 // service object, if one exists.
-                incrementToPositiveValue(usage.m_count);
+                if (usage != counted)
+                {
+                    incrementToPositiveValue(usage.m_count);
+                }
                 svcObj = usage.getService();
 
                 if ( isServiceObjects )
@@ -406,6 +451,40 @@ public class ServiceRegistry
         return (S) svcObj;
     }
 
+    // Increment the Atomic Long by 1 if it is positive. Returns false without
+    // changing the value otherwise, so that a concurrent ungetService() releasing
+    // the last use is never undone.
+    private boolean incrementIfPositive(AtomicLong al)
+    {
+        long c = al.get();
+        while ((c > 0) && (c < Long.MAX_VALUE - 1))
+        {
+            if (al.compareAndSet(c, c + 1))
+            {
+                return true;
+            }
+            c = al.get();
+        }
+        return false;
+    }
+
+    // Decrement the Atomic Long by 1 if this does not release the last use.
+    // Returns false without changing the value if the release has to be done
+    // by the slow path.
+    private boolean decrementIfShared(AtomicLong al)
+    {
+        long c = al.get();
+        while (c > 1)
+        {
+            if (al.compareAndSet(c, c - 1))
+            {
+                return true;
+            }
+            c = al.get();
+        }
+        return false;
+    }
+
     // Increment the Atomic Long by 1, and ensure the result is at least 1.
     // This method uses a loop, optimistic algorithm to do this in a threadsafe
     // way without locks.
@@ -445,6 +524,17 @@ public class ServiceRegistry
                     "ServiceFactory.ungetService() resulted in a cycle.");
         }
 
+        // Fast path: releasing a use that is not the last one only has to
+        // decrement the usage count.
+        if ((svcObj == null) && reg.isValid())
+        {
+            final UsageCount usage = findUsageCount(bundle, ref);
+            if ((usage != null) && decrementIfShared(usage.m_count))
+            {
+                return true;
+            }
+        }
+
         try
         {
             // Mark the current thread to avoid cycles
@@ -593,13 +683,25 @@ public class ServiceRegistry
         return bundles;
     }
 
-    void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<?,?> oldProps)
+    /**
+     * Re-indexes a registration whose properties have just been set. The
+     * caller holds the lock of the registration, so updates of the same
+     * registration are applied in order.
+    **/
+    void servicePropertiesModifying(ServiceRegistration<?> reg, Map<String, Object> oldProps)
+    {
+        // Indexed properties other than the object class may have changed.
+        m_regCapSet.updateCapability((BundleCapabilityImpl) reg.getReference(), oldProps);
+    }
+
+    void servicePropertiesModified(ServiceRegistration<?> reg, Map<String, Object> oldProps)
     {
         this.hookRegistry.updateHooks(reg.getReference());
         if (m_callbacks != null)
         {
             m_callbacks.serviceChanged(
-                new ServiceEvent(ServiceEvent.MODIFIED, reg.getReference()), oldProps);
+                new ServiceEvent(ServiceEvent.MODIFIED, reg.getReference()),
+                new MapToDictionary(oldProps));
         }
     }
 
@@ -672,6 +774,47 @@ public class ServiceRegistry
         return usage;
     }
 
+    /**
+     * Find the singleton or bundle scoped UsageCount object of the bundle for the
+     * service reference. Short usage count arrays are scanned, longer ones are
+     * looked up through an index that is rebuilt whenever the array changed.
+     * @param bundle The bundle using the service.
+     * @param ref The Service Reference.
+     * @return The UsageCount object or {@code null} if the bundle does not use the service.
+     */
+    private UsageCount findUsageCount(Bundle bundle, ServiceReference<?> ref)
+    {
+        final UsageCount[] usages = m_inUseMap.get(bundle);
+        if (usages == null)
+        {
+            return null;
+        }
+        if (usages.length <= USAGE_INDEX_THRESHOLD)
+        {
+            for (int i = 0; i < usages.length; i++)
+            {
+                if (!usages[i].m_prototype && usages[i].m_ref.equals(ref))
+                {
+                    return usages[i];
+                }
+            }
+            return null;
+        }
+
+        UsageIndex index = m_usageIndex.get(bundle);
+        if ((index == null) || (index.m_usages != usages))
+        {
+            index = new UsageIndex(usages);
+            m_usageIndex.put(bundle, index);
+            // The bundle may have released all its usages in the meantime.
+            if (!m_inUseMap.containsKey(bundle))
+            {
+                m_usageIndex.remove(bundle, index);
+            }
+        }
+        return index.m_byRef.get(ref);
+    }
+
     /**
      * Utility method to flush the specified bundle's usage count for the
      * specified service reference. This should be called to completely
@@ -727,7 +870,13 @@ public class ServiceRegistry
                 if (usages != null)
                     success = m_inUseMap.replace(bundle, orgUsages, usages);
                 else
+                {
                     success = m_inUseMap.remove(bundle, orgUsages);
+                    if (success)
+                    {
+                        m_usageIndex.remove(bundle);
+                    }
+                }
             }
         }
     }
@@ -759,6 +908,26 @@ public class ServiceRegistry
         }
     }
 
+    // Index of the non-prototype usage counts of one usage count array.
+    private static final class UsageIndex
+    {
+        final UsageCount[] m_usages;
+        final Map<ServiceReference<?>, UsageCount> m_byRef;
+
+        UsageIndex(final UsageCount[] usages)
+        {
+            m_usages = usages;
+            m_byRef = new HashMap<ServiceReference<?>, UsageCount>(usages.length * 2);
+            for (int i = 0; i < usages.length; i++)
+            {
+                if (!usages[i].m_prototype && !m_byRef.containsKey(usages[i].m_ref))
+                {
+                    m_byRef.put(usages[i].m_ref, usages[i]);
+                }
+            }
+        }
+    }
+
     static class ServiceHolder
     {
         final CountDownLatch m_latch = new CountDownLatch(1);
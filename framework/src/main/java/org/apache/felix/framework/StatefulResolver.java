@@ -91,6 +91,12 @@ class StatefulResolver
     private final Map<String, List<BundleRevision>> m_singletons;
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
+    // Persisted wiring of the previous session, if any.
+    private ResolutionCache m_resolutionCache;
+    // Number of resolve operations satisfied from the persisted wiring.
+    private int m_cachedResolves = 0;
+    // Incremented whenever revisions are added or removed.
+    private volatile int m_modCount = 0;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
@@ -98,7 +104,11 @@ class StatefulResolver
         m_registry = registry;
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        // Incremental resolving reuses the package spaces of resolved
+        // revisions, so resolving newly installed bundles does not have to
+        // recompute them for the whole installation.
+        m_resolver = new ResolverImpl(m_logger, m_executor, Boolean.parseBoolean(
+            m_felix.getProperty(FelixConstants.RESOLVER_INCREMENTAL_PROP)));
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -108,14 +118,17 @@ class StatefulResolver
 
         List<String> indices = new ArrayList<String>();
         indices.add(BundleRevision.BUNDLE_NAMESPACE);
+        indices.add(Constants.BUNDLE_VERSION_ATTRIBUTE);
         m_capSets.put(BundleRevision.BUNDLE_NAMESPACE, new CapabilitySet(indices, true));
 
         indices = new ArrayList<String>();
         indices.add(BundleRevision.PACKAGE_NAMESPACE);
+        indices.add(Constants.VERSION_ATTRIBUTE);
         m_capSets.put(BundleRevision.PACKAGE_NAMESPACE, new CapabilitySet(indices, true));
 
         indices = new ArrayList<String>();
         indices.add(BundleRevision.HOST_NAMESPACE);
+        indices.add(Constants.BUNDLE_VERSION_ATTRIBUTE);
         m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
     }
 
@@ -174,6 +187,93 @@ class StatefulResolver
                 null);
     }
 
+    /**
+     * Loads the wiring persisted during the last framework shutdown so that
+     * it can be replayed instead of running the resolver, provided that the
+     * installed bundles and the configuration did not change in between.
+     * @param bundles the installed bundles.
+    **/
+    synchronized void loadResolutionCache(Bundle[] bundles)
+    {
+        m_resolutionCache = (isResolutionCacheEnabled())
+            ? ResolutionCache.load(m_felix, bundles, m_revisions)
+            : null;
+    }
+
+    /**
+     * Persists the current wiring of the given bundles for the next
+     * framework startup.
+     * @param bundles the installed bundles.
+    **/
+    void storeResolutionCache(Bundle[] bundles)
+    {
+        if (isResolutionCacheEnabled())
+        {
+            ResolutionCache.store(m_felix, bundles);
+        }
+    }
+
+    /**
+     * Returns a counter that changes whenever revisions are added to or
+     * removed from the resolver state, including re-indexing of revisions
+     * after they have been resolved. Results that depend on the resolver
+     * state, such as failed dynamic imports, can be cached until it changes.
+    **/
+    int getModificationCount()
+    {
+        return m_modCount;
+    }
+
+    int getCachedResolveCount()
+    {
+        return m_cachedResolves;
+    }
+
+    private boolean isResolutionCacheEnabled()
+    {
+        return Boolean.parseBoolean(
+            m_felix.getProperty(FelixConstants.RESOLVER_CACHE_PROP))
+            && (System.getSecurityManager() == null);
+    }
+
+    private synchronized Map<Resource, List<Wire>> resolveFromCache(
+        ResolverHookRecord record,
+        Set<BundleRevision> mandatory,
+        Set<BundleRevision> optional)
+    {
+        if (m_resolutionCache == null)
+        {
+            return null;
+        }
+        if (!m_resolutionCache.isValid(m_revisions))
+        {
+            // Bundles were installed, updated, or uninstalled.
+            m_resolutionCache = null;
+            return null;
+        }
+        if (!record.getResolverHookRefs().isEmpty()
+            || (mandatory.isEmpty() && optional.isEmpty()))
+        {
+            return null;
+        }
+
+        Map<Resource, List<Wire>> wireMap =
+            m_resolutionCache.getWireMap(mandatory, optional);
+        if (wireMap != null)
+        {
+            for (Resource resource : wireMap.keySet())
+            {
+                BundleRevision br = (BundleRevision) resource;
+                if (Util.isSingleton(br) && !isSelectedSingleton(br))
+                {
+                    return null;
+                }
+            }
+            m_cachedResolves++;
+        }
+        return wireMap;
+    }
+
     synchronized void addRevision(BundleRevision br)
     {
         // Always attempt to remove the revision, since
@@ -182,6 +282,7 @@ class StatefulResolver
         removeRevision(br);
 
         m_revisions.add(br);
+        m_modCount++;
 
         // Add singletons to the singleton map.
         boolean isSingleton = Util.isSingleton(br);
@@ -209,6 +310,7 @@ class StatefulResolver
     {
         if (m_revisions.remove(br))
         {
+            m_modCount++;
             m_fragments.remove(br);
             deindexCapabilities(br);
 
@@ -474,15 +576,20 @@ class StatefulResolver
             ResolutionException rethrow = null;
             try
             {
-                // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                // Replay the persisted wiring of the previous session if
+                // possible, otherwise resolve the revision.
+                wireMap = resolveFromCache(record, mandatory, optional);
+                if (wireMap == null)
+                {
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                }
             }
             catch (ResolutionException ex)
             {
@@ -20,6 +20,8 @@ package org.apache.felix.framework.cache;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -71,6 +73,7 @@ public class BundleArchive
     public static final transient String INPUTSTREAM_PROTOCOL = "inputstream:";
 
     private static final transient String BUNDLE_INFO_FILE = "bundle.info";
+    private static final transient String RESOLUTION_INFO_FILE = "resolution.info";
     private static final transient String REVISION_LOCATION_FILE = "revision.location";
     private static final transient String REVISION_DIRECTORY = "version";
     private static final transient String DATA_DIRECTORY = "data";
@@ -432,6 +435,92 @@ public class BundleArchive
         return (m_revisions.size() > 1);
     }
 
+    /**
+     * <p>
+     * Returns the resolution information persisted for the current revision
+     * of the archive during the last framework shutdown. The content is
+     * opaque to the archive; it is written and interpreted by the framework.
+     * </p>
+     * @return the persisted resolution lines or <tt>null</tt> if there are none.
+     * @throws Exception if any error occurs.
+    **/
+    public synchronized List<String> getResolutionInfo() throws Exception
+    {
+        File infoFile = new File(m_archiveRootDir, RESOLUTION_INFO_FILE);
+        if (!BundleCache.getSecureAction().fileExists(infoFile))
+        {
+            return null;
+        }
+
+        InputStream is = null;
+        BufferedReader br = null;
+        try
+        {
+            is = BundleCache.getSecureAction().getFileInputStream(infoFile);
+            br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+
+            List<String> info = new ArrayList<String>();
+            for (String line = br.readLine(); line != null; line = br.readLine())
+            {
+                info.add(line);
+            }
+            return info;
+        }
+        finally
+        {
+            if (br != null) br.close();
+            if (is != null) is.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Persists resolution information for the current revision of the
+     * archive next to the bundle info, so that it can be validated and
+     * reused on the next framework startup.
+     * </p>
+     * @param info the resolution lines to persist or <tt>null</tt> to remove
+     *        any previously persisted resolution information.
+     * @throws Exception if any error occurs.
+    **/
+    public synchronized void setResolutionInfo(List<String> info) throws Exception
+    {
+        File infoFile = new File(m_archiveRootDir, RESOLUTION_INFO_FILE);
+        if (info == null)
+        {
+            if (BundleCache.getSecureAction().fileExists(infoFile))
+            {
+                BundleCache.getSecureAction().deleteFile(infoFile);
+            }
+            return;
+        }
+
+        OutputStream os = null;
+        BufferedWriter bw = null;
+        try
+        {
+            os = BundleCache.getSecureAction().getFileOutputStream(infoFile);
+            bw = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+            for (String line : info)
+            {
+                bw.write(line, 0, line.length());
+                bw.newLine();
+            }
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                getClass().getName() + ": Unable to cache resolution info - " + ex);
+            throw ex;
+        }
+        finally
+        {
+            if (bw != null) bw.close();
+            if (os != null) os.close();
+        }
+    }
+
     /**
      * <p>
      * This method adds a revision to the archive using the associated
@@ -450,6 +539,9 @@ public class BundleArchive
             : new Long(m_revisions.lastKey().longValue() + 1);
 
         reviseInternal(false, revNum, location, is);
+
+        // Any persisted resolution refers to the previous revision.
+        setResolutionInfo(null);
     }
 
     /**
@@ -75,6 +75,14 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.mapjars</tt> - If set to <tt>true</tt>, the content
+ *       of JAR bundles and their embedded JAR files is served from memory
+ *       mapped files with a sorted entry index instead of from
+ *       <tt>ZipFile</tt> handles, so such content neither holds a file
+ *       descriptor nor counts against <tt>felix.cache.filelimit</tt>. JAR
+ *       files that cannot be mapped and JAR files installed by reference
+ *       are opened as usual. The default value is <tt>false</tt>.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +95,7 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_MAPJARS_PROP = "felix.cache.mapjars";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
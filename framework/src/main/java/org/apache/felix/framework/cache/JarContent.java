@@ -48,6 +48,7 @@ public class JarContent implements Content
     private final File m_rootDir;
     private final File m_file;
     private final WeakZipFile m_zipFile;
+    private final MappedZipFile m_mappedFile;
     private final boolean m_isZipFileOwner;
     private Map m_nativeLibMap;
 
@@ -60,23 +61,72 @@ public class JarContent implements Content
         m_revisionLock = revisionLock;
         m_rootDir = rootDir;
         m_file = file;
+        MappedZipFile mappedFile = null;
         if (zipFile == null)
         {
-            try
+            if (isMapped(configMap))
             {
-                m_zipFile = m_zipFactory.create(m_file);
+                try
+                {
+                    mappedFile = new MappedZipFile(m_file);
+                }
+                catch (IOException ex)
+                {
+                    m_logger.log(
+                        Logger.LOG_DEBUG,
+                        "JarContent: Unable to map JAR file, falling back to ZIP file: "
+                        + ex.getMessage());
+                }
             }
-            catch (IOException ex)
+            if (mappedFile == null)
             {
-                throw new RuntimeException(
-                    "Unable to open JAR file, probably deleted: " + ex.getMessage());
+                try
+                {
+                    zipFile = m_zipFactory.create(m_file);
+                }
+                catch (IOException ex)
+                {
+                    throw new RuntimeException(
+                        "Unable to open JAR file, probably deleted: " + ex.getMessage());
+                }
             }
+            m_isZipFileOwner = true;
         }
         else
         {
-            m_zipFile = zipFile;
+            m_isZipFileOwner = false;
         }
-        m_isZipFileOwner = (zipFile == null);
+        m_zipFile = zipFile;
+        m_mappedFile = mappedFile;
+    }
+
+    private JarContent(JarContent content)
+    {
+        m_logger = content.m_logger;
+        m_configMap = content.m_configMap;
+        m_zipFactory = content.m_zipFactory;
+        m_revisionLock = content.m_revisionLock;
+        m_rootDir = content.m_rootDir;
+        m_file = content.m_file;
+        m_zipFile = content.m_zipFile;
+        m_mappedFile = content.m_mappedFile;
+        m_isZipFileOwner = false;
+    }
+
+    /**
+     * Returns whether JAR contents should be served from memory mapped
+     * files instead of <tt>ZipFile</tt> handles, as configured by the
+     * <tt>felix.cache.mapjars</tt> property.
+    **/
+    static boolean isMapped(Map configMap)
+    {
+        return (configMap != null) && "true".equalsIgnoreCase(
+            (String) configMap.get(BundleCache.CACHE_MAPJARS_PROP));
+    }
+
+    boolean isMapped()
+    {
+        return m_mappedFile != null;
     }
 
     protected void finalize()
@@ -90,7 +140,14 @@ public class JarContent implements Content
         {
             if (m_isZipFileOwner)
             {
-                m_zipFile.close();
+                if (m_mappedFile != null)
+                {
+                    m_mappedFile.close();
+                }
+                else
+                {
+                    m_zipFile.close();
+                }
             }
         }
         catch (Exception ex)
@@ -105,7 +162,7 @@ public class JarContent implements Content
     {
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             return ze != null;
         }
         catch (Exception ex)
@@ -120,7 +177,8 @@ public class JarContent implements Content
     public Enumeration<String> getEntries()
     {
         // Wrap entries enumeration to filter non-matching entries.
-        Enumeration<String> e = m_zipFile.names();
+        Enumeration<String> e = (m_mappedFile != null)
+            ? m_mappedFile.names() : m_zipFile.names();
 
         // Spec says to return null if there are no entries.
         return (e.hasMoreElements()) ? e : null;
@@ -131,13 +189,13 @@ public class JarContent implements Content
         // Get the embedded resource.
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             if (ze == null)
             {
                 return null;
             }
 
-            return BundleCache.read(m_zipFile.getInputStream(ze), ze.getSize());
+            return BundleCache.read(getInputStream(ze), ze.getSize());
 
         }
         catch (Exception ex)
@@ -157,12 +215,12 @@ public class JarContent implements Content
 
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             if (ze == null)
             {
                 return null;
             }
-            is = m_zipFile.getInputStream(ze);
+            is = getInputStream(ze);
             if (is == null)
             {
                 return null;
@@ -201,8 +259,7 @@ public class JarContent implements Content
         // just return it immediately.
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
-            return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+            return new JarContent(this);
         }
 
         // Remove any leading slash.
@@ -226,7 +283,7 @@ public class JarContent implements Content
         // Determine if the entry is an emdedded JAR file or
         // directory in the bundle JAR file. Ignore any entries
         // that do not exist per the spec.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
+        ZipEntry ze = getEntry(entryName);
 
         if ((ze != null) && ze.isDirectory())
         {
@@ -257,7 +314,7 @@ public class JarContent implements Content
                             }
 
                             // Extract embedded JAR into its directory.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), extractJar);
+                            BundleCache.copyStreamToFile(getInputStream(ze), extractJar);
                         }
                     }
                 }
@@ -301,7 +358,7 @@ public class JarContent implements Content
 
         // The entry name must refer to a file type, since it is
         // a native library, not a directory.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
+        ZipEntry ze = getEntry(entryName);
         if ((ze != null) && !ze.isDirectory())
         {
             // Extracting the embedded native library file impacts all other
@@ -338,7 +395,7 @@ public class JarContent implements Content
                         try
                         {
                             // Create the file.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), libFile);
+                            BundleCache.copyStreamToFile(getInputStream(ze), libFile);
 
                             // Perform exec permission command on extracted library
                             // if one is configured.
@@ -398,6 +455,18 @@ public class JarContent implements Content
         return m_file;
     }
 
+    private ZipEntry getEntry(String name)
+    {
+        return (m_mappedFile != null)
+            ? m_mappedFile.getEntry(name) : m_zipFile.getEntry(name);
+    }
+
+    private InputStream getInputStream(ZipEntry ze) throws IOException
+    {
+        return (m_mappedFile != null)
+            ? m_mappedFile.getInputStream(ze) : m_zipFile.getInputStream(ze);
+    }
+
     private static class DevNullRunnable implements Runnable
     {
         private final InputStream m_in;
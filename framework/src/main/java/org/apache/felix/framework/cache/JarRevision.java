@@ -24,13 +24,19 @@ import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
 import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.zip.ZipEntry;
 
 /**
@@ -43,14 +49,27 @@ import java.util.zip.ZipEntry;
  * either case, some of the contents may be extracted into the revision
  * directory, such as embedded JAR files and native libraries.
  * </p>
+ * <p>
+ * The main attributes of the manifest of a copied JAR file are stored in a
+ * binary snapshot in the revision's directory, which is used instead of the
+ * JAR file as long as the JAR file does not change. If a snapshot exists
+ * when the revision is reloaded, the JAR file is only opened once its
+ * content is actually accessed. JAR files used by reference have no
+ * snapshot, since they may be modified in place without changing their
+ * length or modification time.
+ * </p>
 **/
 class JarRevision extends BundleArchiveRevision
 {
     private static final transient String BUNDLE_JAR_FILE = "bundle.jar";
+    private static final transient String MANIFEST_SNAPSHOT_FILE = "manifest.snapshot";
+    private static final transient int MANIFEST_SNAPSHOT_VERSION = 1;
 
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
+    private final boolean m_byReference;
     private final WeakZipFile m_zipFile;
+    private final Map<String, Object> m_manifestSnapshot;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -60,6 +79,7 @@ class JarRevision extends BundleArchiveRevision
         super(logger, configMap, revisionRootDir, location);
 
         m_zipFactory = zipFactory;
+        m_byReference = byReference;
 
         if (byReference)
         {
@@ -75,12 +95,16 @@ class JarRevision extends BundleArchiveRevision
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
+        m_manifestSnapshot = byReference ? null : readManifestSnapshot();
+
         // Open shared copy of the JAR file.
         WeakZipFile zipFile = null;
         try
         {
-            // Open bundle JAR file.
-            zipFile = m_zipFactory.create(m_bundleFile);
+            // Open bundle JAR file, unless the manifest can be served from
+            // the snapshot, in which case it is opened on demand.
+            zipFile = m_zipFactory.create(
+                m_bundleFile, m_manifestSnapshot == null);
             // Error if no jar file.
             if (zipFile == null)
             {
@@ -97,18 +121,34 @@ class JarRevision extends BundleArchiveRevision
 
     public Map<String, Object> getManifestHeader() throws Exception
     {
+        // Callers may modify the returned headers, so hand out a copy.
+        if (m_manifestSnapshot != null)
+        {
+            return new StringMap(m_manifestSnapshot);
+        }
+
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
         Map<String, Object> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
 
+        if ((manifest != null) && !m_byReference)
+        {
+            writeManifestSnapshot(manifest);
+        }
+
         return manifest;
     }
 
     public Content getContent() throws Exception
     {
+        // Mapped content maps the bundle JAR file itself rather than sharing
+        // the revision's zip file, which then is only needed for the manifest.
+        // Referenced JAR files are not mapped since they are not owned by the
+        // cache and may be modified in place, which is fatal for a mapping.
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
-            this, getRevisionRootDir(), m_bundleFile, m_zipFile);
+            this, getRevisionRootDir(), m_bundleFile,
+            (JarContent.isMapped(getConfig()) && !m_byReference) ? null : m_zipFile);
     }
 
     protected void close() throws Exception
@@ -120,6 +160,120 @@ class JarRevision extends BundleArchiveRevision
     // Private methods.
     //
 
+    private Map<String, Object> readManifestSnapshot()
+    {
+        File snapshotFile = new File(getRevisionRootDir(), MANIFEST_SNAPSHOT_FILE);
+        if (!BundleCache.getSecureAction().fileExists(snapshotFile))
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                BundleCache.getSecureAction().getFileInputStream(snapshotFile)));
+            if ((in.readInt() != MANIFEST_SNAPSHOT_VERSION)
+                || (in.readLong() != m_bundleFile.length())
+                || (in.readLong() != m_bundleFile.lastModified()))
+            {
+                return null;
+            }
+            Map<String, Object> manifest = new StringMap();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                String key = readString(in);
+                manifest.put(key.intern(), readString(in));
+            }
+            return manifest;
+        }
+        catch (Exception ex)
+        {
+            // Treat a truncated or otherwise unreadable snapshot as missing.
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    private void writeManifestSnapshot(Map<String, Object> manifest)
+    {
+        for (Object value : manifest.values())
+        {
+            if (!(value instanceof String))
+            {
+                return;
+            }
+        }
+
+        File snapshotFile = new File(getRevisionRootDir(), MANIFEST_SNAPSHOT_FILE);
+        OutputStream os = null;
+        try
+        {
+            os = BundleCache.getSecureAction().getFileOutputStream(snapshotFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MANIFEST_SNAPSHOT_VERSION);
+            out.writeLong(m_bundleFile.length());
+            out.writeLong(m_bundleFile.lastModified());
+            out.writeInt(manifest.size());
+            for (Entry<String, Object> entry : manifest.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, (String) entry.getValue());
+            }
+            out.flush();
+        }
+        catch (Exception ex)
+        {
+            getLogger().log(
+                Logger.LOG_WARNING,
+                getClass().getName() + ": Unable to write manifest snapshot - " + ex);
+            BundleCache.getSecureAction().deleteFile(snapshotFile);
+        }
+        finally
+        {
+            if (os != null)
+            {
+                try
+                {
+                    os.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    // DataOutput.writeUTF() is limited to 64k, which large export
+    // headers can exceed, so strings are written length prefixed.
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
     private void initialize(boolean byReference, InputStream is)
         throws Exception
     {
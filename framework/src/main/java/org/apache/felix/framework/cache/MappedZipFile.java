@@ -0,0 +1,672 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.felix.framework.util.SecureAction;
+
+/**
+ * A read-only view of a ZIP file that is backed by a memory mapping of the
+ * whole file instead of a <tt>ZipFile</tt> handle. The central directory is
+ * parsed once when the file is mapped and a name index, holding the central
+ * directory offsets of all entries sorted by their UTF-8 encoded name, is kept
+ * in a direct buffer. Entry lookups are binary searches against the mapped
+ * names, so neither <tt>ZipEntry</tt> instances nor name strings are retained
+ * on the heap, and the file descriptor is released as soon as the mapping has
+ * been established.
+ * <p>
+ * Only the plain ZIP format as produced by the JDK and bnd is supported, i.e.,
+ * ZIP64 archives, archives with leading data, encrypted entries, and
+ * compression methods other than STORED and DEFLATED are rejected with an
+ * <tt>IOException</tt> when the file is opened so that callers can fall back
+ * to a regular <tt>ZipFile</tt>.
+ * <p>
+ * Closing the file unmaps it eagerly, or once the last open entry stream has
+ * been closed, in the same way the JDK releases its own direct buffers. If
+ * that is not possible on the running JVM, the mapping is released when the
+ * buffer is garbage collected.
+**/
+class MappedZipFile
+{
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    // Either the unsafe instance with its invokeCleaner() method (Java 9+)
+    // or the cleaner() method of direct buffers with the clean() method of
+    // the cleaner (Java 8), all null if buffers cannot be unmapped eagerly.
+    private static final Object s_unsafe;
+    private static final Method s_invokeCleaner;
+    private static final Method s_cleaner;
+    private static final Method s_clean;
+
+    static
+    {
+        SecureAction sa = BundleCache.getSecureAction();
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try
+        {
+            Class unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = sa.getMethod(
+                unsafeClass, "invokeCleaner", new Class[] { ByteBuffer.class });
+            unsafe = sa.getDeclaredField(unsafeClass, "theUnsafe", null);
+        }
+        catch (Throwable ex)
+        {
+            unsafe = null;
+            invokeCleaner = null;
+            try
+            {
+                cleaner = sa.getMethod(
+                    Class.forName("sun.nio.ch.DirectBuffer"), "cleaner", null);
+                clean = sa.getMethod(
+                    Class.forName("sun.misc.Cleaner"), "clean", null);
+            }
+            catch (Throwable ex2)
+            {
+                cleaner = null;
+                clean = null;
+            }
+        }
+        s_unsafe = unsafe;
+        s_invokeCleaner = invokeCleaner;
+        s_cleaner = cleaner;
+        s_clean = clean;
+    }
+
+    private final File m_file;
+    // The mapping, the closed flag and the number of users of the mapping
+    // are guarded by this; the mapping is unmapped once it is closed and
+    // no longer in use.
+    private ByteBuffer m_buffer;
+    private boolean m_closed = false;
+    private int m_users = 0;
+    private final int m_cenStart;
+    private final int m_cenEnd;
+    private final IntBuffer m_index;
+
+    MappedZipFile(File file) throws IOException
+    {
+        m_file = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("ZIP file too large to be mapped: " + file);
+            }
+            m_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+
+        ByteBuffer buf = m_buffer;
+        try
+        {
+            int end = findEndOfCentralDirectory(buf);
+            int total = buf.getShort(end + 10) & 0xFFFF;
+            long cenSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+            long cenOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+            if ((total == 0xFFFF) || (cenSize == 0xFFFFFFFFL) || (cenOffset == 0xFFFFFFFFL))
+            {
+                throw new IOException("ZIP64 archives are not supported: " + file);
+            }
+            if ((buf.getShort(end + 8) & 0xFFFF) != total)
+            {
+                throw new IOException("Multi-disk archives are not supported: " + file);
+            }
+            if (cenOffset + cenSize != end)
+            {
+                throw new IOException("Archives with leading data are not supported: " + file);
+            }
+            m_cenStart = (int) cenOffset;
+            m_cenEnd = end;
+
+            Integer[] offsets = new Integer[total];
+            int pos = m_cenStart;
+            for (int i = 0; i < total; i++)
+            {
+                if ((pos + CENHDR > m_cenEnd) || (buf.getInt(pos) != CENSIG))
+                {
+                    throw new IOException("Invalid central directory: " + file);
+                }
+                if ((buf.getShort(pos + 8) & 1) != 0)
+                {
+                    throw new IOException("Encrypted entries are not supported: " + file);
+                }
+                int method = buf.getShort(pos + 10) & 0xFFFF;
+                if ((method != ZipEntry.STORED) && (method != ZipEntry.DEFLATED))
+                {
+                    throw new IOException(
+                        "Unsupported compression method " + method + ": " + file);
+                }
+                if ((buf.getInt(pos + 20) == 0xFFFFFFFF)
+                    || (buf.getInt(pos + 24) == 0xFFFFFFFF)
+                    || (buf.getInt(pos + 42) == 0xFFFFFFFF))
+                {
+                    throw new IOException("ZIP64 entries are not supported: " + file);
+                }
+                offsets[i] = Integer.valueOf(pos);
+                pos = next(buf, pos);
+            }
+            if (pos != m_cenEnd)
+            {
+                throw new IOException("Invalid central directory: " + file);
+            }
+
+            final ByteBuffer sortBuf = buf;
+            Arrays.sort(offsets, new Comparator<Integer>()
+            {
+                public int compare(Integer o1, Integer o2)
+                {
+                    return compareNames(sortBuf, o1.intValue(), o2.intValue());
+                }
+            });
+            m_index = ByteBuffer.allocateDirect(total * 4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+            for (int i = 0; i < total; i++)
+            {
+                m_index.put(i, offsets[i].intValue());
+            }
+        }
+        catch (IOException ex)
+        {
+            unmap(buf);
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the entry for the specified name, following the lookup rules of
+     * <tt>WeakZipFile.getEntry()</tt>, i.e., a name without a trailing slash
+     * also matches a directory entry.
+     * @param name the entry name.
+     * @return the entry or <tt>null</tt> if there is no such entry.
+     * @throws IllegalStateException if the file has been closed.
+    **/
+    ZipEntry getEntry(String name)
+    {
+        ByteBuffer buf = acquire();
+        try
+        {
+            byte[] key = encode(name);
+            int cen = find(buf, key, false);
+            if (cen < 0)
+            {
+                cen = find(buf, key, true);
+            }
+            else if ((buf.getInt(cen + 24) == 0) && !name.endsWith("/"))
+            {
+                int dir = find(buf, key, true);
+                cen = (dir < 0) ? cen : dir;
+            }
+            return (cen < 0) ? null : new MappedZipEntry(buf, cen);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Returns an input stream for the specified entry, which must have been
+     * obtained from this file. The file is not unmapped before the stream
+     * has been closed.
+     * @param ze the entry.
+     * @return an input stream for the uncompressed entry data.
+     * @throws IOException if the local header of the entry is invalid.
+     * @throws IllegalStateException if the file has been closed.
+    **/
+    InputStream getInputStream(ZipEntry ze) throws IOException
+    {
+        ByteBuffer buf = acquire();
+        boolean success = false;
+        try
+        {
+            int cen = ((MappedZipEntry) ze).m_cen;
+            int loc = buf.getInt(cen + 42);
+            if ((loc + LOCHDR > m_cenStart) || (buf.getInt(loc) != LOCSIG))
+            {
+                throw new IOException("Invalid local header for " + ze.getName() + ": " + m_file);
+            }
+            int start = loc + LOCHDR + (buf.getShort(loc + 26) & 0xFFFF)
+                + (buf.getShort(loc + 28) & 0xFFFF);
+            int length = buf.getInt(cen + 20);
+            if ((length < 0) || (start + length > m_cenStart))
+            {
+                throw new IOException("Invalid entry size for " + ze.getName() + ": " + m_file);
+            }
+
+            ByteBuffer data = buf.duplicate();
+            data.limit(start + length).position(start);
+            InputStream is = new ByteBufferInputStream(data.slice());
+            if (ze.getMethod() == ZipEntry.DEFLATED)
+            {
+                is = new MappedInflaterInputStream(is, Math.min(Math.max(length, 64), 8192));
+            }
+            success = true;
+            return is;
+        }
+        finally
+        {
+            // On success the stream releases the mapping when it is closed.
+            if (!success)
+            {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Returns the names of all entries in central directory order.
+     * @return an enumeration of entry names.
+     * @throws IllegalStateException if the file has been closed.
+    **/
+    Enumeration<String> names()
+    {
+        acquire();
+        release();
+        return new Enumeration<String>()
+        {
+            private int m_pos = m_cenStart;
+
+            public boolean hasMoreElements()
+            {
+                return m_pos < m_cenEnd;
+            }
+
+            public String nextElement()
+            {
+                if (m_pos >= m_cenEnd)
+                {
+                    throw new NoSuchElementException();
+                }
+                ByteBuffer buf = acquire();
+                try
+                {
+                    String name = decodeName(buf, m_pos);
+                    m_pos = next(buf, m_pos);
+                    return name;
+                }
+                finally
+                {
+                    release();
+                }
+            }
+        };
+    }
+
+    int size()
+    {
+        return m_index.capacity();
+    }
+
+    /**
+     * Closes the file. The mapping is released right away if no entry stream
+     * is open and otherwise when the last open entry stream is closed.
+    **/
+    void close()
+    {
+        ByteBuffer buf = null;
+        synchronized (this)
+        {
+            if (!m_closed)
+            {
+                m_closed = true;
+                if (m_users == 0)
+                {
+                    buf = m_buffer;
+                    m_buffer = null;
+                }
+            }
+        }
+        unmap(buf);
+    }
+
+    public String toString()
+    {
+        return m_file.getPath();
+    }
+
+    /**
+     * Returns the mapping and registers a user of it, which must be followed
+     * by a call to <tt>release()</tt>.
+     * @throws IllegalStateException if the file has been closed.
+    **/
+    private synchronized ByteBuffer acquire()
+    {
+        if (m_closed)
+        {
+            throw new IllegalStateException("Mapped zip file is closed: " + m_file);
+        }
+        m_users++;
+        return m_buffer;
+    }
+
+    private void release()
+    {
+        ByteBuffer buf = null;
+        synchronized (this)
+        {
+            if ((--m_users == 0) && m_closed)
+            {
+                buf = m_buffer;
+                m_buffer = null;
+            }
+        }
+        unmap(buf);
+    }
+
+    /**
+     * Unmaps the buffer through <tt>sun.misc.Unsafe.invokeCleaner()</tt> or
+     * the cleaner of the buffer, like the JDK does for its direct buffers.
+     * If neither is available the buffer is left to the garbage collector.
+    **/
+    private static void unmap(ByteBuffer buf)
+    {
+        if (buf == null)
+        {
+            return;
+        }
+        try
+        {
+            if (s_invokeCleaner != null)
+            {
+                BundleCache.getSecureAction().invokeDirect(
+                    s_invokeCleaner, s_unsafe, new Object[] { buf });
+            }
+            else if (s_cleaner != null)
+            {
+                Object cleaner = BundleCache.getSecureAction().invoke(
+                    s_cleaner, buf, null);
+                if (cleaner != null)
+                {
+                    BundleCache.getSecureAction().invoke(s_clean, cleaner, null);
+                }
+            }
+        }
+        catch (Throwable ex)
+        {
+            // Ignore, the mapping is released once the buffer is collected.
+        }
+    }
+
+    private int find(ByteBuffer buf, byte[] key, boolean dir)
+    {
+        int low = 0;
+        int high = m_index.capacity() - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cen = m_index.get(mid);
+            int cmp = compareName(buf, cen, key, dir);
+            if (cmp < 0)
+            {
+                low = mid + 1;
+            }
+            else if (cmp > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return cen;
+            }
+        }
+        return -1;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buf) throws IOException
+    {
+        int limit = Math.max(0, buf.limit() - ENDHDR - MAX_COMMENT);
+        for (int pos = buf.limit() - ENDHDR; pos >= limit; pos--)
+        {
+            if ((buf.getInt(pos) == ENDSIG)
+                && (pos + ENDHDR + (buf.getShort(pos + 20) & 0xFFFF) == buf.limit()))
+            {
+                return pos;
+            }
+        }
+        throw new IOException("Not a ZIP file.");
+    }
+
+    private static int next(ByteBuffer buf, int cen)
+    {
+        return cen + CENHDR + (buf.getShort(cen + 28) & 0xFFFF)
+            + (buf.getShort(cen + 30) & 0xFFFF) + (buf.getShort(cen + 32) & 0xFFFF);
+    }
+
+    private static int compareNames(ByteBuffer buf, int cen1, int cen2)
+    {
+        int len1 = buf.getShort(cen1 + 28) & 0xFFFF;
+        int len2 = buf.getShort(cen2 + 28) & 0xFFFF;
+        int n = Math.min(len1, len2);
+        for (int i = 0; i < n; i++)
+        {
+            int b1 = buf.get(cen1 + CENHDR + i) & 0xFF;
+            int b2 = buf.get(cen2 + CENHDR + i) & 0xFF;
+            if (b1 != b2)
+            {
+                return b1 - b2;
+            }
+        }
+        return len1 - len2;
+    }
+
+    /**
+     * Compares the name of the central directory entry at the given offset
+     * with the key, optionally treating the key as if it had a trailing slash.
+    **/
+    private static int compareName(ByteBuffer buf, int cen, byte[] key, boolean dir)
+    {
+        int len = buf.getShort(cen + 28) & 0xFFFF;
+        int keyLen = dir ? key.length + 1 : key.length;
+        int n = Math.min(len, keyLen);
+        for (int i = 0; i < n; i++)
+        {
+            int b1 = buf.get(cen + CENHDR + i) & 0xFF;
+            int b2 = (i < key.length) ? (key[i] & 0xFF) : '/';
+            if (b1 != b2)
+            {
+                return b1 - b2;
+            }
+        }
+        return len - keyLen;
+    }
+
+    private static byte[] encode(String name)
+    {
+        try
+        {
+            return name.getBytes("UTF-8");
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private static String decodeName(ByteBuffer buf, int cen)
+    {
+        byte[] bytes = new byte[buf.getShort(cen + 28) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buf.get(cen + CENHDR + i);
+        }
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private static class MappedZipEntry extends ZipEntry
+    {
+        private final int m_cen;
+
+        MappedZipEntry(ByteBuffer buf, int cen)
+        {
+            super(decodeName(buf, cen));
+            m_cen = cen;
+            setMethod(buf.getShort(cen + 10) & 0xFFFF);
+            setCrc(buf.getInt(cen + 16) & 0xFFFFFFFFL);
+            setCompressedSize(buf.getInt(cen + 20) & 0xFFFFFFFFL);
+            setSize(buf.getInt(cen + 24) & 0xFFFFFFFFL);
+        }
+    }
+
+    private class ByteBufferInputStream extends InputStream
+    {
+        private ByteBuffer m_buf;
+
+        ByteBufferInputStream(ByteBuffer buf)
+        {
+            m_buf = buf;
+        }
+
+        public synchronized int read() throws IOException
+        {
+            ByteBuffer buf = getBuffer();
+            return buf.hasRemaining() ? (buf.get() & 0xFF) : -1;
+        }
+
+        public synchronized int read(byte[] b, int off, int len) throws IOException
+        {
+            ByteBuffer buf = getBuffer();
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!buf.hasRemaining())
+            {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        public synchronized long skip(long n) throws IOException
+        {
+            ByteBuffer buf = getBuffer();
+            int skip = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skip);
+            return skip;
+        }
+
+        public synchronized int available() throws IOException
+        {
+            return getBuffer().remaining();
+        }
+
+        public void close()
+        {
+            synchronized (this)
+            {
+                if (m_buf == null)
+                {
+                    return;
+                }
+                m_buf = null;
+            }
+            release();
+        }
+
+        private ByteBuffer getBuffer() throws IOException
+        {
+            if (m_buf == null)
+            {
+                throw new IOException("Stream closed");
+            }
+            return m_buf;
+        }
+    }
+
+    private static class MappedInflaterInputStream extends InflaterInputStream
+    {
+        private boolean m_eof = false;
+        private boolean m_closed = false;
+
+        MappedInflaterInputStream(InputStream in, int size)
+        {
+            super(in, new Inflater(true), size);
+        }
+
+        protected void fill() throws IOException
+        {
+            if (m_eof)
+            {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1)
+            {
+                // A nowrap inflater may need an extra dummy byte to finish.
+                buf[0] = 0;
+                len = 1;
+                m_eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        public void close() throws IOException
+        {
+            if (!m_closed)
+            {
+                m_closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.felix.framework.util.SecureAction;
@@ -45,16 +46,16 @@ import org.osgi.resource.Capability;
 
 public class CapabilitySet
 {
-    private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
+    private final SortedMap<String, AttributeIndex> m_indices; // Should also be concurrent!
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
     private final static SecureAction m_secureAction = new SecureAction();
 
     public void dump()
     {
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, AttributeIndex> entry : m_indices.entrySet())
         {
             boolean header1 = false;
-            for (Entry<Object, Set<BundleCapability>> entry2 : entry.getValue().entrySet())
+            for (Entry<Object, Set<BundleCapability>> entry2 : entry.getValue().entries())
             {
                 boolean header2 = false;
                 for (BundleCapability cap : entry2.getValue())
@@ -81,13 +82,12 @@ public class CapabilitySet
     public CapabilitySet(final List<String> indexProps, final boolean caseSensitive)
     {
         m_indices = (caseSensitive)
-            ? new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>()
-            : new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>(
+            ? new ConcurrentSkipListMap<String, AttributeIndex>()
+            : new ConcurrentSkipListMap<String, AttributeIndex>(
                 StringComparator.COMPARATOR);
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
-            m_indices.put(
-                indexProps.get(i), new ConcurrentHashMap<Object, Set<BundleCapability>>());
+            m_indices.put(indexProps.get(i), new AttributeIndex());
         }
     }
 
@@ -96,88 +96,76 @@ public class CapabilitySet
         m_capSet.add(cap);
 
         // Index capability.
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, AttributeIndex> entry : m_indices.entrySet())
         {
             Object value = cap.getAttributes().get(entry.getKey());
             if (value != null)
             {
-                if (value.getClass().isArray())
-                {
-                    value = convertArrayToList(value);
-                }
-
-                ConcurrentMap<Object, Set<BundleCapability>> index =
-                        (ConcurrentMap<Object, Set<BundleCapability>>) entry.getValue();
-
-                if (value instanceof Collection)
-                {
-                    Collection c = (Collection) value;
-                    for (Object o : c)
-                    {
-                        indexCapability(index, cap, o);
-                    }
-                }
-                else
-                {
-                    indexCapability(index, cap, value);
-                }
+                entry.getValue().index(cap, value);
             }
         }
     }
 
-    private void indexCapability(
-        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
+    /**
+     * Re-indexes a capability whose attributes have changed. The capability
+     * remains visible to concurrent lookups while it is re-indexed. Updates
+     * of the same capability must not run concurrently, otherwise the
+     * indices may keep stale values.
+     * @param cap the capability with its new attributes.
+     * @param oldAttrs the attributes the capability was indexed with.
+    **/
+    public void updateCapability(final BundleCapability cap, final Map<String, Object> oldAttrs)
     {
-        Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
-        Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
-        if (prevval != null)
-            caps = prevval;
-        caps.add(cap);
-    }
+        if (!m_capSet.contains(cap))
+        {
+            return;
+        }
 
-    public void removeCapability(final BundleCapability cap)
-    {
-        if (m_capSet.remove(cap))
+        for (Entry<String, AttributeIndex> entry : m_indices.entrySet())
         {
-            for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+            Object oldValue = oldAttrs.get(entry.getKey());
+            Object newValue = cap.getAttributes().get(entry.getKey());
+            if ((oldValue == newValue) || ((oldValue != null) && oldValue.equals(newValue)))
+            {
+                continue;
+            }
+            // Index the new values before dropping the old ones.
+            if (newValue != null)
+            {
+                entry.getValue().index(cap, newValue);
+            }
+            if (oldValue != null)
+            {
+                entry.getValue().deindex(cap, oldValue, newValue);
+            }
+        }
+
+        // If the capability was removed concurrently, make sure we did
+        // not leave it behind in the indices.
+        if (!m_capSet.contains(cap))
+        {
+            for (Entry<String, AttributeIndex> entry : m_indices.entrySet())
             {
                 Object value = cap.getAttributes().get(entry.getKey());
                 if (value != null)
                 {
-                    if (value.getClass().isArray())
-                    {
-                        value = convertArrayToList(value);
-                    }
-
-                    Map<Object, Set<BundleCapability>> index = entry.getValue();
-
-                    if (value instanceof Collection)
-                    {
-                        Collection c = (Collection) value;
-                        for (Object o : c)
-                        {
-                            deindexCapability(index, cap, o);
-                        }
-                    }
-                    else
-                    {
-                        deindexCapability(index, cap, value);
-                    }
+                    entry.getValue().deindex(cap, value, null);
                 }
             }
         }
     }
 
-    private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+    public void removeCapability(final BundleCapability cap)
     {
-        Set<BundleCapability> caps = index.get(value);
-        if (caps != null)
+        if (m_capSet.remove(cap))
         {
-            caps.remove(cap);
-            if (caps.isEmpty())
+            for (Entry<String, AttributeIndex> entry : m_indices.entrySet())
             {
-                index.remove(value);
+                Object value = cap.getAttributes().get(entry.getKey());
+                if (value != null)
+                {
+                    entry.getValue().deindex(cap, value, null);
+                }
             }
         }
     }
@@ -200,15 +188,51 @@ public class CapabilitySet
         }
         else if (sf.getOperation() == SimpleFilter.AND)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
             final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+
+            // Pick the subfilter which is expected to select the fewest
+            // capabilities using the indices and only evaluate the other
+            // subfilters against its result.
+            int best = -1;
+            int bestEstimate = caps.size();
+            for (int i = 0; (bestEstimate > 0) && (i < sfs.size()); i++)
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                int estimate = estimate(sfs.get(i));
+                if (estimate < bestEstimate)
+                {
+                    best = i;
+                    bestEstimate = estimate;
+                }
+            }
+
+            if (best >= 0)
+            {
+                matches = match(caps, sfs.get(best));
+                for (int i = 0; (matches.size() > 0) && (i < sfs.size()); i++)
+                {
+                    if (i != best)
+                    {
+                        for (Iterator<Capability> it = matches.iterator(); it.hasNext(); )
+                        {
+                            if (!matchesInternal(it.next(), sfs.get(i)))
+                            {
+                                it.remove();
+                            }
+                        }
+                    }
+                }
+            }
+            else
+            {
+                // Evaluate each subfilter against the remaining capabilities.
+                // For AND we calculate the intersection of each subfilter.
+                // We can short-circuit the AND operation if there are no
+                // remaining capabilities.
+                for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+                {
+                    matches = match(caps, sfs.get(i));
+                    caps = matches;
+                }
             }
         }
         else if (sf.getOperation() == SimpleFilter.OR)
@@ -234,17 +258,13 @@ public class CapabilitySet
         }
         else
         {
-            Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
-            if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
+            AttributeIndex index = m_indices.get(sf.getName());
+            if (index != null)
             {
-                Set<BundleCapability> existingCaps = index.get(sf.getValue());
-                if (existingCaps != null)
+                index.match(sf, matches);
+                if (caps != m_capSet)
                 {
-                    matches.addAll(existingCaps);
-                    if (caps != m_capSet)
-                    {
-                        matches.retainAll(caps);
-                    }
+                    matches.retainAll(caps);
                 }
             }
             else
@@ -267,6 +287,43 @@ public class CapabilitySet
         return matches;
     }
 
+    /**
+     * Estimates the number of capabilities the given filter selects using
+     * the indices. Filters which cannot be answered from the indices are
+     * estimated to select all capabilities.
+    **/
+    private int estimate(SimpleFilter sf)
+    {
+        int total = m_capSet.size();
+        if (sf.getOperation() == SimpleFilter.OR)
+        {
+            long sum = 0;
+            for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+            {
+                sum += estimate(child);
+            }
+            return (int) Math.min(sum, total);
+        }
+        else if (sf.getOperation() == SimpleFilter.AND)
+        {
+            int min = total;
+            for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+            {
+                min = Math.min(min, estimate(child));
+            }
+            return min;
+        }
+        else if (sf.getName() != null)
+        {
+            AttributeIndex index = m_indices.get(sf.getName());
+            if (index != null)
+            {
+                return Math.min(index.estimate(sf, total), total);
+            }
+        }
+        return total;
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf) && matchMandatory(cap, sf);
@@ -660,4 +717,258 @@ public class CapabilitySet
         }
         return list;
     }
+
+    /**
+     * The index of a single attribute. String values, which are by far the
+     * most common, are kept in a hash map for equality lookups. Other
+     * comparable values are kept in a sorted map per value class, so that
+     * equality, range and version range filters are answered by navigating
+     * the map using the same ordering the filter comparison uses. All other
+     * values are kept in a hash map whose distinct values are compared one
+     * by one. Filter operations which cannot be answered this way are still
+     * evaluated against the distinct values instead of all capabilities.
+    **/
+    private static class AttributeIndex
+    {
+        private final ConcurrentMap<Object, Set<BundleCapability>> m_strings =
+            new ConcurrentHashMap<Object, Set<BundleCapability>>();
+        private final ConcurrentMap<Class<?>, ConcurrentNavigableMap<Object, Set<BundleCapability>>> m_sorted =
+            new ConcurrentHashMap<Class<?>, ConcurrentNavigableMap<Object, Set<BundleCapability>>>();
+        private final ConcurrentMap<Object, Set<BundleCapability>> m_others =
+            new ConcurrentHashMap<Object, Set<BundleCapability>>();
+
+        void index(BundleCapability cap, Object value)
+        {
+            for (Object o : toCollection(value))
+            {
+                indexCapability(getMap(o, true), cap, o);
+            }
+        }
+
+        void deindex(BundleCapability cap, Object value, Object keptValue)
+        {
+            Collection kept = toCollection(keptValue);
+            for (Object o : toCollection(value))
+            {
+                // Do not drop values which are still indexed for the capability.
+                if (!kept.contains(o))
+                {
+                    deindexCapability(getMap(o, false), cap, o);
+                }
+            }
+        }
+
+        private static Collection toCollection(Object value)
+        {
+            if (value == null)
+            {
+                return Collections.EMPTY_LIST;
+            }
+            else if (value.getClass().isArray())
+            {
+                return convertArrayToList(value);
+            }
+            else if (value instanceof Collection)
+            {
+                return (Collection) value;
+            }
+            return Collections.singletonList(value);
+        }
+
+        private Map<Object, Set<BundleCapability>> getMap(Object value, boolean create)
+        {
+            if (value instanceof String)
+            {
+                return m_strings;
+            }
+            else if (value instanceof Comparable)
+            {
+                ConcurrentNavigableMap<Object, Set<BundleCapability>> sorted =
+                    m_sorted.get(value.getClass());
+                if ((sorted == null) && create)
+                {
+                    sorted = new ConcurrentSkipListMap<Object, Set<BundleCapability>>();
+                    ConcurrentNavigableMap<Object, Set<BundleCapability>> prev =
+                        m_sorted.putIfAbsent(value.getClass(), sorted);
+                    if (prev != null)
+                    {
+                        sorted = prev;
+                    }
+                }
+                return sorted;
+            }
+            return m_others;
+        }
+
+        private static void indexCapability(
+            Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
+        {
+            ConcurrentMap<Object, Set<BundleCapability>> map =
+                (ConcurrentMap<Object, Set<BundleCapability>>) index;
+            Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+            Set<BundleCapability> prevval = map.putIfAbsent(capValue, caps);
+            if (prevval != null)
+                caps = prevval;
+            caps.add(cap);
+        }
+
+        private static void deindexCapability(
+            Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+        {
+            if (index == null)
+            {
+                return;
+            }
+            Set<BundleCapability> caps = index.get(value);
+            if (caps != null)
+            {
+                caps.remove(cap);
+                if (caps.isEmpty())
+                {
+                    index.remove(value);
+                }
+            }
+        }
+
+        Collection<Entry<Object, Set<BundleCapability>>> entries()
+        {
+            List<Entry<Object, Set<BundleCapability>>> entries =
+                new ArrayList<Entry<Object, Set<BundleCapability>>>(m_strings.entrySet());
+            for (ConcurrentNavigableMap<Object, Set<BundleCapability>> sorted : m_sorted.values())
+            {
+                entries.addAll(sorted.entrySet());
+            }
+            entries.addAll(m_others.entrySet());
+            return entries;
+        }
+
+        int estimate(SimpleFilter sf, int total)
+        {
+            if ((sf.getOperation() == SimpleFilter.EQ)
+                && (sf.getValue() instanceof String)
+                && m_sorted.isEmpty() && m_others.isEmpty())
+            {
+                Set<BundleCapability> caps = m_strings.get(sf.getValue());
+                return (caps == null) ? 0 : caps.size();
+            }
+            else if ((sf.getOperation() == SimpleFilter.EQ)
+                || (sf.getOperation() == SimpleFilter.GTE)
+                || (sf.getOperation() == SimpleFilter.LTE))
+            {
+                // Without counting we have to guess; use the usual
+                // selectivity assumed for range predicates.
+                return total / 3;
+            }
+            return total;
+        }
+
+        void match(SimpleFilter sf, Set<Capability> matches)
+        {
+            int op = sf.getOperation();
+            Object rhs = sf.getValue();
+
+            if ((op == SimpleFilter.EQ) && (rhs instanceof String))
+            {
+                Set<BundleCapability> caps = m_strings.get(rhs);
+                if (caps != null)
+                {
+                    matches.addAll(caps);
+                }
+            }
+            else
+            {
+                matchDistinct(m_strings, sf, matches);
+            }
+
+            for (ConcurrentNavigableMap<Object, Set<BundleCapability>> sorted : m_sorted.values())
+            {
+                if (((op == SimpleFilter.EQ) || (op == SimpleFilter.GTE) || (op == SimpleFilter.LTE))
+                    && (rhs instanceof String))
+                {
+                    matchSorted(sorted, op, (String) rhs, matches);
+                }
+                else
+                {
+                    matchDistinct(sorted, sf, matches);
+                }
+            }
+
+            matchDistinct(m_others, sf, matches);
+        }
+
+        private static void matchSorted(
+            ConcurrentNavigableMap<Object, Set<BundleCapability>> sorted,
+            int op, String rhsString, Set<Capability> matches)
+        {
+            Object rhs;
+            try
+            {
+                rhs = coerceType(sorted.firstKey(), rhsString);
+            }
+            catch (Exception ex)
+            {
+                // Either the map is empty or no value of this type can
+                // match, just like in compare().
+                return;
+            }
+
+            Map<Object, Set<BundleCapability>> selected = null;
+            if ((op == SimpleFilter.EQ) && (rhs instanceof VersionRange))
+            {
+                // Versions are matched against a version range in compare().
+                VersionRange range = (VersionRange) rhs;
+                if (range.isEmpty())
+                {
+                    return;
+                }
+                selected = (range.getRight() == null)
+                    ? sorted.tailMap(range.getLeft(),
+                        range.getLeftType() == VersionRange.LEFT_CLOSED)
+                    : sorted.subMap(range.getLeft(),
+                        range.getLeftType() == VersionRange.LEFT_CLOSED,
+                        range.getRight(),
+                        range.getRightType() == VersionRange.RIGHT_CLOSED);
+            }
+            else if (!rhs.getClass().isInstance(sorted.firstKey())
+                && !sorted.firstKey().getClass().isInstance(rhs))
+            {
+                // The values cannot be compared with each other.
+                return;
+            }
+            else if (op == SimpleFilter.EQ)
+            {
+                Set<BundleCapability> caps = sorted.get(rhs);
+                if (caps != null)
+                {
+                    matches.addAll(caps);
+                }
+                return;
+            }
+            else if (op == SimpleFilter.GTE)
+            {
+                selected = sorted.tailMap(rhs, true);
+            }
+            else
+            {
+                selected = sorted.headMap(rhs, true);
+            }
+
+            for (Set<BundleCapability> caps : selected.values())
+            {
+                matches.addAll(caps);
+            }
+        }
+
+        private static void matchDistinct(
+            Map<Object, Set<BundleCapability>> index, SimpleFilter sf, Set<Capability> matches)
+        {
+            for (Entry<Object, Set<BundleCapability>> entry : index.entrySet())
+            {
+                if (compare(entry.getKey(), sf.getValue(), sf.getOperation()))
+                {
+                    matches.addAll(entry.getValue());
+                }
+            }
+        }
+    }
 }
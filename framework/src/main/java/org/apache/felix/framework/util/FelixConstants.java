@@ -54,7 +54,12 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String NATIVE_OS_NAME_ALIAS_PREFIX = "felix.native.osname.alias";
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
+    String NEGATIVE_LOOKUP_CACHE_SIZE_PROP = "felix.wiring.negativecache.size";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_CACHE_PROP = "felix.resolver.cache";
+    String RESOLVER_INCREMENTAL_PROP = "felix.resolver.incremental";
+    String EVENT_DISPATCH_MODE_PROP = "felix.event.dispatch.mode";
+    String EVENT_DISPATCH_THREADS_PROP = "felix.event.dispatch.threads";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
 
     // Missing OSGi constant for resolution directive.
@@ -73,4 +78,6 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String FELIX_EXTENSIONS_DISABLE = "felix.extensions.disable";
     String FRAMEWORK_UUID_SECURE = "felix.uuid.secure";
     String CALCULATE_SYSTEMPACKAGES_USES = "felix.systempackages.calculate.uses";
+    String EVENT_DISPATCH_MODE_SINGLE = "single";
+    String EVENT_DISPATCH_MODE_PARALLEL = "parallel";
 }
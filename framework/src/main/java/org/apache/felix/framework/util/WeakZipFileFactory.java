@@ -75,9 +75,39 @@ public class WeakZipFileFactory
      */
     public WeakZipFile create(File file) throws IOException
     {
-        WeakZipFile wzf = new WeakZipFile(file);
+        return create(file, true);
+    }
 
-        if (m_limit > 0)
+    /**
+     * Factory method used to create weak zip files. If the zip file is not
+     * opened immediately, it is created in the weakly closed state and opened
+     * on demand the first time anyone tries to use it.
+     * @param file the target zip file.
+     * @param open whether the zip file should be opened immediately.
+     * @return the created weak zip file.
+     * @throws IOException if the zip file could not be opened.
+     */
+    public WeakZipFile create(File file, boolean open) throws IOException
+    {
+        WeakZipFile wzf = new WeakZipFile(file, open);
+
+        if (!open)
+        {
+            if (m_limit > 0)
+            {
+                m_globalMutex.lock();
+
+                try
+                {
+                    m_zipFiles.add(wzf);
+                }
+                finally
+                {
+                    m_globalMutex.unlock();
+                }
+            }
+        }
+        else if (m_limit > 0)
         {
             m_globalMutex.lock();
 
@@ -161,12 +191,20 @@ public class WeakZipFileFactory
          * Constructor is private since instances need to be centrally
          * managed.
          * @param file the target zip file.
+         * @param open whether the zip file should be opened immediately.
          * @throws IOException if the zip file could not be opened.
          */
-        private WeakZipFile(File file) throws IOException
+        private WeakZipFile(File file, boolean open) throws IOException
         {
             m_file = file;
-            m_zipFile = m_secureAction.openZipFile(m_file);
+            if (open)
+            {
+                m_zipFile = m_secureAction.openZipFile(m_file);
+            }
+            else
+            {
+                m_status = WEAKLY_CLOSED;
+            }
             m_timestamp = System.currentTimeMillis();
         }
 
@@ -433,6 +471,12 @@ public class WeakZipFileFactory
         {
             if (m_limit == 0)
             {
+                // Without a limit, zip files are only weakly closed if
+                // they were created without being opened.
+                if (m_status == WEAKLY_CLOSED)
+                {
+                    openDeferred();
+                }
                 return;
             }
 
@@ -498,6 +542,39 @@ public class WeakZipFileFactory
             }
         }
 
+        /**
+         * This internal method opens a zip file that was created without
+         * being opened when there is no limit on the number of open files.
+         */
+        private void openDeferred()
+        {
+            m_localMutex.lock();
+
+            try
+            {
+                if (m_status == WEAKLY_CLOSED)
+                {
+                    try
+                    {
+                        m_zipFile = m_secureAction.openZipFile(m_file);
+                        m_status = OPEN;
+                    }
+                    catch (IOException ex)
+                    {
+                        m_status = CLOSED;
+                        IllegalStateException ise =
+                            new IllegalStateException("Zip file is closed: " + m_file);
+                        ise.initCause(ex);
+                        throw ise;
+                    }
+                }
+            }
+            finally
+            {
+                m_localMutex.unlock();
+            }
+        }
+
         /**
          * Thie internal method is used to reopen a weakly closed zip file.
          * It makes a best effort, but may fail and leave the zip file member
@@ -20,6 +20,7 @@ package org.apache.felix.framework;
 
 import org.apache.felix.framework.BundleWiringImpl.BundleClassLoader;
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.resolver.ResolveException;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -30,6 +31,7 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
+import org.osgi.framework.BundleException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.hooks.weaving.WeavingException;
 import org.osgi.framework.hooks.weaving.WeavingHook;
@@ -1099,6 +1101,137 @@ public class BundleWiringImplTest
         }
     }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testNegativeLookupCache() throws Exception
+    {
+        mockResolver = mock(StatefulResolver.class);
+        mockRevisionImpl = mock(BundleRevisionImpl.class);
+        mockBundle = mock(BundleImpl.class);
+        Felix mockFramework = mock(Felix.class);
+        Content mockContent = mock(Content.class);
+
+        Map configMap = new HashMap();
+        configMap.put("felix.bootdelegation.implicit", "false");
+
+        when(mockRevisionImpl.getBundle()).thenReturn(mockBundle);
+        when(mockBundle.getBundleId()).thenReturn(Long.valueOf(1));
+        when(mockBundle.getFramework()).thenReturn(mockFramework);
+        when(mockFramework.getBootPackages()).thenReturn(new String[0]);
+        when(mockRevisionImpl.getContentPath()).thenReturn(
+            Collections.singletonList(mockContent));
+        when(mockContent.getEntries()).thenReturn(
+            Collections.enumeration(Collections.singletonList("org/foo/Bar.class")));
+
+        bundleWiring = new BundleWiringImpl(new Logger(), configMap, mockResolver,
+            mockRevisionImpl, new ArrayList<BundleRevision>(), new ArrayList<BundleWire>(),
+            new HashMap<String, BundleRevision>(), new HashMap<String, List<BundleRevision>>());
+        BundleClassLoader bundleClassLoader = createBundleClassLoader(
+            BundleClassLoader.class, bundleWiring);
+
+        String className = "org.missing.Foo";
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                bundleClassLoader.loadClass(className, false);
+                fail();
+            }
+            catch (ClassNotFoundException ex)
+            {
+                // Expected
+            }
+        }
+
+        // The package is not on the local class path and the dynamic import
+        // is only attempted once.
+        verify(mockContent, never()).getEntryAsBytes("org/missing/Foo.class");
+        verify(mockResolver, times(1)).isAllowedDynamicImport(mockRevisionImpl, "org.missing");
+        verify(mockResolver, never()).resolve(mockRevisionImpl, "org.missing");
+        assertEquals(1, bundleWiring.getNegativeLookupMisses());
+        assertEquals(2, bundleWiring.getNegativeLookupHits());
+
+        // A change of the resolver state invalidates the cached miss.
+        when(mockResolver.getModificationCount()).thenReturn(1);
+        try
+        {
+            bundleClassLoader.loadClass(className, false);
+            fail();
+        }
+        catch (ClassNotFoundException ex)
+        {
+            // Expected
+        }
+        verify(mockResolver, times(2)).isAllowedDynamicImport(mockRevisionImpl, "org.missing");
+
+        // So does a dynamic wire.
+        BundleWire wire = mock(BundleWire.class, Mockito.RETURNS_DEEP_STUBS);
+        when(wire.getCapability().getAttributes()).thenReturn(Collections.<String, Object>emptyMap());
+        bundleWiring.addDynamicWire(wire);
+        try
+        {
+            bundleClassLoader.loadClass(className, false);
+            fail();
+        }
+        catch (ClassNotFoundException ex)
+        {
+            // Expected
+        }
+        verify(mockResolver, times(3)).isAllowedDynamicImport(mockRevisionImpl, "org.missing");
+        assertEquals(3, bundleWiring.getNegativeLookupMisses());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testNegativeLookupCacheFailedResolve() throws Exception
+    {
+        mockResolver = mock(StatefulResolver.class);
+        mockRevisionImpl = mock(BundleRevisionImpl.class);
+        mockBundle = mock(BundleImpl.class);
+        Felix mockFramework = mock(Felix.class);
+
+        Map configMap = new HashMap();
+        configMap.put("felix.bootdelegation.implicit", "false");
+
+        when(mockRevisionImpl.getBundle()).thenReturn(mockBundle);
+        when(mockBundle.getBundleId()).thenReturn(Long.valueOf(1));
+        when(mockBundle.getFramework()).thenReturn(mockFramework);
+        when(mockFramework.getBootPackages()).thenReturn(new String[0]);
+
+        // There is a candidate, but the resolve fails because the global lock
+        // is not available and then because a resolver hook vetoes it.
+        when(mockResolver.isAllowedDynamicImport(mockRevisionImpl, "org.dynamic")).thenReturn(true);
+        when(mockResolver.resolve(mockRevisionImpl, "org.dynamic"))
+            .thenThrow(new ResolveException(
+                "Unable to acquire global lock for resolve.", mockRevisionImpl, null))
+            .thenThrow(new BundleException("Vetoed by a resolver hook."))
+            .thenReturn(null);
+
+        bundleWiring = new BundleWiringImpl(new Logger(), configMap, mockResolver,
+            mockRevisionImpl, new ArrayList<BundleRevision>(), new ArrayList<BundleWire>(),
+            new HashMap<String, BundleRevision>(), new HashMap<String, List<BundleRevision>>());
+        BundleClassLoader bundleClassLoader = createBundleClassLoader(
+            BundleClassLoader.class, bundleWiring);
+
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                bundleClassLoader.loadClass("org.dynamic.Foo", false);
+                fail();
+            }
+            catch (ClassNotFoundException ex)
+            {
+                // Expected
+            }
+        }
+
+        // None of the failed resolves is cached, so each load retries.
+        verify(mockResolver, times(3)).resolve(mockRevisionImpl, "org.dynamic");
+        assertEquals(0, bundleWiring.getNegativeLookupMisses());
+        assertEquals(0, bundleWiring.getNegativeLookupHits());
+    }
+
     @SuppressWarnings("rawtypes")
     private byte[] createTestClassBytes(Class testClass, String testClassAsPath)
             throws IOException
@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -26,6 +28,9 @@ import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -137,6 +142,252 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireServiceEventSkipsListenersOfOtherClasses() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener stringListener = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, stringListener,
+            FrameworkUtil.createFilter("(&(objectClass=java.lang.String)(foo=*))"));
+        ServiceListener integerListener = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, integerListener,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Integer)"));
+        ServiceListener eitherListener = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, eitherListener,
+            new FilterImpl("(|(objectClass=java.lang.Integer)(objectClass=java.lang.String))"));
+        ServiceListener unindexedListener = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, unindexedListener,
+            FrameworkUtil.createFilter("(foo=bar)"));
+        ServiceListener allListener = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, allListener, null);
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String"
+            }).anyTimes();
+        EasyMock.expect(sr.getProperty("foo")).andReturn("bar").anyTimes();
+        EasyMock.expect(sr.getPropertyKeys()).andReturn(new String[]
+            {
+                Constants.OBJECTCLASS, "foo"
+            }).anyTimes();
+        EasyMock.expect(Boolean.valueOf(sr.isAssignableTo(b1, String.class.getName())))
+            .andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+
+        assertEquals(4, fired.size());
+        assertFalse(fired.contains(integerListener));
+        assertEquals(1, ed.getServiceEventCount());
+        assertEquals(1, ed.getServiceListenerFiltersSkipped());
+        assertEquals(3, ed.getServiceListenerFiltersEvaluated());
+
+        // Updating the filter must re-index the listener.
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, integerListener,
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+        fired.clear();
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.MODIFIED, sr), new Hashtable(), null);
+        assertEquals(5, fired.size());
+
+        ed.removeListener(b1.getBundleContext(), ServiceListener.class, stringListener);
+        ed.removeListeners(b1.getBundleContext());
+        fired.clear();
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.MODIFIED, sr), new Hashtable(), null);
+        assertTrue(fired.isEmpty());
+    }
+
+    public void testParallelAsyncDeliveryKeepsListenerOrder() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry, 4);
+        ed.startDispatching();
+        try
+        {
+            // -- A slow listener must not hold up the other listener
+            final CountDownLatch release = new CountDownLatch(1);
+            final List slowEvents = Collections.synchronizedList(new ArrayList());
+            FrameworkListener slow = new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    try
+                    {
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    slowEvents.add(event);
+                }
+            };
+            ed.addListener(b1.getBundleContext(), FrameworkListener.class, slow, null);
+
+            final int count = 200;
+            final CountDownLatch fastDone = new CountDownLatch(count);
+            final List fastEvents = Collections.synchronizedList(new ArrayList());
+            FrameworkListener fast = new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    fastEvents.add(event);
+                    fastDone.countDown();
+                }
+            };
+            ed.addListener(b2.getBundleContext(), FrameworkListener.class, fast, null);
+
+            List expected = new ArrayList();
+            for (int i = 0; i < count; i++)
+            {
+                FrameworkEvent event = new FrameworkEvent(FrameworkEvent.INFO, b1, null);
+                expected.add(event);
+                ed.fireFrameworkEvent(event);
+            }
+
+            assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+            assertEquals(expected, fastEvents);
+            assertTrue(slowEvents.size() < count);
+
+            release.countDown();
+            ed.stopDispatching();
+            assertEquals(expected, slowEvents);
+        }
+        finally
+        {
+            ed.stopDispatching();
+        }
+    }
+
+    public void testNoListenerQueuesWithSharedThread() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+        ed.startDispatching();
+        try
+        {
+            final CountDownLatch done = new CountDownLatch(3);
+            FrameworkListener l = new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    done.countDown();
+                }
+            };
+            ed.addListener(b1.getBundleContext(), FrameworkListener.class, l, null);
+
+            for (int i = 0; i < 3; i++)
+            {
+                ed.fireFrameworkEvent(new FrameworkEvent(FrameworkEvent.INFO, b1, null));
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // The shared dispatch thread delivers directly to the listeners.
+            assertTrue(ed.m_asyncListeners.isEmpty());
+        }
+        finally
+        {
+            ed.stopDispatching();
+        }
+    }
+
+    public void testRemoveListenerWithQueuedEvents() throws Exception
+    {
+        removeListenerWithQueuedEvents(0);
+        removeListenerWithQueuedEvents(2);
+    }
+
+    private void removeListenerWithQueuedEvents(int asyncThreads) throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry, asyncThreads);
+        ed.startDispatching();
+        try
+        {
+            // -- Hold up the delivery until both listeners are removed
+            final CountDownLatch release = new CountDownLatch(1);
+            FrameworkListener blocking = new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    try
+                    {
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            ed.addListener(b1.getBundleContext(), FrameworkListener.class, blocking, null);
+
+            final List events = Collections.synchronizedList(new ArrayList());
+            FrameworkListener l = new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    events.add(event);
+                }
+            };
+            ed.addListener(b2.getBundleContext(), FrameworkListener.class, l, null);
+            assertEquals((asyncThreads > 0) ? 2 : 0, ed.m_asyncListeners.size());
+
+            for (int i = 0; i < 5; i++)
+            {
+                ed.fireFrameworkEvent(new FrameworkEvent(FrameworkEvent.INFO, b1, null));
+            }
+
+            ed.removeListener(b2.getBundleContext(), FrameworkListener.class, l);
+            ed.removeListeners(b1.getBundleContext());
+            assertTrue(ed.m_asyncListeners.isEmpty());
+
+            // -- The queued events must not bring back the removed listeners
+            release.countDown();
+            ed.stopDispatching();
+            assertEquals(5, events.size());
+            assertTrue(ed.m_asyncListeners.isEmpty());
+        }
+        finally
+        {
+            ed.stopDispatching();
+        }
+    }
+
+    private static class RecordingServiceListener implements ServiceListener
+    {
+        private final List m_fired;
+
+        RecordingServiceListener(List fired)
+        {
+            m_fired = fired;
+        }
+
+        public void serviceChanged(ServiceEvent event)
+        {
+            m_fired.add(this);
+        }
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
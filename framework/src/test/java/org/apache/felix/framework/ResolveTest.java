@@ -20,6 +20,7 @@ package org.apache.felix.framework;
 
 import junit.framework.TestCase;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.launch.Framework;
 import org.osgi.framework.wiring.BundleRevision;
@@ -275,6 +276,129 @@ public class ResolveTest extends TestCase
         assertEquals(requiredWires.get(1).getProvider().getBundle(), ho);
     }
 
+    public void testResolutionCacheReplaysWiringOnRestart() throws Exception
+    {
+        String emf = "Bundle-SymbolicName: cache.exporter\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.cache;version=\"1.0.0\"\n";
+        String imf = "Bundle-SymbolicName: cache.importer\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.cache,org.osgi.framework\n";
+        String fmf = "Bundle-SymbolicName: cache.frag\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Fragment-Host: cache.importer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.util.tracker\n";
+
+        File resolutionCacheDir = new File(tempDir, "resolution-cache");
+        Map<String,String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, resolutionCacheDir.getPath());
+        params.put("felix.resolver.cache", "true");
+
+        Felix first = new Felix(params);
+        first.start();
+        Bundle e = first.getBundleContext().installBundle(createBundle(emf).toURI().toASCIIString());
+        Bundle i = first.getBundleContext().installBundle(createBundle(imf).toURI().toASCIIString());
+        Bundle f = first.getBundleContext().installBundle(createBundle(fmf).toURI().toASCIIString());
+        assertTrue(first.adapt(FrameworkWiring.class).resolveBundles(null));
+        assertEquals(0, first.getResolver().getCachedResolveCount());
+        first.stop();
+        first.waitForStop(10000);
+
+        Felix second = new Felix(params);
+        second.start();
+        try
+        {
+            e = second.getBundleContext().getBundle(e.getBundleId());
+            i = second.getBundleContext().getBundle(i.getBundleId());
+            f = second.getBundleContext().getBundle(f.getBundleId());
+            assertTrue(second.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(1, second.getResolver().getCachedResolveCount());
+            assertEquals(Bundle.RESOLVED, e.getState());
+            assertEquals(Bundle.RESOLVED, i.getState());
+            assertEquals(Bundle.RESOLVED, f.getState());
+
+            List<BundleWire> wires = i.adapt(BundleWiring.class)
+                .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+            assertEquals(3, wires.size());
+            assertEquals(e, wires.get(0).getProvider().getBundle());
+            assertEquals(f, i.adapt(BundleWiring.class)
+                .getProvidedWires(BundleRevision.HOST_NAMESPACE).get(0).getRequirer().getBundle());
+
+            // Installing a bundle invalidates the persisted wiring.
+            Bundle other = second.getBundleContext().installBundle(
+                createBundle(emf.replace("cache.exporter", "cache.other")).toURI().toASCIIString());
+            assertTrue(second.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(Bundle.RESOLVED, other.getState());
+            assertEquals(1, second.getResolver().getCachedResolveCount());
+        }
+        finally
+        {
+            second.stop();
+            second.waitForStop(10000);
+        }
+    }
+
+    public void testIncrementalResolve() throws Exception
+    {
+        String amf = "Bundle-SymbolicName: incremental.a\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.p1;version=\"1.0.0\","
+            + "org.foo.p2;version=\"1.0.0\";uses:=\"org.foo.p1\"\n";
+        String bmf = "Bundle-SymbolicName: incremental.b\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.p1;version=\"2.0.0\"\n";
+        String cmf = "Bundle-SymbolicName: incremental.c\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.p2\n";
+        String dmf = "Bundle-SymbolicName: incremental.d\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.p2,org.foo.p1;version=\"[2.0.0,3.0.0)\"\n";
+
+        Map<String,String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, new File(tempDir, "incremental").getPath());
+        params.put("felix.resolver.incremental", "true");
+
+        Felix felix = new Felix(params);
+        felix.start();
+        try
+        {
+            BundleContext context = felix.getBundleContext();
+            Bundle a = context.installBundle(createBundle(amf).toURI().toASCIIString());
+            Bundle b = context.installBundle(createBundle(bmf).toURI().toASCIIString());
+            assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+
+            // Resolving new bundles against the resolved ones reuses their
+            // package spaces, which must still yield the same wiring ...
+            for (int i = 0; i < 3; i++)
+            {
+                Bundle c = context.installBundle(createBundle(
+                    cmf.replace("incremental.c", "incremental.c" + i)).toURI().toASCIIString());
+                assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singleton(c)));
+                assertEquals(a, c.adapt(BundleWiring.class)
+                    .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE).get(0).getProvider().getBundle());
+            }
+
+            // ... and detect uses constraint violations.
+            Bundle d = context.installBundle(createBundle(dmf).toURI().toASCIIString());
+            assertFalse(felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singleton(d)));
+            assertEquals(Bundle.INSTALLED, d.getState());
+
+            assertEquals(Bundle.RESOLVED, b.getState());
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
     private File createBundle(String manifest) throws IOException
     {
         File f = File.createTempFile("felix-bundle", ".jar", tempDir);
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.concurrent.ConcurrentMap;
@@ -37,6 +38,7 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.easymock.MockControl;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -45,6 +47,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceFactory;
@@ -53,6 +56,7 @@ import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.hooks.service.EventHook;
 import org.osgi.framework.hooks.service.FindHook;
 import org.osgi.framework.hooks.service.ListenerHook;
+import org.osgi.resource.Capability;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -365,6 +369,65 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("Unregistration should have no effect", 0, sr.getHookRegistry().getHooks(ListenerHook.class).size());
     }
 
+    public void testConcurrentSetPropertiesIndex() throws Exception
+    {
+        Bundle b = Mockito.mock(Bundle.class);
+        final ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_PID, "pid");
+        final ServiceRegistration reg = sr.registerService(b, new String [] {String.class.getName()}, "hello", props);
+
+        final int threads = 4;
+        final int updates = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++)
+        {
+            final int id = t;
+            Thread worker = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        return;
+                    }
+                    for (int i = 0; i < updates; i++)
+                    {
+                        Hashtable<String, Object> props = new Hashtable<String, Object>();
+                        props.put(Constants.SERVICE_PID, "pid" + id + "." + i);
+                        reg.setProperties(props);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        // Only the current value of the property may be found in the index.
+        Object current = reg.getReference().getProperty(Constants.SERVICE_PID);
+        for (int t = 0; t < threads; t++)
+        {
+            for (int i = 0; i < updates; i++)
+            {
+                String pid = "pid" + t + "." + i;
+                Collection<Capability> found = sr.getServiceReferences(
+                    null, SimpleFilter.parse("(" + Constants.SERVICE_PID + "=" + pid + ")"));
+                assertEquals(pid, pid.equals(current) ? 1 : 0, found.size());
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public void testGetService()
     {
@@ -1158,6 +1221,118 @@ public class ServiceRegistryTest extends TestCase
         assertTrue("" + counterValues, exceptions.isEmpty());
     }
 
+    @SuppressWarnings("unchecked")
+    public void testGetUngetServiceContended() throws Exception
+    {
+        final ServiceRegistry sr = new ServiceRegistry(null, null);
+        final Bundle regBundle = Mockito.mock(Bundle.class);
+        final AtomicInteger gets = new AtomicInteger();
+        final AtomicInteger ungets = new AtomicInteger();
+        final ServiceRegistration<?> reg = sr.registerService(regBundle, new String[] {Object.class.getName()},
+                new ServiceFactory<Object>()
+                {
+                    @Override
+                    public Object getService(Bundle bundle, ServiceRegistration<Object> registration)
+                    {
+                        gets.incrementAndGet();
+                        return new Object();
+                    }
+
+                    @Override
+                    public void ungetService(Bundle bundle, ServiceRegistration<Object> registration, Object service)
+                    {
+                        ungets.incrementAndGet();
+                    }
+                }, null);
+        final ServiceReference<?> ref = reg.getReference();
+
+        final Bundle clientBundle = Mockito.mock(Bundle.class);
+        Mockito.when(clientBundle.getBundleId()).thenReturn(42L);
+
+        // use enough other services to have the usage counts of the bundle indexed
+        for (int i = 0; i < 16; i++)
+        {
+            ServiceRegistration<?> other = sr.registerService(
+                    regBundle, new String[] {String.class.getName()}, "svc" + i, null);
+            assertEquals("svc" + i, sr.getService(clientBundle, other.getReference(), false));
+        }
+
+        // keep the service held so that all threads take the fast path
+        final Object held = sr.getService(clientBundle, ref, false);
+        assertNotNull(held);
+
+        final int MAX_THREADS = 32;
+        final int MAX_LOOPS = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(MAX_THREADS);
+        final List<Object> failures = Collections.synchronizedList(new ArrayList<Object>());
+        for (int i = 0; i < MAX_THREADS; i++)
+        {
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < MAX_LOOPS; i++)
+                        {
+                            Object obj = sr.getService(clientBundle, ref, false);
+                            if (obj != held)
+                            {
+                                failures.add(obj);
+                            }
+                            if (!sr.ungetService(clientBundle, ref, null))
+                            {
+                                failures.add("unget");
+                            }
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        failures.add(e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertTrue("" + failures, failures.isEmpty());
+        assertEquals(1, gets.get());
+        assertEquals(0, ungets.get());
+
+        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
+                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        UsageCount usage = null;
+        for (UsageCount uc : inUseMap.get(clientBundle))
+        {
+            if (uc.m_ref == ref)
+            {
+                usage = uc;
+            }
+        }
+        assertEquals(1, usage.m_count.get());
+
+        assertTrue(sr.ungetService(clientBundle, ref, null));
+        assertEquals(0, usage.m_count.get());
+        assertEquals(1, ungets.get());
+
+        // once released the service is obtained from the factory again
+        assertNotSame(held, sr.getService(clientBundle, ref, false));
+        assertEquals(2, gets.get());
+
+        sr.unregisterServices(regBundle);
+        assertEquals(2, ungets.get());
+        assertNull(inUseMap.get(clientBundle));
+        assertTrue(((Map<?, ?>) getPrivateField(sr, "m_usageIndex")).isEmpty());
+    }
+
     public void testUsageCountCleanup() throws Exception
     {
         ServiceRegistry sr = new ServiceRegistry(null, null);
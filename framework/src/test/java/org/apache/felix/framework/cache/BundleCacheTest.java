@@ -36,7 +36,10 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 public class BundleCacheTest extends TestCase
 {
@@ -46,6 +49,7 @@ public class BundleCacheTest extends TestCase
     private BundleCache cache;
     private File archiveFile;
     private File jarFile;
+    private Map<String, String> params;
 
     @Override
     protected void setUp() throws Exception
@@ -61,7 +65,7 @@ public class BundleCacheTest extends TestCase
         filesDir = new File(tempDir, "files");
         String cacheDirPath = cacheDir.getPath();
 
-        Map<String, String> params = new HashMap<String, String>();
+        params = new HashMap<String, String>();
         params.put("felix.cache.profiledir", cacheDirPath);
         params.put("felix.cache.dir", cacheDirPath);
         params.put(Constants.FRAMEWORK_STORAGE, cacheDirPath);
@@ -170,6 +174,190 @@ public class BundleCacheTest extends TestCase
         testBundle("bla", jarFile);
     }
 
+    public void testMappedJar() throws Exception
+    {
+        cache.delete();
+        params.put(BundleCache.CACHE_MAPJARS_PROP, "true");
+        cache = new BundleCache(new Logger(){
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable) {
+            }
+        }, params);
+
+        BundleArchive archive = cache.create(1, 1, jarFile.toURI().toURL().toString(), null);
+        JarContent content = (JarContent) archive.getCurrentRevision().getContent();
+        assertTrue(content.isMapped());
+        assertTrue(((JarContent) content.getEntryAsContent("inner/i+?äö \\§$%nner.jar")).isMapped());
+        content.close();
+        archive.close();
+
+        // Referenced JAR files may change in place and are never mapped.
+        archive = cache.create(2, 1, "reference:" + jarFile.toURI().toURL().toString(), null);
+        content = (JarContent) archive.getCurrentRevision().getContent();
+        assertFalse(content.isMapped());
+        content.close();
+        archive.close();
+
+        testBundle(jarFile.toURI().toURL().toString(), null);
+    }
+
+    public void testMappedZipFile() throws Exception
+    {
+        File zip = new File(filesDir, "mapped.zip");
+        byte[] large = new byte[200000];
+        for (int i = 0; i < large.length; i++)
+        {
+            large[i] = (byte) (i % 251);
+        }
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip));
+        output.setComment("trailing comment");
+        String[] names = { "b/", "b/large", "a", "b/empty", "c/stored", "b/empty/" };
+        for (String name : names)
+        {
+            ZipEntry ze = new ZipEntry(name);
+            byte[] data = name.equals("b/large") ? large : name.endsWith("/") ? new byte[0] : name.getBytes("UTF-8");
+            if (name.equals("c/stored"))
+            {
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ze.setMethod(ZipEntry.STORED);
+                ze.setSize(data.length);
+                ze.setCrc(crc.getValue());
+            }
+            output.putNextEntry(ze);
+            output.write(data);
+            output.closeEntry();
+        }
+        output.close();
+
+        MappedZipFile mapped = new MappedZipFile(zip);
+        ZipFile zipFile = new ZipFile(zip);
+        try
+        {
+            assertEquals(names.length, mapped.size());
+            Enumeration<String> e = mapped.names();
+            for (String name : names)
+            {
+                assertEquals(name, e.nextElement());
+            }
+            assertFalse(e.hasMoreElements());
+
+            for (String name : names)
+            {
+                ZipEntry ze = mapped.getEntry(name);
+                ZipEntry expected = zipFile.getEntry(name);
+                assertEquals(expected.getName(), ze.getName());
+                assertEquals(expected.getSize(), ze.getSize());
+                assertTrue(Arrays.equals(
+                    BundleCache.read(zipFile.getInputStream(expected), expected.getSize()),
+                    BundleCache.read(mapped.getInputStream(ze), ze.getSize())));
+            }
+            assertEquals("b/", mapped.getEntry("b").getName());
+            assertEquals("b/empty/", mapped.getEntry("b/empty/").getName());
+            assertNull(mapped.getEntry("d"));
+            assertNull(mapped.getEntry("b/larg"));
+            assertNull(mapped.getEntry(""));
+
+            // Streams that are open when the file is closed remain readable.
+            ZipEntry ze = mapped.getEntry("b/large");
+            InputStream is = mapped.getInputStream(ze);
+            InputStream stored = mapped.getInputStream(mapped.getEntry("c/stored"));
+            stored.close();
+            mapped.close();
+            try
+            {
+                mapped.getEntry("a");
+                fail("Closed file must not serve entries.");
+            }
+            catch (IllegalStateException ex)
+            {
+                // Expected
+            }
+            assertTrue(Arrays.equals(large, BundleCache.read(is, ze.getSize())));
+            try
+            {
+                stored.read();
+                fail("Closed stream must not be read.");
+            }
+            catch (IOException ex)
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+
+        // Files that are not ZIP archives cannot be mapped.
+        try
+        {
+            new MappedZipFile(new File(archiveFile, "file1"));
+            fail("Mapping a plain file must fail.");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+
+    public void testManifestSnapshot() throws Exception
+    {
+        BundleArchive archive = cache.create(1, 1, jarFile.toURI().toURL().toString(), null);
+        assertEquals("bar", archive.getCurrentRevision().getManifestHeader().get("foo"));
+        File snapshot = new File(archive.getCurrentRevision().getRevisionRootDir(), "manifest.snapshot");
+        assertTrue(snapshot.isFile());
+        archive.close();
+
+        // Reloading serves the headers from the snapshot and opens the
+        // JAR file on demand.
+        BundleArchive[] archives = cache.getArchives();
+        assertEquals(1, archives.length);
+        assertEquals("bar", archives[0].getCurrentRevision().getManifestHeader().get("FOO"));
+        testRevision(archives[0]);
+
+        // A snapshot that does not match the JAR file is ignored.
+        FileOutputStream output = new FileOutputStream(snapshot);
+        output.write(new byte[] { 0, 0, 0, 1, 0 });
+        output.close();
+        archives[0].close();
+        archives = cache.getArchives();
+        assertEquals("bar", archives[0].getCurrentRevision().getManifestHeader().get("foo"));
+
+        // The headers handed out are copies of the snapshot.
+        archives[0].getCurrentRevision().getManifestHeader().put("foo", "baz");
+        assertEquals("bar", archives[0].getCurrentRevision().getManifestHeader().get("foo"));
+        archives[0].close();
+    }
+
+    public void testNoManifestSnapshotByReference() throws Exception
+    {
+        BundleArchive archive = cache.create(
+            1, 1, "reference:" + jarFile.toURI().toURL().toString(), null);
+        assertEquals("bar", archive.getCurrentRevision().getManifestHeader().get("foo"));
+        assertFalse(new File(archive.getCurrentRevision().getRevisionRootDir(), "manifest.snapshot").exists());
+        archive.close();
+    }
+
+    public void testReloadManyArchivesFromSnapshots() throws Exception
+    {
+        String location = jarFile.toURI().toURL().toString();
+        for (int i = 1; i <= 1000; i++)
+        {
+            BundleArchive archive = cache.create(i, 1, location, null);
+            assertNotNull(archive.getCurrentRevision().getManifestHeader());
+            archive.close();
+        }
+
+        BundleArchive[] archives = cache.getArchives();
+        assertEquals(1000, archives.length);
+        for (BundleArchive archive : archives)
+        {
+            assertEquals("bar", archive.getCurrentRevision().getManifestHeader().get("foo"));
+            archive.close();
+        }
+    }
+
     private void testBundle(String location, File file) throws Exception
     {
         BundleArchive archive = cache.create(1, 1, location, file != null ? new FileInputStream(file) : null);
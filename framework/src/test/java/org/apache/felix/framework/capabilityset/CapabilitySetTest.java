@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.resource.Capability;
+
+public class CapabilitySetTest extends TestCase
+{
+    private static final String[] FILTERS = new String[] {
+        "(pkg=p3)",
+        "(&(pkg=p3)(version>=1.2.0))",
+        "(&(pkg=p3)(version>=1.0.0)(!(version>=2.0.0)))",
+        "(version=[1.0.0,2.0.0\\))",
+        "(version=\\(1.0.0,1.5.0])",
+        "(version=[2.0.0,1.0.0])",
+        "(version=1.3.0)",
+        "(version>=1.7.0)",
+        "(version<=1.1.0)",
+        "(version>=foo)",
+        "(pkg>=p5)",
+        "(pkg<=p2)",
+        "(pkg=p*)",
+        "(pkg~=P4)",
+        "(pkg=*)",
+        "(ranking>=5)",
+        "(ranking=3)",
+        "(ranking<=-1)",
+        "(flag=true)",
+        "(&(flag=false)(pkg=p1))",
+        "(|(pkg=p1)(version=1.4.0))",
+        "(!(pkg=p1))",
+        "(&(pkg=nothing)(version>=1.0.0))",
+        "(tags=t2)",
+        "(&(tags=t1)(tags=t3))",
+        "(tags>=t3)"
+    };
+
+    public void testIndexedMatchesScan() throws Exception
+    {
+        List<String> props = Arrays.asList("pkg", "version", "ranking", "flag", "tags");
+        CapabilitySet indexed = new CapabilitySet(props, true);
+        CapabilitySet scanned = new CapabilitySet(null, true);
+
+        for (int i = 0; i < 200; i++)
+        {
+            BundleCapability cap = createCapability(i);
+            indexed.addCapability(cap);
+            scanned.addCapability(cap);
+        }
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            Set<Capability> expected = scanned.match(sf, false);
+            assertEquals(filter, expected, indexed.match(sf, false));
+        }
+    }
+
+    public void testUpdateCapability() throws Exception
+    {
+        CapabilitySet indexed = new CapabilitySet(Arrays.asList("pid", "tags"), false);
+
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("pid", "a");
+        attrs.put("tags", new String[] { "x", "y" });
+        Map<String, Object> oldAttrs = new HashMap<String, Object>(attrs);
+        MutableCapability cap = new MutableCapability(attrs);
+        indexed.addCapability(cap);
+        assertEquals(1, indexed.match(SimpleFilter.parse("(PID=a)"), false).size());
+
+        attrs.put("pid", "b");
+        attrs.put("tags", new String[] { "y", "z" });
+        indexed.updateCapability(cap, oldAttrs);
+
+        assertTrue(indexed.match(SimpleFilter.parse("(pid=a)"), false).isEmpty());
+        assertEquals(Collections.singleton(cap),
+            indexed.match(SimpleFilter.parse("(pid=b)"), false));
+        assertTrue(indexed.match(SimpleFilter.parse("(tags=x)"), false).isEmpty());
+        assertEquals(1, indexed.match(SimpleFilter.parse("(tags=y)"), false).size());
+        assertEquals(1, indexed.match(SimpleFilter.parse("(tags=z)"), false).size());
+
+        indexed.removeCapability(cap);
+        assertTrue(indexed.match(SimpleFilter.parse("(tags=y)"), false).isEmpty());
+
+        // Updating a removed capability must not add it back.
+        indexed.updateCapability(cap, oldAttrs);
+        assertTrue(indexed.match(SimpleFilter.parse("(pid=b)"), false).isEmpty());
+    }
+
+    private static BundleCapability createCapability(int i)
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("pkg", "p" + (i % 7));
+        attrs.put("version", new Version(1, i % 10, 0));
+        if (i % 3 != 0)
+        {
+            attrs.put("ranking", Integer.valueOf((i % 11) - 2));
+        }
+        attrs.put("flag", Boolean.valueOf(i % 2 == 0));
+        List<String> tags = new ArrayList<String>();
+        for (int j = 0; j < i % 4; j++)
+        {
+            tags.add("t" + (i % 5 + j));
+        }
+        attrs.put("tags", tags.toArray(new String[tags.size()]));
+        return new BundleCapabilityImpl(null, "test", Collections.<String, String>emptyMap(), attrs);
+    }
+
+    private static class MutableCapability extends BundleCapabilityImpl
+    {
+        private final Map<String, Object> m_attrs;
+
+        MutableCapability(Map<String, Object> attrs)
+        {
+            super(null, "test", Collections.<String, String>emptyMap(), Collections.<String, Object>emptyMap());
+            m_attrs = attrs;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes()
+        {
+            return m_attrs;
+        }
+    }
+}
@@ -94,4 +94,33 @@ public class WeakZipFileTest extends TestCase
             fail("Unable to read zip file entry: " + ex);
         }
     }
-}
\ No newline at end of file
+
+    public void testDeferredOpen() throws Exception
+    {
+        File tmpZip = File.createTempFile("felix.test", ".zip");
+        tmpZip.deleteOnExit();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmpZip));
+        zos.putNextEntry(new ZipEntry(ENTRY_NAME));
+        zos.write(new byte[] { 'a', 'b', 'c' });
+        zos.close();
+
+        WeakZipFileFactory factory = new WeakZipFileFactory(1);
+        WeakZipFile zipFile = factory.create(tmpZip, false);
+        assertTrue("Zip file not recorded.",
+            factory.getZipZiles().contains(zipFile));
+        assertFalse("Zip file opened eagerly.",
+            factory.getOpenZipZiles().contains(zipFile));
+        assertNotNull("Zip entry not found", zipFile.getEntry(ENTRY_NAME));
+        assertTrue("Open zip file not recorded.",
+            factory.getOpenZipZiles().contains(zipFile));
+        zipFile.close();
+
+        // Without a limit the zip file is opened on first use as well.
+        factory = new WeakZipFileFactory(0);
+        zipFile = factory.create(tmpZip, false);
+        InputStream is = zipFile.getInputStream(zipFile.getEntry(ENTRY_NAME));
+        assertEquals('a', is.read());
+        is.close();
+        zipFile.close();
+    }
+}
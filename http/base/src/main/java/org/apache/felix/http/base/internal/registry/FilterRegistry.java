@@ -17,10 +17,14 @@
 package org.apache.felix.http.base.internal.registry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.NotNull;
@@ -43,6 +47,9 @@ public final class FilterRegistry
     /** List of all filter registrations. These are sorted by the status objects. */
     private volatile List<FilterRegistrationStatus> filters = Collections.emptyList();
 
+    /** Index over the active filters, rebuilt whenever the filters change. */
+    private volatile FilterIndex index = new FilterIndex(Collections.<FilterRegistrationStatus>emptyList());
+
     /**
      * The status object keeps track of the registration status of a filter and holds
      * the resolvers to match against a uri.
@@ -90,6 +97,62 @@ public final class FilterRegistry
         }
     }
 
+    /**
+     * The filter index holds the active filters in order together with a
+     * {@link PathIndex} over all of their resolvers and a lookup of the
+     * filters by servlet name.
+     */
+    private static final class FilterIndex
+    {
+        private final FilterHandler[] handlers;
+
+        private final PathIndex pathIndex;
+
+        /** For each resolver in the path index, the position of its filter. */
+        private final int[] owners;
+
+        private final Map<String, int[]> servletNames = new HashMap<String, int[]>();
+
+        public FilterIndex(@NotNull final List<FilterRegistrationStatus> filters)
+        {
+            final List<FilterHandler> handlerList = new ArrayList<FilterHandler>();
+            final List<PathResolver> resolvers = new ArrayList<PathResolver>();
+            int[] owners = new int[0];
+            for(final FilterRegistrationStatus status : filters)
+            {
+                // only active filters are indexed, these are sorted first
+                if ( status.getResult() != -1 )
+                {
+                    break;
+                }
+                final int pos = handlerList.size();
+                handlerList.add(status.getHandler());
+                if ( status.getResolvers() != null )
+                {
+                    owners = Arrays.copyOf(owners, owners.length + status.getResolvers().length);
+                    for(final PathResolver resolver : status.getResolvers())
+                    {
+                        owners[resolvers.size()] = pos;
+                        resolvers.add(resolver);
+                    }
+                }
+                if ( status.getHandler().getFilterInfo().getServletNames() != null )
+                {
+                    for(final String name : status.getHandler().getFilterInfo().getServletNames())
+                    {
+                        final int[] old = this.servletNames.get(name);
+                        final int[] positions = old == null ? new int[1] : Arrays.copyOf(old, old.length + 1);
+                        positions[positions.length - 1] = pos;
+                        this.servletNames.put(name, positions);
+                    }
+                }
+            }
+            this.handlers = handlerList.toArray(new FilterHandler[handlerList.size()]);
+            this.pathIndex = new PathIndex(resolvers);
+            this.owners = owners;
+        }
+    }
+
     /**
      * Add a filter.
      * @param handler The handler for the filter
@@ -125,7 +188,7 @@ public final class FilterRegistry
         newList.add(status);
         Collections.sort(newList);
 
-        this.filters = newList;
+        this.setFilters(newList);
     }
 
     /**
@@ -150,7 +213,7 @@ public final class FilterRegistry
         }
         if ( found != null )
         {
-            this.filters = newList;
+            this.setFilters(newList);
 
             if ( found.getResult() == -1 && destroy )
             {
@@ -161,7 +224,17 @@ public final class FilterRegistry
 
     public synchronized void cleanup()
     {
-        this.filters = Collections.emptyList();
+        this.setFilters(Collections.<FilterRegistrationStatus>emptyList());
+    }
+
+    /**
+     * Publish a new sorted list of filters together with its index.
+     * @param newList The sorted list of filters
+     */
+    private void setFilters(@NotNull final List<FilterRegistrationStatus> newList)
+    {
+        this.index = new FilterIndex(newList);
+        this.filters = newList;
     }
 
     /**
@@ -176,43 +249,36 @@ public final class FilterRegistry
             @NotNull final DispatcherType dispatcherType,
             @NotNull final String requestURI)
     {
+        final FilterIndex index = this.index;
         final List<FilterHandler> result = new ArrayList<FilterHandler>();
-        final List<FilterRegistrationStatus> allFilters = this.filters;
 
-        for(final FilterRegistrationStatus status : allFilters)
+        // collect the matching filters by their position
+        final BitSet matches = new BitSet(index.handlers.length);
+        final BitSet matchingResolvers = new BitSet(index.owners.length);
+        index.pathIndex.findAll(requestURI, matchingResolvers);
+        for(int i = matchingResolvers.nextSetBit(0); i >= 0; i = matchingResolvers.nextSetBit(i + 1))
         {
-            // as soon as we encounter a failing filter, we can stop
-            if ( status.getResult() != -1 )
-            {
-                break;
-            }
-            if (referencesDispatcherType(status.getHandler(), dispatcherType) )
+            matches.set(index.owners[i]);
+        }
+        // check for servlet name if it's not a resource
+        final String servletName = (handler != null && !handler.getServletInfo().isResource()) ? handler.getName() : null;
+        if ( servletName != null )
+        {
+            final int[] positions = index.servletNames.get(servletName);
+            if ( positions != null )
             {
-                boolean added = false;
-                for(final PathResolver resolver : status.getResolvers())
+                for(final int pos : positions)
                 {
-                    if ( resolver.resolve(requestURI) != null )
-                    {
-                        result.add(status.getHandler());
-                        added = true;
-                        break;
-                    }
-                }
-                // check for servlet name if it's not a resource
-                final String servletName = (handler != null && !handler.getServletInfo().isResource()) ? handler.getName() : null;
-                if ( !added && servletName != null && status.getHandler().getFilterInfo().getServletNames() != null )
-                {
-                    for(final String name : status.getHandler().getFilterInfo().getServletNames())
-                    {
-                        if ( servletName.equals(name) )
-                        {
-                            result.add(status.getHandler());
-                            added = true;
-                            break;
-                        }
-                    }
+                    matches.set(pos);
                 }
+            }
+        }
 
+        for(int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+        {
+            if ( referencesDispatcherType(index.handlers[i], dispatcherType) )
+            {
+                result.add(index.handlers[i]);
             }
         }
 
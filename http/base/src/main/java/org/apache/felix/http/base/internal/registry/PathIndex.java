@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.registry;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import org.apache.felix.http.base.internal.registry.PathResolverFactory.DefaultMatcher;
+import org.apache.felix.http.base.internal.registry.PathResolverFactory.ExactAndPathMatcher;
+import org.apache.felix.http.base.internal.registry.PathResolverFactory.ExactMatcher;
+import org.apache.felix.http.base.internal.registry.PathResolverFactory.ExtensionMatcher;
+import org.apache.felix.http.base.internal.registry.PathResolverFactory.PathMatcher;
+import org.apache.felix.http.base.internal.registry.PathResolverFactory.RootMatcher;
+
+/**
+ * The path index is a compiled, immutable lookup structure for a list of
+ * path resolvers. Instead of testing every resolver against a request uri,
+ * the exact and path mappings are kept in a character trie which is walked
+ * once along the uri, and the extension mappings are kept in a trie of the
+ * reversed extensions which is walked from the end of the uri.
+ *
+ * Resolvers are identified by their position in the list the index is
+ * created from. Resolvers which can't be indexed (regular expressions)
+ * are tested one after the other.
+ *
+ * {@link #findFirst(String)} returns the same resolver as testing the
+ * sorted list of resolvers in order would, {@link #findAll(String, BitSet)}
+ * returns all resolvers for which {@link PathResolver#resolve(String)}
+ * would return a resolution.
+ */
+public final class PathIndex
+{
+    private static final int[] NONE = new int[0];
+
+    private static final char[] NO_KEYS = new char[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** A trie node representing the prefix of a uri. */
+    private static final class Node
+    {
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+
+        /** Exact matchers for this path. */
+        int[] exact = NONE;
+        /** Exact and path matchers for this path (http service). */
+        int[] exactAndPath = NONE;
+        /** Path matchers ("path/*") for this path. */
+        int[] path = NONE;
+        /** Extension matchers, only used in the extension trie. */
+        int[] extension = NONE;
+
+        Node child(final char c)
+        {
+            final int pos = Arrays.binarySearch(this.keys, c);
+            return pos < 0 ? null : this.children[pos];
+        }
+
+        Node getOrCreateChild(final char c)
+        {
+            final int pos = Arrays.binarySearch(this.keys, c);
+            if ( pos >= 0 )
+            {
+                return this.children[pos];
+            }
+            final int insert = -pos - 1;
+            final Node node = new Node();
+            final char[] newKeys = new char[this.keys.length + 1];
+            final Node[] newChildren = new Node[this.children.length + 1];
+            System.arraycopy(this.keys, 0, newKeys, 0, insert);
+            System.arraycopy(this.children, 0, newChildren, 0, insert);
+            newKeys[insert] = c;
+            newChildren[insert] = node;
+            System.arraycopy(this.keys, insert, newKeys, insert + 1, this.keys.length - insert);
+            System.arraycopy(this.children, insert, newChildren, insert + 1, this.children.length - insert);
+            this.keys = newKeys;
+            this.children = newChildren;
+            return node;
+        }
+    }
+
+    private final PathResolver[] resolvers;
+
+    private final Node pathRoot = new Node();
+
+    private final Node extensionRoot = new Node();
+
+    private int[] root = NONE;
+
+    private int[] defaults = NONE;
+
+    private int[] others = NONE;
+
+    /**
+     * Create a new index
+     * @param resolvers The resolvers, {@link #findFirst(String)} requires these to be sorted by precedence
+     */
+    public PathIndex(@NotNull final List<PathResolver> resolvers)
+    {
+        this.resolvers = resolvers.toArray(new PathResolver[resolvers.size()]);
+        for(int i = 0; i < this.resolvers.length; i++)
+        {
+            final PathResolver resolver = this.resolvers[i];
+            final String pattern = resolver.getPattern();
+            if ( resolver instanceof ExactMatcher )
+            {
+                final Node node = this.getOrCreateNode(pattern);
+                node.exact = add(node.exact, i);
+            }
+            else if ( resolver instanceof ExactAndPathMatcher )
+            {
+                final Node node = this.getOrCreateNode(pattern);
+                node.exactAndPath = add(node.exactAndPath, i);
+            }
+            else if ( resolver instanceof PathMatcher )
+            {
+                final Node node = this.getOrCreateNode(pattern.substring(0, pattern.length() - 2));
+                node.path = add(node.path, i);
+            }
+            else if ( resolver instanceof ExtensionMatcher )
+            {
+                // the extension including the dot, reversed
+                Node node = this.extensionRoot;
+                for(int p = pattern.length() - 1; p > 0; p--)
+                {
+                    node = node.getOrCreateChild(pattern.charAt(p));
+                }
+                node.extension = add(node.extension, i);
+            }
+            else if ( resolver instanceof RootMatcher )
+            {
+                this.root = add(this.root, i);
+            }
+            else if ( resolver instanceof DefaultMatcher )
+            {
+                this.defaults = add(this.defaults, i);
+            }
+            else
+            {
+                this.others = add(this.others, i);
+            }
+        }
+    }
+
+    private Node getOrCreateNode(final String path)
+    {
+        Node node = this.pathRoot;
+        for(int i = 0; i < path.length(); i++)
+        {
+            node = node.getOrCreateChild(path.charAt(i));
+        }
+        return node;
+    }
+
+    private static int[] add(final int[] array, final int value)
+    {
+        final int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    /**
+     * Get the resolver at a position
+     * @param index The position
+     * @return The resolver
+     */
+    public @NotNull PathResolver getResolver(final int index)
+    {
+        return this.resolvers[index];
+    }
+
+    /**
+     * Get the number of resolvers in this index
+     * @return The number of resolvers
+     */
+    public int size()
+    {
+        return this.resolvers.length;
+    }
+
+    /**
+     * Find the resolver with the highest precedence matching the uri.
+     * As the resolvers are sorted by precedence, this is the matching
+     * resolver with the lowest position.
+     * @param uri The request uri
+     * @return The position of the resolver or {@code -1}
+     */
+    public int findFirst(@NotNull final String uri)
+    {
+        final int length = uri.length();
+        int best = Integer.MAX_VALUE;
+
+        Node node = this.pathRoot;
+        int pos = 0;
+        while ( node != null )
+        {
+            if ( pos == length )
+            {
+                best = min(best, node.exact);
+                best = min(best, node.exactAndPath);
+                best = min(best, node.path);
+                break;
+            }
+            final char c = uri.charAt(pos);
+            if ( c == '/' )
+            {
+                best = min(best, node.exactAndPath);
+                best = min(best, node.path);
+            }
+            node = node.child(c);
+            pos++;
+        }
+
+        node = this.extensionRoot;
+        for(int p = length - 1; p >= 0 && node != null; p--)
+        {
+            node = node.child(uri.charAt(p));
+            if ( node != null )
+            {
+                best = min(best, node.extension);
+            }
+        }
+
+        if ( length == 0 || "/".equals(uri) )
+        {
+            best = min(best, this.root);
+        }
+        best = min(best, this.defaults);
+
+        for(final int i : this.others)
+        {
+            if ( i > best )
+            {
+                break;
+            }
+            if ( this.resolvers[i].resolve(uri) != null )
+            {
+                best = i;
+                break;
+            }
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    private static int min(final int current, final int[] positions)
+    {
+        // positions are added in ascending order
+        return positions.length > 0 && positions[0] < current ? positions[0] : current;
+    }
+
+    /**
+     * Find all resolvers matching the uri.
+     * @param uri The request uri
+     * @param result The bit set to which the positions of all matching resolvers are added
+     */
+    public void findAll(@NotNull final String uri, @NotNull final BitSet result)
+    {
+        final int length = uri.length();
+
+        Node node = this.pathRoot;
+        int pos = 0;
+        while ( node != null )
+        {
+            if ( pos == length )
+            {
+                set(result, node.exact);
+                set(result, node.exactAndPath);
+                set(result, node.path);
+                break;
+            }
+            final char c = uri.charAt(pos);
+            if ( c == '/' )
+            {
+                set(result, node.exactAndPath);
+                set(result, node.path);
+            }
+            node = node.child(c);
+            pos++;
+        }
+
+        node = this.extensionRoot;
+        for(int p = length - 1; p >= 0 && node != null; p--)
+        {
+            node = node.child(uri.charAt(p));
+            if ( node != null )
+            {
+                set(result, node.extension);
+            }
+        }
+
+        if ( length == 0 || "/".equals(uri) )
+        {
+            set(result, this.root);
+        }
+        set(result, this.defaults);
+        for(final int i : this.others)
+        {
+            if ( this.resolvers[i].resolve(uri) != null )
+            {
+                result.set(i);
+            }
+        }
+    }
+
+    private static void set(final BitSet result, final int[] positions)
+    {
+        for(final int i : positions)
+        {
+            result.set(i);
+        }
+    }
+}
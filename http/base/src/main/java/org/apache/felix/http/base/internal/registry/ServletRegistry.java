@@ -53,6 +53,9 @@ public final class ServletRegistry
 
     private volatile List<PathResolver> activeResolvers = Collections.emptyList();
 
+    /** Compiled index of the active resolvers, rebuilt whenever they change. */
+    private volatile PathIndex activeIndex = new PathIndex(Collections.<PathResolver>emptyList());
+
     private final Map<String, List<ServletHandler>> inactiveServletMappings = new HashMap<String, List<ServletHandler>>();
 
     private final Map<String, List<ServletHandler>> servletsByName = new ConcurrentHashMap<String, List<ServletHandler>>();
@@ -73,9 +76,11 @@ public final class ServletRegistry
      */
     public PathResolution resolve(@NotNull final String relativeRequestURI)
     {
-        final List<PathResolver> resolvers = this.activeResolvers;
-        for(final PathResolver entry : resolvers)
+        final PathIndex index = this.activeIndex;
+        final int pos = index.findFirst(relativeRequestURI);
+        if ( pos != -1 )
         {
+            final PathResolver entry = index.getResolver(pos);
             final PathResolution pr = entry.resolve(relativeRequestURI);
             if ( pr != null )
             {
@@ -87,6 +92,16 @@ public final class ServletRegistry
         return null;
     }
 
+    /**
+     * Publish a new sorted list of active resolvers together with its index.
+     * @param resolvers The sorted resolvers
+     */
+    private void setActiveResolvers(@NotNull final List<PathResolver> resolvers)
+    {
+        this.activeIndex = new PathIndex(resolvers);
+        this.activeResolvers = resolvers;
+    }
+
     private PathResolver findResolver(final List<PathResolver> resolvers, final String pattern)
     {
         for(final PathResolver pr : resolvers)
@@ -173,7 +188,7 @@ public final class ServletRegistry
                 addToNameMapping(handler);
             }
             Collections.sort(resolvers);
-            this.activeResolvers = resolvers;
+            this.setActiveResolvers(resolvers);
             this.mapping = newMap;
         }
         else if ( !handler.getServletInfo().isResource() && handler.getServletInfo().getName() != null )
@@ -339,7 +354,7 @@ public final class ServletRegistry
             }
 
             Collections.sort(resolvers);
-            this.activeResolvers = resolvers;
+            this.setActiveResolvers(resolvers);
             this.mapping = newMap;
 
             if ( cleanupHandler != null )
@@ -366,7 +381,7 @@ public final class ServletRegistry
 
     public synchronized void cleanup()
     {
-        this.activeResolvers = Collections.emptyList();
+        this.setActiveResolvers(Collections.<PathResolver>emptyList());
         this.inactiveServletMappings.clear();
         this.servletsByName.clear();
         this.mapping = Collections.emptyMap();
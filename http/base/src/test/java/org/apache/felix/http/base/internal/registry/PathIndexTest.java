@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.registry;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PathIndexTest {
+
+    private static final String[] PATTERNS = new String[] {
+        "/a", "/a/b", "/a/b/c.html", "/ab", "/a/", "/b/c",
+        "/*", "/a/*", "/a/b/*", "/ab/*", "/c/d/*",
+        "*.html", "*.jsp", "*.b.html", "*.tar.gz", "*.",
+        ""
+    };
+
+    private static final String[] URIS = new String[] {
+        "", "/", "/a", "/a/", "/a/b", "/a/b/", "/a/b/c", "/a/b/c.html",
+        "/ab", "/ab/", "/ab/x.jsp", "/abc", "/b", "/b/c", "/b/c/d",
+        "/c/d", "/c/d/e.html", "/c/de", "/x.html", "/x.b.html", "/x.tar.gz",
+        "/x.gz", "/x.", "/a//b", "/a/x.jsp", "/d/a/b"
+    };
+
+    private List<PathResolver> createResolvers(final int mask, final boolean withDefault)
+    {
+        final List<PathResolver> resolvers = new ArrayList<PathResolver>();
+        for(int i = 0; i < PATTERNS.length; i++)
+        {
+            if ( (mask & (1 << i)) != 0 )
+            {
+                resolvers.add(PathResolverFactory.createPatternMatcher(null, PATTERNS[i]));
+            }
+        }
+        // http service registrations match exact and by path
+        resolvers.add(new PathResolverFactory.ExactAndPathMatcher(null, "/a/b"));
+        resolvers.add(new PathResolverFactory.ExactAndPathMatcher(null, "/x"));
+        resolvers.add(PathResolverFactory.createRegexMatcher(".*/e\\..*"));
+        if ( withDefault )
+        {
+            resolvers.add(PathResolverFactory.createPatternMatcher(null, "/"));
+        }
+        Collections.sort(resolvers);
+        return resolvers;
+    }
+
+    private void assertSameAsLinearScan(final List<PathResolver> resolvers)
+    {
+        final PathIndex index = new PathIndex(resolvers);
+        for(final String uri : URIS)
+        {
+            int first = -1;
+            final BitSet all = new BitSet();
+            for(int i = 0; i < resolvers.size(); i++)
+            {
+                if ( resolvers.get(i).resolve(uri) != null )
+                {
+                    if ( first == -1 )
+                    {
+                        first = i;
+                    }
+                    all.set(i);
+                }
+            }
+            assertEquals(uri + " " + resolvers, first, index.findFirst(uri));
+
+            final BitSet found = new BitSet();
+            index.findAll(uri, found);
+            assertEquals(uri + " " + resolvers, all, found);
+        }
+    }
+
+    @Test public void testEmptyIndex()
+    {
+        final PathIndex index = new PathIndex(Collections.<PathResolver>emptyList());
+        assertEquals(0, index.size());
+        assertEquals(-1, index.findFirst("/a"));
+        final BitSet found = new BitSet();
+        index.findAll("/a", found);
+        assertEquals(0, found.cardinality());
+    }
+
+    @Test public void testAllPatterns()
+    {
+        assertSameAsLinearScan(createResolvers(-1, true));
+        assertSameAsLinearScan(createResolvers(-1, false));
+    }
+
+    @Test public void testPatternSubsets()
+    {
+        // use a deterministic selection of pattern combinations
+        for(int mask = 0; mask < (1 << PATTERNS.length); mask += 101)
+        {
+            assertSameAsLinearScan(createResolvers(mask, (mask & 1) == 0));
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.log;
 
+import java.util.Collections;
 import java.util.Enumeration;
 
 import org.osgi.framework.Bundle;
@@ -41,16 +42,10 @@ import org.osgi.service.log.LogListener;
  */
 final class Log implements BundleListener, FrameworkListener, ServiceListener
 {
-    /** The first log entry. */
-    private LogNode m_head;
-    /** The last log entry. */
-    private LogNode m_tail;
-    /** The log size. */
-    private int m_size;
+    /** The historic log, <code>null</code> if no history is kept. */
+    private final LogBuffer m_history;
     /** The log listener thread. */
-    private LogListenerThread listenerThread;
-    /** The maximum size for the log. */
-    private final int m_maxSize;
+    private volatile LogListenerThread listenerThread;
     /** Whether or not to store debug messages. */
     private final boolean m_storeDebug;
 
@@ -61,7 +56,7 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      */
     Log(final int maxSize, final boolean storeDebug)
     {
-        this.m_maxSize = maxSize;
+        this.m_history = (maxSize != 0) ? new LogBuffer(maxSize) : null;
         this.m_storeDebug = storeDebug;
     }
 
@@ -76,9 +71,10 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
             listenerThread = null;
         }
 
-        m_head = null;
-        m_tail = null;
-        m_size = 0;
+        if (m_history != null)
+        {
+            m_history.clear();
+        }
     }
 
     void log(
@@ -93,56 +89,23 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
     }
 
     /**
-     * Adds the entry to the log.
+     * Adds the entry to the log.  This method does not block, so entries may
+     * be added concurrently by any number of threads.
      * @param entry the entry to add to the log
      */
-    synchronized void addEntry(final LogEntry entry)
+    void addEntry(final LogEntry entry)
     {
-        if (m_maxSize != 0)
+        // add the entry to the historic log
+        if (m_history != null && (m_storeDebug || entry.getLogLevel() != LogLevel.DEBUG))
         {
-            // add the entry to the historic log
-            if (m_storeDebug || entry.getLogLevel() != LogLevel.DEBUG)
-            {
-                // create a new node for the entry
-                LogNode node = new LogNode(entry);
-
-                // add to the front of the linked list
-                node.setNextNode(m_head);
-                if (m_head != null)
-                {
-                    m_head.setPreviousNode(node);
-                }
-
-                // and store the node
-                m_head = node;
-
-                // bump the size of the list
-                ++m_size;
-
-                // if no tail node - add the node to the tail
-                if (m_tail == null)
-                {
-                    m_tail = node;
-                }
-            }
-
-            // ensure the historic log doesn't grow beyond a certain size
-            if (m_maxSize != -1)
-            {
-                if (m_size > m_maxSize)
-                {
-                    LogNode last = m_tail.getPreviousNode();
-                    last.setNextNode(null);
-                    m_tail = last;
-                    --m_size;
-                }
-            }
+            m_history.add(entry);
         }
 
         // notify any listeners
-        if (listenerThread != null)
+        final LogListenerThread thread = listenerThread;
+        if (thread != null)
         {
-            listenerThread.addEntry(entry);
+            thread.addEntry(entry);
         }
     }
 
@@ -185,9 +148,13 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      * Returns an enumeration of all the entries in the log most recent first.
      * @return an enumeration of all the entries in the log most recent first
      */
-    synchronized Enumeration<LogEntry> getEntries()
+    Enumeration<LogEntry> getEntries()
     {
-        return new LogNodeEnumeration(m_head, m_tail);
+        if (m_history == null)
+        {
+            return Collections.emptyEnumeration();
+        }
+        return m_history.getEntries();
     }
 
     /** The messages returned for the framework events. */
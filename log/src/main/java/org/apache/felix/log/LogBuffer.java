@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.osgi.service.log.LogEntry;
+
+/**
+ * The historic log.  A bounded log is kept in a preallocated ring buffer
+ * which producers claim slots of by incrementing a sequence counter, so
+ * adding entries from several threads does not require a lock.  An
+ * unbounded log is kept in a concurrent deque.
+ */
+final class LogBuffer
+{
+    /** The ring buffer slots, <code>null</code> if the log is unbounded. */
+    private final AtomicReferenceArray<Slot> m_slots;
+    /** The next sequence to claim. */
+    private final AtomicLong m_sequence = new AtomicLong();
+    /** The unbounded log, <code>null</code> if the log is bounded. */
+    private final ConcurrentLinkedDeque<LogEntry> m_unbounded;
+
+    /**
+     * Create a new instance.
+     * @param maxSize the maximum number of entries to keep or -1 to keep
+     *      all entries
+     */
+    LogBuffer(final int maxSize)
+    {
+        if (maxSize < 0)
+        {
+            m_slots = null;
+            m_unbounded = new ConcurrentLinkedDeque<>();
+        }
+        else
+        {
+            m_slots = new AtomicReferenceArray<>(maxSize);
+            m_unbounded = null;
+        }
+    }
+
+    /**
+     * Adds an entry to the log, overwriting the oldest entry if the log is full.
+     * @param entry the entry to add
+     */
+    void add(final LogEntry entry)
+    {
+        if (m_slots == null)
+        {
+            m_unbounded.addFirst(entry);
+            return;
+        }
+
+        publish(m_sequence.getAndIncrement(), entry);
+    }
+
+    /**
+     * Publishes an entry in the slot of a claimed sequence of a bounded log.
+     * @param sequence the sequence claimed for the entry
+     * @param entry the entry to publish
+     */
+    void publish(final long sequence, final LogEntry entry)
+    {
+        final int index = (int) (sequence % m_slots.length());
+        final Slot slot = new Slot(sequence, entry);
+        for (;;)
+        {
+            // a producer which has been overtaken by a full lap of the
+            // buffer must not overwrite the newer entry
+            final Slot current = m_slots.get(index);
+            if ((current != null && current.m_sequence > sequence)
+                || m_slots.compareAndSet(index, current, slot))
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the entries in the log, most recent first.  Entries
+     * whose slot has not been published yet or has already been overwritten
+     * when the snapshot is taken are not returned.
+     * @return an enumeration of the entries in the log most recent first
+     */
+    Enumeration<LogEntry> getEntries()
+    {
+        if (m_slots == null)
+        {
+            return Collections.enumeration(m_unbounded);
+        }
+
+        final long end = m_sequence.get();
+        final long start = Math.max(0, end - m_slots.length());
+        final List<LogEntry> entries = new ArrayList<>((int) (end - start));
+        for (long sequence = end - 1; sequence >= start; sequence--)
+        {
+            final Slot slot = m_slots.get((int) (sequence % m_slots.length()));
+            if (slot != null && slot.m_sequence == sequence)
+            {
+                entries.add(slot.m_entry);
+            }
+        }
+        return Collections.enumeration(entries);
+    }
+
+    /**
+     * Removes all entries from the log.
+     */
+    void clear()
+    {
+        if (m_slots == null)
+        {
+            m_unbounded.clear();
+        }
+        else
+        {
+            for (int i = 0; i < m_slots.length(); i++)
+            {
+                m_slots.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * A published ring buffer slot.
+     */
+    private static final class Slot
+    {
+        final long m_sequence;
+        final LogEntry m_entry;
+
+        Slot(final long sequence, final LogEntry entry)
+        {
+            m_sequence = sequence;
+            m_entry = entry;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Dictionary;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.log.FormatterLogger;
@@ -36,6 +37,7 @@ public class LoggerAdminImpl implements LoggerAdmin {
     private final LoggerContext m_rootContext;
     private final ConcurrentMap<String, LoggerContext> m_contexts = new ConcurrentHashMap<>();
     private final ConcurrentMap<LoggerKey, Logger> _loggers = new ConcurrentHashMap<>();
+    private final AtomicLong m_generation = new AtomicLong();
 
     public LoggerAdminImpl(final String defaultLogLevelString, final Log log) {
         m_rootContext = new RootLoggerContextImpl(defaultLogLevelString, this);
@@ -78,6 +80,19 @@ public class LoggerAdminImpl implements LoggerAdmin {
         m_contexts.put(name, loggerContext);
     }
 
+    /**
+     * Returns a counter which is incremented whenever the log levels of any
+     * logger context change. Loggers use it to invalidate their cached
+     * effective log level.
+     */
+    long getGeneration() {
+        return m_generation.get();
+    }
+
+    void levelsChanged() {
+        m_generation.incrementAndGet();
+    }
+
     @SuppressWarnings("unchecked")
     public <L extends Logger> L getLogger(
         final Bundle bundle, final String name, final Class<L> loggerType) {
@@ -38,6 +38,7 @@ public class LoggerImpl implements Logger {
     protected final Bundle m_bundle;
     protected final Log m_log;
     protected final LoggerAdminImpl m_loggerAdmin;
+    private volatile EffectiveLevel m_effectiveLevel;
 
     public LoggerImpl(final String name, final Bundle bundle, final Log log, final LoggerAdminImpl loggerAdmin) {
         m_name = name;
@@ -53,7 +54,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isTraceEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.TRACE);
+        return getEffectiveLogLevel().implies(LogLevel.TRACE);
     }
 
     void trace(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -68,18 +69,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void trace(String format, Object arg) {
+        if (!isTraceEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         trace(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void trace(String format, Object arg1, Object arg2) {
+        if (!isTraceEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         trace(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void trace(String format, Object... arguments) {
+        if (!isTraceEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         trace(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -93,7 +97,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isDebugEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.DEBUG);
+        return getEffectiveLogLevel().implies(LogLevel.DEBUG);
     }
 
     void debug(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -108,18 +112,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void debug(String format, Object arg) {
+        if (!isDebugEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         debug(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void debug(String format, Object arg1, Object arg2) {
+        if (!isDebugEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         debug(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void debug(String format, Object... arguments) {
+        if (!isDebugEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         debug(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -133,7 +140,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isInfoEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.INFO);
+        return getEffectiveLogLevel().implies(LogLevel.INFO);
     }
 
     void info(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -148,18 +155,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void info(String format, Object arg) {
+        if (!isInfoEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         info(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void info(String format, Object arg1, Object arg2) {
+        if (!isInfoEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         info(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void info(String format, Object... arguments) {
+        if (!isInfoEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         info(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -173,7 +183,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isWarnEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.WARN);
+        return getEffectiveLogLevel().implies(LogLevel.WARN);
     }
 
     void warn(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -188,18 +198,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void warn(String format, Object arg) {
+        if (!isWarnEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         warn(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void warn(String format, Object arg1, Object arg2) {
+        if (!isWarnEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         warn(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void warn(String format, Object... arguments) {
+        if (!isWarnEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         warn(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -213,7 +226,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isErrorEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.ERROR);
+        return getEffectiveLogLevel().implies(LogLevel.ERROR);
     }
 
     void error(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -228,18 +241,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void error(String format, Object arg) {
+        if (!isErrorEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         error(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void error(String format, Object arg1, Object arg2) {
+        if (!isErrorEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         error(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void error(String format, Object... arguments) {
+        if (!isErrorEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         error(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -287,6 +303,23 @@ public class LoggerImpl implements Logger {
         m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception, Log.getStackTraceElement()));
     }
 
+    /**
+     * Returns the effective log level of this logger. The level is resolved
+     * through the logger contexts only when the log levels have been changed
+     * or the bundle has been updated since it was last resolved.
+     */
+    LogLevel getEffectiveLogLevel() {
+        EffectiveLevel effectiveLevel = m_effectiveLevel;
+        long generation = m_loggerAdmin.getGeneration();
+        long lastModified = m_bundle.getLastModified();
+        if (effectiveLevel == null || effectiveLevel.generation != generation || effectiveLevel.lastModified != lastModified) {
+            LogLevel level = m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name);
+            effectiveLevel = new EffectiveLevel(level, generation, lastModified);
+            m_effectiveLevel = effectiveLevel;
+        }
+        return effectiveLevel.level;
+    }
+
     LogParameters getLogParameters(Object arg) {
         return getLogParameters0(arg);
     }
@@ -374,4 +407,15 @@ public class LoggerImpl implements Logger {
         final Throwable t;
     }
 
+    static class EffectiveLevel {
+        public EffectiveLevel(LogLevel level, long generation, long lastModified) {
+            this.level = level;
+            this.generation = generation;
+            this.lastModified = lastModified;
+        }
+        final LogLevel level;
+        final long generation;
+        final long lastModified;
+    }
+
 }
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogBufferTest
+{
+    @Test
+    public void testWrapAround()
+    {
+        final LogBuffer buffer = new LogBuffer(3);
+        final LogEntry[] entries = createEntries(5);
+        for (LogEntry entry : entries)
+        {
+            buffer.add(entry);
+        }
+
+        // only the three most recent entries are kept, most recent first
+        assertEquals(Arrays.asList(entries[4], entries[3], entries[2]), Collections.list(buffer.getEntries()));
+    }
+
+    @Test
+    public void testOvertakenProducer()
+    {
+        final LogBuffer buffer = new LogBuffer(2);
+        final LogEntry[] entries = createEntries(4);
+        buffer.add(entries[0]);
+        buffer.add(entries[1]);
+        buffer.add(entries[2]);
+
+        // a producer which claimed the first sequence and is overtaken by a
+        // full lap publishes late, it must not overwrite the third entry
+        buffer.publish(0, entries[3]);
+        assertEquals(Arrays.asList(entries[2], entries[1]), Collections.list(buffer.getEntries()));
+    }
+
+    @Test
+    public void testUnbounded()
+    {
+        final LogBuffer buffer = new LogBuffer(-1);
+        final LogEntry[] entries = createEntries(1000);
+        for (LogEntry entry : entries)
+        {
+            buffer.add(entry);
+        }
+
+        final List<LogEntry> expected = new ArrayList<>(Arrays.asList(entries));
+        Collections.reverse(expected);
+        assertEquals(expected, Collections.list(buffer.getEntries()));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception
+    {
+        final LogBuffer buffer = new LogBuffer(100);
+        final Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++)
+        {
+            producers[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (LogEntry entry : createEntries(1000))
+                    {
+                        buffer.add(entry);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        for (Thread producer : producers)
+        {
+            producer.join();
+        }
+
+        assertEquals(100, Collections.list(buffer.getEntries()).size());
+    }
+
+    @Test
+    public void testClear()
+    {
+        final LogBuffer buffer = new LogBuffer(3);
+        buffer.add(createEntries(1)[0]);
+        buffer.clear();
+        assertFalse(buffer.getEntries().hasMoreElements());
+    }
+
+    static LogEntry[] createEntries(final int count)
+    {
+        final LogEntry[] entries = new LogEntry[count];
+        for (int i = 0; i < count; i++)
+        {
+            entries[i] = new LogEntryImpl("test", null, null, LogLevel.INFO, "message " + i, null, null);
+        }
+        return entries;
+    }
+}
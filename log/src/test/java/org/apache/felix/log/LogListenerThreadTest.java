@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+
+public class LogListenerThreadTest
+{
+    private LogListenerThread m_thread;
+
+    private final List<LogEntry> m_delivered = new CopyOnWriteArrayList<>();
+
+    private volatile CountDownLatch m_latch;
+
+    @Before
+    public void setUp()
+    {
+        m_thread = new LogListenerThread();
+        m_thread.addListener(new LogListener()
+        {
+            public void logged(final LogEntry entry)
+            {
+                m_delivered.add(entry);
+                m_latch.countDown();
+            }
+        });
+        m_thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        m_thread.shutdown();
+        m_thread.join(5000);
+    }
+
+    @Test
+    public void testDeliveryAfterPark() throws Exception
+    {
+        final LogEntry[] entries = LogBufferTest.createEntries(2);
+        for (LogEntry entry : entries)
+        {
+            // the entry must unpark the thread which waits for entries
+            awaitParked();
+            m_latch = new CountDownLatch(1);
+            m_thread.addEntry(entry);
+            assertTrue(m_latch.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(entries), m_delivered);
+    }
+
+    @Test
+    public void testDeliveryOrder() throws Exception
+    {
+        final LogEntry[] entries = LogBufferTest.createEntries(1000);
+        m_latch = new CountDownLatch(entries.length);
+        for (LogEntry entry : entries)
+        {
+            m_thread.addEntry(entry);
+        }
+        assertTrue(m_latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(entries), m_delivered);
+    }
+
+    @Test
+    public void testShutdown() throws Exception
+    {
+        awaitParked();
+        m_thread.shutdown();
+        m_thread.join(5000);
+        assertFalse(m_thread.isAlive());
+    }
+
+    private void awaitParked() throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 5000;
+        while (m_thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, m_thread.getState());
+    }
+}
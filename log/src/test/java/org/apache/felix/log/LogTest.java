@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogTest
+{
+    @Test
+    public void testNoHistory()
+    {
+        final Log log = new Log(0, true);
+        log.addEntry(LogBufferTest.createEntries(1)[0]);
+        assertFalse(log.getEntries().hasMoreElements());
+    }
+
+    @Test
+    public void testGetLogOrder()
+    {
+        final Log log = new Log(-1, false);
+        final LogEntry[] entries = LogBufferTest.createEntries(3);
+        for (LogEntry entry : entries)
+        {
+            log.addEntry(entry);
+        }
+        log.addEntry(new LogEntryImpl("test", null, null, LogLevel.DEBUG, "debug", null, null));
+
+        // debug entries are not stored, the others are returned most recent first
+        assertEquals(Arrays.asList(entries[2], entries[1], entries[0]), Collections.list(log.getEntries()));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.service.log.FormatterLogger;
+import org.osgi.service.log.LogLevel;
+import org.osgi.service.log.Logger;
+
+public class LoggerImplTest
+{
+    private static final String BSN = "org.apache.felix.log.test";
+
+    private static final String NAME = "org.apache.felix.log.test.Component";
+
+    private final AtomicLong m_lastModified = new AtomicLong(1);
+
+    private volatile Version m_version = new Version(1, 0, 0);
+
+    private Log m_log;
+
+    private LoggerAdminImpl m_loggerAdmin;
+
+    private Logger m_logger;
+
+    @Before
+    public void setUp()
+    {
+        m_log = new Log(100, true);
+        m_loggerAdmin = new LoggerAdminImpl("WARN", m_log);
+        m_logger = m_loggerAdmin.getLogger(createBundle(), NAME, Logger.class);
+    }
+
+    @Test
+    public void testSetLogLevelsInvalidatesCachedLevel()
+    {
+        assertFalse(m_logger.isDebugEnabled());
+
+        m_loggerAdmin.getLoggerContext(null).setLogLevels(Collections.singletonMap(NAME, LogLevel.DEBUG));
+        assertTrue(m_logger.isDebugEnabled());
+        assertFalse(m_logger.isTraceEnabled());
+
+        // the bundle's context overrides the root context
+        m_loggerAdmin.getLoggerContext(BSN).setLogLevels(Collections.singletonMap(NAME, LogLevel.TRACE));
+        assertTrue(m_logger.isTraceEnabled());
+    }
+
+    @Test
+    public void testClearInvalidatesCachedLevel()
+    {
+        m_loggerAdmin.getLoggerContext(BSN).setLogLevels(Collections.singletonMap(NAME, LogLevel.INFO));
+        assertTrue(m_logger.isInfoEnabled());
+
+        m_loggerAdmin.getLoggerContext(BSN).clear();
+        assertFalse(m_logger.isInfoEnabled());
+        assertTrue(m_logger.isWarnEnabled());
+    }
+
+    @Test
+    public void testConfigurationUpdateInvalidatesCachedLevel()
+    {
+        assertFalse(m_logger.isInfoEnabled());
+
+        final Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(NAME, "info");
+        m_loggerAdmin.updateConfiguration(BSN, properties);
+        assertTrue(m_logger.isInfoEnabled());
+
+        // a deleted configuration falls back to the default level
+        m_loggerAdmin.updateConfiguration(BSN, null);
+        assertFalse(m_logger.isInfoEnabled());
+    }
+
+    @Test
+    public void testBundleUpdateInvalidatesCachedLevel()
+    {
+        m_loggerAdmin.getLoggerContext(BSN + "|2.0.0").setLogLevels(Collections.singletonMap(NAME, LogLevel.ERROR));
+        assertTrue(m_logger.isWarnEnabled());
+
+        // the updated bundle uses the context of its new version
+        m_version = new Version(2, 0, 0);
+        m_lastModified.incrementAndGet();
+        assertFalse(m_logger.isWarnEnabled());
+        assertTrue(m_logger.isErrorEnabled());
+    }
+
+    @Test
+    public void testNoFormattingWhenDisabled()
+    {
+        final AtomicInteger formatted = new AtomicInteger();
+        final Object argument = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                formatted.incrementAndGet();
+                return "argument";
+            }
+        };
+
+        m_logger.debug("{}", argument);
+        m_logger.debug("{} {}", argument, argument);
+        m_logger.debug("{} {} {}", argument, argument, argument);
+        m_logger.trace("{}", argument);
+        m_logger.info("{} {}", argument, argument);
+        final Logger formatterLogger = m_loggerAdmin.getLogger(createBundle(), NAME, FormatterLogger.class);
+        formatterLogger.debug("%s", argument);
+        formatterLogger.info("%s %s", argument, argument);
+        assertEquals(0, formatted.get());
+        assertFalse(m_log.getEntries().hasMoreElements());
+
+        m_loggerAdmin.getLoggerContext(null).setLogLevels(Collections.singletonMap(NAME, LogLevel.DEBUG));
+        m_logger.debug("{} and {}", argument, argument);
+        formatterLogger.debug("%s", argument);
+        assertEquals(3, formatted.get());
+        assertEquals("argument", m_log.getEntries().nextElement().getMessage());
+    }
+
+    /**
+     * Create a bundle returning the version and last modification time of
+     * this test.
+     */
+    private Bundle createBundle()
+    {
+        return (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Bundle.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    switch (method.getName())
+                    {
+                        case "getSymbolicName":
+                            return BSN;
+                        case "getVersion":
+                            return m_version;
+                        case "getLocation":
+                            return "test:" + BSN;
+                        case "getBundleId":
+                            return 1L;
+                        case "getLastModified":
+                            return m_lastModified.get();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                }
+            });
+    }
+}
@@ -46,6 +46,10 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // Package spaces of resolved resources, keyed by their wiring, which are
+    // reused by subsequent resolves if incremental resolving is enabled.
+    private final Map<Wiring, WiredPackages> m_wiredPackages;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -90,12 +94,24 @@ public class ResolverImpl implements Resolver
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        private final Map<Wiring, WiredPackages> m_wiredPackages;
+        // Package spaces computed for the most recent permutation and the
+        // package spaces known to be consistent, shared by all permutations
+        private final Map<Resource, WiredPackages> m_memoizedPackages = new HashMap<Resource, WiredPackages>();
+        private final Set<Packages> m_consistentPackages =
+            Collections.newSetFromMap(new IdentityHashMap<Packages, Boolean>());
+        private long m_reusedPackagesCount = 0;
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
 
         static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
         {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+            return createSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, null);
+        }
+
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, Map<Wiring, WiredPackages> wiredPackages)
+        {
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, wiredPackages);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -103,9 +119,10 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, Map<Wiring, WiredPackages> wiredPackages)
         {
             m_resolveContext = resolveContext;
+            m_wiredPackages = wiredPackages;
             m_executor = executor;
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
@@ -140,6 +157,140 @@ public class ResolverImpl implements Resolver
             return m_usesCache;
         }
 
+        /**
+         * Returns the package space computed by a previous resolve for the
+         * given resolved resource, or null if there is none or its wiring
+         * has changed since. The package space of a resolved resource only
+         * depends on its wiring and the wirings of its providers, so it can
+         * be shared by all permutations and subsequent resolves. The host of
+         * a dynamic import is excluded, since its package space includes the
+         * import being resolved.
+         */
+        WiredPackages getWiredPackages(Resource resource)
+        {
+            if ((m_wiredPackages == null) || resource.equals(m_dynamicHost))
+            {
+                return null;
+            }
+            Wiring wiring = getContext().getWirings().get(resource);
+            if (wiring == null)
+            {
+                return null;
+            }
+            WiredPackages wired;
+            synchronized (m_wiredPackages)
+            {
+                wired = m_wiredPackages.get(wiring);
+            }
+            // Dynamic imports add wires to an existing wiring.
+            return ((wired != null)
+                && (wired.m_wireCount == wiring.getRequiredResourceWires(null).size()))
+                ? wired : null;
+        }
+
+        /**
+         * Adds the memoized package spaces of the previous permutation to the
+         * given map for all resources whose package space this permutation
+         * does not change. A package space only depends on the wire candidates
+         * of its resource and of all resources these transitively depend on,
+         * so it is reused if none of these wire candidates differ from the
+         * ones it was computed with.
+         */
+        void reuseUnchangedPackages(
+            Map<Resource, List<WireCandidate>> allWireCandidates,
+            Map<Resource, Packages> reusedPackages)
+        {
+            Map<Resource, List<Resource>> dependents = new HashMap<Resource, List<Resource>>();
+            List<Resource> changed = new ArrayList<Resource>();
+            for (Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+            {
+                Resource resource = entry.getKey();
+                for (WireCandidate w : entry.getValue())
+                {
+                    Resource provider = w.capability.getResource();
+                    List<Resource> list = dependents.get(provider);
+                    if (list == null)
+                    {
+                        list = new ArrayList<Resource>();
+                        dependents.put(provider, list);
+                    }
+                    list.add(resource);
+                }
+                if (!reusedPackages.containsKey(resource))
+                {
+                    WiredPackages memoized = m_memoizedPackages.get(resource);
+                    if ((memoized == null)
+                        || !equalWireCandidates(memoized.m_wireCandidates, entry.getValue()))
+                    {
+                        changed.add(resource);
+                    }
+                }
+            }
+
+            Set<Resource> affected = new HashSet<Resource>(changed);
+            while (!changed.isEmpty())
+            {
+                List<Resource> list = dependents.get(changed.remove(changed.size() - 1));
+                if (list != null)
+                {
+                    for (Resource dependent : list)
+                    {
+                        if (affected.add(dependent))
+                        {
+                            changed.add(dependent);
+                        }
+                    }
+                }
+            }
+
+            for (Resource resource : allWireCandidates.keySet())
+            {
+                if (!affected.contains(resource) && !reusedPackages.containsKey(resource))
+                {
+                    reusedPackages.put(resource, m_memoizedPackages.get(resource).m_packages);
+                    m_reusedPackagesCount++;
+                }
+            }
+        }
+
+        void memoizePackages(Resource resource, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_memoizedPackages.put(resource, new WiredPackages(-1, wireCandidates, packages));
+        }
+
+        long getReusedPackagesCount()
+        {
+            return m_reusedPackagesCount;
+        }
+
+        boolean isConsistent(Packages packages)
+        {
+            return m_consistentPackages.contains(packages);
+        }
+
+        void setConsistent(Packages packages)
+        {
+            m_consistentPackages.add(packages);
+        }
+
+        void putWiredPackages(Resource resource, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            if ((m_wiredPackages == null) || resource.equals(m_dynamicHost))
+            {
+                return;
+            }
+            Wiring wiring = getContext().getWirings().get(resource);
+            if (wiring != null)
+            {
+                WiredPackages wired = new WiredPackages(
+                    wiring.getRequiredResourceWires(null).size(), wireCandidates, packages);
+                synchronized (m_wiredPackages)
+                {
+                    m_wiredPackages.put(wiring, wired);
+                }
+            }
+        }
+
         void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
@@ -355,17 +506,37 @@ public class ResolverImpl implements Resolver
     }
 
     public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, false);
+    }
+
+    /**
+     * Creates a resolver that, if <code>incremental</code> is true, keeps the
+     * package spaces of resolved resources between resolve operations, so
+     * that resolving new resources against an existing set of wirings only
+     * computes the package spaces of the resources being resolved. The
+     * package spaces are tracked by wiring identity and are dropped once a
+     * wiring is no longer referenced.
+     */
+    public ResolverImpl(Logger logger, int parallelism, boolean incremental)
     {
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_wiredPackages = incremental ? new WeakHashMap<Wiring, WiredPackages>() : null;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, false);
+    }
+
+    public ResolverImpl(Logger logger, Executor executor, boolean incremental)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_wiredPackages = incremental ? new WeakHashMap<Wiring, WiredPackages>() : null;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -417,7 +588,7 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_wiredPackages);
         return doResolve(session);
     }
 
@@ -559,6 +730,7 @@ public class ResolverImpl implements Resolver
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
         Candidates allCandidates = null;
         boolean foundFaultyResources = false;
+        int permutations = 0;
         do
         {
             allCandidates = session.getNextPermutation();
@@ -566,6 +738,7 @@ public class ResolverImpl implements Resolver
             {
                 break;
             }
+            permutations++;
 
 //allCandidates.dump();
 
@@ -596,6 +769,12 @@ public class ResolverImpl implements Resolver
         }
         while (!session.isCancelled() && session.getCurrentError() != null);
 
+        if (m_logger.isDebugEnabled())
+        {
+            m_logger.debug("Checked " + permutations + " candidate permutation(s), reused "
+                + session.getReusedPackagesCount() + " package space(s).");
+        }
+
         return allCandidates;
     }
 
@@ -668,7 +847,7 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
-            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
+            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches, m_wiredPackages);
             return doResolve(session);
         }
 
@@ -1126,6 +1305,10 @@ public class ResolverImpl implements Resolver
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
+        // Package spaces of resolved resources and of resources unchanged by
+        // the current permutation, which are reused as is
+        final Map<Resource, Packages> reusedPackages = new ConcurrentHashMap<Resource, Packages>();
+
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
         {
@@ -1139,7 +1322,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    WiredPackages wired = session.getWiredPackages(resource);
+                    if (wired != null)
+                    {
+                        reusedPackages.put(resource, wired.m_packages);
+                        wireCandidates = wired.m_wireCandidates;
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1162,10 +1355,18 @@ public class ResolverImpl implements Resolver
             executor.await();
         }
 
+        session.reuseUnchangedPackages(allWireCandidates, reusedPackages);
+
         // Parallel get all exported packages
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages reused = reusedPackages.get(resource);
+            if (reused != null)
+            {
+                allPackages.put(resource, reused);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1182,6 +1383,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (reusedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1200,7 +1405,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !reusedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1211,7 +1416,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !reusedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1432,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (reusedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1237,6 +1446,18 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Keep the now complete package spaces for subsequent permutations
+        // and, for resolved resources, subsequent resolves
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            if (!reusedPackages.containsKey(entry.getKey()))
+            {
+                Packages packages = allPackages.get(entry.getKey());
+                session.putWiredPackages(entry.getKey(), entry.getValue(), packages);
+                session.memoizePackages(entry.getKey(), entry.getValue(), packages);
+            }
+        }
+
         return allPackages;
     }
 
@@ -1310,6 +1531,15 @@ public class ResolverImpl implements Resolver
 
         Packages pkgs = resourcePkgMap.get(resource);
 
+        // A package space that was found to be consistent by a previous
+        // permutation, including the package spaces of all resources it
+        // depends on, is still consistent.
+        if (session.isConsistent(pkgs))
+        {
+            resultCache.put(resource, Boolean.TRUE);
+            return null;
+        }
+
         ResolutionError rethrow = null;
 
         // Check for conflicting imports from fragments.
@@ -1490,6 +1720,9 @@ public class ResolverImpl implements Resolver
         // of permutations so we know if the lower level check was
         // able to create a permutation or not in the case of failure.
         long permCount = session.getPermutationCount();
+        // Dependencies that are still being checked further up the stack
+        // because of a cycle are not known to be consistent yet.
+        boolean verified = true;
         for (Requirement req : resource.getRequirements(null))
         {
             Capability cap = allCandidates.getFirstCandidate(req);
@@ -1500,6 +1733,8 @@ public class ResolverImpl implements Resolver
                     rethrow = checkPackageSpaceConsistency(
                             session, cap.getResource(),
                             allCandidates, false, resourcePkgMap, resultCache);
+                    verified &= session.getContext().getWirings().containsKey(cap.getResource())
+                        || session.isConsistent(resourcePkgMap.get(cap.getResource()));
                     if (session.isCancelled()) {
                         return null;
                     }
@@ -1518,6 +1753,10 @@ public class ResolverImpl implements Resolver
                 }
             }
         }
+        if (verified)
+        {
+            session.setConsistent(pkgs);
+        }
         return null;
     }
     
@@ -2091,6 +2330,38 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    private static boolean equalWireCandidates(List<WireCandidate> l1, List<WireCandidate> l2)
+    {
+        if (l1.size() != l2.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < l1.size(); i++)
+        {
+            WireCandidate w1 = l1.get(i);
+            WireCandidate w2 = l2.get(i);
+            if (!w1.requirement.equals(w2.requirement) || !w1.capability.equals(w2.capability))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class WiredPackages
+    {
+        public final int m_wireCount;
+        public final List<WireCandidate> m_wireCandidates;
+        public final Packages m_packages;
+
+        public WiredPackages(int wireCount, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wireCount = wireCount;
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+    }
+
     public static class Packages
     {
         public final OpenHashMap<String, Blame> m_exportedPkgs;
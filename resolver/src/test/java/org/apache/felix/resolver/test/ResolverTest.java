@@ -913,6 +913,81 @@ public class ResolverTest
         resolver.resolve(rci);
     }
 
+    @Test
+    public void testIncrementalResolve() throws Exception
+    {
+        ResourceImpl core = new ResourceImpl("core");
+        Capability core_pkgCap1 = addCap(core, PackageNamespace.PACKAGE_NAMESPACE, "pkg1");
+        Capability core_pkgCap2 = addCap(core, PackageNamespace.PACKAGE_NAMESPACE, "pkg2", "pkg1");
+
+        ResourceImpl lib = new ResourceImpl("lib");
+        Requirement lib_pkgReq1 = addReq(lib, PackageNamespace.PACKAGE_NAMESPACE, "pkg1");
+        Capability lib_pkgCap3 = addCap(lib, PackageNamespace.PACKAGE_NAMESPACE, "pkg3", "pkg1");
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        wires.put(core, new ArrayList<Wire>());
+        wires.put(lib, new ArrayList<Wire>());
+        wires.get(lib).add(new SimpleWire(lib_pkgReq1, core_pkgCap1));
+        invertedWires.put(core, new ArrayList<Wire>(wires.get(lib)));
+        invertedWires.put(lib, new ArrayList<Wire>());
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        final Wiring coreWiring = new SimpleWiring(core,
+            Arrays.asList(core_pkgCap1, core_pkgCap2), wires, invertedWires);
+        final Wiring libWiring = new SimpleWiring(lib,
+            Arrays.<Capability> asList(lib_pkgCap3), wires, invertedWires);
+        wirings.put(core, coreWiring);
+        wirings.put(lib, libWiring);
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1, true);
+        final Map<Wiring, Integer> computed = new HashMap<Wiring, Integer>();
+        for (int i = 0; i < 3; i++)
+        {
+            ResourceImpl client = new ResourceImpl("client" + i);
+            Requirement client_pkgReq2 = addReq(client, PackageNamespace.PACKAGE_NAMESPACE, "pkg2");
+            Requirement client_pkgReq3 = addReq(client, PackageNamespace.PACKAGE_NAMESPACE, "pkg3");
+            Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+            candMap.put(client_pkgReq2, Collections.singletonList(core_pkgCap2));
+            candMap.put(client_pkgReq3, Collections.singletonList(lib_pkgCap3));
+
+            if (i == 2)
+            {
+                // A dynamic import adds a wire to the existing wiring of lib.
+                ResourceImpl dyn = new ResourceImpl("dyn");
+                Capability dyn_pkgCap = addCap(dyn, PackageNamespace.PACKAGE_NAMESPACE, "pkg4");
+                wires.get(lib).add(new SimpleWire(
+                    addReq(lib, PackageNamespace.PACKAGE_NAMESPACE, "pkg4"), dyn_pkgCap));
+                wires.put(dyn, new ArrayList<Wire>());
+                invertedWires.put(dyn, new ArrayList<Wire>(Collections.singletonList(
+                    wires.get(lib).get(1))));
+                wirings.put(dyn, new SimpleWiring(dyn,
+                    Arrays.asList(dyn_pkgCap), wires, invertedWires));
+            }
+
+            ResolveContext rci = new ResolveContextImpl.FelixResolveContextImpl(wirings, candMap,
+                Collections.<Resource> singletonList(client), Collections.<Resource> emptyList(),
+                Collections.<Wiring, List<Wire>> emptyMap())
+            {
+                @Override
+                public List<Wire> getSubstitutionWires(Wiring wiring)
+                {
+                    Integer count = computed.get(wiring);
+                    computed.put(wiring, (count == null) ? 1 : count + 1);
+                    return super.getSubstitutionWires(wiring);
+                }
+            };
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            assertEquals(1, wireMap.size());
+            assertEquals(2, wireMap.get(client).size());
+        }
+
+        // The package space of core was computed once and then reused, the
+        // one of lib again after its wiring changed.
+        assertEquals(Integer.valueOf(1), computed.get(coreWiring));
+        assertEquals(Integer.valueOf(2), computed.get(libWiring));
+    }
+
     private ResolveContext populateScenario17(boolean realSubstitute,
         boolean felixResolveContext, boolean existingWirings)
     {
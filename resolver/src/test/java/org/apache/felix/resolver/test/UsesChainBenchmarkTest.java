@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.test.util.GenericCapability;
+import org.apache.felix.resolver.test.util.GenericRequirement;
+import org.apache.felix.resolver.test.util.ResolveContextImpl;
+import org.apache.felix.resolver.test.util.ResourceImpl;
+import org.junit.Test;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.ResolveContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Resolves chains of packages with uses constraints, where every chain has
+ * several alternative providers per package and the root of the chain only
+ * accepts the last provider of the bottom package. The first candidates of
+ * all chain imports conflict with that choice, so the resolver has to go
+ * through a number of permutations that each change a single chain.
+ */
+public class UsesChainBenchmarkTest
+{
+    private static final Pattern PERMUTATIONS = Pattern.compile(
+        "Checked (\\d+) candidate permutation\\(s\\), reused (\\d+) package space\\(s\\)\\.");
+
+    @Test
+    public void testUsesChains() throws Exception
+    {
+        int chains = 4;
+        int depth = 5;
+        int alternatives = 3;
+        CountingLogger logger = new CountingLogger();
+        ResolverImpl resolver = new ResolverImpl(logger, 1);
+
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(
+            buildResolveContext(chains, depth, alternatives));
+
+        assertEquals(chains, count(wireMap, "root"));
+        for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            for (Wire wire : entry.getValue())
+            {
+                // Every import of a bottom package must end at the only
+                // provider the roots accept.
+                if (wire.getCapability().getAttributes().get(
+                    PackageNamespace.PACKAGE_NAMESPACE).toString().endsWith(".0"))
+                {
+                    assertTrue(getResourceName(wire.getProvider()),
+                        getResourceName(wire.getProvider()).endsWith("-0-" + (alternatives - 1)));
+                }
+            }
+        }
+        assertTrue(logger.m_permutations > 1);
+        assertTrue(logger.m_reused > 0);
+    }
+
+    @Test
+    public void testUnchangedPackageSpacesShared() throws Exception
+    {
+        for (int chains = 1; chains <= 8; chains *= 2)
+        {
+            CountingLogger logger = new CountingLogger();
+            ResolverImpl resolver = new ResolverImpl(logger, 1);
+            resolver.resolve(buildResolveContext(chains, 5, 3));
+
+            // Every permutation after the first changes a single chain, so
+            // the package spaces of at least the roots of all other chains
+            // are shared with the previous permutation.
+            assertTrue(logger.m_permutations > chains);
+            assertTrue(chains + " chains: " + logger.m_reused + " reused in "
+                + logger.m_permutations + " permutations",
+                logger.m_reused >= (logger.m_permutations - 1) * (chains - 1));
+        }
+    }
+
+    private static ResolveContext buildResolveContext(int chains, int depth, int alternatives)
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = new ArrayList<Resource>();
+        for (int c = 0; c < chains; c++)
+        {
+            List<Capability> previous = null;
+            for (int d = 0; d <= depth; d++)
+            {
+                List<Capability> current = new ArrayList<Capability>();
+                for (int a = 0; a < alternatives; a++)
+                {
+                    ResourceImpl provider = new ResourceImpl("provider-" + c + "-" + d + "-" + a);
+                    current.add(addCap(provider, "pkg." + c + "." + d,
+                        (previous != null) ? "pkg." + c + "." + (d - 1) : null));
+                    if (previous != null)
+                    {
+                        candMap.put(addReq(provider, "pkg." + c + "." + (d - 1)), previous);
+                    }
+                }
+                if (d == 0)
+                {
+                    ResourceImpl root = new ResourceImpl("root-" + c);
+                    candMap.put(addReq(root, "pkg." + c + ".0"),
+                        Collections.singletonList(current.get(alternatives - 1)));
+                    mandatory.add(root);
+                }
+                previous = current;
+            }
+            ResourceImpl root = (ResourceImpl) mandatory.get(c);
+            candMap.put(addReq(root, "pkg." + c + "." + depth), previous);
+        }
+        return new ResolveContextImpl(Collections.<Resource, Wiring> emptyMap(), candMap,
+            mandatory, Collections.<Resource> emptyList());
+    }
+
+    private static Capability addCap(ResourceImpl res, String pkg, String uses)
+    {
+        GenericCapability cap = new GenericCapability(res, PackageNamespace.PACKAGE_NAMESPACE);
+        cap.addAttribute(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+        if (uses != null)
+        {
+            cap.addDirective(Namespace.CAPABILITY_USES_DIRECTIVE, uses);
+        }
+        res.addCapability(cap);
+        return cap;
+    }
+
+    private static Requirement addReq(ResourceImpl res, String pkg)
+    {
+        GenericRequirement req = new GenericRequirement(res, PackageNamespace.PACKAGE_NAMESPACE);
+        req.addDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE,
+            "(" + PackageNamespace.PACKAGE_NAMESPACE + "=" + pkg + ")");
+        res.addRequirement(req);
+        return req;
+    }
+
+    private static int count(Map<Resource, List<Wire>> wireMap, String prefix)
+    {
+        int count = 0;
+        for (Resource resource : wireMap.keySet())
+        {
+            if (getResourceName(resource).startsWith(prefix))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String getResourceName(Resource r)
+    {
+        return r.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE).get(0).getAttributes()
+                .get(IdentityNamespace.IDENTITY_NAMESPACE).toString();
+    }
+
+    private static class CountingLogger extends Logger
+    {
+        private long m_permutations;
+        private long m_reused;
+
+        CountingLogger()
+        {
+            super(Logger.LOG_DEBUG);
+        }
+
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+            Matcher matcher = PERMUTATIONS.matcher(msg);
+            if (matcher.matches())
+            {
+                m_permutations += Long.parseLong(matcher.group(1));
+                m_reused += Long.parseLong(matcher.group(2));
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.scr.impl;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +72,12 @@ public class Activator extends AbstractExtender
     //  thread acting upon configurations
     private ComponentActorThread m_componentActor;
 
+    // cache of parsed component descriptors, null if there is no data area
+    private DescriptorCache m_descriptorCache;
+
+    // enables the components of started bundles
+    private ComponentActivationScheduler m_activationScheduler;
+
     private ServiceRegistration<ServiceComponentRuntime> m_runtime_reg;
 
     private ComponentCommands m_componentCommands;
@@ -153,7 +160,10 @@ public class Activator extends AbstractExtender
         m_componentBundles = new HashMap<>();
         m_componentRegistry = new ComponentRegistry( this.logger );
 
-        final ServiceComponentRuntimeImpl runtime = new ServiceComponentRuntimeImpl( m_globalContext, m_componentRegistry );
+        m_activationScheduler = new ComponentActivationScheduler( m_configuration.activationThreads(), this.logger );
+
+        final ServiceComponentRuntimeImpl runtime = new ServiceComponentRuntimeImpl( m_globalContext, m_componentRegistry,
+            m_activationScheduler );
         m_runtime_reg = m_context.registerService( ServiceComponentRuntime.class,
                 runtime,
                 m_componentRegistry.getServiceRegistrationProperties() );
@@ -163,6 +173,14 @@ public class Activator extends AbstractExtender
         logger.log( LogService.LOG_INFO, " Version = {0}",
             null, m_bundle.getVersion().toString() );
 
+        // prepare the descriptor cache in our data area
+        final File cacheDirectory = m_context.getDataFile( "descriptors" );
+        if ( cacheDirectory != null )
+        {
+            m_descriptorCache = new DescriptorCache( cacheDirectory, m_bundle );
+            m_descriptorCache.cleanup( m_globalContext );
+        }
+
         // create and start the component actor
         m_componentActor = new ComponentActorThread( this.logger );
         Thread t = new Thread( m_componentActor, "SCR Component Actor" );
@@ -203,12 +221,24 @@ public class Activator extends AbstractExtender
             m_runtime_reg.unregister();
             m_runtime_reg = null;
         }
+        if ( m_activationScheduler != null )
+        {
+            m_activationScheduler.shutdown( m_configuration.stopTimeout() );
+        }
+
         // dispose component registry
         if ( m_componentRegistry != null )
         {
             m_componentRegistry = null;
         }
 
+        if ( m_descriptorCache != null )
+        {
+            logger.log( LogService.LOG_INFO, "Descriptor cache hits {0}, misses {1}, parse time {2}ms", null,
+                m_descriptorCache.getHits(), m_descriptorCache.getMisses(), m_descriptorCache.getParseTime() );
+            m_descriptorCache = null;
+        }
+
         // terminate the actor thread
         if ( m_componentActor != null )
         {
@@ -377,8 +407,8 @@ public class Activator extends AbstractExtender
         try
         {
             BundleComponentActivator ga = new BundleComponentActivator( this.logger, m_componentRegistry, m_componentActor,
-                context, m_configuration );
-            ga.initialEnable();
+                context, m_configuration, m_descriptorCache );
+            ga.initialEnable( m_activationScheduler );
 
             // replace bundle activator in the map
             synchronized ( m_componentBundles )
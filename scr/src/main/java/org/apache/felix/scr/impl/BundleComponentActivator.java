@@ -87,9 +87,15 @@ public class BundleComponentActivator implements ComponentActivator
     private final AtomicBoolean m_active = new AtomicBoolean( true );
     private final CountDownLatch m_closeLatch = new CountDownLatch( 1 );
 
+    // counted down as the components scheduled for enablement are enabled
+    private volatile CountDownLatch m_enableLatch;
+
     // the configuration
     private final ScrConfiguration m_configuration;
 
+    // the cache of parsed descriptors, null if caching is not possible
+    private final DescriptorCache m_descriptorCache;
+
     private final ConfigAdminTracker configAdminTracker;
 
     private final Map<String, ListenerInfo> listenerMap = new HashMap<>();
@@ -238,6 +244,8 @@ public class BundleComponentActivator implements ComponentActivator
      *      register components with to ensure uniqueness of component names
      *      and to ensure configuration updates.
      * @param   context  The bundle context owning the components
+     * @param descriptorCache The descriptor cache or <code>null</code> if
+     *      descriptors are not cached.
      *
      * @throws ComponentException if any error occurrs initializing this class
      */
@@ -245,7 +253,8 @@ public class BundleComponentActivator implements ComponentActivator
             final ComponentRegistry componentRegistry,
             final ComponentActorThread componentActor,
             final BundleContext context,
-            final ScrConfiguration configuration)
+            final ScrConfiguration configuration,
+            final DescriptorCache descriptorCache)
     throws ComponentException
     {
         // create a logger on behalf of the bundle
@@ -257,6 +266,7 @@ public class BundleComponentActivator implements ComponentActivator
         m_bundle = context.getBundle();
 
         m_configuration = configuration;
+        m_descriptorCache = descriptorCache;
 
         logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle active", null);
 
@@ -293,6 +303,21 @@ public class BundleComponentActivator implements ComponentActivator
     {
         logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Descriptor locations {0}", null, descriptorLocations );
 
+        DescriptorCache.Entries cachedDescriptors = null;
+        if ( m_descriptorCache != null )
+        {
+            try
+            {
+                cachedDescriptors = m_descriptorCache.load( m_bundle, m_configuration );
+            }
+            catch ( IOException ex )
+            {
+                logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Cannot read descriptor cache", ex );
+            }
+        }
+        final long hits = m_descriptorCache == null ? 0 : m_descriptorCache.getHits();
+        final long misses = m_descriptorCache == null ? 0 : m_descriptorCache.getMisses();
+
         // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
         StringTokenizer st = new StringTokenizer( descriptorLocations, ", " );
 
@@ -312,58 +337,102 @@ public class BundleComponentActivator implements ComponentActivator
             // load from the descriptors
             for ( URL descriptorURL : descriptorURLs )
             {
-                loadDescriptor( descriptorURL );
+                loadDescriptor( descriptorURL, cachedDescriptors );
             }
         }
+
+        if ( cachedDescriptors != null )
+        {
+            try
+            {
+                m_descriptorCache.store( m_bundle, cachedDescriptors );
+            }
+            catch ( IOException ex )
+            {
+                logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Cannot write descriptor cache", ex );
+            }
+            logger.log( LogService.LOG_DEBUG,
+                "BundleComponentActivator : Descriptor cache hits {0}, misses {1} (total hits {2}, misses {3}, parse time {4}ms)",
+                null, m_descriptorCache.getHits() - hits, m_descriptorCache.getMisses() - misses,
+                m_descriptorCache.getHits(), m_descriptorCache.getMisses(), m_descriptorCache.getParseTime() );
+        }
     }
 
     /**
      * Called outside the constructor so that the m_managers field is completely initialized.
      * A component might possibly start a thread to enable other components, which could access m_managers
+     *
+     * @param scheduler The scheduler enabling the components, either on the calling thread or concurrently
      */
-    void initialEnable()
+    void initialEnable( final ComponentActivationScheduler scheduler )
     {
-        //enable all the enabled components
-        for ( ComponentHolder<?> componentHolder : m_holders )
+        //enable all the enabled components, possibly concurrently
+        final CountDownLatch enableLatch = new CountDownLatch( m_holders.size() );
+        m_enableLatch = enableLatch;
+        for ( final ComponentHolder<?> componentHolder : m_holders )
         {
-            logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : May enable component holder {0}", null,
+            scheduler.schedule( m_bundle.getBundleId(), componentHolder.getComponentMetadata().getName(),
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            // don't enable components of a bundle being stopped
+                            if ( m_active.get() )
+                            {
+                                initialEnable( componentHolder );
+                            }
+                        }
+                        finally
+                        {
+                            enableLatch.countDown();
+                        }
+                    }
+                } );
+        }
+    }
+
+    private void initialEnable( final ComponentHolder<?> componentHolder )
+    {
+        logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : May enable component holder {0}", null,
+            componentHolder.getComponentMetadata().getName() );
+
+        if ( componentHolder.getComponentMetadata().isEnabled() )
+        {
+            logger.log( LogService.LOG_DEBUG, "BundleComponentActivator :Enabling component holder {0}", null,
                 componentHolder.getComponentMetadata().getName() );
 
-            if ( componentHolder.getComponentMetadata().isEnabled() )
+            try
             {
-                logger.log( LogService.LOG_DEBUG, "BundleComponentActivator :Enabling component holder {0}", null,
-                    componentHolder.getComponentMetadata().getName() );
+                componentHolder.enableComponents( false );
+            }
+            catch ( Throwable t )
+            {
+                // caught on unhandled RuntimeException or Error
+                // (e.g. ClassDefNotFoundError)
 
+                // make sure the component is properly disabled, just in case
                 try
                 {
-                    componentHolder.enableComponents( false );
+                    componentHolder.disableComponents( false );
                 }
-                catch ( Throwable t )
+                catch ( Throwable ignore )
                 {
-                    // caught on unhandled RuntimeException or Error
-                    // (e.g. ClassDefNotFoundError)
-
-                    // make sure the component is properly disabled, just in case
-                    try
-                    {
-                        componentHolder.disableComponents( false );
-                    }
-                    catch ( Throwable ignore )
-                    {
-                    }
-
-                    logger.log( LogService.LOG_ERROR,
-                        "BundleComponentActivator : Unexpected failure enabling component holder {0}", t,
-                        componentHolder.getComponentMetadata().getName() );
                 }
-            }
-            else
-            {
-                logger.log( LogService.LOG_DEBUG,
-                    "BundleComponentActivator : Will not enable component holder {0}", null,
+
+                logger.log( LogService.LOG_ERROR,
+                    "BundleComponentActivator : Unexpected failure enabling component holder {0}", t,
                     componentHolder.getComponentMetadata().getName() );
             }
         }
+        else
+        {
+            logger.log( LogService.LOG_DEBUG,
+                "BundleComponentActivator : Will not enable component holder {0}", null,
+                componentHolder.getComponentMetadata().getName() );
+        }
     }
 
     /**
@@ -411,7 +480,7 @@ public class BundleComponentActivator implements ComponentActivator
         return urls.toArray( new URL[urls.size()] );
     }
 
-    private void loadDescriptor(final URL descriptorURL)
+    private void loadDescriptor(final URL descriptorURL, final DescriptorCache.Entries cachedDescriptors)
     {
         // simple path for log messages
         final String descriptorLocation = descriptorURL.getPath();
@@ -419,25 +488,44 @@ public class BundleComponentActivator implements ComponentActivator
         InputStream stream = null;
         try
         {
-            stream = descriptorURL.openStream();
+            final long lastModified = cachedDescriptors == null ? 0 : DescriptorCache.getLastModified( descriptorURL );
+            List<ComponentMetadata> metadataList = cachedDescriptors == null ? null
+                : cachedDescriptors.get( descriptorURL, lastModified );
+            final boolean cached = metadataList != null;
+            if ( cached )
+            {
+                m_descriptorCache.recordHit();
+            }
+            else
+            {
+                final long start = System.nanoTime();
+                stream = descriptorURL.openStream();
 
-            BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
-            XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
-                getConfiguration().keepInstances() );
-            final KXml2SAXParser parser = new KXml2SAXParser( in );
+                BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
+                XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
+                    getConfiguration().keepInstances() );
+                final KXml2SAXParser parser = new KXml2SAXParser( in );
 
-            parser.parseXML( handler );
+                parser.parseXML( handler );
+                metadataList = handler.getComponentMetadataList();
+                if ( m_descriptorCache != null )
+                {
+                    m_descriptorCache.recordMiss( System.nanoTime() - start );
+                }
+            }
 
+            int validated = 0;
             // 112.4.2 Component descriptors may contain a single, root component element
             // or one or more component elements embedded in a larger document
-            for ( ComponentMetadata metadata : handler.getComponentMetadataList() )
+            for ( ComponentMetadata metadata : metadataList )
             {
                 final ComponentLogger componentLogger = new ComponentLogger(metadata, logger);
                 ComponentRegistryKey key = null;
                 try
                 {
-                    // validate the component metadata
+                    // validate the component metadata (a no-op for cached metadata)
                     metadata.validate( );
+                    validated++;
 
                     // check and reserve the component name (validate ensures it's never null)
                     key = m_componentRegistry.checkComponentName( m_bundle, metadata.getName() );
@@ -466,6 +554,20 @@ public class BundleComponentActivator implements ComponentActivator
                     }
                 }
             }
+
+            // only cache descriptors whose components are all valid, so invalid
+            // ones are reported again when parsed the next time
+            if ( !cached && cachedDescriptors != null && validated == metadataList.size() )
+            {
+                try
+                {
+                    cachedDescriptors.put( descriptorURL, lastModified, metadataList );
+                }
+                catch ( IOException ex )
+                {
+                    logger.log( LogService.LOG_DEBUG, "Cannot cache descriptor entry ''{0}''", ex, descriptorLocation );
+                }
+            }
         }
         catch ( IOException ex )
         {
@@ -504,6 +606,25 @@ public class BundleComponentActivator implements ComponentActivator
             logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Will destroy {0} instances",
                 null, m_holders.size() );
 
+            // wait for components currently being enabled by other threads; components
+            // not yet enabled are skipped. Don't wait if a component stops its own bundle
+            final CountDownLatch enableLatch = m_enableLatch;
+            if ( enableLatch != null && !ComponentActivationScheduler.isActivationThread() )
+            {
+                try
+                {
+                    if ( !enableLatch.await( m_configuration.lockTimeout(), TimeUnit.MILLISECONDS ) )
+                    {
+                        logger.log( LogService.LOG_WARNING,
+                            "BundleComponentActivator : Timeout waiting for components to be enabled", null );
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
             for ( ComponentHolder<?> holder : m_holders )
             {
                 try
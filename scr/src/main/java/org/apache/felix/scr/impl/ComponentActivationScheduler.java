@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>ComponentActivationScheduler</code> runs the initial enablement
+ * of the components of a bundle. By default the components are enabled one
+ * after the other on the calling thread. If activation threads are
+ * configured, each component is enabled on a bounded thread pool instead.
+ * <p>
+ * Enabling the components of different holders concurrently is safe as the
+ * component managers guard their state with their own locks and references
+ * are bound as the services they depend on get registered, regardless of the
+ * thread registering them.
+ * <p>
+ * For each enabled component the time waited for a thread and the time
+ * needed to enable (and activate) the component is recorded. The most recent
+ * {@link #TIMELINE_SIZE} records are kept.
+ */
+public class ComponentActivationScheduler
+{
+
+    static final int TIMELINE_SIZE = 1024;
+
+    // the thread pool, null if components are enabled on the calling thread
+    private final ThreadPoolExecutor m_executor;
+
+    private final ScrLogger m_logger;
+
+    private final ConcurrentLinkedQueue<Activation> m_timeline = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger m_timelineSize = new AtomicInteger();
+
+    // marks the threads enabling a component
+    private static final ThreadLocal<Boolean> ACTIVATION_THREAD = new ThreadLocal<>();
+
+
+    ComponentActivationScheduler( final int threads, final ScrLogger logger )
+    {
+        m_logger = logger;
+        if ( threads > 0 )
+        {
+            final AtomicInteger count = new AtomicInteger();
+            m_executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread( final Runnable r )
+                    {
+                        final Thread t = new Thread( r, "SCR Component Activator " + count.incrementAndGet() );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                } );
+            m_executor.allowCoreThreadTimeOut( true );
+        }
+        else
+        {
+            m_executor = null;
+        }
+    }
+
+
+    /**
+     * Returns <code>true</code> if components are enabled on a thread pool.
+     */
+    boolean isParallel()
+    {
+        return m_executor != null;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the calling thread is enabling a component.
+     */
+    static boolean isActivationThread()
+    {
+        return ACTIVATION_THREAD.get() != null;
+    }
+
+
+    /**
+     * Enables a component.
+     *
+     * @param bundleId The id of the bundle declaring the component
+     * @param name The name of the component
+     * @param task The task enabling the component
+     */
+    void schedule( final long bundleId, final String name, final Runnable task )
+    {
+        final long queued = System.nanoTime();
+        final Runnable timedTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final long start = System.nanoTime();
+                final Boolean previous = ACTIVATION_THREAD.get();
+                ACTIVATION_THREAD.set( Boolean.TRUE );
+                try
+                {
+                    task.run();
+                }
+                catch ( Throwable t )
+                {
+                    m_logger.log( LogService.LOG_ERROR, "Unexpected problem enabling component {0}", t, name );
+                }
+                finally
+                {
+                    ACTIVATION_THREAD.set( previous );
+                    record( new Activation( bundleId, name, System.currentTimeMillis(),
+                        TimeUnit.NANOSECONDS.toMicros( start - queued ),
+                        TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - start ),
+                        Thread.currentThread().getName() ) );
+                }
+            }
+
+
+            @Override
+            public String toString()
+            {
+                return "Enable component " + name;
+            }
+        };
+
+        final ExecutorService executor = m_executor;
+        if ( executor != null )
+        {
+            try
+            {
+                executor.execute( timedTask );
+                return;
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // shut down, enable on the calling thread
+            }
+        }
+        timedTask.run();
+    }
+
+
+    /**
+     * Stops the thread pool waiting for the scheduled components to be enabled.
+     */
+    void shutdown( final long timeout )
+    {
+        if ( m_executor != null )
+        {
+            m_executor.shutdown();
+            try
+            {
+                if ( !m_executor.awaitTermination( timeout, TimeUnit.MILLISECONDS ) )
+                {
+                    m_logger.log( LogService.LOG_WARNING, "Timeout waiting for components to be enabled", null );
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the recorded activations, oldest first.
+     */
+    public List<Activation> getTimeline()
+    {
+        return new ArrayList<>( m_timeline );
+    }
+
+
+    private void record( final Activation activation )
+    {
+        m_timeline.add( activation );
+        if ( m_timelineSize.incrementAndGet() > TIMELINE_SIZE && m_timeline.poll() != null )
+        {
+            m_timelineSize.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * The record of enabling a single component.
+     */
+    public static class Activation
+    {
+        private final long m_bundleId;
+
+        private final String m_name;
+
+        private final long m_timestamp;
+
+        private final long m_waitTime;
+
+        private final long m_enableTime;
+
+        private final String m_thread;
+
+
+        Activation( final long bundleId, final String name, final long timestamp, final long waitTime,
+            final long enableTime, final String thread )
+        {
+            m_bundleId = bundleId;
+            m_name = name;
+            m_timestamp = timestamp;
+            m_waitTime = waitTime;
+            m_enableTime = enableTime;
+            m_thread = thread;
+        }
+
+
+        public long getBundleId()
+        {
+            return m_bundleId;
+        }
+
+
+        public String getName()
+        {
+            return m_name;
+        }
+
+
+        /**
+         * Returns the time the component has been enabled, in milliseconds
+         * since the epoch.
+         */
+        public long getTimestamp()
+        {
+            return m_timestamp;
+        }
+
+
+        /**
+         * Returns the time waited for a thread to enable the component in
+         * microseconds.
+         */
+        public long getWaitTime()
+        {
+            return m_waitTime;
+        }
+
+
+        /**
+         * Returns the time needed to enable and possibly activate the
+         * component in microseconds.
+         */
+        public long getEnableTime()
+        {
+            return m_enableTime;
+        }
+
+
+        public String getThread()
+        {
+            return m_thread;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return m_name + " (bundle " + m_bundleId + "): waited " + m_waitTime + "us, enabled in " + m_enableTime
+                + "us on " + m_thread;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.runtime.ServiceComponentRuntimeImpl;
 import org.apache.felix.scr.info.ScrInfo;
 import org.apache.felix.service.command.Converter;
 import org.apache.felix.service.command.Descriptor;
@@ -98,7 +99,8 @@ public class ComponentCommands {
                 "disable",
                 "enable",
                 "info",
-                "list"
+                "list",
+                "timeline"
         });
         svcProps.put(Constants.SERVICE_DESCRIPTION, "SCR Gogo Shell Support");
         svcProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
@@ -225,6 +227,7 @@ public class ComponentCommands {
         out.put("Lock timeout ms", Long.toString(scrConfig.lockTimeout()));
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
+        out.put("Activation threads", Integer.toString(scrConfig.activationThreads()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
 
         StringBuilder builder = new StringBuilder();
@@ -232,6 +235,17 @@ public class ComponentCommands {
         return builder.toString();
     }
 
+    @Descriptor("Show the most recently enabled components")
+    public String timeline() {
+        StringBuilder builder = new StringBuilder();
+        if (scr instanceof ServiceComponentRuntimeImpl) {
+            for (ComponentActivationScheduler.Activation activation : ((ServiceComponentRuntimeImpl) scr).getActivationTimeline()) {
+                builder.append(activation).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
     public Object convert(Class<?> desiredType, Object in) throws Exception {
         throw new UnsupportedOperationException("Not implemented");
     }
@@ -21,17 +21,17 @@ package org.apache.felix.scr.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.scr.impl.inject.ComponentMethods;
 import org.apache.felix.scr.impl.inject.ComponentMethodsImpl;
@@ -70,21 +70,27 @@ public class ComponentRegistry
 
 
     /**
-     * The map of known components indexed by component name. The values are
-     * either null (for name reservations) or implementations
-     * of the {@link ComponentHolder} interface.
+     * The set of reserved component names.
      * <p>
      * The {@link #checkComponentName(String)} will first add an entry to this
-     * map with null value to reserve the name. After setting up
-     * the component, the {@link #registerComponentHolder(String, ComponentHolder)}
-     * method replaces the value of the named entry with the actual
-     * {@link ComponentHolder}.
+     * set to reserve the name. After setting up the component, the
+     * {@link #registerComponentHolder(String, ComponentHolder)} method adds the
+     * actual {@link ComponentHolder} to the {@link #m_componentHoldersByName}
+     * map.
      *
      * @see #checkComponentName(String)
+     * @see #unregisterComponentHolder(String)
+     */
+    private final ConcurrentMap<ComponentRegistryKey, Boolean> m_componentNames;
+
+    /**
+     * The map of known components indexed by component name. The values are
+     * implementations of the {@link ComponentHolder} interface.
+     *
      * @see #registerComponentHolder(String, ComponentHolder)
      * @see #unregisterComponentHolder(String)
      */
-    private final Map<ComponentRegistryKey, ComponentHolder<?>> m_componentHoldersByName;
+    private final ConcurrentMap<ComponentRegistryKey, ComponentHolder<?>> m_componentHoldersByName;
 
     /**
      * The map of known components indexed by component configuration pid. The values are
@@ -98,12 +104,15 @@ public class ComponentRegistry
      * {@link #getComponentHoldersByPid(String)} method which returns an iterator over all
      * components that are using the given pid for configuration.
      * <p>
+     * The Sets are never modified once stored in the map but replaced by
+     * updated copies while holding the map lock. Therefore lookups by pid
+     * do not need to synchronize.
      *
      * @see #registerComponentHolder(String, ComponentHolder)
      * @see #unregisterComponentHolder(String)
      * @see RegionConfigurationSupport#configurationEvent(org.osgi.service.cm.ConfigurationEvent)
      */
-    private final Map<String, Set<ComponentHolder<?>>> m_componentHoldersByPid;
+    private final ConcurrentMap<String, Set<ComponentHolder<?>>> m_componentHoldersByPid;
 
     /**
      * Map of components by component ID. This map indexed by the component
@@ -113,25 +122,31 @@ public class ComponentRegistry
      * @see #registerComponentId(AbstractComponentManager)
      * @see #unregisterComponentId(long)
      */
-    private final Map<Long, AbstractComponentManager<?>> m_componentsById;
+    private final ConcurrentMap<Long, AbstractComponentManager<?>> m_componentsById;
 
     /**
      * Counter to setup the component IDs as issued by the
      * {@link #registerComponentId(AbstractComponentManager)} method. This
      * counter is only incremented.
      */
-    private long m_componentCounter = -1;
+    private final AtomicLong m_componentCounter = new AtomicLong( -1 );
 
-    private final Map<ServiceReference<?>, List<Entry<?, ?>>> m_missingDependencies = new HashMap<>( );
+    /**
+     * Map of dependency managers waiting for a service by service reference.
+     * The lists are never modified once stored in the map but replaced by
+     * updated copies.
+     */
+    private final ConcurrentMap<ServiceReference<?>, List<Entry<?, ?>>> m_missingDependencies = new ConcurrentHashMap<>( );
 
     private final ScrLogger m_logger;
 
     public ComponentRegistry( final ScrLogger logger )
     {
         m_logger = logger;
-        m_componentHoldersByName = new HashMap<>();
-        m_componentHoldersByPid = new HashMap<>();
-        m_componentsById = new HashMap<>();
+        m_componentNames = new ConcurrentHashMap<>();
+        m_componentHoldersByName = new ConcurrentHashMap<>();
+        m_componentHoldersByPid = new ConcurrentHashMap<>();
+        m_componentsById = new ConcurrentHashMap<>();
 
     }
 
@@ -148,13 +163,8 @@ public class ComponentRegistry
      */
     final long registerComponentId( final AbstractComponentManager<?> componentManager )
     {
-        long componentId;
-        synchronized ( m_componentsById )
-        {
-            componentId = ++m_componentCounter;
-
-            m_componentsById.put( componentId, componentManager );
-        }
+        final long componentId = m_componentCounter.incrementAndGet();
+        m_componentsById.put( componentId, componentManager );
 
         return componentId;
     }
@@ -170,10 +180,7 @@ public class ComponentRegistry
      */
     final void unregisterComponentId( final long componentId )
     {
-        synchronized ( m_componentsById )
-        {
-            m_componentsById.remove( componentId );
-        }
+        m_componentsById.remove( componentId );
     }
 
 
@@ -196,25 +203,11 @@ public class ComponentRegistry
     {
         // register the name if no registration for that name exists already
         final ComponentRegistryKey key = new ComponentRegistryKey( bundle, name );
-        ComponentHolder<?> existingRegistration = null;
-        boolean present;
-        synchronized ( m_componentHoldersByName )
-        {
-            present = m_componentHoldersByName.containsKey( key );
-            if ( !present )
-            {
-                m_componentHoldersByName.put( key, null );
-            }
-            else
-            {
-                existingRegistration = m_componentHoldersByName.get( key );
-            }
-        }
-
         // there was a registration already, throw an exception and use the
         // existing registration to provide more information if possible
-        if ( present )
+        if ( m_componentNames.putIfAbsent( key, Boolean.TRUE ) != null )
         {
+            final ComponentHolder<?> existingRegistration = m_componentHoldersByName.get( key );
             String message = "The component name '" + name + "' has already been registered";
 
             if ( existingRegistration != null )
@@ -255,17 +248,12 @@ public class ComponentRegistry
         m_logger.log(LogService.LOG_DEBUG,
                 "Registering component with pid {0} for bundle {1}", null,
                 componentHolder.getComponentMetadata().getConfigurationPid(), key.getBundleId());
-        synchronized ( m_componentHoldersByName )
+        // only register the component if there is a m_registration for it !
+        if ( m_componentHoldersByName.putIfAbsent( key, componentHolder ) != null )
         {
-            // only register the component if there is a m_registration for it !
-            if ( m_componentHoldersByName.get( key ) != null )
-            {
-                // this is not expected if all works ok
-                throw new ComponentException( "The component name '{0}" + componentHolder.getComponentMetadata().getName()
-                    + "' has already been registered." );
-            }
-
-            m_componentHoldersByName.put( key, componentHolder );
+            // this is not expected if all works ok
+            throw new ComponentException( "The component name '{0}" + componentHolder.getComponentMetadata().getName()
+                + "' has already been registered." );
         }
 
         synchronized (m_componentHoldersByPid)
@@ -278,13 +266,10 @@ public class ComponentRegistry
                 // Since several components may refer to the same configuration pid, we have to
                 // store the component holder in a Set, in order to be able to lookup every
                 // components from a given pid.
-                Set<ComponentHolder<?>> set = m_componentHoldersByPid.get( configurationPid );
-                if ( set == null )
-                {
-                    set = new HashSet<>();
-                    m_componentHoldersByPid.put( configurationPid, set );
-                }
-                set.add( componentHolder );
+                final Set<ComponentHolder<?>> set = m_componentHoldersByPid.get( configurationPid );
+                final Set<ComponentHolder<?>> newSet = set == null ? new HashSet<ComponentHolder<?>>() : new HashSet<>( set );
+                newSet.add( componentHolder );
+                m_componentHoldersByPid.put( configurationPid, Collections.unmodifiableSet( newSet ) );
             }
         }
         this.updateChangeCount();
@@ -296,10 +281,7 @@ public class ComponentRegistry
      */
     public final ComponentHolder<?> getComponentHolder( final Bundle bundle, final String name )
     {
-        synchronized ( m_componentHoldersByName )
-        {
-            return m_componentHoldersByName.get( new ComponentRegistryKey( bundle, name ) );
-        }
+        return m_componentHoldersByName.get( new ComponentRegistryKey( bundle, name ) );
     }
 
     /**
@@ -312,19 +294,16 @@ public class ComponentRegistry
     {
         String pid = targetedPid.getServicePid();
         Set<ComponentHolder<?>> componentHoldersUsingPid = new HashSet<>();
-        synchronized (m_componentHoldersByPid)
+        Set<ComponentHolder<?>> set = m_componentHoldersByPid.get(pid);
+        // only return the entry if non-null and not a reservation
+        if (set != null)
         {
-            Set<ComponentHolder<?>> set = m_componentHoldersByPid.get(pid);
-            // only return the entry if non-null and not a reservation
-            if (set != null)
+            for (ComponentHolder<?> holder: set)
             {
-                for (ComponentHolder<?> holder: set)
+                Bundle bundle = holder.getActivator().getBundleContext().getBundle();
+                if (targetedPid.matchesTarget(bundle))
                 {
-                    Bundle bundle = holder.getActivator().getBundleContext().getBundle();
-                    if (targetedPid.matchesTarget(bundle))
-                    {
-                        componentHoldersUsingPid.add( holder );
-                    }
+                    componentHoldersUsingPid.add( holder );
                 }
             }
         }
@@ -332,19 +311,13 @@ public class ComponentRegistry
     }
 
     /**
-     * Returns an array of all values currently stored in the component holders
-     * map. The entries in the array are either String types for component
-     * name reservations or {@link ComponentHolder} instances for actual
-     * holders of components.
+     * Returns a list of all {@link ComponentHolder} instances currently
+     * stored in the component holders map. Component name reservations are
+     * not included.
      */
     public final List<ComponentHolder<?>> getComponentHolders()
     {
-    	List<ComponentHolder<?>> all = new ArrayList<>();
-        synchronized ( m_componentHoldersByName )
-        {
-        	all.addAll(m_componentHoldersByName.values());
-        }
-        return all;
+        return new ArrayList<>(m_componentHoldersByName.values());
     }
 
     public final List<ComponentHolder<?>> getComponentHolders(Bundle...bundles)
@@ -397,11 +370,8 @@ public class ComponentRegistry
      */
     final void unregisterComponentHolder( final ComponentRegistryKey key )
     {
-        ComponentHolder<?> component;
-        synchronized ( m_componentHoldersByName )
-        {
-            component = m_componentHoldersByName.remove( key );
-        }
+        final ComponentHolder<?> component = m_componentHoldersByName.remove( key );
+        m_componentNames.remove( key );
 
         if (component != null) {
             m_logger.log(LogService.LOG_DEBUG,
@@ -412,14 +382,19 @@ public class ComponentRegistry
                 List<String> configurationPids = component.getComponentMetadata().getConfigurationPid();
                 for ( String configurationPid: configurationPids )
                 {
-                    Set<ComponentHolder<?>> componentsForPid = m_componentHoldersByPid.get( configurationPid );
-                    if ( componentsForPid != null )
+                    final Set<ComponentHolder<?>> componentsForPid = m_componentHoldersByPid.get( configurationPid );
+                    if ( componentsForPid != null && componentsForPid.contains( component ) )
                     {
-                        componentsForPid.remove( component );
-                        if ( componentsForPid.size() == 0 )
+                        if ( componentsForPid.size() == 1 )
                         {
                             m_componentHoldersByPid.remove( configurationPid );
                         }
+                        else
+                        {
+                            final Set<ComponentHolder<?>> newSet = new HashSet<>( componentsForPid );
+                            newSet.remove( component );
+                            m_componentHoldersByPid.put( configurationPid, Collections.unmodifiableSet( newSet ) );
+                        }
                     }
                 }
             }
@@ -548,7 +523,7 @@ public class ComponentRegistry
      * @param serviceReference
      * @param actor
      */
-    public synchronized <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActorThread actor )
+    public <T> void missingServicePresent( final ServiceReference<T> serviceReference, ComponentActorThread actor )
     {
         final List<Entry<?, ?>> dependencyManagers = m_missingDependencies.remove( serviceReference );
         if ( dependencyManagers != null )
@@ -582,7 +557,7 @@ public class ComponentRegistry
         }
     }
 
-    public synchronized <S, T> void registerMissingDependency( DependencyManager<S, T> dependencyManager, ServiceReference<T> serviceReference, int trackingCount )
+    public <S, T> void registerMissingDependency( DependencyManager<S, T> dependencyManager, ServiceReference<T> serviceReference, int trackingCount )
     {
         //check that the service reference is from scr
         if ( serviceReference.getProperty( ComponentConstants.COMPONENT_NAME ) == null || serviceReference.getProperty( ComponentConstants.COMPONENT_ID ) == null )
@@ -592,13 +567,21 @@ public class ComponentRegistry
                 serviceReference, dependencyManager);
             return;
         }
-        List<Entry<?, ?>> dependencyManagers = m_missingDependencies.get( serviceReference );
-        if ( dependencyManagers == null )
+        final Entry<S, T> entry = new Entry<>( dependencyManager, trackingCount );
+        List<Entry<?, ?>> dependencyManagers;
+        while ( true )
         {
-            dependencyManagers = new ArrayList<>();
-            m_missingDependencies.put( serviceReference, dependencyManagers );
+            // replace the list atomically to not lose entries added while
+            // missingServicePresent removes the list
+            final List<Entry<?, ?>> existing = m_missingDependencies.get( serviceReference );
+            dependencyManagers = existing == null ? new ArrayList<Entry<?, ?>>() : new ArrayList<>( existing );
+            dependencyManagers.add( entry );
+            if ( existing == null ? m_missingDependencies.putIfAbsent( serviceReference, dependencyManagers ) == null
+                : m_missingDependencies.replace( serviceReference, existing, dependencyManagers ) )
+            {
+                break;
+            }
         }
-        dependencyManagers.add( new Entry<>( dependencyManager, trackingCount ) );
         m_logger.log(LogService.LOG_DEBUG,
             "Dependency managers {0} waiting for missing service {1}", null,
             dependencyManagers, serviceReference);
@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * The DescriptorCache keeps the validated component metadata of the
+ * component descriptors of a bundle in the data area of the SCR bundle.
+ * This avoids parsing and validating the XML descriptors each time a
+ * bundle is started.
+ * <p>
+ * There is one cache file per bundle. It is only used if the SCR bundle,
+ * the bundle and its attached fragments as well as the relevant SCR
+ * configuration did not change since the file has been written. Each
+ * descriptor entry is additionally keyed by its URL and last modification
+ * time.
+ */
+public class DescriptorCache
+{
+
+    private static final int MAGIC = 0x53435244;
+
+    private static final int VERSION = 1;
+
+    private static final String FILE_SUFFIX = ".cache";
+
+    private static final String METADATA_PACKAGE = ComponentMetadata.class.getPackage().getName() + ".";
+
+    // the directory holding the cache files
+    private final File m_directory;
+
+    // identifies the SCR implementation the metadata has been written by
+    private final String m_scrKey;
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    private final AtomicLong m_parseTime = new AtomicLong();
+
+
+    public DescriptorCache( final File directory, final Bundle scrBundle )
+    {
+        m_directory = directory;
+        m_scrKey = scrBundle.getVersion() + "@" + scrBundle.getLastModified();
+    }
+
+
+    /**
+     * Removes the cache files of bundles which are not installed anymore.
+     */
+    public void cleanup( final BundleContext context )
+    {
+        final File[] files = m_directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                final String name = file.getName();
+                if ( name.endsWith( FILE_SUFFIX ) )
+                {
+                    try
+                    {
+                        final long bundleId = Long.parseLong( name.substring( 0, name.length() - FILE_SUFFIX.length() ) );
+                        if ( context.getBundle( bundleId ) != null )
+                        {
+                            continue;
+                        }
+                    }
+                    catch ( NumberFormatException nfe )
+                    {
+                        // not a cache file, remove
+                    }
+                }
+                file.delete();
+            }
+        }
+    }
+
+
+    /**
+     * Reads the cached descriptors of the bundle. If there is no cache file
+     * or it does not match the current state of the bundle, an empty cache
+     * is returned.
+     *
+     * @throws IOException If the cache file cannot be read.
+     */
+    public Entries load( final Bundle bundle, final ScrConfiguration configuration ) throws IOException
+    {
+        final String key = getKey( bundle, configuration );
+        final Entries entries = new Entries( key );
+        final File file = getFile( bundle );
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        }
+        catch ( FileNotFoundException fnfe )
+        {
+            return entries;
+        }
+
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals( in.readUTF() ) )
+            {
+                return entries;
+            }
+            final int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                final String url = in.readUTF();
+                final long lastModified = in.readLong();
+                final byte[] data = new byte[in.readInt()];
+                in.readFully( data );
+                entries.m_entries.put( url, new Entry( lastModified, data ) );
+            }
+            return entries;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Writes the descriptors of the bundle if they changed since they have
+     * been loaded.
+     *
+     * @throws IOException If the cache file cannot be written.
+     */
+    public void store( final Bundle bundle, final Entries entries ) throws IOException
+    {
+        if ( !entries.m_modified )
+        {
+            return;
+        }
+
+        m_directory.mkdirs();
+        final File file = getFile( bundle );
+        final File tmpFile = new File( m_directory, file.getName() + ".tmp" );
+        final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( entries.m_key );
+            out.writeInt( entries.m_entries.size() );
+            for ( Map.Entry<String, Entry> e : entries.m_entries.entrySet() )
+            {
+                out.writeUTF( e.getKey() );
+                out.writeLong( e.getValue().m_lastModified );
+                out.writeInt( e.getValue().m_data.length );
+                out.write( e.getValue().m_data );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if ( !tmpFile.renameTo( file ) )
+        {
+            file.delete();
+            if ( !tmpFile.renameTo( file ) )
+            {
+                tmpFile.delete();
+                throw new IOException( "Cannot rename " + tmpFile + " to " + file );
+            }
+        }
+        entries.m_modified = false;
+    }
+
+
+    /**
+     * Records a descriptor which has been read from the cache.
+     */
+    public void recordHit()
+    {
+        m_hits.incrementAndGet();
+    }
+
+
+    /**
+     * Records a descriptor which has been parsed.
+     *
+     * @param parseTime The time needed to parse the descriptor in nanoseconds
+     */
+    public void recordMiss( final long parseTime )
+    {
+        m_misses.incrementAndGet();
+        m_parseTime.addAndGet( parseTime );
+    }
+
+
+    public long getHits()
+    {
+        return m_hits.get();
+    }
+
+
+    public long getMisses()
+    {
+        return m_misses.get();
+    }
+
+
+    /**
+     * Returns the total time spent parsing descriptors which were not
+     * cached in milliseconds.
+     */
+    public long getParseTime()
+    {
+        return m_parseTime.get() / 1000000L;
+    }
+
+
+    /**
+     * Returns the last modification time of the descriptor or 0 if unknown.
+     */
+    public static long getLastModified( final URL descriptorURL )
+    {
+        try
+        {
+            return descriptorURL.openConnection().getLastModified();
+        }
+        catch ( IOException ioe )
+        {
+            return 0;
+        }
+    }
+
+
+    private File getFile( final Bundle bundle )
+    {
+        return new File( m_directory, bundle.getBundleId() + FILE_SUFFIX );
+    }
+
+
+    private String getKey( final Bundle bundle, final ScrConfiguration configuration )
+    {
+        final StringBuilder sb = new StringBuilder( m_scrKey );
+        sb.append( '/' ).append( bundle.getLastModified() );
+
+        // descriptors may be provided by fragments
+        final BundleWiring wiring = bundle.adapt( BundleWiring.class );
+        if ( wiring != null )
+        {
+            final List<BundleWire> fragments = wiring.getProvidedWires( HostNamespace.HOST_NAMESPACE );
+            if ( fragments != null )
+            {
+                for ( BundleWire wire : fragments )
+                {
+                    final Bundle fragment = wire.getRequirer().getBundle();
+                    sb.append( ',' ).append( fragment.getBundleId() ).append( '@' ).append( fragment.getLastModified() );
+                }
+            }
+        }
+        sb.append( '/' ).append( configuration.isFactoryEnabled() ).append( ',' ).append( configuration.keepInstances() );
+        return sb.toString();
+    }
+
+
+    private static class Entry
+    {
+        final long m_lastModified;
+
+        final byte[] m_data;
+
+
+        Entry( final long lastModified, final byte[] data )
+        {
+            m_lastModified = lastModified;
+            m_data = data;
+        }
+    }
+
+
+    /**
+     * The cached descriptors of a single bundle.
+     */
+    public static class Entries
+    {
+        private final String m_key;
+
+        private final Map<String, Entry> m_entries = new HashMap<>();
+
+        private volatile boolean m_modified;
+
+
+        Entries( final String key )
+        {
+            m_key = key;
+        }
+
+
+        /**
+         * Returns the cached metadata of the descriptor or <code>null</code>
+         * if the descriptor is not cached or the cached metadata cannot be
+         * read.
+         */
+        public List<ComponentMetadata> get( final URL descriptorURL, final long lastModified )
+        {
+            final Entry entry = m_entries.get( descriptorURL.toString() );
+            if ( entry == null || entry.m_lastModified != lastModified )
+            {
+                return null;
+            }
+            try
+            {
+                final ObjectInputStream in = new MetadataInputStream( new ByteArrayInputStream( entry.m_data ) );
+                final int count = in.readInt();
+                final List<ComponentMetadata> result = new ArrayList<>( count );
+                for ( int i = 0; i < count; i++ )
+                {
+                    result.add( ( ComponentMetadata ) in.readObject() );
+                }
+                return result;
+            }
+            catch ( Exception e )
+            {
+                // incompatible or corrupt entry, parse again
+                m_entries.remove( descriptorURL.toString() );
+                m_modified = true;
+                return null;
+            }
+        }
+
+
+        /**
+         * Adds the validated metadata of the descriptor.
+         *
+         * @throws IOException If the metadata cannot be serialized
+         */
+        public void put( final URL descriptorURL, final long lastModified, final List<ComponentMetadata> metadata )
+            throws IOException
+        {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream( bos );
+            out.writeInt( metadata.size() );
+            for ( ComponentMetadata m : metadata )
+            {
+                out.writeObject( m );
+            }
+            out.close();
+            m_entries.put( descriptorURL.toString(), new Entry( lastModified, bos.toByteArray() ) );
+            m_modified = true;
+        }
+    }
+
+
+    /**
+     * Only resolves the metadata classes and the JRE types used for
+     * property values.
+     */
+    private static class MetadataInputStream extends ObjectInputStream
+    {
+        MetadataInputStream( final InputStream in ) throws IOException
+        {
+            super( in );
+        }
+
+
+        @Override
+        protected Class<?> resolveClass( final ObjectStreamClass desc ) throws IOException, ClassNotFoundException
+        {
+            String name = desc.getName();
+            while ( name.startsWith( "[" ) )
+            {
+                name = name.substring( 1 );
+            }
+            if ( name.startsWith( "L" ) && name.endsWith( ";" ) )
+            {
+                name = name.substring( 1, name.length() - 1 );
+            }
+            if ( name.length() > 1 && !name.startsWith( "java." ) && !name.startsWith( METADATA_PACKAGE ) )
+            {
+                throw new InvalidClassException( desc.getName(), "Unexpected class in descriptor cache" );
+            }
+            return super.resolveClass( desc );
+        }
+    }
+}
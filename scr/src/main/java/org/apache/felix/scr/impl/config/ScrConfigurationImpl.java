@@ -87,6 +87,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private Boolean globalExtender;
 
+    private int activationThreads;
+
     private volatile BundleContext bundleContext;
 
     private volatile ServiceRegistration<?> managedServiceRef;
@@ -171,6 +173,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         infoAsService = false;
                         lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
                         stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
+                        activationThreads = 0;
                         newGlobalExtender = false;
                     }
                     else
@@ -181,6 +184,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         infoAsService = getDefaultInfoAsService();
                         lockTimeout = getDefaultLockTimeout();
                         stopTimeout = getDefaultStopTimeout();
+                        activationThreads = getActivationThreads( bundleContext.getProperty( PROP_ACTIVATION_THREADS ) );
                         newGlobalExtender = getDefaultGlobalExtender();
                     }
                 }
@@ -199,6 +203,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 lockTimeout = timeout == null? DEFAULT_LOCK_TIMEOUT_MILLISECONDS: timeout;
                 timeout = ( Long ) config.get( PROP_STOP_TIMEOUT );
                 stopTimeout = timeout == null? DEFAULT_STOP_TIMEOUT_MILLISECONDS: timeout;
+                activationThreads = getActivationThreads( config.get( PROP_ACTIVATION_THREADS ) );
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
             }
             if ( scrCommand != null )
@@ -263,6 +268,12 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return globalExtender;
     }
 
+    @Override
+    public int activationThreads()
+    {
+        return activationThreads;
+    }
+
     private boolean getDefaultFactoryEnabled()
     {
         return VALUE_TRUE.equals( bundleContext.getProperty( PROP_FACTORY_ENABLED ) );
@@ -306,6 +317,27 @@ public class ScrConfigurationImpl implements ScrConfiguration
     }
 
 
+    private int getActivationThreads( final Object value )
+    {
+        if ( value instanceof Number )
+        {
+            return Math.max( 0, ( ( Number ) value ).intValue() );
+        }
+        if ( value != null )
+        {
+            try
+            {
+                return Math.max( 0, Integer.parseInt( value.toString().trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall back to enabling on the calling thread
+            }
+        }
+        return 0;
+    }
+
+
     private boolean getDefaultGlobalExtender()
     {
         return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_GLOBAL_EXTENDER) );
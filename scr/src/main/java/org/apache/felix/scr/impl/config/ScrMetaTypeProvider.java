@@ -117,6 +117,15 @@ class ScrMetaTypeProvider implements MetaTypeProvider
                 new String[] { String.valueOf(this.configuration.stopTimeout())},
                 0, null, null) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTIVATION_THREADS,
+                "Activation threads",
+                "Number of threads enabling the components of started bundles concurrently. The default of 0 "
+                    + "enables the components on the thread starting the bundle.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.activationThreads())},
+                0, null, null) );
+
         adList.add( new AttributeDefinitionImpl(
                 ScrConfiguration.PROP_GLOBAL_EXTENDER,
                 "Global Extender",
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+
+/**
+ * Utility methods creating method handles for resolved component methods
+ * and fields. The handles are created once per method or field and avoid
+ * the access checks and argument handling of reflective calls on each
+ * invocation.
+ * <p>
+ * The methods return <code>null</code> if a handle cannot be created, in
+ * which case the caller falls back to reflection.
+ */
+public class MethodHandleUtils
+{
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType( void.class, Object.class, Object.class );
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+
+    /**
+     * Returns a handle of type <code>(Object, Object[])Object</code> invoking
+     * the method on the first argument with the elements of the array as
+     * parameters. Void methods return <code>null</code>.
+     *
+     * @param method The method, which must be accessible
+     */
+    public static MethodHandle getInvoker( final Method method )
+    {
+        try
+        {
+            final int count = method.getParameterTypes().length;
+            MethodHandle handle = LOOKUP.unreflect( method ).asFixedArity();
+            if ( Modifier.isStatic( method.getModifiers() ) )
+            {
+                handle = MethodHandles.dropArguments( handle, 0, Object.class );
+            }
+            return handle.asType( MethodType.genericMethodType( count + 1 ) ).asSpreader( Object[].class, count );
+        }
+        catch ( IllegalAccessException iae )
+        {
+            return null;
+        }
+        catch ( RuntimeException re )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns a handle of type <code>(Object, Object)void</code> setting the
+     * field of the first argument to the second argument.
+     *
+     * @param field The instance field, which must be accessible
+     */
+    public static MethodHandle getSetter( final Field field )
+    {
+        try
+        {
+            return LOOKUP.unreflectSetter( field ).asType( SETTER_TYPE );
+        }
+        catch ( IllegalAccessException iae )
+        {
+            return null;
+        }
+        catch ( RuntimeException re )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns a handle of type <code>(Object)Object</code> returning the
+     * value of the field of the argument.
+     *
+     * @param field The instance field, which must be accessible
+     */
+    public static MethodHandle getGetter( final Field field )
+    {
+        try
+        {
+            return LOOKUP.unreflectGetter( field ).asType( GETTER_TYPE );
+        }
+        catch ( IllegalAccessException iae )
+        {
+            return null;
+        }
+        catch ( RuntimeException re )
+        {
+            return null;
+        }
+    }
+}
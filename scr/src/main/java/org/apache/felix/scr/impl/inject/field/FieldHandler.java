@@ -19,6 +19,7 @@
 package org.apache.felix.scr.impl.inject.field;
 
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -31,6 +32,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import org.apache.felix.scr.impl.inject.BindParameters;
 import org.apache.felix.scr.impl.inject.ClassUtils;
 import org.apache.felix.scr.impl.inject.InitReferenceMethod;
+import org.apache.felix.scr.impl.inject.MethodHandleUtils;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.ReferenceMethod;
 import org.apache.felix.scr.impl.inject.ValueUtils;
@@ -57,6 +59,10 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** Handles setting and getting the field, null if reflection has to be used. */
+    private volatile MethodHandle setter;
+    private volatile MethodHandle getter;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -296,6 +302,19 @@ public class FieldHandler
     private void setFieldValue(final Object componentInstance, final Object value)
     throws InvocationTargetException
     {
+        final MethodHandle handle = setter;
+        if ( handle != null )
+        {
+            try
+            {
+                handle.invokeExact(componentInstance, value);
+                return;
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
         try
         {
             field.set(componentInstance, value);
@@ -313,6 +332,18 @@ public class FieldHandler
     private Object getFieldValue(final Object componentInstance)
     throws InvocationTargetException
     {
+        final MethodHandle handle = getter;
+        if ( handle != null )
+        {
+            try
+            {
+                return (Object) handle.invokeExact(componentInstance);
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
         try
         {
             return field.get(componentInstance);
@@ -439,6 +470,8 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            setter = null;
+            getter = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -448,6 +481,8 @@ public class FieldHandler
         else
         {
             field = result.field;
+            setter = MethodHandleUtils.getSetter(result.field);
+            getter = MethodHandleUtils.getGetter(result.field);
             if (!result.usable)
             {
                 valueType = ValueType.ignore;
@@ -19,6 +19,7 @@
 package org.apache.felix.scr.impl.inject.methods;
 
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -29,6 +30,7 @@ import java.util.Map;
 
 import org.apache.felix.scr.impl.inject.BaseParameter;
 import org.apache.felix.scr.impl.inject.ClassUtils;
+import org.apache.felix.scr.impl.inject.MethodHandleUtils;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.metadata.DSVersion;
@@ -49,6 +51,9 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    // handle invoking m_method, null if reflection has to be used
+    private volatile MethodHandle m_invoker;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -106,6 +111,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
     synchronized void setMethod(MethodInfo<T> methodInfo, ComponentLogger logger)
     {
         this.m_method = methodInfo == null ? null : methodInfo.getMethod();
+        this.m_invoker = m_method == null ? null : MethodHandleUtils.getInvoker( m_method );
 
         if (m_method != null)
         {
@@ -225,7 +231,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
                 final Object[] params = getParameters(m_method, rawParameter);
                 rawParameter.getComponentContext().getLogger().log( LogService.LOG_DEBUG, "invoking {0}: {1}: parameters {2}", null,
                         getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) );
-                Object result = m_method.invoke(componentInstance, params);
+                final Object result = invoke( componentInstance, params );
                 rawParameter.getComponentContext().getLogger().log( LogService.LOG_DEBUG, "invoked {0}: {1}", null,
                         getMethodNamePrefix(), getMethodName() );
                 return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map<String, Object>) result);
@@ -263,6 +269,31 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return MethodResult.VOID;
     }
 
+
+    /**
+     * Invokes the method through the cached method handle or, if no handle
+     * could be created, through reflection. Any throwable raised by the
+     * invoked method is wrapped in an <code>InvocationTargetException</code>.
+     */
+    private Object invoke( final Object componentInstance, final Object[] params )
+            throws IllegalAccessException, InvocationTargetException
+    {
+        final MethodHandle invoker = m_invoker;
+        if ( invoker == null )
+        {
+            return m_method.invoke( componentInstance, params );
+        }
+
+        try
+        {
+            return ( Object ) invoker.invokeExact( componentInstance, params );
+        }
+        catch ( Throwable t )
+        {
+            throw new InvocationTargetException( t );
+        }
+    }
+
     protected boolean returnValue()
     {
         // allow returning Map if declared as DS 1.2-Felix or newer
@@ -64,6 +64,8 @@ public interface ScrConfiguration
 
     String PROP_GLOBAL_EXTENDER="ds.global.extender";
 
+    String PROP_ACTIVATION_THREADS = "ds.activation.threads";
+
     /**
      * Returns the current log level.
      * @return
@@ -88,4 +90,12 @@ public interface ScrConfiguration
      */
     boolean globalExtender();
 
+    /**
+     * Returns the number of threads enabling the components of started
+     * bundles concurrently, <code>0</code> to enable them on the thread
+     * starting the bundle.
+     * @since 2.1
+     */
+    int activationThreads();
+
 }
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,8 +35,10 @@ import org.osgi.service.component.ComponentException;
 /**
  * This class holds the information associated to a component in the descriptor
  */
-public class ComponentMetadata
+public class ComponentMetadata implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     // Configuration required for component activation (since DS 1.1)
     public static final String CONFIGURATION_POLICY_REQUIRE = "require";
 
@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.felix.scr.impl.ComponentActivationScheduler;
 import org.apache.felix.scr.impl.ComponentRegistry;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.ComponentManager;
@@ -53,11 +54,33 @@ public class ServiceComponentRuntimeImpl implements ServiceComponentRuntime
 
     private final BundleContext context;
     private final ComponentRegistry componentRegistry;
+    private final ComponentActivationScheduler activationScheduler;
 
     public ServiceComponentRuntimeImpl(final BundleContext context, final ComponentRegistry componentRegistry)
+    {
+        this(context, componentRegistry, null);
+    }
+
+    public ServiceComponentRuntimeImpl(final BundleContext context,
+            final ComponentRegistry componentRegistry,
+            final ComponentActivationScheduler activationScheduler)
     {
         this.context = context;
         this.componentRegistry = componentRegistry;
+        this.activationScheduler = activationScheduler;
+    }
+
+    /**
+     * Returns the most recent component activations, oldest first. This is
+     * an extension to the {@link ServiceComponentRuntime} API.
+     */
+    public List<ComponentActivationScheduler.Activation> getActivationTimeline()
+    {
+        if ( activationScheduler == null )
+        {
+            return Collections.emptyList();
+        }
+        return activationScheduler.getTimeline();
     }
 
     /**
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.mockito.Mockito;
+
+import junit.framework.TestCase;
+
+public class ComponentActivationSchedulerTest extends TestCase
+{
+
+    private final ScrLogger logger = Mockito.mock( ScrLogger.class );
+
+
+    public void test_sequential()
+    {
+        final ComponentActivationScheduler scheduler = new ComponentActivationScheduler( 0, logger );
+        assertFalse( scheduler.isParallel() );
+
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger runs = new AtomicInteger();
+        scheduler.schedule( 1, "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                assertSame( caller, Thread.currentThread() );
+                assertTrue( ComponentActivationScheduler.isActivationThread() );
+                runs.incrementAndGet();
+            }
+        } );
+        assertEquals( 1, runs.get() );
+        assertFalse( ComponentActivationScheduler.isActivationThread() );
+
+        final List<ComponentActivationScheduler.Activation> timeline = scheduler.getTimeline();
+        assertEquals( 1, timeline.size() );
+        assertEquals( 1, timeline.get( 0 ).getBundleId() );
+        assertEquals( "a", timeline.get( 0 ).getName() );
+        assertEquals( caller.getName(), timeline.get( 0 ).getThread() );
+    }
+
+
+    public void test_parallel() throws Exception
+    {
+        final ComponentActivationScheduler scheduler = new ComponentActivationScheduler( 4, logger );
+        assertTrue( scheduler.isParallel() );
+
+        // all tasks must run concurrently to pass the barrier
+        final CountDownLatch running = new CountDownLatch( 4 );
+        final CountDownLatch done = new CountDownLatch( 4 );
+        for ( int i = 0; i < 4; i++ )
+        {
+            scheduler.schedule( 1, "c" + i, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    running.countDown();
+                    try
+                    {
+                        if ( running.await( 5, TimeUnit.SECONDS ) && ComponentActivationScheduler.isActivationThread() )
+                        {
+                            done.countDown();
+                        }
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+        }
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        scheduler.shutdown( 5000 );
+
+        final List<ComponentActivationScheduler.Activation> timeline = scheduler.getTimeline();
+        assertEquals( 4, timeline.size() );
+        for ( ComponentActivationScheduler.Activation activation : timeline )
+        {
+            assertTrue( activation.getThread().startsWith( "SCR Component Activator" ) );
+        }
+    }
+
+
+    public void test_afterShutdown()
+    {
+        final ComponentActivationScheduler scheduler = new ComponentActivationScheduler( 2, logger );
+        scheduler.shutdown( 1000 );
+
+        final AtomicInteger runs = new AtomicInteger();
+        scheduler.schedule( 1, "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runs.incrementAndGet();
+            }
+        } );
+        assertEquals( 1, runs.get() );
+    }
+
+
+    public void test_timelineSize()
+    {
+        final ComponentActivationScheduler scheduler = new ComponentActivationScheduler( 0, logger );
+        final Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+        for ( int i = 0; i < ComponentActivationScheduler.TIMELINE_SIZE + 10; i++ )
+        {
+            scheduler.schedule( 1, "c" + i, task );
+        }
+        final List<ComponentActivationScheduler.Activation> timeline = scheduler.getTimeline();
+        assertEquals( ComponentActivationScheduler.TIMELINE_SIZE, timeline.size() );
+        assertEquals( "c10", timeline.get( 0 ).getName() );
+    }
+}
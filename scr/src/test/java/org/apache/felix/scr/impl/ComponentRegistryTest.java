@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+import org.apache.felix.scr.impl.manager.ComponentActivator;
+import org.apache.felix.scr.impl.manager.ComponentHolder;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.TargetedPID;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentException;
+
+import junit.framework.TestCase;
+
+
+public class ComponentRegistryTest extends TestCase
+{
+
+    private final Bundle bundle = new MockBundle();
+
+    private ComponentRegistry registry;
+
+
+    @Override
+    protected void setUp()
+    {
+        registry = new ComponentRegistry( new MockScrLogger() );
+    }
+
+
+    public void test_reservation_not_listed()
+    {
+        final ComponentRegistryKey key = registry.checkComponentName( bundle, "a" );
+        assertTrue( registry.getComponentHolders().isEmpty() );
+        assertNull( registry.getComponentHolder( bundle, "a" ) );
+
+        try
+        {
+            registry.checkComponentName( bundle, "a" );
+            fail( "Expected ComponentException" );
+        }
+        catch ( ComponentException ce )
+        {
+            // expected
+        }
+
+        final ComponentHolder<?> holder = holder( "a", "pid" );
+        registry.registerComponentHolder( key, holder );
+        assertSame( holder, registry.getComponentHolder( bundle, "a" ) );
+        assertEquals( Collections.singletonList( holder ), registry.getComponentHolders() );
+
+        registry.unregisterComponentHolder( key );
+        assertNull( registry.getComponentHolder( bundle, "a" ) );
+
+        // the name can be reused after unregistration
+        registry.checkComponentName( bundle, "a" );
+    }
+
+
+    public void test_holders_by_pid()
+    {
+        final ComponentHolder<?> h1 = register( "a", "pid" );
+        final ComponentHolder<?> h2 = register( "b", "pid" );
+        final ComponentHolder<?> h3 = register( "c", "other" );
+
+        assertEquals( 2, registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ).size() );
+        assertTrue( registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ).contains( h1 ) );
+        assertTrue( registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ).contains( h2 ) );
+        assertTrue( registry.getComponentHoldersByPid( new TargetedPID( "other" ) ).contains( h3 ) );
+
+        registry.unregisterComponentHolder( bundle, "a" );
+        assertEquals( Collections.singleton( h2 ), registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ) );
+
+        registry.unregisterComponentHolder( bundle, "b" );
+        assertTrue( registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ).isEmpty() );
+    }
+
+
+    public void test_lookups_during_churn() throws Exception
+    {
+        final int writers = 4;
+        final int rounds = 500;
+        final ComponentHolder<?> stable = register( "stable", "pid" );
+
+        final List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        final CountDownLatch finished = new CountDownLatch( writers );
+        for ( int w = 0; w < writers; w++ )
+        {
+            final int id = w;
+            final ComponentHolder<?> holder = holder( "w" + id, "pid" );
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < rounds; i++ )
+                        {
+                            final ComponentRegistryKey key = registry.checkComponentName( bundle, "w" + id );
+                            registry.registerComponentHolder( key, holder );
+                            registry.unregisterComponentHolder( key );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failures.add( t );
+                    }
+                    finally
+                    {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        // query while the writers churn; the stable component must always be found
+        long maxLatency = 0;
+        do
+        {
+            final long start = System.nanoTime();
+            assertTrue( registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ).contains( stable ) );
+            assertTrue( registry.getComponentHolders().contains( stable ) );
+            maxLatency = Math.max( maxLatency, System.nanoTime() - start );
+        }
+        while ( !finished.await( 0, TimeUnit.MILLISECONDS ) );
+
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertTrue( "Max lookup latency " + maxLatency + "ns", maxLatency < TimeUnit.SECONDS.toNanos( 1 ) );
+        assertEquals( Collections.singleton( stable ), registry.getComponentHoldersByPid( new TargetedPID( "pid" ) ) );
+        assertEquals( 1, registry.getComponentHolders().size() );
+    }
+
+
+    private ComponentHolder<?> register( final String name, final String pid )
+    {
+        final ComponentHolder<?> holder = holder( name, pid );
+        registry.registerComponentHolder( registry.checkComponentName( bundle, name ), holder );
+        return holder;
+    }
+
+
+    private ComponentHolder<?> holder( final String name, final String pid )
+    {
+        final ComponentMetadata metadata = Mockito.mock( ComponentMetadata.class );
+        Mockito.when( metadata.getName() ).thenReturn( name );
+        Mockito.when( metadata.getConfigurationPid() ).thenReturn( Collections.singletonList( pid ) );
+
+        final BundleContext context = Mockito.mock( BundleContext.class );
+        Mockito.when( context.getBundle() ).thenReturn( bundle );
+        final ComponentActivator activator = Mockito.mock( ComponentActivator.class );
+        Mockito.when( activator.getBundleContext() ).thenReturn( context );
+
+        final ComponentHolder<?> holder = Mockito.mock( ComponentHolder.class );
+        Mockito.when( holder.getComponentMetadata() ).thenReturn( metadata );
+        Mockito.when( holder.getActivator() ).thenReturn( activator );
+        return holder;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.apache.felix.scr.impl.metadata.PropertyMetadata;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+import junit.framework.TestCase;
+
+public class DescriptorCacheTest extends TestCase
+{
+
+    private File directory;
+
+    private DescriptorCache cache;
+
+    private ScrConfiguration configuration;
+
+    private URL descriptor;
+
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = new File( System.getProperty( "java.io.tmpdir" ), "scr-descriptor-cache" );
+        delete( directory );
+        cache = new DescriptorCache( directory, createBundle( 0, 1 ) );
+        configuration = Mockito.mock( ScrConfiguration.class );
+        descriptor = new URL( "file:OSGI-INF/component.xml" );
+    }
+
+
+    @Override
+    protected void tearDown()
+    {
+        delete( directory );
+    }
+
+
+    public void test_storeAndLoad() throws Exception
+    {
+        final Bundle bundle = createBundle( 5, 100 );
+        DescriptorCache.Entries entries = cache.load( bundle, configuration );
+        assertNull( entries.get( descriptor, 10 ) );
+
+        entries.put( descriptor, 10, Collections.singletonList( createMetadata() ) );
+        cache.store( bundle, entries );
+        assertTrue( new File( directory, "5.cache" ).isFile() );
+
+        entries = new DescriptorCache( directory, createBundle( 0, 1 ) ).load( bundle, configuration );
+        final List<ComponentMetadata> metadata = entries.get( descriptor, 10 );
+        assertNotNull( metadata );
+        assertEquals( 1, metadata.size() );
+
+        final ComponentMetadata cm = metadata.get( 0 );
+        // validating again has no effect
+        cm.validate();
+        assertEquals( "place.holder", cm.getName() );
+        assertEquals( "place.holder.implementation", cm.getImplementationClassName() );
+        assertEquals( Collections.singletonList( "place.holder" ), cm.getConfigurationPid() );
+        assertEquals( Integer.valueOf( 42 ), cm.getProperties().get( "prop" ) );
+        assertEquals( ServiceMetadata.Scope.singleton, cm.getServiceScope() );
+        assertEquals( "place.holder.service", cm.getServiceMetadata().getProvides()[0] );
+        assertEquals( 1, cm.getDependencies().size() );
+        final ReferenceMetadata rm = cm.getDependencies().get( 0 );
+        assertEquals( "ref", rm.getName() );
+        assertEquals( "1..1", rm.getCardinality() );
+        assertTrue( rm.isStatic() );
+    }
+
+
+    public void test_descriptorModified() throws Exception
+    {
+        final Bundle bundle = createBundle( 5, 100 );
+        DescriptorCache.Entries entries = cache.load( bundle, configuration );
+        entries.put( descriptor, 10, Collections.singletonList( createMetadata() ) );
+        cache.store( bundle, entries );
+
+        entries = cache.load( bundle, configuration );
+        assertNull( entries.get( descriptor, 11 ) );
+        assertNull( entries.get( new URL( "file:OSGI-INF/other.xml" ), 10 ) );
+    }
+
+
+    public void test_bundleModified() throws Exception
+    {
+        DescriptorCache.Entries entries = cache.load( createBundle( 5, 100 ), configuration );
+        entries.put( descriptor, 10, Collections.singletonList( createMetadata() ) );
+        cache.store( createBundle( 5, 100 ), entries );
+
+        assertNull( cache.load( createBundle( 5, 101 ), configuration ).get( descriptor, 10 ) );
+        Mockito.when( configuration.isFactoryEnabled() ).thenReturn( true );
+        assertNull( cache.load( createBundle( 5, 100 ), configuration ).get( descriptor, 10 ) );
+    }
+
+
+    public void test_scrModified() throws Exception
+    {
+        final Bundle bundle = createBundle( 5, 100 );
+        final DescriptorCache.Entries entries = cache.load( bundle, configuration );
+        entries.put( descriptor, 10, Collections.singletonList( createMetadata() ) );
+        cache.store( bundle, entries );
+
+        assertNull( new DescriptorCache( directory, createBundle( 0, 2 ) ).load( bundle, configuration ).get(
+            descriptor, 10 ) );
+    }
+
+
+    public void test_cleanup() throws Exception
+    {
+        final Bundle installed = createBundle( 5, 100 );
+        final Bundle uninstalled = createBundle( 6, 100 );
+        for ( Bundle bundle : new Bundle[] { installed, uninstalled } )
+        {
+            final DescriptorCache.Entries entries = cache.load( bundle, configuration );
+            entries.put( descriptor, 10, Collections.singletonList( createMetadata() ) );
+            cache.store( bundle, entries );
+        }
+
+        final BundleContext context = Mockito.mock( BundleContext.class );
+        Mockito.when( context.getBundle( 5 ) ).thenReturn( installed );
+        cache.cleanup( context );
+
+        assertTrue( new File( directory, "5.cache" ).isFile() );
+        assertFalse( new File( directory, "6.cache" ).exists() );
+    }
+
+
+    public void test_statistics()
+    {
+        cache.recordHit();
+        cache.recordHit();
+        cache.recordMiss( 3000000L );
+        assertEquals( 2, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 3, cache.getParseTime() );
+    }
+
+
+    private ComponentMetadata createMetadata()
+    {
+        final ComponentMetadata cm = new ComponentMetadata( DSVersion.DS13 );
+        cm.setName( "place.holder" );
+        cm.setImplementationClassName( "place.holder.implementation" );
+
+        final PropertyMetadata pm = new PropertyMetadata();
+        pm.setName( "prop" );
+        pm.setType( "Integer" );
+        pm.setValue( "42" );
+        cm.addProperty( pm );
+
+        final ServiceMetadata sm = new ServiceMetadata();
+        sm.addProvide( "place.holder.service" );
+        cm.setService( sm );
+
+        final ReferenceMetadata rm = new ReferenceMetadata();
+        rm.setName( "ref" );
+        rm.setInterface( "place.holder.Service" );
+        rm.setBind( "bind" );
+        cm.addDependency( rm );
+
+        cm.validate();
+        return cm;
+    }
+
+
+    private Bundle createBundle( final long id, final long lastModified )
+    {
+        final Bundle bundle = Mockito.mock( Bundle.class );
+        Mockito.when( bundle.getBundleId() ).thenReturn( id );
+        Mockito.when( bundle.getLastModified() ).thenReturn( lastModified );
+        Mockito.when( bundle.getVersion() ).thenReturn( new Version( 2, 1, 0 ) );
+        return bundle;
+    }
+
+
+    private static void delete( final File file )
+    {
+        final File[] children = file.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            delete( children[i] );
+        }
+        file.delete();
+    }
+}
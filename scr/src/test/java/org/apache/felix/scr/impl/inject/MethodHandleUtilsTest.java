@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+
+public class MethodHandleUtilsTest extends TestCase
+{
+
+    public void test_invoker_void_method() throws Throwable
+    {
+        final Target target = new Target();
+        final Method m = Target.class.getDeclaredMethod( "bind", String.class, int.class );
+        m.setAccessible( true );
+
+        final MethodHandle invoker = MethodHandleUtils.getInvoker( m );
+        assertNotNull( invoker );
+        assertNull( ( Object ) invoker.invokeExact( ( Object ) target, new Object[] { "a", 2 } ) );
+        assertEquals( "a2", target.value );
+    }
+
+
+    public void test_invoker_result_method() throws Throwable
+    {
+        final Method m = Target.class.getDeclaredMethod( "activate" );
+        m.setAccessible( true );
+
+        final MethodHandle invoker = MethodHandleUtils.getInvoker( m );
+        assertNotNull( invoker );
+        assertEquals( "activated", ( Object ) invoker.invokeExact( ( Object ) new Target(), new Object[0] ) );
+    }
+
+
+    public void test_invoker_wrong_parameter() throws Throwable
+    {
+        final Method m = Target.class.getDeclaredMethod( "bind", String.class, int.class );
+        m.setAccessible( true );
+
+        final MethodHandle invoker = MethodHandleUtils.getInvoker( m );
+        try
+        {
+            final Object result = ( Object ) invoker.invokeExact( ( Object ) new Target(), new Object[] { 1, 2 } );
+            fail( "Expected ClassCastException, got " + result );
+        }
+        catch ( ClassCastException cce )
+        {
+            // expected
+        }
+    }
+
+
+    public void test_field_handles() throws Throwable
+    {
+        final Target target = new Target();
+        final Field f = Target.class.getDeclaredField( "value" );
+        f.setAccessible( true );
+
+        final MethodHandle setter = MethodHandleUtils.getSetter( f );
+        final MethodHandle getter = MethodHandleUtils.getGetter( f );
+        assertNotNull( setter );
+        assertNotNull( getter );
+
+        setter.invokeExact( ( Object ) target, ( Object ) "x" );
+        assertEquals( "x", target.value );
+        assertEquals( "x", ( Object ) getter.invokeExact( ( Object ) target ) );
+    }
+
+
+    private static class Target
+    {
+        private String value;
+
+        @SuppressWarnings("unused")
+        private void bind( final String s, final int i )
+        {
+            value = s + i;
+        }
+
+        @SuppressWarnings("unused")
+        private String activate()
+        {
+            return "activated";
+        }
+    }
+}
@@ -72,6 +72,11 @@ public class MockScrLogger extends ScrLogger
             public boolean globalExtender() {
                 return false;
             }
+
+            @Override
+            public int activationThreads() {
+                return 0;
+            }
         }, new MockBundleContext(new MockBundle()));
     }
 }
\ No newline at end of file